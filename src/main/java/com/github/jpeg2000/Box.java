@@ -19,11 +19,60 @@ public class Box {
     private static Map<Integer,Class<? extends Box>> boxClasses = new HashMap<Integer,Class<? extends Box>>();
     private final int type;
     private byte[] raw;
+    private RandomAccessIO src;         // the input to read the content from when first needed, or null
+    private int srcOffset, srcLength;
 
     public Box(int type) {
         this.type = type;
     }
 
+    /**
+     * Return true if the content of this box is only needed on demand, so
+     * that when a file is read it can be left in the input until it is first
+     * used. This is true for boxes that are not needed to decode the image
+     * and may be large, such as unknown, "xml " and "uuid" boxes.
+     */
+    protected boolean isLazy() {
+        return getClass() == Box.class;
+    }
+
+    /**
+     * Leave the content of this box in the input, to be read by
+     * {@link #load} when it is first needed
+     * @param in the input, which must not be closed while this box is in use
+     * @param offset the position of the content in the input
+     * @param length the length of the content
+     */
+    void defer(RandomAccessIO in, int offset, int length) {
+        src = in;
+        srcOffset = offset;
+        srcLength = length;
+    }
+
+    /**
+     * Read the content of this box if it was left in the input when the box
+     * was read, restoring the position of the input afterwards. Subclasses
+     * which return true from {@link #isLazy} must call this before using
+     * their content.
+     */
+    protected void load() {
+        if (src != null) {
+            RandomAccessIO in = src;
+            src = null;
+            try {
+                int pos = in.getPos();
+                try {
+                    in.seek(srcOffset);
+                    read(ContainerBox.subRandomAccessIO(in, srcLength));
+                } finally {
+                    in.seek(pos);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     /**
      * Read the content from the specified IO, which should be truncated
      * to the correct length. The current position of the specified "in"
@@ -39,6 +88,7 @@ public class Box {
      * itself is written, not the length
      */
     public void write(DataOutputStream out) throws IOException {
+        load();
         out.write(raw);
     }
 
@@ -76,6 +126,9 @@ public class Box {
     }
 
     public int getLength() {
+        if (src != null) {
+            return srcLength;
+        }
         return raw.length;
     }
 
@@ -138,6 +191,7 @@ public class Box {
     public void write(XMLStreamWriter out) throws XMLStreamException {
         out.writeStartElement(toString(getType()).trim());
         out.writeAttribute("length", Integer.toString(getLength()));
+        load();
         if (raw != null) {
             out.writeCharacters(toString(raw));
         }
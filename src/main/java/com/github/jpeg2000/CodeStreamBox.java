@@ -28,13 +28,24 @@ public class CodeStreamBox extends Box {
         this.length = data.length;
     }
 
+    /**
+     * Return the length of the codestream. If it was read from an
+     * {@link IncrementalRandomAccessIO} which is still arriving, this is the
+     * length received so far.
+     */
     @Override public int getLength() {
+        if (io != null) {
+            try {
+                return io.length();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
         return length;
     }
 
     @Override public void read(RandomAccessIO io) throws IOException {
         this.io = io;
-        this.length = io.length();
     }
 
     @Override public void write(DataOutputStream out) throws IOException {
@@ -60,6 +71,8 @@ public class CodeStreamBox extends Box {
         if (io != null) {
             io.seek(0);
             return io;
+        } else if (data != null) {
+            return new ByteBufferRandomAccessIO(data, 0, length);
         }
         throw new IllegalStateException("Not created from a RandomAccessIO");
     }
@@ -3,6 +3,8 @@ package com.github.jpeg2000;
 import java.io.*;
 import java.util.*;
 import jj2000.j2k.io.RandomAccessIO;
+import jj2000.j2k.io.ByteBufferRandomAccessIO;
+import jj2000.j2k.io.IncrementalRandomAccessIO;
 import jj2000.j2k.io.SubRandomAccessIO;
 import javax.xml.stream.*;
 
@@ -44,29 +46,76 @@ public class ContainerBox extends Box {
     }
 
     public static Box readBox(RandomAccessIO in) throws IOException {
+        return readBox(in, false);
+    }
+
+    /**
+     * Read a box from the specified IO. If "lazy" is true, and the content
+     * of the box is only needed on demand (see {@link Box#isLazy}), only its
+     * header is read: the box keeps its position in the input, which must
+     * not be closed while the box is in use, and reads its content when
+     * first needed.
+     */
+    static Box readBox(RandomAccessIO in, boolean lazy) throws IOException {
         int start = in.getPos();
-        int len = in.readInt();
+        long len = in.readInt() & 0xFFFFFFFFl;
         int type = in.readInt();
-        Box box = Box.createBox(type);
-        RandomAccessIO sub;
-        if (len == 0) {
-            sub = new SubRandomAccessIO(in, in.length() - in.getPos());
-        } else if (len == 1) {
-            throw new IOException("Long boxes not supported");
-        } else if (len < 8) {
+        int header = 8;
+        if (len == 1) {
+            // XLBox, the length is in the following 8 bytes
+            len = in.readLong();
+            header = 16;
+            if (len < 16) {
+                throw new IOException("Invalid box length "+len);
+            }
+        } else if (len != 0 && len < 8) {
             throw new IOException("Invalid box length "+len);
+        }
+        if (start + len > Integer.MAX_VALUE) {
+            throw new IOException("Box length "+len+" too large");
+        }
+        Box box = Box.createBox(type);
+//        System.out.println("Reading box at "+start+" "+toString(type)+" len="+len+" stream="+in.getPos()+"/"+in.length());
+        if (lazy && len != 0 && box.isLazy() && !isIncomplete(in)) {
+            box.defer(in, in.getPos(), (int)len - header);
         } else {
-            sub = new SubRandomAccessIO(in, len - 8);
+            box.read(subRandomAccessIO(in, len == 0 ? -1 : (int)len - header));
         }
-//        System.out.println("Reading box at "+start+" "+toString(type)+" len="+len+" stream="+sub.getPos()+"/"+sub.length());
-        box.read(sub);
 //        System.out.println("Skip to "+start +"+"+ len+" = "+(start+len)+" from "+in.getPos()+"/"+in.length());
-        if (len != 0 || start + len < in.length()) {
-            in.seek(len == 0 ? in.length() : start + len);
+        if (len != 0) {
+            in.seek(start + (int)len);
+        } else if (!isIncomplete(in)) {
+            in.seek(in.length());
         }
         return box;
     }
 
+    /**
+     * Return a view of "length" bytes of the input, or of the rest of the
+     * input if length is -1, from its current position. An input in memory,
+     * such as a mapped file, is sliced, so the view shares no position with
+     * it and no data is copied.
+     */
+    static RandomAccessIO subRandomAccessIO(RandomAccessIO in, int length) throws IOException {
+        if (in instanceof ByteBufferRandomAccessIO) {
+            if (length < 0) {
+                length = in.length() - in.getPos();
+            }
+            return ((ByteBufferRandomAccessIO)in).slice(length);
+        } else if (length < 0) {
+            return new SubRandomAccessIO(in);
+        }
+        return new SubRandomAccessIO(in, length);
+    }
+
+    /**
+     * Return true if the input is an {@link IncrementalRandomAccessIO} whose
+     * data has not all arrived yet, so its length is not known
+     */
+    static boolean isIncomplete(RandomAccessIO in) throws IOException {
+        return in instanceof IncrementalRandomAccessIO && !((IncrementalRandomAccessIO)in).isComplete();
+    }
+
     public static void writeBox(Box box, DataOutputStream out) throws IOException {
         int len = box.getLength();
         out.writeInt(len == 0 ? 0 : len + 8);
@@ -25,14 +25,23 @@ public class J2KFile {
     }
 
     /**
-     * Read a J2KFile from the specified input
+     * Read a J2KFile from the specified input. If the input is an
+     * {@link IncrementalRandomAccessIO} whose data is still arriving, reading
+     * stops after the CodeStreamBox so that the codestream can be decoded
+     * as it arrives; any boxes after it are not read.
+     * <p>
+     * Only the boxes needed to decode the image are read in full. The
+     * content of the others, such as "xml " and "uuid" boxes, is left in the
+     * input until it is first used, so the input must not be closed while
+     * they are in use. The codestream is never copied either.
+     * </p>
      */
     public J2KFile read(RandomAccessIO in) throws IOException {
         if (in.readInt() != 12 || in.readInt() != SIGMARKER>>32 || in.readInt() != (int)SIGMARKER) {
             throw new IOException("No JP2 Signature Box");
         }
-        while (in.length() - in.getPos() >= 8) {        // 8 is minimum length for box
-            add(ContainerBox.readBox(in));
+        while (ContainerBox.isIncomplete(in) ? jp2c == null : in.length() - in.getPos() >= 8) {        // 8 is minimum length for box
+            add(ContainerBox.readBox(in, true));
         }
         return this;
     }
@@ -0,0 +1,226 @@
+package com.github.jpeg2000;
+
+import java.io.*;
+import java.awt.color.*;
+
+import jj2000.j2k.codestream.HeaderInfo;
+import jj2000.j2k.codestream.reader.HeaderDecoder;
+import jj2000.j2k.io.RandomAccessIO;
+import jj2000.j2k.util.FacilityManager;
+import jj2000.j2k.util.MsgLogger;
+
+/**
+ * <p>
+ * The properties of an image, such as its size, number of components and
+ * ColorSpace, read from the JP2 header boxes and the main header of the
+ * codestream only. Unlike a {@link J2KReader} no tile-part headers are read
+ * and nothing is created to decode the image, so this is a much cheaper way
+ * to find out what an image is without decoding it.
+ * </p>
+ * <pre class="brush:java">
+ * J2KFile file = new J2KFile().read(new MappedRandomAccessIO(infile));
+ * J2KInfo info = new J2KInfo(file);
+ * System.out.println(info.getWidth() + "x" + info.getHeight());
+ * </pre>
+ *
+ * @author http://bfo.com
+ */
+public class J2KInfo implements MsgLogger {
+
+    private HeaderDecoder hd;
+    private int[] depth;
+    private final JP2Header header = new JP2Header() {
+        ColorSpace createColorSpace(int e, byte[] iccprofile) {
+            return J2KInfo.this.createColorSpace(e, iccprofile);
+        }
+    };
+
+    /**
+     * Read the properties of the image in a "jp2" file
+     * @param file the J2KFile to read from
+     */
+    public J2KInfo(J2KFile file) throws IOException {
+        for (Box box : file.getHeaderBox().getBoxes()) {
+            addBox(box);
+        }
+        init(file.getCodeStreamBox().getRandomAccessIO());
+    }
+
+    /**
+     * Read the properties of the image in a raw codestream
+     * @param box the CodeStream to read from
+     */
+    public J2KInfo(CodeStreamBox box) throws IOException {
+        init(box.getRandomAccessIO());
+    }
+
+    private void init(RandomAccessIO in) throws IOException {
+        // Messages from the decoder go to this object while the header is
+        // read, then to whatever was registered for this thread before
+        Thread thread = Thread.currentThread();
+        MsgLogger previous = FacilityManager.getMsgLogger(thread);
+        if (previous == FacilityManager.getMsgLogger(null)) {
+            previous = null;
+        }
+        FacilityManager.registerMsgLogger(thread, this);
+        try {
+            // Stops at the first SOT marker, without reading any tile-part
+            hd = new HeaderDecoder(in, new SimpleJ2KReadParam(), new HeaderInfo());
+        } finally {
+            if (previous != null) {
+                FacilityManager.registerMsgLogger(thread, previous);
+            } else {
+                FacilityManager.unregisterMsgLogger(thread);
+            }
+        }
+        depth = new int[hd.getNumComps()];
+        for (int i=0;i<depth.length;i++) {
+            depth[i] = hd.getOriginalBitDepth(i);
+        }
+    }
+
+    protected void addBox(Box box) {
+        header.addBox(box);
+    }
+
+    /**
+     * Return the width of the image, in pixels, as returned by
+     * {@link J2KReader#getWidth} when reading the whole image
+     */
+    public int getWidth() {
+        return hd.getImgWidth();
+    }
+
+    /**
+     * Return the height of the image, in pixels, as returned by
+     * {@link J2KReader#getHeight} when reading the whole image
+     */
+    public int getHeight() {
+        return hd.getImgHeight();
+    }
+
+    /**
+     * Return the number of components in the image data,
+     * which will be 1 for indexed images, otherwise the number
+     * of components in the image ColorSpace, plus one if the
+     * image has an alpha channel
+     */
+    public int getNumComponents() {
+        return depth.length;
+    }
+
+    /**
+     * Return the original bit depth for the specified component from the source image.
+     */
+    public int getOriginalBitsPerComponent(int comp) {
+        return depth[comp];
+    }
+
+    /**
+     * Return true if the specified component was signed in the source image.
+     */
+    public boolean isOriginalSigned(int comp) {
+        return hd.isOriginalSigned(comp);
+    }
+
+    /**
+     * Return the horizontal subsampling factor of the specified component
+     */
+    public int getCompSubsX(int comp) {
+        return hd.getCompSubsX(comp);
+    }
+
+    /**
+     * Return the vertical subsampling factor of the specified component
+     */
+    public int getCompSubsY(int comp) {
+        return hd.getCompSubsY(comp);
+    }
+
+    /**
+     * Return the nominal width of the tiles, in pixels
+     */
+    public int getTileWidth() {
+        return hd.getNomTileWidth();
+    }
+
+    /**
+     * Return the nominal height of the tiles, in pixels
+     */
+    public int getTileHeight() {
+        return hd.getNomTileHeight();
+    }
+
+    /**
+     * Return the number of tiles in the image
+     */
+    public int getNumTiles() {
+        return hd.getNumTiles();
+    }
+
+    /**
+     * Return the number of resolution levels available in every tile and
+     * component. The lowest resolution is 2^(n-1) times smaller than the
+     * image, and can be read by passing a target size that small to
+     * {@link J2KReader#setTargetSize}.
+     */
+    public int getNumResolutionLevels() {
+        return hd.getDecoderSpecs().dls.getMin() + 1;
+    }
+
+    /**
+     * Return the ColorSpace for the image, which may be null if this
+     * implementation has no support for the encoded space (eg. Lab or CMYK)
+     */
+    public ColorSpace getColorSpace() {
+        return header.cs;
+    }
+
+    /**
+     * Return true if the image is indexed with a palette
+     */
+    public boolean isIndexed() {
+        return header.palette != null;
+    }
+
+    /**
+     * Return the number of entries in the index
+     */
+    public int getIndexSize() {
+        return header.palette != null ? header.palette.length : -1;
+    }
+
+    /**
+     * Return the specified component from the image palette
+     * @param color the color, from 0..getIndexSize()
+     * @param component the component, from 0..getColorSpace().getNumComponents();
+     */
+    public int getIndexComponent(int color, int component) {
+        return header.palette[color][component];
+    }
+
+    public String toString() {
+        return "{J2KInfo: w="+getWidth()+" h="+getHeight()+" numc="+getNumComponents()+(isIndexed()?" ix"+getIndexSize():"")+" tiles="+getNumTiles()+" res="+getNumResolutionLevels()+"}";
+    }
+
+    /**
+     * Convert the enumerated colorspace or ICC profile data to a {@link ColorSpace},
+     * as {@link J2KReader#createColorSpace} does.
+     * @param e the enumerated colorspace value, eg 16 for sRGB, or 0 if an ICC profile is specified.
+     * @param iccprofile the raw data of the ICC profile of specified, or null if an enumerated colorspace is used.
+     * @return the ColorSpace, or null if it is unsupported.
+     */
+    protected ColorSpace createColorSpace(int e, byte[] iccprofile) {
+        return JP2Header.getColorSpace(e, iccprofile);
+    }
+
+    public void flush() {
+    }
+
+    public void printmsg(int sev, String msg) {
+    }
+
+    public void println(String str, int flind, int ind) {
+    }
+
+}
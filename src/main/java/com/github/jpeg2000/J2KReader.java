@@ -1,16 +1,23 @@
 package com.github.jpeg2000;
 
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 import java.awt.*;
 import java.awt.color.*;
+import java.awt.image.*;
 
 import jj2000.j2k.decoder.DecoderSpecs;
 import jj2000.j2k.quantization.dequantizer.Dequantizer;
 import jj2000.j2k.image.invcomptransf.InvCompTransf;
 import jj2000.j2k.codestream.reader.BitstreamReaderAgent;
+import jj2000.j2k.codestream.reader.FileBitstreamReaderAgent;
 import jj2000.j2k.codestream.reader.HeaderDecoder;
+import jj2000.j2k.wavelet.WaveletTransform;
 import jj2000.j2k.wavelet.synthesis.InverseWT;
+import jj2000.j2k.wavelet.synthesis.InvWTFull;
 import jj2000.j2k.entropy.decoder.EntropyDecoder;
+import jj2000.j2k.entropy.decoder.StdEntropyDecoder;
 import jj2000.j2k.codestream.HeaderInfo;
 import jj2000.j2k.image.BlkImgDataSrc;
 import jj2000.j2k.image.DataBlkInt;
@@ -18,7 +25,11 @@ import jj2000.j2k.image.ImgDataConverter;
 import jj2000.j2k.util.ISRandomAccessIO;
 import jj2000.j2k.util.FacilityManager;
 import jj2000.j2k.util.MsgLogger;
+import jj2000.j2k.util.ParallelRange;
 import jj2000.j2k.roi.ROIDeScaler;
+import jj2000.j2k.io.ConcurrentRandomAccessIO;
+import jj2000.j2k.io.ByteBufferRandomAccessIO;
+import jj2000.j2k.io.IncrementalRandomAccessIO;
 import jj2000.j2k.io.RandomAccessIO;
 import jj2000.j2k.io.EndianType;
 
@@ -29,39 +40,87 @@ import jj2000.j2k.io.EndianType;
  * images are converted to RGB and component subsampling is removed, but otherwise the image data
  * is unchanged.
  * </p>
+ * <p>
+ * By default tiles are decoded one after the other on the thread reading from this stream.
+ * If {@link #setThreads} is called, the tiles of each row (and of the following rows, to keep
+ * all threads busy) are decoded in parallel by independent decoding pipelines, which read from
+ * the same codestream, and the code-blocks and the inverse wavelet transform of each tile are
+ * split across the same threads. The data is still returned in raster order, and is identical.
+ * </p>
+ * <p>
+ * An image that is a single tile wide can also be decoded in horizontal stripes by calling
+ * {@link #setStripeHeight}, so that memory use depends on the width of the image rather than
+ * its area.
+ * </p>
+ * <p>
+ * Alternatively the whole image can be decoded at once with {@link #readRaster} or
+ * {@link #readBufferedImage}, which keep the original bit depth of the samples and
+ * decode directly into the image, without going through the 8-bit row buffer.
+ * </p>
  * 
  * @author http://bfo.com
  */
 public class J2KReader extends InputStream implements MsgLogger {
 
     private RandomAccessIO in;
+    private int inStart;
+    private J2KReadParam param;
     private Thread registerThread;
-    private BlkImgDataSrc src;          // image data source
-    private DecoderSpecs decSpec;
-    private InverseWT invWT;
+    private Pipeline main;              // decoding pipeline used by the reading thread
     private BitstreamReaderAgent breader;
-    private int fulliw, fullih, numtx, numty, iw, ih, scanline, numc, fullscale, scale, ntw, nth;
+    private int fulliw, fullih, numtx, numty, iw, ih, scanline, numc, fullscale, scale;
+    private int targetw, targeth;
+    private Rectangle region;           // the source region, null for the whole image
+    private Rectangle area;             // the source region on the canvas, null for the whole image
+    private int tx0, ty0;               // the first tile in the region
+    private int cx0, cy0;               // the origin of the region on the canvas at the current scale
+    private int stripeHeight;           // the height of the stripes to decode, 0 to decode whole tiles
+    private int stripeAlign;            // the vertical subsampling all stripes must be aligned to
     private int[] depth;
-    private int[] channels;
+    private JP2Header header = newHeader();
+
+    // parallel decoding
+    private int threads = 1;
+    private ExecutorService executor;
+    private ParallelRange parallel;     // splits the wavelet transform of each tile across the executor
+    private BlockingQueue<Pipeline> idlePipelines;
+    private LinkedList<Row> pendingRows;
+    private int nextRowToSubmit;
 
     // variable
-    private DataBlkInt db;
     private int pos, ty, length;
+    private int band;                   // the first row of the next stripe in the current row of tiles
     private byte[] buf;
     private boolean baseline = true;
     private boolean seenapprox;
-    private int[][] palette;
-    private ColorSpace cs;
+
+    // buffers and threads of the previous image, reused by reset
+    private byte[] spareBuf;
+    private final LinkedList<Pipeline> sparePipelines = new LinkedList<Pipeline>();
+    private ExecutorService spareExecutor;
+    private int spareThreads;
 
     /**
      * Create a new J2KReader from a "jp2" file
      * @param file the J2KFile to read from
      */
     public J2KReader(J2KFile file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Create a new J2KReader from a "jp2" file, with the specified
+     * decoding parameters. These can be used to decode only some of the
+     * quality layers, or only up to a decoding rate, which is faster than
+     * decoding the whole image when a lower quality is acceptable.
+     * @param file the J2KFile to read from
+     * @param param the parameters to decode with, or null for the defaults
+     */
+    public J2KReader(J2KFile file, J2KReadParam param) throws IOException {
         for (Box box : file.getHeaderBox().getBoxes()) {
             addBox(box);
         }
-        init(file.getCodeStreamBox().getRandomAccessIO());
+        init(file.getCodeStreamBox().getRandomAccessIO(), param);
     }
 
     /**
@@ -69,117 +128,278 @@ public class J2KReader extends InputStream implements MsgLogger {
      * @param file the CodeStream to read from
      */
     public J2KReader(CodeStreamBox box) throws IOException {
-        init(box.getRandomAccessIO());
+        this(box, null);
     }
 
-    private void init(RandomAccessIO in) throws IOException {
-        this.in = in;
-        registerThread = Thread.currentThread();
-        FacilityManager.registerMsgLogger(registerThread, this);
+    /**
+     * Create a new J2KReader from a raw codestream, with the specified
+     * decoding parameters.
+     * @param box the CodeStream to read from
+     * @param param the parameters to decode with, or null for the defaults
+     * @see #J2KReader(J2KFile,J2KReadParam)
+     */
+    public J2KReader(CodeStreamBox box, J2KReadParam param) throws IOException {
+        init(box.getRandomAccessIO(), param);
+    }
 
-        HeaderInfo hi = new HeaderInfo();
-        J2KReadParam param = new SimpleJ2KReadParam();
-        HeaderDecoder hd = new HeaderDecoder(in, param, hi);
-        depth = new int[hd.getNumComps()];
-        for (int i=0;i<depth.length;i++) {
-            depth[i] = hd.getOriginalBitDepth(i);
-        }
-        decSpec = hd.getDecoderSpecs();
-        breader = BitstreamReaderAgent.createInstance(in, hd, param, decSpec, false, hi);
-        if (isInterrupted()) {
-            throw new InterruptedIOException();
-        }
-        EntropyDecoder entdec = hd.createEntropyDecoder(breader, param);
-        if (isInterrupted()) {
-            throw new InterruptedIOException();
-        }
-        ROIDeScaler roids = hd.createROIDeScaler(entdec, param, decSpec);
-        if (isInterrupted()) {
-            throw new InterruptedIOException();
-        }
-        Dequantizer deq = hd.createDequantizer(roids, depth, decSpec);
-        if (isInterrupted()) {
-            throw new InterruptedIOException();
+    /**
+     * Reset this reader to read another "jp2" file, as if it had just been
+     * created for that file with the same decoding parameters. The number
+     * of threads and the stripe height are kept, but the target size and
+     * source region are reset to read the whole image. Any data from the
+     * previous image which has not been read is discarded.
+     * <p>
+     * The buffers of the previous image are reused where they are large
+     * enough, so a series of images with the same size and coding parameters
+     * is decoded with little allocation: the row buffer of this stream, and
+     * for each decoding pipeline the tag trees of the packet decoder, the
+     * state, MQ decoders and code-block buffers of the entropy decoder and,
+     * unless the image is decoded in stripes, the tile and work buffers of
+     * the inverse wavelet transform. If the previous image was read to the
+     * end, its threads are kept for the next one as well. The headers depend
+     * on each codestream and are read again. This is unrelated to the
+     * {@link InputStream#reset} method, as marks are not supported.
+     * </p>
+     * @param file the J2KFile to read from
+     */
+    public void reset(J2KFile file) throws IOException {
+        clear();
+        for (Box box : file.getHeaderBox().getBoxes()) {
+            addBox(box);
         }
-        invWT = InverseWT.createInstance(deq, decSpec);
-        if (isInterrupted()) {
-            throw new InterruptedIOException();
+        init(file.getCodeStreamBox().getRandomAccessIO(), param);
+    }
+
+    /**
+     * Reset this reader to read another raw codestream
+     * @param box the CodeStream to read from
+     * @see #reset(J2KFile)
+     */
+    public void reset(CodeStreamBox box) throws IOException {
+        clear();
+        init(box.getRandomAccessIO(), param);
+    }
+
+    /**
+     * Free the current image and clear all the state read from it,
+     * keeping the row buffer to be reused
+     */
+    private void clear() throws IOException {
+        free();
+        if (buf != null) {
+            spareBuf = buf;
+            buf = null;
         }
+        region = area = null;
+        depth = null;
+        header = newHeader();
+        pos = ty = length = band = 0;
+    }
 
+    private void init(RandomAccessIO in, J2KReadParam param) throws IOException {
+        this.in = in;
+        this.param = param != null ? param : new SimpleJ2KReadParam();
+        inStart = in.getPos();
+        registerThread = Thread.currentThread();
+        FacilityManager.registerMsgLogger(registerThread, this);
+
+        main = new Pipeline(in);
+        breader = main.breader;
         fullscale = breader.getImgRes();
         fulliw = breader.getImgWidth(fullscale);
         fullih = breader.getImgHeight(fullscale);
+        scale = -1;
         setTargetSize(fulliw, fullih);
     }
 
     /**
      * Set the target size for the output image. The default size is
-     * the full size of the image, but it's possible to access lower
-     * resolution versions of the image by calling this method with
-     * the desired size. While the file image size may not match
-     * exactly, it will be as close as usefully possible.
+     * the full size of the image (or of the source region, if set),
+     * but it's possible to access lower resolution versions of the
+     * image by calling this method with the desired size. While the
+     * file image size may not match exactly, it will be as close as
+     * usefully possible.
      * @param targetwidth the desired target width of the image
      * @param targetheight the desired target height of the image
      */
     public void setTargetSize(int targetwidth, int targetheight) {
+        targetw = targetwidth;
+        targeth = targetheight;
         // Find the best scale so that final width/height are >= 1 and < 2
         // times the desired width.
+        Rectangle r = getCanvasRegion();
         int newscale = fullscale;
         for (int i=fullscale;i>=1;i--) {
-            if (targetwidth > breader.getImgWidth(i) || targetheight > breader.getImgHeight(i)) {
+            int f = 1 << (fullscale - i);
+            if (targetwidth > ceil(r.x + r.width, f) - ceil(r.x, f) || targetheight > ceil(r.y + r.height, f) - ceil(r.y, f)) {
                 break;
             }
             newscale = i;
         }
         if (newscale != scale) {
             scale = newscale;
-            invWT.setImgResLevel(scale);
-            ImgDataConverter converter = new ImgDataConverter(invWT, 0);
-            src = new InvCompTransf(converter, decSpec, depth);
-            iw = src.getImgWidth();
-            ih = src.getImgHeight();
-            numtx = src.getNumTiles(null).x;
-            numty = src.getNumTiles(null).y;
-            numc = src.getNumComps();
-            scanline = iw * numc;
+            configure();
         }
     }
 
-    protected void addBox(Box box) {
-        if (box instanceof ImageHeaderBox) {
-            ImageHeaderBox b = (ImageHeaderBox) box;
-            channels = new int[b.getNumComponents()];
-            for (int i=0;i<channels.length;i++) {
-                channels[i] = i;
-            }
-        } else if (box instanceof PaletteBox) {
-            PaletteBox b = (PaletteBox) box;
-            int indexsize = b.getNumEntries();
-            int numc = b.getNumComp();
-            palette = new int[indexsize][numc];
-            for (int i=0;i<indexsize;i++) {
-                for (int c=0;c<numc;c++) {
-                    palette[i][c] = b.getComponentValue(i, c);
-                }
-            }
-        } else if (box instanceof ColorSpecificationBox) {
-            ColorSpecificationBox b = (ColorSpecificationBox) box;
-            int method = b.getMethod();
-            if (method == 1) {
-                cs = createColorSpace(b.getEnumeratedColorSpace(), null);
-            } else if (method == 2 || method == 3) {
-                cs = createColorSpace(0, b.getICCProfileData());
+    /**
+     * Set the region of the image to read. The default is to read the
+     * whole image, but if a region is set only the tiles, and within
+     * each tile only the code-blocks, needed to reconstruct this region
+     * are decoded, which makes reading a small part of a large image much
+     * faster. The region is specified in pixels at full resolution, and
+     * the target size set by {@link #setTargetSize} applies to the region:
+     * for example, to read a 256x256 view of a 4096x4096 area, set the
+     * region to the area and the target size to 256x256. This method must
+     * be called before any data is read.
+     * @param region the region of the image to read, or null to read the whole image
+     * @throws IllegalArgumentException if the region does not intersect the image
+     */
+    public void setSourceRegion(Rectangle region) {
+        if (executor != null || buf != null) {
+            throw new IllegalStateException("Already reading");
+        }
+        if (region != null) {
+            Rectangle r = region.intersection(new Rectangle(0, 0, fulliw, fullih));
+            if (r.isEmpty()) {
+                throw new IllegalArgumentException("Region " + region + " outside image");
             }
-        } else if (box instanceof ChannelDefinitionBox) {
-            ChannelDefinitionBox b = (ChannelDefinitionBox)box;
-            short[] c = b.getChannel();
-            short[] a = b.getAssociation();
-            for (int i=0;i<c.length;i++) {
-                channels[c[i]] = a[i] - 1;
+            region = r;
+        }
+        this.region = region;
+        this.area = region == null ? null : getCanvasRegion();
+        scale = -1;
+        setTargetSize(targetw, targeth);
+    }
+
+    /**
+     * Return the region to read, on the canvas at full resolution
+     */
+    private Rectangle getCanvasRegion() {
+        int ax = breader.getImgULX(fullscale);
+        int ay = breader.getImgULY(fullscale);
+        if (region == null) {
+            return new Rectangle(ax, ay, fulliw, fullih);
+        }
+        return new Rectangle(ax + region.x, ay + region.y, region.width, region.height);
+    }
+
+    /**
+     * Set the geometry of the output image from the current scale and region
+     */
+    private void configure() {
+        main.configure(scale, area);
+        Rectangle r = getCanvasRegion();
+        int f = 1 << (fullscale - scale);
+        cx0 = ceil(r.x, f);
+        cy0 = ceil(r.y, f);
+        iw = ceil(r.x + r.width, f) - cx0;
+        ih = ceil(r.y + r.height, f) - cy0;
+        int px = breader.getTilePartULX();
+        int py = breader.getTilePartULY();
+        int ntW = breader.getNomTileWidth();
+        int ntH = breader.getNomTileHeight();
+        tx0 = (r.x - px) / ntW;
+        ty0 = (r.y - py) / ntH;
+        numtx = (r.x + r.width - 1 - px) / ntW - tx0 + 1;
+        numty = (r.y + r.height - 1 - py) / ntH - ty0 + 1;
+        numc = main.src.getNumComps();
+        scanline = iw * numc;
+        stripeAlign = 1;
+        for (int i=0;i<numc;i++) {
+            int csy = main.src.getCompSubsY(i);
+            int a = stripeAlign, b = csy;
+            while (b != 0) {
+                int t = a % b;
+                a = b;
+                b = t;
             }
+            stripeAlign = stripeAlign / a * csy;
         }
     }
 
+    /**
+     * Return the part of the specified tile that is in the output image, in
+     * the coordinates of the output image
+     * @param tx the horizontal index of the tile
+     * @param ty the vertical index of the tile
+     */
+    private Rectangle getTileArea(int tx, int ty) {
+        Rectangle r = getCanvasRegion();
+        int px = breader.getTilePartULX();
+        int py = breader.getTilePartULY();
+        int ntW = breader.getNomTileWidth();
+        int ntH = breader.getNomTileHeight();
+        int f = 1 << (fullscale - scale);
+        int x0 = ceil(Math.max(px + tx * ntW, r.x), f) - cx0;
+        int y0 = ceil(Math.max(py + ty * ntH, r.y), f) - cy0;
+        int x1 = ceil(Math.min(px + (tx + 1) * ntW, r.x + r.width), f) - cx0;
+        int y1 = ceil(Math.min(py + (ty + 1) * ntH, r.y + r.height), f) - cy0;
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    private static int ceil(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    /**
+     * Set the number of threads used to decode the image. The default is 1,
+     * which decodes each tile on the thread reading from this stream. Higher
+     * values decode tiles in parallel, decode the code-blocks of each
+     * subband in parallel, and split the inverse wavelet transform of each
+     * tile into bands of rows and columns which are run in parallel, so
+     * images made of a single large tile benefit too. All of these run on
+     * the same pool of that many threads.
+     * Stripes set by {@link #setStripeHeight} are decoded on the thread
+     * reading from this stream. This method, like {@link #setTargetSize},
+     * must be called before any data is read.
+     * @param threads the number of threads to decode with
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Bad threads " + threads);
+        }
+        if (executor != null || buf != null) {
+            throw new IllegalStateException("Already reading");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Set the height of the stripes used to decode an image that is a single
+     * tile wide. By default a whole row of tiles is decoded at once, which
+     * for an image made of a single large tile means the entire image is
+     * decoded in memory. If this is set to a positive value such images are
+     * decoded this many rows at a time, using a line-based inverse wavelet
+     * transform which only keeps the rows it still needs, so memory use
+     * depends on the width of the image rather than its area. Images more
+     * than one tile wide are decoded a row of tiles at a time as before. This
+     * method must be called before any data is read.
+     * @param height the number of rows to decode at a time, or 0 to decode whole tiles
+     */
+    public void setStripeHeight(int height) {
+        if (height < 0) {
+            throw new IllegalArgumentException("Bad stripe height " + height);
+        }
+        if (executor != null || buf != null) {
+            throw new IllegalStateException("Already reading");
+        }
+        stripeHeight = height;
+        configure();
+    }
+
+    protected void addBox(Box box) {
+        header.addBox(box);
+    }
+
+    private JP2Header newHeader() {
+        return new JP2Header() {
+            ColorSpace createColorSpace(int e, byte[] iccprofile) {
+                return J2KReader.this.createColorSpace(e, iccprofile);
+            }
+        };
+    }
+
     public void flush() {
     }
 
@@ -200,101 +420,554 @@ public class J2KReader extends InputStream implements MsgLogger {
         if (ty == numty) {
             return false;
         }
-        if (!skip) {
+        if (stripeHeight > 0 && numtx == 1) {
+            // Decode the next stripe of the tile, ending on a row where all
+            // components have a sample so they can be interpolated
+            Rectangle ta = getTileArea(tx0, ty0 + ty);
+            int end = getStripeEnd(ta, band);
+            length = scanline * (end - band);
+            if (!skip) {
+                allocateRow(length);
+                awaitRow(ty);
+                decodeTile(main, 0, ty, band, end - band, buf);
+            }
+            band = end;
+            if (band < ta.height) {
+                pos = 0;
+                return true;
+            }
+            band = 0;
+        } else if (threads > 1) {
+            nextRowParallel(skip);
+        } else if (!skip) {
+            Rectangle ta = getTileArea(tx0, ty0 + ty);
+            length = scanline * ta.height;
+            allocateRow(length);
+            awaitRow(ty);
             for (int tx=0;tx<numtx;tx++) {
-                src.setTile(tx, ty);
-                final int tileix = src.getTileIdx();
-                // Determine tile width/height - this is not as simple as
-                // calling src.getTileWidth when using less than full res.
-                int tw = 0;
-                int th = 0;
-                for (int iz=0;iz<numc;iz++) {
-                    tw = Math.max(tw, src.getTileCompWidth(tileix, iz));
-                    th = Math.max(th, src.getTileCompHeight(tileix, iz));
+                decodeTile(main, tx, ty, 0, ta.height, buf);
+            }
+        }
+        ty++;
+        if (ty == numty) {
+            free();
+        }
+        pos = 0;
+        return true;
+    }
+
+    /**
+     * Return the end of the stripe starting at the specified row of a tile,
+     * which is on a row where all components have a sample so they can be
+     * interpolated
+     * @param ta the part of the tile in the output image
+     * @param band the first row of the stripe, relative to the top of the tile
+     */
+    private int getStripeEnd(Rectangle ta, int band) {
+        int end = band + Math.max(stripeHeight, stripeAlign);
+        end -= (cy0 + ta.y + end) % stripeAlign;
+        return Math.min(end, ta.height);
+    }
+
+    /**
+     * Make sure the row buffer can hold the specified number of bytes,
+     * reusing the buffer of the previous image if there is one
+     * @param length the number of bytes in the row
+     */
+    private void allocateRow(int length) {
+        if (buf == null) {
+            buf = spareBuf;
+            spareBuf = null;
+        }
+        if (buf == null || buf.length < length) {
+            buf = new byte[length];
+        }
+    }
+
+    /**
+     * Return true if all the data for a row of tiles has arrived, which is
+     * always the case unless the codestream is an IncrementalRandomAccessIO
+     * whose data is still arriving.
+     * @param ty the vertical index of the row, relative to the first tile in the region
+     */
+    private boolean isRowAvailable(int ty) throws IOException {
+        if (in instanceof IncrementalRandomAccessIO) {
+            int ntx = breader.getNumTiles(null).x;
+            for (int tx=0;tx<numtx;tx++) {
+                if (!breader.isTileAvailable((ty0 + ty) * ntx + tx0 + tx)) {
+                    return false;
                 }
-                if (db == null) {
-                    // First pass
-                    buf = new byte[scanline * th];
-                    db = new DataBlkInt(0, 0, tw, th);
-                    ntw = tw;
-                    nth = th;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait until all the data for a row of tiles has arrived, so that it
+     * can be decoded without blocking part way through a tile.
+     * @param ty the vertical index of the row, relative to the first tile in the region
+     */
+    private void awaitRow(int ty) throws IOException {
+        while (!isRowAvailable(ty)) {
+            if (isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+            IncrementalRandomAccessIO iin = (IncrementalRandomAccessIO)in;
+            iin.waitForLength(iin.getAvailableLength() + 1);
+        }
+    }
+
+    /**
+     * Decode a tile, or a stripe of a tile, with the specified Pipeline into the row buffer
+     * @param p the Pipeline to decode with
+     * @param tx the horizontal index of the tile, relative to the first tile in the region
+     * @param ty the vertical index of the tile, relative to the first tile in the region
+     * @param y0 the first row to decode, relative to the top of the tile in the output image
+     * @param h the number of rows to decode
+     * @param buf the buffer containing the row of tiles, or the stripe
+     */
+    private void decodeTile(Pipeline p, int tx, int ty, int y0, int h, byte[] buf) throws IOException {
+        decodeTile(p, tx, ty, y0, h, buf, 0, true);
+    }
+
+    /**
+     * Decode a tile, or a stripe of a tile, with the specified Pipeline into an array
+     * of samples interleaved in the same way as the row buffer
+     * @param p the Pipeline to decode with
+     * @param tx the horizontal index of the tile, relative to the first tile in the region
+     * @param ty the vertical index of the tile, relative to the first tile in the region
+     * @param y0 the first row to decode, relative to the top of the tile in the output image
+     * @param h the number of rows to decode
+     * @param out the byte[], short[] or int[] array to decode into
+     * @param outy the row of the array to decode the top of the row of tiles, or of the stripe, into
+     * @param eightbit if true the samples are scaled to 8 bits, otherwise they keep their original bit depth
+     */
+    private void decodeTile(Pipeline p, int tx, int ty, int y0, int h, Object out, int outy, boolean eightbit) throws IOException {
+        BlkImgDataSrc src = p.src;
+        int tile = (ty0 + ty) * breader.getNumTiles(null).x + tx0 + tx;
+        if (y0 == 0 || p.tile != tile) {
+            src.setTile(tx0 + tx, ty0 + ty);
+            p.tile = tile;
+        }
+        // The part of the tile to decode, in the output image
+        final Rectangle ta = getTileArea(tx0 + tx, ty0 + ty);
+        // The last component row that can be read, to interpolate the last rows of a stripe
+        final int maxcy = cy0 + ta.y + ta.height;
+        ta.y += y0;
+        ta.height = h;
+        // The tile origin on the canvas at the current scale. This is not as
+        // simple as calling src.getCompULX when using less than full res.
+        final int f = 1 << (fullscale - scale);
+        final int tulx = ceil(Math.max(breader.getTilePartULX() + (tx0 + tx) * breader.getNomTileWidth(), breader.getImgULX(fullscale)), f);
+        final int tuly = ceil(Math.max(breader.getTilePartULY() + (ty0 + ty) * breader.getNomTileHeight(), breader.getImgULY(fullscale)), f);
+        final int o = outy * scanline;  // the first sample of the row of tiles, or the stripe, in out
+        DataBlkInt db = p.db;
+        if (db == null) {
+            db = new DataBlkInt();
+        }
+        for (int iz=0;iz<numc;iz++) {
+            int riz = header.channels == null ? iz : header.channels[iz];     // output channel, could differ from input channel
+            final int depth = src.getNomRangeBits(iz);
+            final int mid = 1 << (depth - 1);
+            final int max = (1 << depth) - 1;
+            final int csx = src.getCompSubsX(iz);
+            final int csy = src.getCompSubsY(iz);
+            final int fb = src.getFixedPoint(iz);
+            // The component samples in the tile area, and their position in the row buffer
+            final int kx = ceil(cx0 + ta.x, csx);
+            final int ky = ceil(cy0 + ta.y, csy);
+            db.ulx = kx - ceil(tulx, csx);
+            db.uly = ky - ceil(tuly, csy);
+            db.w = ceil(cx0 + ta.x + ta.width, csx) - kx;
+            db.h = ceil(cy0 + ta.y + ta.height, csy) - ky;
+            final int tw = db.w;
+            final int th = db.h;
+            // If the component is subsampled also read the first row of the next stripe, if any
+            final int rows = csy == 1 ? th : Math.min(th + 1, ceil(maxcy, csy) - ky);
+            db.h = rows;
+            final int itx = kx * csx - cx0;
+            final int ity = ky * csy - cy0 - ta.y;
+            final int maxx = ta.x + ta.width;
+            final int maxy = ta.height;
+//                    System.out.println("iwh="+iw+"x"+ih+" txy="+tx+"x"+ty+" of "+numtx+","+numty+" itxy="+itx+"x"+ity+" tcwh="+tw+"x"+th+" iz="+iz+"="+riz+" ss="+csx+"x"+csy+" d="+depth+" mid="+mid+" fb="+fb+" sl="+scanline+" buf="+buf.length);
+            int[] shift = null;
+            if (eightbit && depth < 8) {
+                shift = new int[1<<depth];
+                for (int i=0;i<shift.length;i++) {
+                    shift[i] = (int)Math.round(i * 255f / ((1<<depth)-1));
                 }
-                db.w = tw;
-                db.h = th;
-                length = scanline * th;
-                final int itx = tx * ntw;
-                final int ity = 0;
-                for (int iz=0;iz<numc;iz++) {
-                    int riz = channels == null ? iz : channels[iz];     // output channel, could differ from input channel
-                    final int depth = src.getNomRangeBits(iz);
-                    final int mid = 1 << (depth - 1);
-                    final int csx = src.getCompSubsX(iz);
-                    final int csy = src.getCompSubsY(iz);
-                    final int fb = src.getFixedPoint(iz);
-//                    System.out.println("iwh="+iw+"x"+ih+" txy="+tx+"x"+ty+" of "+numtx+","+numty+" itxy="+src.getTilePartULX()+"x"+src.getTilePartULY()+" tcwh="+tw+"x"+th+" twh="+src.getTileWidth()+"x"+src.getTileHeight()+" ntwh="+src.getNomTileWidth()+"x"+src.getNomTileHeight()+" iz="+iz+"="+riz+" ss="+csx+"x"+csy+" d="+depth+" mid="+mid+" fb="+fb+" sl="+scanline+" buf="+buf.length);
-                    int[] shift = null;
-                    if (depth < 8) {
-                        shift = new int[1<<depth];
-                        for (int i=0;i<shift.length;i++) {
-                            shift[i] = (int)Math.round(i * 255f / ((1<<depth)-1));
+            }
+            do {
+                db = (DataBlkInt)src.getInternCompData(db, iz);
+            } while (db.progressive);
+            final int[] data = db.data;
+            if (eightbit) {
+                // Main loop: retrieve value, scaled to 8 bits and adjust midpoint
+                final byte[] buf = (byte[])out;
+                for (int iy=0;iy<th;iy++) {
+                    if (isInterrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                    for (int ix=0;ix<tw;ix++) {
+                        int val = (data[db.offset + iy*db.scanw + ix] >> fb) + mid;
+                        if (depth == 8) {
+                            val = Math.max(0, Math.min(255, val));
+                        } else if (depth > 8) {
+                            val = Math.max(0, Math.min(255, val >> (depth-8)));
+                        } else {
+                            val = shift[val < 0 ? 0 : val >= shift.length ? shift.length-1 : val];
                         }
+                        buf[o + ((ity + (iy * csy)) * scanline) + ((itx + (ix * csx)) * numc) + riz] = (byte)val;
                     }
-                    do {
-                        db = (DataBlkInt)src.getInternCompData(db, iz);
-                    } while (db.progressive);
-                    // Main loop: retrieve value, scaled to 8 bits and adjust midpoint
-                    for (int iy=0;iy<th;iy++) {
-                        if (isInterrupted()) {
-                            throw new InterruptedIOException();
+                }
+            } else if (out instanceof byte[]) {
+                // Main loops: retrieve value at its original depth and adjust midpoint
+                final byte[] buf = (byte[])out;
+                for (int iy=0;iy<th;iy++) {
+                    if (isInterrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                    int k = db.offset + iy*db.scanw;
+                    int i = o + ((ity + (iy * csy)) * scanline) + (itx * numc) + riz;
+                    for (int ix=0;ix<tw;ix++, k++, i+=csx*numc) {
+                        int val = (data[k] >> fb) + mid;
+                        buf[i] = (byte)(val < 0 ? 0 : val > max ? max : val);
+                    }
+                }
+            } else if (out instanceof short[]) {
+                final short[] buf = (short[])out;
+                for (int iy=0;iy<th;iy++) {
+                    if (isInterrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                    int k = db.offset + iy*db.scanw;
+                    int i = o + ((ity + (iy * csy)) * scanline) + (itx * numc) + riz;
+                    for (int ix=0;ix<tw;ix++, k++, i+=csx*numc) {
+                        int val = (data[k] >> fb) + mid;
+                        buf[i] = (short)(val < 0 ? 0 : val > max ? max : val);
+                    }
+                }
+            } else {
+                final int[] buf = (int[])out;
+                for (int iy=0;iy<th;iy++) {
+                    if (isInterrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                    int k = db.offset + iy*db.scanw;
+                    int i = o + ((ity + (iy * csy)) * scanline) + (itx * numc) + riz;
+                    for (int ix=0;ix<tw;ix++, k++, i+=csx*numc) {
+                        int val = (data[k] >> fb) + mid;
+                        buf[i] = val < 0 ? 0 : val > max ? max : val;
+                    }
+                }
+            }
+            if (csx != 1 || csy != 1) {
+                // Component is subsampled; use bilinear interpolation to fill the gaps. Quick and dirty,
+                // tested with limited test data
+                int[] next = null;
+                if (rows > th) {
+                    // The first row of the next stripe
+                    next = new int[tw];
+                    for (int ix=0;ix<tw;ix++) {
+                        int val = (data[db.offset + th*db.scanw + ix] >> fb) + mid;
+                        if (!eightbit) {
+                            val = val < 0 ? 0 : val > max ? max : val;
+                        } else if (depth == 8) {
+                            val = Math.max(0, Math.min(255, val));
+                        } else if (depth > 8) {
+                            val = Math.max(0, Math.min(255, val >> (depth-8)));
+                        } else {
+                            val = shift[val < 0 ? 0 : val >= shift.length ? shift.length-1 : val];
                         }
-                        for (int ix=0;ix<tw;ix++) {
-                            int val = (db.data[db.offset + iy*tw + ix] >> fb) + mid;
-                            if (depth == 8) {
-                                val = Math.max(0, Math.min(255, val));
-                            } else if (depth > 8) {
-                                val = Math.max(0, Math.min(255, val >> (depth-8)));
-                            } else {
-                                val = shift[val < 0 ? 0 : val >= shift.length ? shift.length-1 : val];
+                        next[ix] = val;
+                    }
+                }
+                for (int iy=0;iy<th;iy++) {
+                    if (isInterrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                    for (int ix=0;ix<tw;ix++) {
+                        // Values on each of the four corners of our space
+                        int v00 = getSample(out, o + ((ity + (iy * csy)) * scanline) + ((itx + (ix * csx)) * numc) + riz);
+                        int v01 = ix + 1 == tw ? v00 : getSample(out, o + ((ity + (iy * csy)) * scanline) + ((itx + ((ix+1) * csx)) * numc) + riz);
+                        int v10 = iy + 1 == rows ? v00 : iy + 1 == th ? next[ix] : getSample(out, o + ((ity + ((iy+1) * csy)) * scanline) + ((itx + (ix * csx)) * numc) + riz);
+                        int v11 = iy + 1 == rows ? (ix + 1 == tw ? v00 : v10) : (ix + 1 == tw ? v10 : iy + 1 == th ? next[ix+1] : getSample(out, o + ((ity + ((iy+1) * csy)) * scanline) + ((itx + ((ix+1) * csx)) * numc) + riz));
+                        for (int jy=0;jy<csy;jy++) {
+                            for (int jx=0;jx<csx;jx++) {
+                                if (jx+jy != 0 && ix + jx < tw && iy + jy < rows && itx + (ix * csx) + jx < maxx && ity + (iy * csy) + jy < maxy) {
+                                    // q = interpolated(v00, v01, v10, v11)
+                                    int q0 = v00 + ((v10 - v00) * jx / (csx-1));
+                                    int q1 = v01 + ((v11 - v01) * jx / (csx-1));
+                                    int q = q0 + ((q1-q0) * jy / (csy-1));
+                                    setSample(out, o + ((ity + (iy * csy) + jy) * scanline) + ((itx + (ix * csx) + jx) * numc) + riz, q);
+                                }
                             }
-                            buf[((ity + (iy * csy)) * scanline) + ((itx + (ix * csx)) * numc) + riz] = (byte)val;
                         }
                     }
-                    if (csx != 1 || csy != 1) {
-                        // Component is subsampled; use bilinear interpolation to fill the gaps. Quick and dirty,
-                        // tested with limited test data
-                        for (int iy=0;iy<th;iy++) {
-                            if (isInterrupted()) {
-                                throw new InterruptedIOException();
-                            }
-                            for (int ix=0;ix<tw;ix++) {
-                                // Values on each of the four corners of our space
-                                int v00 = buf[((ity + (iy * csy)) * scanline) + ((itx + (ix * csx)) * numc) + riz] & 0xFF;
-                                int v01 = ix + 1 == tw ? v00 : buf[((ity + (iy * csy)) * scanline) + ((itx + ((ix+1) * csx)) * numc) + riz] & 0xFF;
-                                int v10 = iy + 1 == th ? v00 : buf[((ity + ((iy+1) * csy)) * scanline) + ((itx + (ix * csx)) * numc) + riz] & 0xFF;
-                                int v11 = iy + 1 == th ? (ix + 1 == tw ? v00 : v10) : (ix + 1 == tw ? v10 : buf[((ity + ((iy+1) * csy)) * scanline) + ((itx + ((ix+1) * csx)) * numc) + riz] & 0xFF);
-                                for (int jy=0;jy<csy;jy++) {
-                                    for (int jx=0;jx<csx;jx++) {
-                                        if (jx+jy != 0 && ix + jx < tw && iy + jy < th) {
-                                            // q = interpolated(v00, v01, v10, v11)
-                                            int q0 = v00 + ((v10 - v00) * jx / (csx-1));
-                                            int q1 = v01 + ((v11 - v01) * jx / (csx-1));
-                                            int q = q0 + ((q1-q0) * jy / (csy-1));
-                                            buf[((ity + (iy * csy) + jy) * scanline) + ((itx + (ix * csx) + jx) * numc) + riz] = (byte)q;
-                                        }
-                                    }
+                }
+            }
+        }
+        p.db = db;
+    }
+
+    /**
+     * Return a sample from a byte[], short[] or int[] array of unsigned samples
+     */
+    private static int getSample(Object out, int i) {
+        if (out instanceof byte[]) {
+            return ((byte[])out)[i] & 0xFF;
+        } else if (out instanceof short[]) {
+            return ((short[])out)[i] & 0xFFFF;
+        }
+        return ((int[])out)[i];
+    }
+
+    /**
+     * Store a sample in a byte[], short[] or int[] array of unsigned samples
+     */
+    private static void setSample(Object out, int i, int val) {
+        if (out instanceof byte[]) {
+            ((byte[])out)[i] = (byte)val;
+        } else if (out instanceof short[]) {
+            ((short[])out)[i] = (short)val;
+        } else {
+            ((int[])out)[i] = val;
+        }
+    }
+
+    /**
+     * Decode the next row in parallel mode. The tiles of the current row
+     * and of as many following rows as necessary to keep all threads
+     * busy are submitted for decoding, then the current row is waited for.
+     */
+    private void nextRowParallel(boolean skip) throws IOException {
+        if (executor == null) {
+            if (skip) {
+                return;
+            }
+            startExecutor();
+        }
+        int lookahead = Math.max(1, (threads + numtx - 1) / numtx);
+        byte[] spare = buf;     // the previous row has been read, so its buffer can be reused
+        if (spare == null) {
+            spare = spareBuf;
+            spareBuf = null;
+        }
+        if (!skip && nextRowToSubmit == ty) {
+            awaitRow(ty);
+        }
+        // Rows after the current one are only submitted once their data has arrived
+        while (nextRowToSubmit < numty && nextRowToSubmit < ty + lookahead && !skip && (nextRowToSubmit == ty || isRowAvailable(nextRowToSubmit))) {
+            pendingRows.add(new Row(nextRowToSubmit++, spare));
+            spare = null;
+        }
+        if (!pendingRows.isEmpty() && pendingRows.getFirst().ty == ty) {
+            Row row = pendingRows.removeFirst();
+            row.await();
+            if (!skip) {
+                buf = row.buf;
+                length = row.length;
+            }
+        } else if (!skip) {
+            throw new IllegalStateException("Row "+ty+" not submitted");
+        } else if (nextRowToSubmit == ty) {
+            nextRowToSubmit++;
+        }
+    }
+
+    /**
+     * Create the threads used to decode in parallel mode
+     */
+    private void startExecutor() {
+        idlePipelines = new LinkedBlockingQueue<Pipeline>();
+        pendingRows = new LinkedList<Row>();
+        nextRowToSubmit = ty;
+        if (spareExecutor != null && spareThreads == threads) {
+            // The threads of the previous image
+            executor = spareExecutor;
+        } else {
+            if (spareExecutor != null) {
+                spareExecutor.shutdown();
+            }
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "J2KReader");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            // Kept across reset, so let idle threads end if the reader is abandoned
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        spareExecutor = null;
+        parallel = new ParallelRange(executor, threads);
+    }
+
+    /**
+     * A row of tiles being decoded in parallel mode.
+     */
+    private class Row {
+        final int ty;
+        final byte[] buf;               // the row buffer, null if decoding into another array
+        final java.util.List<Future<?>> futures;
+        final int length;
+
+        Row(int ty, byte[] buf) {
+            this(ty, buf, null, 0);
+        }
+
+        /**
+         * Start decoding a row of tiles
+         * @param ty the vertical index of the row, relative to the first tile in the region
+         * @param buf a row buffer to reuse if large enough, or null
+         * @param out an array to decode into at the original bit depth instead of a row buffer, or null
+         * @param outy the row of "out" to decode the top of the row of tiles into
+         */
+        Row(final int ty, byte[] buf, Object out, final int outy) {
+            this.ty = ty;
+            length = scanline * getTileArea(tx0, ty0 + ty).height;
+            this.buf = out != null ? null : buf != null && buf.length >= length ? buf : new byte[length];
+            final Object dst = out != null ? out : this.buf;
+            futures = new ArrayList<Future<?>>(numtx);
+            for (int tx=0;tx<numtx;tx++) {
+                final int ftx = tx;
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws IOException {
+                        FacilityManager.registerMsgLogger(Thread.currentThread(), J2KReader.this);
+                        Pipeline p = idlePipelines.poll();
+                        try {
+                            if (p == null) {
+                                RandomAccessIO view;
+                                if (in instanceof ByteBufferRandomAccessIO) {
+                                    view = ((ByteBufferRandomAccessIO)in).duplicate();
+                                } else {
+                                    view = new ConcurrentRandomAccessIO(in, 8192);
                                 }
+                                view.seek(inStart);
+                                p = new Pipeline(view);
+                                p.configure(scale, area);
                             }
+                            decodeTile(p, ftx, Row.this.ty, 0, getTileArea(tx0, ty0 + Row.this.ty).height, dst, outy, dst == Row.this.buf);
+                        } finally {
+                            if (p != null) {
+                                idlePipelines.add(p);
+                            }
+                            FacilityManager.unregisterMsgLogger(Thread.currentThread());
                         }
+                        return null;
                     }
+                }));
+            }
+        }
+
+        /**
+         * Wait for all the tiles in this row to be decoded
+         */
+        void await() throws IOException {
+            try {
+                for (Future<?> f : futures) {
+                    f.get();
                 }
+            } catch (InterruptedException e) {
+                cancel();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                cancel();
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException)cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                } else if (cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw new IOException(cause.toString());
             }
         }
-        ty++;
-        if (ty == numty) {
-            free();
+
+        void cancel() {
+            for (Future<?> f : futures) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * The chain of objects that decode the codestream. Each Pipeline
+     * has its own state, so tiles can be decoded by several Pipelines
+     * at once provided each has its own view on the codestream.
+     */
+    private class Pipeline {
+        final BitstreamReaderAgent breader;
+        final DecoderSpecs decSpec;
+        final EntropyDecoder entdec;
+        final Dequantizer deq;
+        InverseWT invWT;
+        InverseWT spareWT;              // the inverse wavelet transform of a spare Pipeline, or null
+        BlkImgDataSrc src;
+        DataBlkInt db;
+        int tile = -1;                  // the index of the current tile, -1 if none set yet
+
+        Pipeline(RandomAccessIO in) throws IOException {
+            HeaderInfo hi = new HeaderInfo();
+            HeaderDecoder hd = new HeaderDecoder(in, param, hi);
+            if (depth == null) {
+                depth = new int[hd.getNumComps()];
+                for (int i=0;i<depth.length;i++) {
+                    depth[i] = hd.getOriginalBitDepth(i);
+                }
+            }
+            decSpec = hd.getDecoderSpecs();
+            breader = BitstreamReaderAgent.createInstance(in, hd, param, decSpec, false, hi);
+            if (isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+            // Pipelines created once the threads are started decode the code-blocks on them too
+            entdec = hd.createEntropyDecoder(breader, param, executor, threads);
+            if (isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+            // Take over the buffers of a Pipeline used for the previous image
+            Pipeline spare;
+            synchronized (sparePipelines) {
+                spare = sparePipelines.poll();
+            }
+            if (spare != null) {
+                if (breader instanceof FileBitstreamReaderAgent && spare.breader instanceof FileBitstreamReaderAgent) {
+                    ((FileBitstreamReaderAgent)breader).reuseBuffers((FileBitstreamReaderAgent)spare.breader);
+                }
+                if (entdec instanceof StdEntropyDecoder && spare.entdec instanceof StdEntropyDecoder) {
+                    ((StdEntropyDecoder)entdec).reuseBuffers((StdEntropyDecoder)spare.entdec);
+                }
+                spareWT = spare.invWT;
+            }
+            ROIDeScaler roids = hd.createROIDeScaler(entdec, param, decSpec);
+            if (isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+            deq = hd.createDequantizer(roids, depth, decSpec);
+            if (isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        void configure(int scale, Rectangle area) {
+            int impl = stripeHeight > 0 ? WaveletTransform.WT_IMPL_LINE : WaveletTransform.WT_IMPL_FULL;
+            if (invWT == null || invWT.getImplementationType(0) != impl) {
+                invWT = InverseWT.createInstance(deq, decSpec, impl, parallel);
+                if (invWT instanceof InvWTFull && spareWT instanceof InvWTFull) {
+                    ((InvWTFull)invWT).reuseBuffers((InvWTFull)spareWT);
+                }
+                spareWT = null;
+            }
+            tile = -1;
+            breader.setDecodingArea(scale, area);
+            invWT.setImgResLevel(scale);
+            invWT.setDecodingArea(area);
+            ImgDataConverter converter = new ImgDataConverter(invWT, 0);
+            src = new InvCompTransf(converter, decSpec, depth);
         }
-        pos = 0;
-        return true;
     }
 
     public int read() throws IOException {
@@ -345,26 +1018,201 @@ public class J2KReader extends InputStream implements MsgLogger {
         return origlen - len;
     }
 
-    public int available() {
-        return buf.length - pos;
+    /**
+     * Return the number of bytes that can be read without blocking. If the
+     * codestream is an {@link IncrementalRandomAccessIO} whose data is still
+     * arriving, this includes the rest of the next row of tiles once all of
+     * its data has arrived, so the image can be read as the data arrives
+     * without blocking.
+     */
+    public int available() throws IOException {
+        if (pos < length) {
+            return length - pos;
+        } else if (ty == numty || breader == null || !isRowAvailable(ty)) {
+            return 0;
+        }
+        return scanline * (getTileArea(tx0, ty0 + ty).height - band);
     }
 
     private void free() throws IOException {
         if (in != null) {
+            if (executor != null) {
+                if (pendingRows != null) {
+                    for (Row row : pendingRows) {
+                        row.cancel();
+                    }
+                    pendingRows = null;
+                }
+                if (ty == numty) {
+                    // Every row has been decoded, so no Pipeline or thread is in use
+                    spareExecutor = executor;
+                    spareThreads = threads;
+                    synchronized (sparePipelines) {
+                        sparePipelines.addAll(idlePipelines);
+                    }
+                } else {
+                    executor.shutdownNow();
+                }
+                executor = null;
+                parallel = null;
+                idlePipelines = null;
+            }
+            synchronized (sparePipelines) {
+                sparePipelines.add(main);
+            }
             FacilityManager.unregisterMsgLogger(registerThread);
             registerThread = null;
             in.close();
             in = null;
-            src = null;
-            decSpec = null;
-            invWT = null;
+            main = null;
             breader = null;
-            db = null;
         }
     }
 
     public void close() throws IOException {
         free();
+        synchronized (sparePipelines) {
+            sparePipelines.clear();
+        }
+        if (spareExecutor != null) {
+            spareExecutor.shutdown();
+            spareExecutor = null;
+        }
+        spareBuf = null;
+    }
+
+    /**
+     * Decode the whole image (or the source region, at the target size) into a
+     * Raster, instead of reading it from this stream. The samples keep the original
+     * bit depth of each component, so the Raster is of type DataBuffer.TYPE_BYTE if
+     * no component is deeper than 8 bits, TYPE_USHORT if none is deeper than 16 bits
+     * and TYPE_INT otherwise. YCbCr images are converted to RGB and component
+     * subsampling is removed as for the stream, and the bands are interleaved in
+     * the same order. The threads and stripe height are used as when reading the
+     * stream. This must be called before any data is read, and the stream is
+     * at its end afterwards.
+     * @return a Raster with one band for each component
+     */
+    public WritableRaster readRaster() throws IOException {
+        if (executor != null || buf != null || ty != 0 || in == null) {
+            throw new IllegalStateException("Already reading");
+        }
+        int bits = 0;
+        for (int c=0;c<numc;c++) {
+            bits = Math.max(bits, main.src.getNomRangeBits(c));
+        }
+        int type = bits <= 8 ? DataBuffer.TYPE_BYTE : bits <= 16 ? DataBuffer.TYPE_USHORT : DataBuffer.TYPE_INT;
+        int[] offsets = new int[numc];
+        for (int c=0;c<numc;c++) {
+            offsets[c] = c;
+        }
+        WritableRaster raster = Raster.createWritableRaster(new PixelInterleavedSampleModel(type, iw, ih, numc, scanline, offsets), null);
+        DataBuffer db = raster.getDataBuffer();
+        Object out = type == DataBuffer.TYPE_BYTE ? (Object)((DataBufferByte)db).getData() : type == DataBuffer.TYPE_USHORT ? (Object)((DataBufferUShort)db).getData() : (Object)((DataBufferInt)db).getData();
+        try {
+            if (stripeHeight > 0 && numtx == 1) {
+                for (;ty<numty;ty++) {
+                    rowCallback();
+                    awaitRow(ty);
+                    Rectangle ta = getTileArea(tx0, ty0 + ty);
+                    for (band=0;band<ta.height;) {
+                        int end = getStripeEnd(ta, band);
+                        decodeTile(main, 0, ty, band, end - band, out, ta.y + band, false);
+                        band = end;
+                    }
+                    band = 0;
+                }
+            } else if (threads > 1) {
+                startExecutor();
+                for (;ty<numty;ty++) {
+                    rowCallback();
+                    awaitRow(ty);
+                    pendingRows.add(new Row(ty, null, out, getTileArea(tx0, ty0 + ty).y));
+                }
+                while (!pendingRows.isEmpty()) {
+                    pendingRows.getFirst().await();
+                    pendingRows.removeFirst();
+                }
+            } else {
+                for (;ty<numty;ty++) {
+                    rowCallback();
+                    awaitRow(ty);
+                    Rectangle ta = getTileArea(tx0, ty0 + ty);
+                    for (int tx=0;tx<numtx;tx++) {
+                        decodeTile(main, tx, ty, 0, ta.height, out, ta.y, false);
+                    }
+                }
+            }
+        } finally {
+            free();
+        }
+        return raster;
+    }
+
+    /**
+     * Decode the whole image (or the source region, at the target size) into a
+     * BufferedImage, instead of reading it from this stream. The Raster is the
+     * one returned by {@link #readRaster}, so the original bit depth is kept. Indexed
+     * images have an IndexColorModel, with the palette scaled to 8 bits, and other
+     * images a ComponentColorModel in the image ColorSpace, which must be supported.
+     * If there is no ColorSpace, images with one or two components are taken to be
+     * gray and images with three components to be RGB. A final component that is
+     * not part of the ColorSpace is an alpha channel.
+     * @return the decoded image
+     * @throws IOException if the ColorSpace of the image is not supported
+     */
+    public BufferedImage readBufferedImage() throws IOException {
+        ColorSpace cs = header.cs;
+        int[][] palette = header.palette;
+        int[] paletteDepth = header.paletteDepth;
+        int[] channels = header.channels;
+        if (cs == null && palette == null) {
+            if (numc == 1 || numc == 2) {
+                cs = ColorSpace.getInstance(ColorSpace.CS_GRAY);
+            } else if (numc == 3) {
+                cs = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+            }
+        }
+        int pc = palette == null ? 0 : palette[0].length;
+        if (palette != null ? numc != 1 || pc < 1 || pc > 4 : cs == null || numc < cs.getNumComponents() || numc > cs.getNumComponents() + 1) {
+            throw new IOException("Unsupported ColorSpace " + (cs == null ? null : cs.getType()) + " for " + numc + " components" + (palette != null ? " with " + pc + " component palette" : ""));
+        }
+        int[] bits = new int[numc];
+        for (int c=0;c<numc;c++) {
+            bits[channels == null ? c : channels[c]] = main.src.getNomRangeBits(c);
+        }
+        ColorModel cm;
+        if (palette != null) {
+            // Gray, gray+alpha, RGB or RGB+alpha
+            byte[][] lut = new byte[4][palette.length];
+            for (int i=0;i<palette.length;i++) {
+                for (int c=0;c<4;c++) {
+                    int pcc = pc < 3 ? (c < 3 ? 0 : 1) : c;
+                    int val = pcc < pc ? palette[i][pcc] : 255;
+                    if (pcc < pc && paletteDepth[pcc] > 8) {
+                        val >>= paletteDepth[pcc] - 8;
+                    } else if (pcc < pc && paletteDepth[pcc] < 8) {
+                        val = Math.round(val * 255f / ((1<<paletteDepth[pcc])-1));
+                    }
+                    lut[c][i] = (byte)val;
+                }
+            }
+            int b = Math.max(1, bits[0]);
+            if (pc == 2 || pc == 4) {
+                cm = new IndexColorModel(b, palette.length, lut[0], lut[1], lut[2], lut[3]);
+            } else {
+                cm = new IndexColorModel(b, palette.length, lut[0], lut[1], lut[2]);
+            }
+        } else {
+            boolean alpha = numc > cs.getNumComponents();
+            int type = 0;
+            for (int c=0;c<numc;c++) {
+                type = Math.max(type, bits[c]);
+            }
+            type = type <= 8 ? DataBuffer.TYPE_BYTE : type <= 16 ? DataBuffer.TYPE_USHORT : DataBuffer.TYPE_INT;
+            cm = new ComponentColorModel(cs, bits, alpha, false, alpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE, type);
+        }
+        return new BufferedImage(cm, readRaster(), false, null);
     }
 
     //--------------------------------------------------------------
@@ -420,21 +1268,21 @@ public class J2KReader extends InputStream implements MsgLogger {
      * implementation has no support for the encoded space (eg. Lab or CMYK)
      */
     public ColorSpace getColorSpace() {
-        return cs;
+        return header.cs;
     }
 
     /**
      * Return true if the image is indexed with a palette
      */
     public boolean isIndexed() {
-        return palette != null;
+        return header.palette != null;
     }
 
     /**
      * Return the number of entries in the index
      */
     public int getIndexSize() {
-        return palette != null ? palette.length : -1;
+        return header.palette != null ? header.palette.length : -1;
     }
 
     /**
@@ -443,7 +1291,7 @@ public class J2KReader extends InputStream implements MsgLogger {
      * @param component the component, from 0..getColorSpace().getNumComponents();
      */
     public int getIndexComponent(int color, int component) {
-        return palette[color][component];
+        return header.palette[color][component];
     }
 
     public String toString() {
@@ -459,15 +1307,7 @@ public class J2KReader extends InputStream implements MsgLogger {
      * @return the ColorSpace, or null if it is unsupported.
      */
     protected  ColorSpace createColorSpace(int e, byte[] iccprofile) {
-        if (iccprofile != null) {
-            return new ICC_ColorSpace(ICC_Profile.getInstance(iccprofile));
-        } else {
-            switch(e) {
-                case 16: return ColorSpace.getInstance(ColorSpace.CS_sRGB);
-                case 17: return ColorSpace.getInstance(ColorSpace.CS_GRAY);
-            }
-        }
-        return null;
+        return JP2Header.getColorSpace(e, iccprofile);
     }
 
     /**
@@ -0,0 +1,328 @@
+package com.github.jpeg2000;
+
+import java.io.*;
+import java.awt.color.*;
+
+import jj2000.j2k.image.*;
+import jj2000.j2k.io.AbstractDataSource;
+
+/**
+ * <p>
+ * An OutputStream which encodes the image data written to it as a JP2 file,
+ * for images that are generated a row at a time and are too large to be
+ * held in memory. This is the counterpart of {@link J2KReader}: the image is
+ * written as rows of interleaved components, one byte per component, or two
+ * bytes (most significant first) if the components have more than 8 bits.
+ * </p>
+ * <p>
+ * Only one row of tiles is held at a time. Each row of tiles is encoded by a
+ * {@link J2KWriter}, on a thread started by the first write, once all of its
+ * rows have been written, and the rows of the next row of tiles are accepted
+ * once the encoder has finished reading the previous one, so a write may block
+ * until it has. With {@link #setThreads} the tiles still being encoded in parallel
+ * are kept too. Unless other parameters are set with {@link #setParams}, each tile
+ * is written as soon as it has been encoded, as with
+ * {@link SimpleJ2KWriteParam#setTileStreaming}.
+ * </p>
+ * <pre class="brush:java">
+ * J2KStreamingWriter out = new J2KStreamingWriter(new FileOutputStream("out.jp2"), width, height, 3, 8, 256);
+ * out.setColorSpace(ColorSpace.getInstance(ColorSpace.CS_sRGB));
+ * out.setCompressionRatio(10, false);
+ * for (int y=0;y&lt;height;y++) {
+ *     out.write(renderRow(y));
+ * }
+ * out.close();
+ * </pre>
+ *
+ * @author http://bfo.com
+ */
+public class J2KStreamingWriter extends OutputStream {
+
+    private final OutputStream out;
+    private final J2KWriter writer;
+    private final RowSource src;
+    private int threads = 1;
+    private boolean paramsSet;
+    private Thread thread;
+    private Throwable failure;
+
+    /**
+     * Create a new J2KStreamingWriter
+     * @param out the OutputStream to write the JP2 file to, which is not closed by {@link #close}
+     * @param width the image width
+     * @param height the image height
+     * @param numc the number of components in the image
+     * @param bpc the number of bits per component in the image, from 1 to 16
+     * @param tilesize the tile size (suggest 256)
+     */
+    public J2KStreamingWriter(OutputStream out, int width, int height, int numc, int bpc, int tilesize) {
+        if (width < 1 || height < 1 || numc < 1 || bpc < 1 || bpc > 16 || tilesize < 1) {
+            throw new IllegalArgumentException("Bad image " + width + "x" + height + "x" + numc + " bpc=" + bpc + " tilesize=" + tilesize);
+        }
+        this.out = out;
+        this.writer = new J2KWriter();
+        this.src = new RowSource(width, height, numc, bpc, tilesize);
+    }
+
+    /**
+     * Set the write parameters. Usually this isn't required, but
+     * it may be called for fine control of the encoding. This must
+     * be called before any data is written.
+     * @see J2KWriter#setParams
+     */
+    public void setParams(J2KWriteParam param) {
+        checkNotStarted();
+        writer.setParams(param);
+        paramsSet = true;
+    }
+
+    /**
+     * Set the compression ratio. This must be called before any data is written.
+     * @see SimpleJ2KWriteParam#setCompressionRatio
+     */
+    public void setCompressionRatio(float ratio, boolean reversible) {
+        checkNotStarted();
+        writer.setCompressionRatio(ratio, reversible);
+    }
+
+    /**
+     * Set the number of threads used to encode each row of tiles. This
+     * must be called before any data is written.
+     * @see J2KWriter#setThreads
+     */
+    public void setThreads(int threads) {
+        checkNotStarted();
+        writer.setThreads(threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Set the ColorSpace that is written out. This must be called before
+     * any data is written.
+     * @see J2KWriter#setColorSpace
+     */
+    public void setColorSpace(ColorSpace space) {
+        checkNotStarted();
+        writer.setColorSpace(space);
+    }
+
+    private void checkNotStarted() {
+        if (thread != null) {
+            throw new IllegalStateException("Already writing");
+        }
+    }
+
+    /**
+     * Start encoding the image on a new thread
+     */
+    private void start() {
+        if (!paramsSet) {
+            SimpleJ2KWriteParam param = new SimpleJ2KWriteParam(src.getNumComps(), src.getNumTiles());
+            param.setProgressionName("res");
+            param.setTileStreaming(true);
+            writer.setParams(param);
+        }
+        src.setLookahead(threads);
+        writer.setSource(src);
+        thread = new Thread("J2KStreamingWriter") {
+            public void run() {
+                try {
+                    writer.write(out);
+                } catch (Throwable e) {
+                    synchronized (src) {
+                        failure = e;
+                    }
+                } finally {
+                    src.abort();
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    public void write(byte[] buf, int off, int len) throws IOException {
+        if (thread == null) {
+            start();
+        }
+        try {
+            src.put(buf, off, len);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Wait for the image to be encoded and written. The OutputStream
+     * passed to the constructor is not closed.
+     * @throws IOException if encoding failed, or not all of the image has been written
+     */
+    public void close() throws IOException {
+        if (thread == null) {
+            start();
+        }
+        boolean complete = src.isComplete();
+        if (!complete) {
+            src.abort();
+        }
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (!complete) {
+            throw new IOException("Only " + src.getRowsWritten() + " of " + src.getImgHeight() + " rows written");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable e;
+        synchronized (src) {
+            e = failure;
+        }
+        if (e instanceof IOException) {
+            throw (IOException)e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException)e;
+        } else if (e instanceof Error) {
+            throw (Error)e;
+        } else if (e != null) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    /**
+     * An AbstractDataSource holding the rows of tiles that have been written
+     * but not yet read by all the tiles that need them. A tile is only read
+     * once its whole row of tiles has been written. The encoder reads the tiles
+     * in order, and may read at most "lookahead" tiles at once, so when tile
+     * "t" is read no tile before "t - lookahead + 1" is read again.
+     */
+    private static class RowSource extends AbstractDataSource {
+
+        private final int bytes;        // the number of bytes in each sample
+        private final byte[][] rows;    // the buffer for each row of tiles, null if not written or released
+        private int lookahead = 1;
+        private int capacity;           // the maximum number of rows of tiles held at once
+        private int released;           // the number of rows of tiles released
+        private long pos;               // the number of bytes written
+        private byte[] spare;
+        private boolean aborted;
+
+        RowSource(int w, int h, int numc, int bpc, int tilesize) {
+            initialize(w, h, numc, bpc, tilesize);
+            bytes = bpc > 8 ? 2 : 1;
+            scanline = w * numc * bytes;
+            rows = new byte[numy][];
+            setLookahead(1);
+        }
+
+        void setLookahead(int lookahead) {
+            this.lookahead = lookahead;
+            capacity = 1 + (lookahead - 1 + numx - 1) / numx;
+        }
+
+        synchronized boolean isComplete() {
+            return pos == (long)scanline * h;
+        }
+
+        synchronized int getRowsWritten() {
+            return (int)(pos / scanline);
+        }
+
+        /**
+         * Stop waiting for data, or for the encoder to read it
+         */
+        synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+
+        /**
+         * Add image data, waiting for earlier rows of tiles to be read if
+         * too many are held already
+         */
+        synchronized void put(byte[] buf, int off, int len) throws IOException, InterruptedException {
+            while (len > 0) {
+                if (pos == (long)scanline * h) {
+                    throw new IOException("Too much data for " + w + "x" + h + " image");
+                }
+                int row = (int)(pos / scanline) / nomth;
+                long start = (long)row * nomth * scanline;
+                int length = Math.min(nomth, h - row * nomth) * scanline;
+                while (row - released >= capacity && !aborted) {
+                    wait();
+                }
+                if (aborted) {
+                    // Failed, the cause is reported by the caller
+                    return;
+                }
+                if (rows[row] == null) {
+                    rows[row] = spare != null && spare.length == length ? spare : new byte[length];
+                    spare = null;
+                }
+                int i = (int)(pos - start);
+                int avail = Math.min(len, length - i);
+                System.arraycopy(buf, off, rows[row], i, avail);
+                pos += avail;
+                off += avail;
+                len -= avail;
+                if (i + avail == length) {
+                    notifyAll();
+                }
+            }
+        }
+
+        protected void loadTile(int x, int y, int w, int h) {
+            // The row of tiles may not have been written yet, so it is
+            // waited for by getInternCompData
+        }
+
+        public synchronized DataBlk getInternCompData(DataBlk blk, int c) {
+            int x = tx;
+            int y = ty;
+            int t = getTileIdx();
+            // Release the rows of tiles no longer needed
+            while (released < numy && (released + 1) * numx - 1 < t - lookahead + 1) {
+                if (rows[released] != null) {
+                    spare = rows[released];
+                    rows[released] = null;
+                }
+                released++;
+                notifyAll();
+            }
+            if (y < released) {
+                throw new IllegalStateException("Tile "+x+"x"+y+" already released");
+            }
+            long end = (long)Math.min((y + 1) * nomth, h) * scanline;
+            while (pos < end && !aborted) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(new InterruptedIOException());
+                }
+            }
+            if (pos < end) {
+                throw new IllegalStateException("Image incomplete");
+            }
+            // Another view of this source may have moved it to a different tile while waiting
+            setTile(x, y);
+            buf = rows[y];
+            offset = x * nomtw * numc * bytes;
+            return super.getInternCompData(blk, c);
+        }
+    }
+
+}
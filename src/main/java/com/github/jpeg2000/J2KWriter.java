@@ -5,6 +5,7 @@ import java.awt.*;
 import java.awt.color.*;
 import java.awt.image.*;
 import java.awt.Point;
+import java.util.concurrent.*;
 
 import jj2000.j2k.codestream.writer.*;
 import jj2000.j2k.entropy.encoder.*;
@@ -20,9 +21,13 @@ import jj2000.j2k.io.*;
 /**
  * A class to create a J2KFile. J2K compressed data may be
  * created from any source, although for convenience a
- * method is supplied to create from a BufferedImage. Compression
- * requires all the image data all the time, so compression from
- * a stream is not possible.
+ * method is supplied to create from a BufferedImage. The source
+ * must be able to supply any tile on request; to compress an image
+ * as its rows are generated use a {@link J2KStreamingWriter}. By default every tile is coded before
+ * the rate allocation is run, so the coded data of the whole image
+ * is held in memory; {@link SimpleJ2KWriteParam#setTileStreaming}
+ * instead writes each tile as soon as it is coded, which together
+ * with {@link #write} bounds the memory used to that of one tile.
  * 
  * @author http://bfo.com
  */
@@ -34,6 +39,8 @@ public class J2KWriter implements MsgLogger {
     private float ratio;
     private boolean reversible;
     private BlkImgDataSrc src;
+    private int threads = 1;
+    private Executor executor;
 
     /**
      * Create a new J2KWriter
@@ -67,6 +74,39 @@ public class J2KWriter implements MsgLogger {
         this.reversible = reversible;
     }
 
+    /**
+     * Set the number of threads used to encode the image. The default is 1,
+     * which encodes on the calling thread. Higher values encode several tiles
+     * at once, each in its own pipeline from colour transform to entropy
+     * coding, and within each tile split the forward wavelet transform into
+     * bands of rows and columns and entropy code several code-blocks at
+     * once, which helps with images made of a few large tiles. All of this
+     * runs on a pool of threads created for each image, unless one is set
+     * with {@link #setExecutor}. The encoded data does not depend on the
+     * number of threads.
+     * @param threads the number of threads to encode with
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Bad threads " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Set the Executor to encode on when more than one thread is set with
+     * {@link #setThreads}, instead of creating threads for each image. This
+     * allows one bounded pool to be shared by all the images encoded at
+     * once. The calling thread also encodes while it waits for the
+     * Executor, so the pool may be smaller than the number of threads,
+     * and the Executor is not shut down when the image has been written.
+     * @param executor the Executor to encode on, or null to create threads
+     * for each image
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
     /**
      * Set the ColorSpace that is written out. This is required if
      * a BufferedImage wasn't used as a source
@@ -164,14 +204,46 @@ public class J2KWriter implements MsgLogger {
             bout = out;
         }
 
+        ExecutorService pool = null;
         try {
             FacilityManager.registerMsgLogger(registerThread, this);
-            ForwCompTransf fctransf = new ForwCompTransf(src, param);
+            ParallelRange parallel = null;
+            Executor executor = null;
+            if (threads > 1) {
+                executor = this.executor;
+                if (executor == null) {
+                    // The calling thread runs bands too
+                    executor = pool = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "J2KWriter");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+                }
+                parallel = new ParallelRange(executor, threads);
+            }
+            // With several pipelines each reads the source through its own
+            // view, as they work on different tiles
+            int npipes = Math.min(threads, src.getNumTiles());
+            ForwCompTransf fctransf = new ForwCompTransf(npipes > 1 ? new TileSrcView(src) : src, param);
             ImgDataConverter converter = new ImgDataConverter(fctransf);
-            ForwardWT dwt = ForwardWT.createInstance(converter, param);
+            ForwardWT dwt = ForwardWT.createInstance(converter, param, parallel);
             Quantizer quant = Quantizer.createInstance(dwt, param);
             ROIScaler rois = ROIScaler.createInstance(quant, param);
-            EntropyCoder ecoder = EntropyCoder.createInstance(rois, param, param.getCodeBlockSize(), param.getPrecinctPartition(), param.getBypass(), param.getResetMQ(), param.getTerminateOnByte(), param.getCausalCXInfo(), param.getCodeSegSymbol(), param.getMethodForMQLengthCalc(), param.getMethodForMQTermination());
+            CodedCBlkDataSrcEnc ecoder = createEntropyCoder(rois, executor);
+            if (npipes > 1) {
+                // Each pipeline codes its own tiles, while the first one
+                // only supplies the properties of the coded data
+                CodedCBlkDataSrcEnc[] coders = new CodedCBlkDataSrcEnc[npipes];
+                for (int i=0;i<npipes;i++) {
+                    fctransf = new ForwCompTransf(new TileSrcView(src), param);
+                    converter = new ImgDataConverter(fctransf);
+                    quant = Quantizer.createInstance(ForwardWT.createInstance(converter, param, parallel), param);
+                    coders[i] = createEntropyCoder(ROIScaler.createInstance(quant, param), executor);
+                }
+                ecoder = new ParallelTileCoder(ecoder, coders, executor);
+            }
 
             FileCodestreamWriter bwriter = new FileCodestreamWriter(bout, Integer.MAX_VALUE);
             ratio = param.getCompressionRatio();
@@ -181,9 +253,6 @@ public class J2KWriter implements MsgLogger {
             ralloc.setHeaderEncoder(headenc);
             headenc.encodeMainHeader();
             ralloc.initialize();
-            headenc.reset();
-            headenc.encodeMainHeader();
-            bwriter.commitBitstreamHeader(headenc);
             ralloc.runAndWrite();
             bwriter.close();
 
@@ -192,10 +261,21 @@ public class J2KWriter implements MsgLogger {
             }
             return file;
         } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
             FacilityManager.unregisterMsgLogger(registerThread);
         }
     }
 
+    /**
+     * Create the entropy coder at the end of an encoding pipeline, which
+     * codes the code-blocks in parallel on the executor if not null
+     */
+    private EntropyCoder createEntropyCoder(ROIScaler rois, Executor executor) {
+        return EntropyCoder.createInstance(rois, param, param.getCodeBlockSize(), param.getPrecinctPartition(), param.getBypass(), param.getResetMQ(), param.getTerminateOnByte(), param.getCausalCXInfo(), param.getCodeSegSymbol(), param.getMethodForMQLengthCalc(), param.getMethodForMQTermination(), executor, threads);
+    }
+
     /**
      * Create and return a {@link J2KFile} which has the compressed image data
      */
@@ -0,0 +1,88 @@
+package com.github.jpeg2000;
+
+import java.awt.color.*;
+
+/**
+ * The properties of an image read from the boxes of the JP2 header box:
+ * the channel order, the palette and the ColorSpace. Shared by
+ * {@link J2KReader} and {@link J2KInfo}, which create the ColorSpace with
+ * their own overridable createColorSpace method.
+ *
+ * @author http://bfo.com
+ */
+abstract class JP2Header {
+
+    int[] channels;
+    int[][] palette;
+    int[] paletteDepth;
+    ColorSpace cs;
+
+    /**
+     * Read the properties from one of the boxes of the header box
+     * @param box the box
+     */
+    void addBox(Box box) {
+        if (box instanceof ImageHeaderBox) {
+            ImageHeaderBox b = (ImageHeaderBox) box;
+            channels = new int[b.getNumComponents()];
+            for (int i=0;i<channels.length;i++) {
+                channels[i] = i;
+            }
+        } else if (box instanceof PaletteBox) {
+            PaletteBox b = (PaletteBox) box;
+            int indexsize = b.getNumEntries();
+            int numc = b.getNumComp();
+            palette = new int[indexsize][numc];
+            paletteDepth = new int[numc];
+            for (int c=0;c<numc;c++) {
+                paletteDepth[c] = b.getComponentDepth(c);
+            }
+            for (int i=0;i<indexsize;i++) {
+                for (int c=0;c<numc;c++) {
+                    palette[i][c] = b.getComponentValue(i, c);
+                }
+            }
+        } else if (box instanceof ColorSpecificationBox) {
+            ColorSpecificationBox b = (ColorSpecificationBox) box;
+            int method = b.getMethod();
+            if (method == 1) {
+                cs = createColorSpace(b.getEnumeratedColorSpace(), null);
+            } else if (method == 2 || method == 3) {
+                cs = createColorSpace(0, b.getICCProfileData());
+            }
+        } else if (box instanceof ChannelDefinitionBox) {
+            ChannelDefinitionBox b = (ChannelDefinitionBox)box;
+            short[] c = b.getChannel();
+            short[] a = b.getAssociation();
+            for (int i=0;i<c.length;i++) {
+                channels[c[i]] = a[i] - 1;
+            }
+        }
+    }
+
+    /**
+     * Convert the enumerated colorspace or ICC profile data to a ColorSpace
+     * when a ColorSpecificationBox is read
+     */
+    abstract ColorSpace createColorSpace(int e, byte[] iccprofile);
+
+    /**
+     * The default conversion of the enumerated colorspace or ICC profile
+     * data to a {@link ColorSpace}.
+     * @param e the enumerated colorspace value, eg 16 for sRGB, or 0 if an ICC profile is specified.
+     * @param iccprofile the raw data of the ICC profile of specified, or null if an enumerated colorspace is used.
+     * @return the ColorSpace, or null if it is unsupported.
+     */
+    static ColorSpace getColorSpace(int e, byte[] iccprofile) {
+        if (iccprofile != null) {
+            return new ICC_ColorSpace(ICC_Profile.getInstance(iccprofile));
+        } else {
+            switch(e) {
+                case 16: return ColorSpace.getInstance(ColorSpace.CS_sRGB);
+                case 17: return ColorSpace.getInstance(ColorSpace.CS_GRAY);
+            }
+        }
+        return null;
+    }
+
+}
@@ -1,23 +1,111 @@
 package com.github.jpeg2000;
 
 /**
- * Interface which defines the parameters required to read a JP2 image.
- * The default values for each property are used.
+ * A minimal instance of the J2KReadParam interface. Unless changed, the
+ * default values for each property are used.
  *
  * @author http://bfo.com
  */
 public class SimpleJ2KReadParam implements J2KReadParam {
-    
+
+    private boolean noROIDescaling = true;
+    private double decodingRate = Double.MAX_VALUE;
+    private int resolution = -1;
+    private int lquit = -1;
+    private boolean parsing = true;
+
+    /**
+     * Set whether ROI de-scaling is skipped. The default is true
+     * @param noROIDescaling true to decode as if there was no ROI
+     */
+    public void setNoROIDescaling(boolean noROIDescaling) {
+        this.noROIDescaling = noROIDescaling;
+    }
+
     public boolean getNoROIDescaling() {
-        return true;
+        return noROIDescaling;
+    }
+
+    /**
+     * Set the decoding rate in bits per pixel of the full size image.
+     * The default is Double.MAX_VALUE, which decodes all the data.
+     * @param decodingRate the decoding rate
+     * @see #setParsing
+     */
+    public void setDecodingRate(double decodingRate) {
+        if (!(decodingRate > 0)) {
+            throw new IllegalArgumentException("Invalid decoding rate " + decodingRate);
+        }
+        this.decodingRate = decodingRate;
     }
 
     public double getDecodingRate() {
-        return Double.MAX_VALUE;
+        return decodingRate;
+    }
+
+    /**
+     * Set the resolution level to decode, or -1 to decode the resolution
+     * level at encoding, which is the default
+     * @param resolution the resolution level
+     */
+    public void setResolution(int resolution) {
+        if (resolution < -1) {
+            throw new IllegalArgumentException("Invalid resolution " + resolution);
+        }
+        this.resolution = resolution;
     }
 
     public int getResolution() {
-        return -1;
+        return resolution;
+    }
+
+    /**
+     * Set the maximum number of quality layers to decode, or -1 to decode
+     * all the layers, which is the default. Decoding fewer layers gives a
+     * lower quality image more quickly.
+     * @param lquit the number of layers to decode
+     */
+    public void setLQuit(int lquit) {
+        if (lquit == 0 || lquit < -1) {
+            throw new IllegalArgumentException("Invalid number of layers " + lquit);
+        }
+        this.lquit = lquit;
+    }
+
+    /**
+     * Return the maximum number of quality layers to decode, or -1 to decode all the layers
+     */
+    public int getLQuit() {
+        return lquit;
+    }
+
+    /**
+     * Set whether the decoding rate is applied by parsing the codestream
+     * (the default), or by truncating it.
+     * @param parsing false to truncate the codestream at the decoding rate
+     * @see #setDecodingRate
+     */
+    public void setParsing(boolean parsing) {
+        this.parsing = parsing;
+    }
+
+    /**
+     * Return true if the decoding rate is applied by parsing the codestream,
+     * false if it is simply truncated at the rate
+     */
+    public boolean getParsing() {
+        return parsing;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{noroidescaling:"+getNoROIDescaling());
+        sb.append(", decodingrate:"+getDecodingRate());
+        sb.append(", resolution:"+getResolution());
+        sb.append(", lquit:"+getLQuit());
+        sb.append(", parsing:"+getParsing());
+        sb.append("}");
+        return sb.toString();
     }
 
 }
@@ -52,6 +52,9 @@ public class SimpleJ2KWriteParam implements J2KWriteParam {
     private boolean causalCXInfo;
     private boolean codeSegSymbol;
     private boolean lossless;
+    private boolean tlm;
+    private boolean plt;
+    private boolean tileStreaming;
     private MaxShiftSpec rois;
 
     private final StringSpec stringtrue, stringfalse;
@@ -270,6 +273,67 @@ public class SimpleJ2KWriteParam implements J2KWriteParam {
         return alignROI;
     }
 
+    /**
+     * Set whether a TLM marker segment is written in the main header.
+     * It gives the length of every tile-part, so that a reader can go
+     * straight to any tile. The default is false.
+     * @param tlm whether to write the TLM marker segment
+     */
+    public void setTLM(boolean tlm) {
+        this.tlm = tlm;
+    }
+
+    /**
+     * Return true if a TLM marker segment, giving the length of every
+     * tile-part, should be written in the main header
+     */
+    public boolean getTLM() {
+        return tlm;
+    }
+
+    /**
+     * Set whether PLT marker segments are written in the tile-part
+     * headers. They give the length of every packet, so that a reader
+     * can skip the packets of the resolutions and precincts it does not
+     * need. The default is false.
+     * @param plt whether to write the PLT marker segments
+     */
+    public void setPLT(boolean plt) {
+        this.plt = plt;
+    }
+
+    /**
+     * Return true if PLT marker segments, giving the length of every
+     * packet, should be written in the tile-part headers
+     */
+    public boolean getPLT() {
+        return plt;
+    }
+
+    /**
+     * Set whether each tile is rate allocated and written as soon as it
+     * has been coded, rather than coding every tile before the rate
+     * allocation. This bounds the memory used for the coded data to that of
+     * a single tile, which matters for large images with many tiles, but
+     * the bitrate of each layer is reached by each tile on its own rather
+     * than by the image as a whole, so a given compression ratio will give
+     * slightly lower quality. It can not be used with {@link #setTLM}.
+     * The default is false.
+     * @param tileStreaming whether to rate allocate and write each tile in turn
+     */
+    public void setTileStreaming(boolean tileStreaming) {
+        this.tileStreaming = tileStreaming;
+    }
+
+    /**
+     * Return true if each tile should be rate allocated and written as soon
+     * as it has been coded, so that the coded data of only one tile is held
+     * in memory at a time
+     */
+    public boolean getTileStreaming() {
+        return tileStreaming;
+    }
+
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("{ lossless:"+getLossless());
@@ -298,6 +362,9 @@ public class SimpleJ2KWriteParam implements J2KWriteParam {
         sb.append(", rois:"+getROIs());
         sb.append(", startlevelroi:"+getStartLevelROI());
         sb.append(", alignroi:"+getAlignROI());
+        sb.append(", tlm:"+getTLM());
+        sb.append(", plt:"+getPLT());
+        sb.append(", tilestreaming:"+getTileStreaming());
         sb.append("}");
         return sb.toString();
     }
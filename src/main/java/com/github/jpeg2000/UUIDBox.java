@@ -45,7 +45,14 @@ public class UUIDBox extends Box {
         this.data = data;
     }
 
+    @Override protected boolean isLazy() {
+        return true;
+    }
+
     @Override public int getLength() {
+        if (uuid == null) {
+            return super.getLength();
+        }
         return uuid.length + data.length;
     }
 
@@ -57,17 +64,20 @@ public class UUIDBox extends Box {
     }
 
     @Override public void write(DataOutputStream out) throws IOException {
+        load();
         out.write(uuid, 0, uuid.length);
         out.write(data, 0, data.length);
     }
 
     /** Returns the UUID of this box. */
     public String getUUID() {
+        load();
         return toString(uuid);
     }
 
     /** Returns the UUID data of this box. */
     public byte[] getData() {
+        load();
         return data;
     }
 
@@ -15,5 +15,9 @@ public class XMLBox extends Box {
         super(fromString("xml "));
     }
 
+    @Override protected boolean isLazy() {
+        return true;
+    }
+
     // TODO
 }
@@ -223,9 +223,10 @@ public class IntegerSpec extends ModuleSpec{
                     break;
                 case SPEC_TILE_COMP:
                     specValType[0][0] = SPEC_DEF;
-                    tileCompVal.put("t0c0",null);
+                    tileCompVal[0] = null;
                     break;
                 }
+                resolved = null;
             }
 	}
     }
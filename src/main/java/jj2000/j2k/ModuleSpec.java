@@ -44,8 +44,6 @@
 package jj2000.j2k;
 
 import java.awt.Point;
-import java.util.Enumeration;
-import java.util.Hashtable;
 
 /**
  * This generic class is used to handle values to be used by a module for each
@@ -63,6 +61,11 @@ import java.util.Hashtable;
  * <li> Component main default attribute</li>
  * <li> Main default attribute</li>
  * </ul>
+ *
+ * <P>The value of each tile-component is resolved from this hierarchy the
+ * first time it is needed, into an array indexed by tile and component, so
+ * that getting a value is a simple array access. The array is updated
+ * whenever a value is set, for instance when tile-part headers are read.
  * */
 
 public class ModuleSpec implements Cloneable {
@@ -116,10 +119,16 @@ public class ModuleSpec implements Cloneable {
         value is defined */
     protected Object[] tileDef = null;
 
-    /** The specific value for each tile-component. Value of tile 16 component
-     * 3 is accessible through the hash value "t16c3". Null if no
-     * tile-component specific value is defined */
-    protected Hashtable tileCompVal;
+    /** The specific value for each tile-component. Value of tile 16
+     * component 3 is at index 16*nComp+3. Null if no tile-component
+     * specific value is defined */
+    protected Object[] tileCompVal;
+
+    /** The value of each tile-component, at index t*nComp+c, resolved from
+     * the specifications above. Null if not resolved yet. Subclasses that
+     * change the specifications directly rather than through the set
+     * methods must set it to null. */
+    protected volatile Object[] resolved;
 
     /** The specified value in string format */
     protected String specified;
@@ -181,15 +190,9 @@ public class ModuleSpec implements Cloneable {
         }
         // Create a copy of tileCompVal
         if(tileCompVal!=null) {
-            ms.tileCompVal = new Hashtable();
-            String tmpKey;
-            Object tmpVal;
-            for(Enumeration e=tileCompVal.keys(); e.hasMoreElements(); ) {
-                tmpKey = (String)e.nextElement();
-                tmpVal = tileCompVal.get(tmpKey);
-                ms.tileCompVal.put(tmpKey,tmpVal);
-            }
+            ms.tileCompVal = tileCompVal.clone();
         }
+        ms.resolved = null;
         return ms;
     }
 
@@ -228,28 +231,19 @@ public class ModuleSpec implements Cloneable {
         }
 
         // Rotate tileCompVal
-        if(tileCompVal!=null && tileCompVal.size()>0) {
-            Hashtable tmptcv = new Hashtable();
-            String tmpKey;
-            Object tmpVal;
-            int btIdx,atIdx;
-            int i1,i2;
-            int bx,by;
-            for(Enumeration e=tileCompVal.keys(); e.hasMoreElements(); ) {
-                tmpKey = (String)e.nextElement();
-                tmpVal = tileCompVal.get(tmpKey);
-                i1 = tmpKey.indexOf('t');
-                i2 = tmpKey.indexOf('c');
-                btIdx = (new Integer(tmpKey.substring(i1+1,i2))).intValue();
-                bx = btIdx%bnT.x;
-                by = btIdx/bnT.x;
-                ay = bx;
-                ax = bnT.y-by-1;
-                atIdx = ax+ay*anT.x;
-                tmptcv.put("t"+atIdx+tmpKey.substring(i2),tmpVal);
+        if(tileCompVal!=null) {
+            Object[] tmptcv = new Object[nTiles*nComp];
+            for(int by=0; by<bnT.y; by++) {
+                for(int bx=0; bx<bnT.x; bx++) {
+                    ay = bx;
+                    ax = bnT.y-by-1;
+                    System.arraycopy(tileCompVal,(by*bnT.x+bx)*nComp,
+                                     tmptcv,(ay*anT.x+ax)*nComp,nComp);
+                }
             }
             tileCompVal = tmptcv;
         }
+        resolved = null;
     }
 
     /**
@@ -257,6 +251,7 @@ public class ModuleSpec implements Cloneable {
      * */
     public void setDefault(Object value){
 	def = value;
+        resolved = null;
     }
 
     /**
@@ -289,6 +284,7 @@ public class ModuleSpec implements Cloneable {
             }
 	}
 	compDef[c] = value;
+        updateResolved(0,nTiles,c,c+1);
     }
 
     /**
@@ -334,6 +330,7 @@ public class ModuleSpec implements Cloneable {
 	    }
 	}
 	tileDef[t] = value;
+        updateResolved(t,t+1,0,nComp);
     }
 
     /**
@@ -379,9 +376,10 @@ public class ModuleSpec implements Cloneable {
             throw new Error(errMsg);
         }
 	if(tileCompVal==null)
-	    tileCompVal = new Hashtable();
+	    tileCompVal = new Object[nTiles*nComp];
 	specValType[t][c] = SPEC_TILE_COMP;
-	tileCompVal.put("t"+t+"c"+c,value);
+	tileCompVal[t*nComp+c] = value;
+        updateResolved(t,t+1,c,c+1);
     }
 
     /**
@@ -420,6 +418,55 @@ public class ModuleSpec implements Cloneable {
      * @return Value for this tile component.
      * */
     protected Object getSpec(int t,int c){
+        Object[] r = resolved;
+        if(r==null) {
+            r = new Object[nTiles*nComp];
+            for(int i=0; i<nTiles; i++) {
+                for(int j=0; j<nComp; j++) {
+                    r[i*nComp+j] = resolveSpec(i,j);
+                }
+            }
+            resolved = r;
+        }
+	return r[t*nComp+c];
+    }
+
+    /**
+     * Updates the resolved values of the specified tiles and components, if
+     * they have been resolved.
+     *
+     * @param t0 The first tile
+     *
+     * @param t1 The tile after the last one
+     *
+     * @param c0 The first component
+     *
+     * @param c1 The component after the last one
+     * */
+    private void updateResolved(int t0,int t1,int c0,int c1){
+        Object[] r = resolved;
+        if(r!=null) {
+            for(int t=t0; t<t1; t++) {
+                for(int c=c0; c<c1; c++) {
+                    r[t*nComp+c] = resolveSpec(t,c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the value of the specified tile-component from the hierarchy of
+     * specifications.
+     *
+     * @param t Tile index
+     *
+     * @param c Component index
+     *
+     * @return Value for this tile component.
+     *
+     * @see #getSpec
+     * */
+    private Object resolveSpec(int t,int c){
 	switch(specValType[t][c]){
 	case SPEC_DEF:
 	    return getDefault();
@@ -428,12 +475,79 @@ public class ModuleSpec implements Cloneable {
 	case SPEC_TILE_DEF:
 	    return getTileDef(t);
 	case SPEC_TILE_COMP:
-	    return tileCompVal.get("t"+t+"c"+c);
+	    return tileCompVal[t*nComp+c];
 	default:
 	    throw new IllegalArgumentException("Not recognized spec type");
 	}
     }
 
+    /**
+     * Gets the default value for this module, which must be an Integer.
+     *
+     * @return The default value
+     * */
+    public int getIntDefault(){
+        return ((Integer)getDefault()).intValue();
+    }
+
+    /**
+     * Gets the default value of the specified component, which must be an
+     * Integer.
+     *
+     * @param c Component index
+     *
+     * @return The default value for this component
+     *
+     * @see #getCompDef
+     * */
+    public int getCompIntDef(int c){
+        return ((Integer)getCompDef(c)).intValue();
+    }
+
+    /**
+     * Gets the default value of the specified tile, which must be an
+     * Integer.
+     *
+     * @param t Tile index
+     *
+     * @return The default value for this tile
+     *
+     * @see #getTileDef
+     * */
+    public int getTileIntDef(int t){
+        return ((Integer)getTileDef(t)).intValue();
+    }
+
+    /**
+     * Gets the default value of the specified tile, which must be a
+     * Boolean.
+     *
+     * @param t Tile index
+     *
+     * @return The default value for this tile
+     *
+     * @see #getTileDef
+     * */
+    public boolean getTileBooleanDef(int t){
+        return ((Boolean)getTileDef(t)).booleanValue();
+    }
+
+    /**
+     * Gets the value of the specified tile-component, which must be an
+     * Integer.
+     *
+     * @param t Tile index
+     *
+     * @param c Component index
+     *
+     * @return The value of this tile-component
+     *
+     * @see #getTileCompVal
+     * */
+    public int getTileCompIntVal(int t,int c){
+        return ((Integer)getTileCompVal(t,c)).intValue();
+    }
+
     /**
      * Return the spec type of the given tile-component.
      *
@@ -485,7 +599,7 @@ public class ModuleSpec implements Cloneable {
      * @return True if a tile-component specification has been defined.
      * */
     public boolean isTileCompSpecified(int t,int c){
-	if(tileCompVal==null || tileCompVal.get("t"+t+"c"+c)==null)
+	if(tileCompVal==null || tileCompVal[t*nComp+c]==null)
 	    return false;
 	else
 	    return true;
@@ -44,6 +44,7 @@
  *  */
 package jj2000.j2k.codestream.reader;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.io.IOException;
 
 import jj2000.j2k.ModuleSpec;
@@ -213,6 +214,14 @@ public abstract class BitstreamReaderAgent implements CodedCBlkDataSrcDec {
     /** Actual decoding rate in bpp */
     protected float arate;
 
+    /** The resolution level to decode, as set by setDecodingArea(), or -1
+     * for the target resolution level */
+    protected int decRes = -1;
+
+    /** The area to decode, on the reference grid at full resolution, as set
+     * by setDecodingArea(), or null for the whole image */
+    protected Rectangle decArea;
+
     /**
      * Initializes members of this class. This constructor takes a
      * HeaderDecoder object. This object must be initialized by the
@@ -1028,6 +1037,38 @@ public abstract class BitstreamReaderAgent implements CodedCBlkDataSrcDec {
 	return targetRes;
     }
 
+    /**
+     * Sets the resolution level and the area of the image that will be
+     * decoded. This is only a hint: the packets which do not contribute to
+     * them may be skipped without being read, if their lengths are known,
+     * and the code-blocks they contain will then have no data. The new values
+     * are taken into account from the next call to setTile() or nextTile().
+     *
+     * @param rl The image resolution level, or -1 for the target resolution
+     * level.
+     *
+     * @param area The area, in the canvas system on the reference grid at
+     * full resolution, regardless of the resolution level. If null the whole
+     * image is decoded, which is the default.
+     * */
+    public void setDecodingArea(int rl,Rectangle area) {
+        decRes = rl;
+        decArea = area;
+    }
+
+    /**
+     * Returns whether all the data of a tile has arrived, so that it can be
+     * decoded without waiting for more data when the codestream is still
+     * arriving. This implementation always returns true.
+     *
+     * @param t The tile index.
+     *
+     * @return true if the tile can be decoded without waiting.
+     * */
+    public boolean isTileAvailable(int t) throws IOException {
+        return true;
+    }
+
     /**
      * Return the target decoding rate in bits per pixel.
      *
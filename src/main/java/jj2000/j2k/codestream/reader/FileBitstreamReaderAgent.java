@@ -47,6 +47,8 @@ import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Vector;
 
 import javax.imageio.stream.ImageInputStream;
@@ -63,15 +65,20 @@ import jj2000.j2k.codestream.ProgressionType;
 import jj2000.j2k.decoder.DecoderSpecs;
 import jj2000.j2k.entropy.StdEntropyCoderOptions;
 import jj2000.j2k.entropy.decoder.DecLyrdCBlk;
+import jj2000.j2k.io.ByteBufferRandomAccessIO;
+import jj2000.j2k.io.IncrementalRandomAccessIO;
 import jj2000.j2k.io.RandomAccessIO;
 import jj2000.j2k.quantization.dequantizer.StdDequantizerParams;
 import jj2000.j2k.util.ArrayUtil;
 import jj2000.j2k.util.FacilityManager;
 import jj2000.j2k.util.MathUtil;
 import jj2000.j2k.util.MsgLogger;
+import jj2000.j2k.wavelet.Subband;
 import jj2000.j2k.wavelet.synthesis.SubbandSyn;
+import jj2000.j2k.wavelet.synthesis.SynWTFilter;
 
 import com.github.jpeg2000.J2KReadParam;
+import com.github.jpeg2000.SimpleJ2KReadParam;
 
 /**
  * This class reads the bit stream (with the help of HeaderDecoder for tile
@@ -191,6 +198,23 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
     /** The number of the tile-part in the codestream */
     private int[][] tilePartNum;
 
+    /** The length of the packets of each tile-part, by its number in the
+     * codestream, -1 if its header has not been read yet */
+    private int[] tilePartBodyLen = new int[0];
+
+    /** The packet lengths of the PLM marker segments, as returned by
+     * HeaderDecoder.getPLMPacketLengths(). Null until first needed, or if
+     * they are not used. */
+    private List<List<int[]>> plmSegs;
+
+    /** The index in plmSegs of the marker segment, and in it of the Nplm
+     * field, with the packet lengths of the next tile-part */
+    private int plmSeg, plmField;
+
+    /** The packet lengths of the PLM marker segments merged by tile-part,
+     * for the first tile-parts of the codestream */
+    private List<int[]> plmLengths;
+
     /** Whether or not a EOC marker has been found instead of a SOT */
     private boolean isEOCFound = false;
 
@@ -217,6 +241,49 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
     /** Whether or not to use only first progression order */
     private boolean usePOCQuit = false;
 
+    /** The lengths of the packets of the current tile, in codestream order,
+     * as signalled in PLT or PLM marker segments. Null if packets are not
+     * skipped. */
+    private int[] pktLen;
+
+    /** The index in pktLen of the length of the next packet */
+    private int pktLenIdx;
+
+    /** The maximum number of bytes of compressed data read at once */
+    private static final int MAX_WINDOW = 1<<20;
+
+    /** The window of compressed data of the current tile from which
+     * code-blocks are returned as slices. The data at offset 'off' in the
+     * codestream, from winLo (inclusive) to winHi (exclusive), is at index
+     * off+winDelta. */
+    private byte[] winData;
+
+    /** The start of the data in winData */
+    private int winLo;
+
+    /** The end of the data in winData */
+    private int winHi;
+
+    /** The difference between the index in winData and the offset in the
+     * codestream */
+    private int winDelta;
+
+    /** Whether initTileData() has been called for the current tile */
+    private boolean tileDataInit;
+
+    /** The end of the data used in each tile-part of the current tile, so
+     * that windows are not read beyond it. Null if the data is not read in
+     * windows. */
+    private int[] tileDataHi;
+
+    /** The data of the code-blocks that are not returned as slices of
+     * winData, as their layers are not contiguous or the data is not read
+     * in windows */
+    private byte[] cbData;
+
+    /** The number of bytes used in cbData */
+    private int cbDataLen;
+
     /**
      * Reads all tiles headers and keep offset of their first
      * packet. Finally it calls the rate allocation method.
@@ -259,8 +326,9 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         else
             tnbytes = (int)(j2krparam.getDecodingRate() * hd.getMaxCompImgWidth() *
                         hd.getMaxCompImgHeight()) / 8;
-        //isTruncMode = !j2krparam.getParsing();
-        isTruncMode = false;
+        // Only a SimpleJ2KReadParam can ask for truncation or fewer layers
+        SimpleJ2KReadParam simple = j2krparam instanceof SimpleJ2KReadParam ? (SimpleJ2KReadParam)j2krparam : null;
+        isTruncMode = simple != null && !simple.getParsing();
 
         // Check if quit conditions are being used
         //int ncbQuit = j2krparam.getNCBQuit();
@@ -270,8 +338,11 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                             "the same time.");
         }
 
-//        lQuit = j2krparam.getLQuit();
-        lQuit = -1;
+        lQuit = simple != null ? simple.getLQuit() : -1;
+        if(lQuit==0 || lQuit<-1) {
+            throw new IllegalArgumentException("Invalid number of layers: "+
+                                               lQuit);
+        }
 
         // initializations
         nt = ntX * ntY;
@@ -347,6 +418,18 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
 
         // Initialize tile part positions from TLM marker segment.
         initTLM();
+
+        // In parsing mode the decoding rate is shared between the tiles
+        // according to their lengths, and in truncation mode it is spent in
+        // codestream order, so all the tile-part headers must be read before
+        // the first tile is decoded. Otherwise the share of each tile would
+        // depend on the order the tiles are decoded in.
+        if(tnbytes!=Integer.MAX_VALUE) {
+            for(int t=0; t<nt && !rateReached; t++) {
+                initTile(t);
+            }
+            allTilePartsRead = true;
+        }
     }
 
     // An array of the positions of tile parts:
@@ -354,6 +437,14 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
     // - length of tilePartPositions[i] is totTileParts[i].
     long[][] tilePartPositions = null;
 
+    // The positions of the tile-parts located from the TLM marker segments,
+    // in codestream order. Null if there are no TLM marker segments.
+    long[] tilePartStarts = null;
+
+    // The number in the codestream of each tile-part located from the TLM
+    // marker segments, indexed as tilePartPositions.
+    int[][] tilePartIndexes = null;
+
     //
     // Initialize the tilePartPositions positions array if a TLM marker
     // segment is present in the main header. If no such marker segment
@@ -488,9 +579,48 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             }
         }
 
+        if(tilePartPositions != null) {
+            // The number of each tile-part in the codestream is the number
+            // of tile-parts starting before it
+            int count = 0;
+            for(int i = 0; i < nt; i++) {
+                count += tilePartPositions[i].length;
+            }
+            tilePartStarts = new long[count];
+            count = 0;
+            for(int i = 0; i < nt; i++) {
+                for(int j = 0; j < tilePartPositions[i].length; j++) {
+                    tilePartStarts[count++] = tilePartPositions[i][j];
+                }
+            }
+            Arrays.sort(tilePartStarts);
+            tilePartIndexes = new int[nt][];
+            for(int i = 0; i < nt; i++) {
+                tilePartIndexes[i] = new int[tilePartPositions[i].length];
+                for(int j = 0; j < tilePartPositions[i].length; j++) {
+                    tilePartIndexes[i][j] =
+                        Arrays.binarySearch(tilePartStarts,
+                                            tilePartPositions[i][j]);
+                }
+            }
+        }
+
         in.seek(savePos);
     }
 
+    /** The number of tile-parts of each tile which have arrived, or -1 if
+     * they all have, as found by isTileAvailable() */
+    private int[] availTileParts;
+
+    /** The position of the next tile-part to look for in
+     * isTileAvailable() */
+    private int availPos;
+
+    /** Whether all the tile-part headers have been read by the
+     * constructor, and the rate allocated, so initTile() has nothing to
+     * do */
+    private boolean allTilePartsRead;
+
     int cdstreamStart = 0;
     int t=0, pos=-1, tp=0, tptot=0;
     int tilePartStart = 0;
@@ -508,6 +638,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
      * headers.
      */
     private void initTile(int tileNum) throws IOException {
+        if(allTilePartsRead) return;
         if(tilePartPositions == null) in.seek(lastPos);
         String strInfo = "";
         int ncbQuit = -1;
@@ -518,6 +649,21 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             while(remainingTileParts!=0 &&
                   (totTileParts[tileNum] == 0 ||
                    tilePartsRead[tileNum] < totTileParts[tileNum])) {
+                // TNsot is taken as one more than signaled, so when the
+                // tile-parts are located from TLM stop after the last one
+                if(tilePartPositions != null &&
+                   tpNum >= tilePartPositions[tileNum].length) {
+                    break;
+                }
+                // When the codestream is still arriving, don't read ahead
+                // for a tile-part beyond the number signalled in TNsot, as
+                // isTileAvailable() does not wait for it either
+                if(totTileParts[tileNum] != 0 &&
+                   tilePartsRead[tileNum] >= totTileParts[tileNum]-1 &&
+                   in instanceof IncrementalRandomAccessIO &&
+                   !((IncrementalRandomAccessIO)in).isComplete()) {
+                    break;
+                }
                 isTilePartRead = true;
 
                 if(tilePartPositions != null) {
@@ -559,6 +705,9 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                 // Set tile part position and header length
                 firstPackOff[t][tp] = pos;
                 tilePartHeadLen[t][tp] = (pos-tilePartStart);
+                setTilePartBodyLength(tilePartNum[t][tp],
+                                      tilePartLen[t][tp]-
+                                      tilePartHeadLen[t][tp]);
 
                 if(printInfo)
                     strInfo += "Tile-part "+tp+" of tile "+t+" : "+tilePartStart
@@ -936,7 +1085,13 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
 
         tilePartLen[tile][tilePart] = psot;
 
-        tilePartNum[tile][tilePart] = totTilePartsRead;
+        if(tilePartIndexes != null &&
+           tilePart < tilePartIndexes[tile].length) {
+            // Tile-parts located from TLM are not read in codestream order
+            tilePartNum[tile][tilePart] = tilePartIndexes[tile][tilePart];
+        } else {
+            tilePartNum[tile][tilePart] = totTilePartsRead;
+        }
         totTilePartsRead++;
 
         // Add to list of which tile each successive tile-part belongs.
@@ -987,14 +1142,14 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         int lastByte = firstPackOff[t][curTilePart]+
             tilePartLen[t][curTilePart]-1-
             tilePartHeadLen[t][curTilePart];
-        int numLayers = ((Integer)decSpec.nls.getTileDef(t)).intValue();
+        int numLayers = decSpec.nls.getTileIntDef(t);
         int nPrec = 1;
         int hlen,plen;
         String strInfo = printInfo ?
             "Tile "+getTileIdx()+" (tile-part:"+curTilePart+
             "): offset, length, header length\n" : null;
         boolean pph = false;
-        if(((Boolean)decSpec.pphs.getTileDef(t)).booleanValue()) {
+        if(decSpec.pphs.getTileBooleanDef(t)) {
             pph = true;
         }
         for(int l=minlys; l<lye; l++) { // loop on layers
@@ -1029,6 +1184,11 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                                 tilePartHeadLen[t][curTilePart];
                         }
 
+                        // Skip the packet if it is not needed
+                        if(skipPacket(l,r,c,p)) {
+                            continue;
+                        }
+
                         // Read SOP marker segment if necessary
                         status = pktDec.readSOPMarker(nBytes,p,c,r);
 
@@ -1126,9 +1286,9 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         String strInfo = printInfo ?
             "Tile "+getTileIdx()+" (tile-part:"+curTilePart+
             "): offset, length, header length\n" : null;
-        int numLayers = ((Integer)decSpec.nls.getTileDef(t)).intValue();
+        int numLayers = decSpec.nls.getTileIntDef(t);
         boolean pph = false;
-        if(((Boolean)decSpec.pphs.getTileDef(t)).booleanValue()) {
+        if(decSpec.pphs.getTileBooleanDef(t)) {
             pph = true;
         }
         int nPrec = 1;
@@ -1167,6 +1327,11 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                                 tilePartHeadLen[t][curTilePart];
                         }
 
+                        // Skip the packet if it is not needed
+                        if(skipPacket(l,r,c,p)) {
+                            continue;
+                        }
+
                         // Read SOP marker segment if necessary
                         status = pktDec.readSOPMarker(nBytes,p,c,r);
 
@@ -1326,12 +1491,12 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         int lastByte = firstPackOff[t][curTilePart]+
             tilePartLen[t][curTilePart]-1-
             tilePartHeadLen[t][curTilePart];
-        int numLayers = ((Integer)decSpec.nls.getTileDef(t)).intValue();
+        int numLayers = decSpec.nls.getTileIntDef(t);
         String strInfo = printInfo ?
             "Tile "+getTileIdx()+" (tile-part:"+curTilePart+
             "): offset, length, header length\n" : null;
         boolean pph = false;
-        if(((Boolean)decSpec.pphs.getTileDef(t)).booleanValue()) {
+        if(decSpec.pphs.getTileBooleanDef(t)) {
             pph = true;
         }
         for(int r=ress; r<rese; r++) { // loop on resolution levels
@@ -1373,6 +1538,11 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                                     tilePartHeadLen[t][curTilePart];
                             }
 
+                            // Skip the packet if it is not needed
+                            if(skipPacket(l,r,c,nextPrec[c][r])) {
+                                continue;
+                            }
+
                             // Read SOP marker segment if necessary
                             status = pktDec.readSOPMarker(nBytes,
                                                           nextPrec[c][r],c,r);
@@ -1543,12 +1713,12 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         int lastByte = firstPackOff[t][curTilePart]+
             tilePartLen[t][curTilePart]-1-
             tilePartHeadLen[t][curTilePart];
-        int numLayers = ((Integer)decSpec.nls.getTileDef(t)).intValue();
+        int numLayers = decSpec.nls.getTileIntDef(t);
         String strInfo = printInfo ?
             "Tile "+getTileIdx()+" (tile-part:"+curTilePart+
             "): offset, length, header length\n" : null;
         boolean pph = false;
-        if(((Boolean)decSpec.pphs.getTileDef(t)).booleanValue()) {
+        if(decSpec.pphs.getTileBooleanDef(t)) {
             pph = true;
         }
 
@@ -1580,6 +1750,22 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                                 pktDec.readPktHead(l,r,c,nextPrec[c][r],
                                                    cbI[c][r],nBytes);
                             }
+                            // If we are about to read outside of tile-part,
+                            // skip to next tile-part
+                            if(start>lastByte &&
+                               curTilePart<firstPackOff[t].length-1) {
+                                curTilePart++;
+                                in.seek(firstPackOff[t][curTilePart]);
+                                lastByte = in.getPos()+
+                                    tilePartLen[t][curTilePart]-1-
+                                    tilePartHeadLen[t][curTilePart];
+                            }
+
+                            // Skip the packet if it is not needed
+                            if(skipPacket(l,r,c,nextPrec[c][r])) {
+                                continue;
+                            }
+
                             // Read SOP marker segment if necessary
                             status = pktDec.readSOPMarker(nBytes,
                                                           nextPrec[c][r],c,r);
@@ -1750,12 +1936,12 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         int lastByte = firstPackOff[t][curTilePart]+
             tilePartLen[t][curTilePart]-1-
             tilePartHeadLen[t][curTilePart];
-        int numLayers = ((Integer)decSpec.nls.getTileDef(t)).intValue();
+        int numLayers = decSpec.nls.getTileIntDef(t);
         String strInfo = printInfo ?
             "Tile "+getTileIdx()+" (tile-part:"+curTilePart+
             "): offset, length, header length\n" : null;
         boolean pph = false;
-        if(((Boolean)decSpec.pphs.getTileDef(t)).booleanValue()) {
+        if(decSpec.pphs.getTileBooleanDef(t)) {
             pph = true;
         }
 
@@ -1800,6 +1986,11 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                                     tilePartHeadLen[t][curTilePart];
                             }
 
+                            // Skip the packet if it is not needed
+                            if(skipPacket(l,r,c,nextPrec[c][r])) {
+                                continue;
+                            }
+
                             // Read SOP marker segment if necessary
                             status = pktDec.readSOPMarker(nBytes,
                                                           nextPrec[c][r],c,r);
@@ -1887,15 +2078,21 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
      * */
     private void readTilePkts(int t) throws IOException {
         pktHL = new Vector();
+        tileDataInit = false;
+        tileDataHi = null;
+        winData = null;
+        winLo = winHi = 0;
+        cbData = null;
+        cbDataLen = 0;
 
         int oldNBytes = nBytes[t];
 
         // Number of layers
-        int nl = ((Integer)decSpec.nls.getTileDef(t)).intValue();
+        int nl = decSpec.nls.getTileIntDef(t);
 
         // If packed packet headers was used, get the packet headers for this
         // tile
-        if(((Boolean)decSpec.pphs.getTileDef(t)).booleanValue()) {
+        if(decSpec.pphs.getTileBooleanDef(t)) {
             // Gets packed headers as separate input stream
             ByteArrayInputStream pphbais = hd.getPackedPktHead(t);
 
@@ -1920,13 +2117,18 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         change[0][1] = 0; // layer start
 
         if(pocSpec==null) {
-            change[idx][0] = ((Integer)decSpec.pos.getTileDef(t)).intValue();
+            change[idx][0] = decSpec.pos.getTileIntDef(t);
             // Progression type found in COx marker segments
             change[idx][1] = nl; // Layer index end
             change[idx][2] = 0; // resolution level start
             change[idx][3] = decSpec.dls.getMaxInTile(t)+1; // res. level end
             change[idx][4] = 0; // Component index start
             change[idx][5] = nc; // Component index end
+            // In a layer progressive tile the packets of the layers that
+            // are not decoded come last, so they need not be read at all
+            if(lQuit!=-1 && lQuit<nl && change[idx][0]==LY_RES_COMP_POS_PROG) {
+                change[idx][1] = lQuit;
+            }
         } else {
             for(idx=0; idx<nChg; idx++){
                 change[idx][0] = pocSpec[idx][5];
@@ -1955,14 +2157,28 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
 
         curTilePart = 0;
 
+        // If the lengths of the packets are known, the packets that are not
+        // needed to decode the resolution level and area set by
+        // setDecodingArea(), or that belong to layers that are not decoded,
+        // are skipped. This is not possible if the tile
+        // is not read entirely.
+        pktLen = null;
+        pktLenIdx = 0;
+        if(!isTruncMode &&
+           !decSpec.pphs.getTileBooleanDef(t) &&
+           (decArea!=null || (decRes>=0 && decRes<targetRes) ||
+            lQuit!=-1) &&
+           nBytes[t]>=totTileLen[t]-totTileHeadLen[t]) {
+            pktLen = getPacketLengths(t);
+        }
+
         // Start and end indexes for layers, resolution levels and components.
         int lye,ress,rese,comps,compe;
         boolean status = false;
         int nb = nBytes[t];
         int[][] lys = new int[nc][];
         for(int c=0; c<nc; c++) {
-            lys[c] = new int[((Integer)decSpec.dls.getTileCompVal(t,c)).
-                            intValue()+1];
+            lys[c] = new int[decSpec.dls.getTileCompIntVal(t,c)+1];
         }
 
 
@@ -2172,6 +2388,363 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         nBytes[t] = oldNBytes;
     }
 
+    /**
+     * Returns the lengths of all the packets of a tile, in codestream order,
+     * as signalled in PLT or PLM marker segments. They are only returned if
+     * they are signalled for every tile-part of the tile, and if they add up
+     * to the length of each tile-part.
+     *
+     * @param t The tile index
+     *
+     * @return The packet lengths, or null if they are not known.
+     * */
+    private int[] getPacketLengths(int t) throws IOException {
+        int ntp = tilePartsRead[t];
+        int[][] tpLen = new int[ntp][];
+        int n = 0;
+        for(int tp=0; tp<ntp; tp++) {
+            tpLen[tp] = hd.getPacketLengths(t,tp);
+            if(tpLen[tp]==null) {
+                tpLen[tp] = getPLMPacketLengths(tilePartNum[t][tp]);
+            }
+            if(tpLen[tp]==null) {
+                return null;
+            }
+            int len = 0;
+            for(int i=0; i<tpLen[tp].length; i++) {
+                len += tpLen[tp][i];
+            }
+            if(len!=tilePartLen[t][tp]-tilePartHeadLen[t][tp]) {
+                FacilityManager.getMsgLogger().
+                    printmsg(MsgLogger.WARNING,"Packet lengths do not match "+
+                             "the length of tile-part "+tp+" of tile "+t+
+                             ", ignoring them");
+                return null;
+            }
+            n += tpLen[tp].length;
+        }
+        int[] lengths = new int[n];
+        n = 0;
+        for(int tp=0; tp<ntp; tp++) {
+            System.arraycopy(tpLen[tp],0,lengths,n,tpLen[tp].length);
+            n += tpLen[tp].length;
+        }
+        return lengths;
+    }
+
+    /**
+     * Returns the lengths of the packets of a tile-part signalled by the PLM
+     * marker segments. The Nplm fields are assigned to the tile-parts in
+     * codestream order, and the first Nplm field of a marker segment is
+     * merged with the previous one while their packet lengths add up to less
+     * than the length of the packets of the tile-part, as its packet lengths
+     * then continue in that marker segment.
+     *
+     * @param tpNum The number of the tile-part in the codestream
+     *
+     * @return The packet lengths, or null if they are not signalled or do
+     * not match the tile-parts.
+     * */
+    private int[] getPLMPacketLengths(int tpNum) throws IOException {
+        if(plmLengths==null) {
+            plmSegs = hd.getPLMPacketLengths();
+            plmLengths = new ArrayList<int[]>();
+        }
+        while(plmSegs!=null && plmLengths.size()<=tpNum) {
+            int len = getTilePartBodyLength(plmLengths.size());
+            if(len<0) {
+                // Not known yet, the tile-part has not arrived
+                break;
+            }
+            int[] lengths = null;
+            int sum = 0;
+            while(plmSeg<plmSegs.size() &&
+                  (lengths==null || (sum<len && plmField==0))) {
+                List<int[]> seg = plmSegs.get(plmSeg);
+                if(plmField<seg.size()) {
+                    int[] field = seg.get(plmField);
+                    if(lengths==null) {
+                        lengths = field;
+                    } else {
+                        int[] tmp = new int[lengths.length+field.length];
+                        System.arraycopy(lengths,0,tmp,0,lengths.length);
+                        System.arraycopy(field,0,tmp,lengths.length,
+                                         field.length);
+                        lengths = tmp;
+                    }
+                    for(int i=0; i<field.length; i++) {
+                        sum += field[i];
+                    }
+                    plmField++;
+                }
+                if(plmField>=seg.size()) {
+                    plmSeg++;
+                    plmField = 0;
+                }
+            }
+            if(lengths==null || sum!=len) {
+                FacilityManager.getMsgLogger().
+                    printmsg(MsgLogger.WARNING,"PLM marker segments do "+
+                             "not match tile-part "+plmLengths.size()+
+                             ", ignoring them");
+                plmSegs = null;
+                break;
+            }
+            plmLengths.add(lengths);
+        }
+        return tpNum<plmLengths.size() ? plmLengths.get(tpNum) : null;
+    }
+
+    /**
+     * Records the length of the packets of a tile-part, once its header has
+     * been read.
+     *
+     * @param tpNum The number of the tile-part in the codestream
+     *
+     * @param len The length of the tile-part without its header
+     * */
+    private void setTilePartBodyLength(int tpNum,int len) {
+        if(tpNum>=tilePartBodyLen.length) {
+            int[] tmp = new int[Math.max(tpNum+1,2*tilePartBodyLen.length)];
+            System.arraycopy(tilePartBodyLen,0,tmp,0,tilePartBodyLen.length);
+            Arrays.fill(tmp,tilePartBodyLen.length,tmp.length,-1);
+            tilePartBodyLen = tmp;
+        }
+        tilePartBodyLen[tpNum] = len;
+    }
+
+    /**
+     * Returns the length of the packets of a tile-part. If its header has not
+     * been read yet, which happens when tile-parts are located from TLM
+     * marker segments, its length is read from its SOT marker segment and
+     * the length of its header found by skipping its marker segments. The
+     * position in the codestream is left unchanged.
+     *
+     * @param tpNum The number of the tile-part in the codestream
+     *
+     * @return The length of the tile-part without its header, or -1 if it is
+     * not known.
+     * */
+    private int getTilePartBodyLength(int tpNum) throws IOException {
+        if(tpNum<tilePartBodyLen.length && tilePartBodyLen[tpNum]>=0) {
+            return tilePartBodyLen[tpNum];
+        }
+        if(tilePartStarts==null || tpNum>=tilePartStarts.length) {
+            return -1;
+        }
+        int savePos = in.getPos();
+        int start = (int)tilePartStarts[tpNum];
+        int len = -1;
+        try {
+            in.seek(start);
+            if(in.readShort()==SOT) {
+                in.skipBytes(4); // Lsot, Isot
+                int psot = in.readInt();
+                if(psot==0) {
+                    psot = in.length()-2-start;
+                }
+                in.skipBytes(2); // TPsot, TNsot
+                while(in.readShort()!=SOD) {
+                    in.skipBytes(in.readUnsignedShort()-2);
+                }
+                len = psot-(in.getPos()-start);
+                setTilePartBodyLength(tpNum,len);
+            }
+        } catch(EOFException e) {
+            // The tile-part has not arrived, its length is not known
+        }
+        in.seek(savePos);
+        return len;
+    }
+
+    /**
+     * Takes the buffers of another agent, which is no longer used, so that
+     * they are reused by this one instead of being allocated again. Only the
+     * tag trees of the packet decoder are reused, as the code-block data is
+     * referenced by the code-blocks of the previous codestream.
+     *
+     * @param prev The agent to take the buffers of. It must not be used
+     * after this call.
+     * */
+    public void reuseBuffers(FileBitstreamReaderAgent prev) {
+        pktDec.reuseBuffers(prev.pktDec);
+    }
+
+    /**
+     * Returns whether all the data of a tile has arrived, when reading from
+     * an IncrementalRandomAccessIO whose data is still arriving. The
+     * tile-parts are located from the TLM marker segments if present, and
+     * otherwise by following the SOT marker segments from the end of the
+     * main header, as far as the data has arrived. A tile whose tile-part
+     * headers do not signal the number of tile-parts is only available once
+     * the whole codestream has arrived.
+     *
+     * @param t The tile index.
+     *
+     * @return true if the tile can be decoded without waiting.
+     * */
+    public boolean isTileAvailable(int t) throws IOException {
+        if(!(in instanceof IncrementalRandomAccessIO) ||
+           ((IncrementalRandomAccessIO)in).isComplete()) {
+            return true;
+        }
+        int avail = ((IncrementalRandomAccessIO)in).getAvailableLength();
+        synchronized(in) {
+            int savePos = in.getPos();
+            try {
+                if(tilePartPositions != null) {
+                    for(int tp=0; tp<tilePartPositions[t].length; tp++) {
+                        int pos = (int)tilePartPositions[t][tp];
+                        if(pos+12 > avail) {
+                            return false;
+                        }
+                        in.seek(pos+6);
+                        int psot = in.readInt();
+                        if(psot <= 0 || pos+psot > avail) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+                if(availTileParts == null) {
+                    availTileParts = new int[nt];
+                    availPos = cdstreamStart+mainHeadLen;
+                }
+                while(availPos+12 <= avail) {
+                    in.seek(availPos);
+                    if(in.readShort() != SOT) {
+                        break;
+                    }
+                    in.skipBytes(2);
+                    int tile = in.readUnsignedShort();
+                    int psot = in.readInt();
+                    in.skipBytes(1);
+                    int tnsot = in.read();
+                    // Psot is 0 in the last tile-part, which runs to EOC
+                    if(tile >= nt || psot <= 0 || availPos+psot > avail) {
+                        break;
+                    }
+                    if(availTileParts[tile] >= 0) {
+                        availTileParts[tile]++;
+                    }
+                    if(tnsot != 0 && availTileParts[tile] >= tnsot) {
+                        // All tile-parts found, mark with a negative count
+                        availTileParts[tile] = -1;
+                    }
+                    availPos += psot;
+                }
+                return availTileParts[t] < 0;
+            } finally {
+                in.seek(savePos);
+            }
+        }
+    }
+
+    /**
+     * Skips the next packet of the current tile, using the packet lengths
+     * signalled in the codestream, if it is not needed to decode the
+     * resolution level and area set by setDecodingArea() or belongs to a
+     * layer beyond the last one decoded. Must be called once for each
+     * packet, in codestream order.
+     *
+     * @param l The layer of the packet
+     *
+     * @param r The resolution level of the packet
+     *
+     * @param c The component of the packet
+     *
+     * @param p The precinct of the packet
+     *
+     * @return True if the packet has been skipped.
+     * */
+    private boolean skipPacket(int l,int r,int c,int p) throws IOException {
+        if(pktLen==null || p>=pktDec.getNumPrecinct(c,r)) {
+            return false;
+        }
+        if(pktLenIdx>=pktLen.length) {
+            FacilityManager.getMsgLogger().
+                printmsg(MsgLogger.WARNING,"More packets than signalled "+
+                         "in tile "+getTileIdx());
+            pktLen = null;
+            return false;
+        }
+        int len = pktLen[pktLenIdx++];
+        if((lQuit==-1 || l<lQuit) && isPacketNeeded(r,c,p)) {
+            return false;
+        }
+        in.seek(in.getPos()+len);
+        pktDec.skipPkt();
+        return true;
+    }
+
+    /**
+     * Checks whether a packet of the current tile contributes to the
+     * resolution level and area set by setDecodingArea(). The precinct of the
+     * packet is extended by a margin covering the support of the synthesis
+     * filters of all the decomposition levels it goes through, so that the
+     * decoded area is the same as if every packet was read.
+     *
+     * @param r The resolution level of the packet
+     *
+     * @param c The component of the packet
+     *
+     * @param p The precinct of the packet
+     *
+     * @return True if the packet is needed.
+     * */
+    private boolean isPacketNeeded(int r,int c,int p) {
+        int rl = (decRes<0 || decRes>targetRes) ? targetRes : decRes;
+        if(r>rl+mdl[c]-decSpec.dls.getMin()) {
+            return false;
+        }
+        if(decArea==null) {
+            return true;
+        }
+
+        // Largest support of the synthesis filters
+        int t = getTileIdx();
+        SynWTFilter[] hf = decSpec.wfs.getHFilters(t,c);
+        SynWTFilter[] vf = decSpec.wfs.getVFilters(t,c);
+        int sup = 0;
+        for(int i=0; i<hf.length; i++) {
+            sup = Math.max(sup,getSupport(hf[i]));
+        }
+        for(int i=0; i<vf.length; i++) {
+            sup = Math.max(sup,getSupport(vf[i]));
+        }
+        // The area is extended by twice the support at each decomposition
+        // level, which adds up to less than four times the support in the
+        // coordinates of the lowest level, plus one for the rounding
+        int m = 4*(sup+1);
+
+        // Area in the coordinates of the resolution level
+        int sx = hd.getCompSubsX(c)<<(mdl[c]-r);
+        int sy = hd.getCompSubsY(c)<<(mdl[c]-r);
+        int x0 = decArea.x/sx-m;
+        int y0 = decArea.y/sy-m;
+        int x1 = (decArea.x+decArea.width+sx-1)/sx+m;
+        int y1 = (decArea.y+decArea.height+sy-1)/sy+m;
+
+        PrecInfo prec = pktDec.getPrecInfo(c,r,p);
+        return prec.ulx<x1 && prec.ulx+prec.w>x0 &&
+            prec.uly<y1 && prec.uly+prec.h>y0;
+    }
+
+    /**
+     * Returns the largest support of a synthesis filter.
+     *
+     * @param f The filter
+     *
+     * @return The largest of its low-pass and high-pass, negative and
+     * positive supports.
+     * */
+    private static int getSupport(SynWTFilter f) {
+        return Math.max(Math.max(f.getSynLowNegSupport(),
+                                 f.getSynLowPosSupport()),
+                        Math.max(f.getSynHighNegSupport(),
+                                 f.getSynHighPosSupport()));
+    }
+
     /**
      * Changes the current tile, given the new indexes. An
      * IllegalArgumentException is thrown if the indexes do not correspond to
@@ -2231,8 +2804,8 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             derived[c] = decSpec.qts.isDerived(t,c);
             params[c] =
                 (StdDequantizerParams)decSpec.qsss.getTileCompVal(t,c);
-            gb[c] = ((Integer)decSpec.gbs.getTileCompVal(t,c)).intValue();
-            mdl[c] = ((Integer)decSpec.dls.getTileCompVal(t,c)).intValue();
+            gb[c] = decSpec.gbs.getTileCompIntVal(t,c);
+            mdl[c] = decSpec.dls.getTileCompIntVal(t,c);
 
             subbTrees[c] =
                 new SubbandSyn(getTileCompWidth(t,c,mdl[c]),
@@ -2270,6 +2843,220 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         }
     }
 
+    /**
+     * Prepares reading the compressed data of the code-blocks of the current
+     * tile in windows of at most MAX_WINDOW bytes, so that each code-block
+     * can be returned as a slice of the window holding it. If the codestream
+     * is held in an array, the whole codestream is the window and no data is
+     * copied. Otherwise the end of the data used in each tile-part is found,
+     * so that a window never extends beyond it.
+     *
+     * <p>This is not done if only some of the code-blocks will be requested
+     * and the packets of the others have not been skipped, as it would read
+     * much more data than needed. The data of each code-block is then read
+     * when it is requested.</p>
+     *
+     * @param t The index of the current tile
+     * */
+    private void initTileData(int t) throws IOException {
+        tileDataHi = null;
+        winData = null;
+        winLo = winHi = winDelta = 0;
+        if(pktLen==null &&
+           (decArea!=null || (decRes>=0 && decRes<targetRes))) {
+            return;
+        }
+
+        if(in instanceof ByteBufferRandomAccessIO) {
+            ByteBufferRandomAccessIO bin = (ByteBufferRandomAccessIO)in;
+            byte[] array = bin.array();
+            if(array!=null) {
+                winData = array;
+                winHi = in.length();
+                winDelta = bin.arrayOffset();
+                tileDataHi = new int[0];
+                return;
+            }
+        }
+
+        // Find the end of the data used in each tile-part
+        int ntp = tilePartsRead[t];
+        int[] hi = new int[ntp];
+        int nl = decSpec.nls.getTileIntDef(t);
+        if(lQuit!=-1 && lQuit<nl) {
+            nl = lQuit;
+        }
+        for(int c=0; c<cbI.length; c++) {
+            if(cbI[c]==null) continue;
+            for(int r=0; r<cbI[c].length; r++) {
+                if(cbI[c][r]==null) continue;
+                for(int s=0; s<cbI[c][r].length; s++) {
+                    if(cbI[c][r][s]==null) continue;
+                    for(int m=0; m<cbI[c][r][s].length; m++) {
+                        if(cbI[c][r][s][m]==null) continue;
+                        for(int n=0; n<cbI[c][r][s][m].length; n++) {
+                            CBlkInfo rcb = cbI[c][r][s][m][n];
+                            if(rcb==null) continue;
+                            for(int l=0; l<nl && l<rcb.len.length; l++) {
+                                if(rcb.len[l]==0) continue;
+                                int tp = getTilePartAt(t,rcb.off[l]);
+                                if(tp>=0) {
+                                    hi[tp] = Math.max(hi[tp],
+                                                      rcb.off[l]+rcb.len[l]);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        tileDataHi = hi;
+    }
+
+    /**
+     * Returns the index of the tile-part of the specified tile containing
+     * the specified offset.
+     *
+     * @return The index of the tile-part, -1 if none.
+     * */
+    private int getTilePartAt(int t,int off) {
+        for(int tp=0; tp<tilePartsRead[t]; tp++) {
+            int start = firstPackOff[t][tp];
+            if(off>=start &&
+               off<start+tilePartLen[t][tp]-tilePartHeadLen[t][tp]) {
+                return tp;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a new window of the current tile's data, starting at the
+     * specified offset, and ending at the end of the data used in its
+     * tile-part or after MAX_WINDOW bytes. The previous window is not
+     * reused, as code-blocks returned from it may not have been decoded
+     * yet.
+     *
+     * @param off The offset in the codestream of the start of the window
+     *
+     * @return False if the offset is not in a tile-part of the current tile
+     * */
+    private boolean loadWindow(int off) throws IOException {
+        int tp = getTilePartAt(getTileIdx(),off);
+        if(tp<0 || tp>=tileDataHi.length || tileDataHi[tp]<=off) {
+            return false;
+        }
+        int len = Math.min(tileDataHi[tp]-off,MAX_WINDOW);
+        winData = new byte[len];
+        in.seek(off);
+        in.readFully(winData,0,len);
+        winLo = off;
+        winHi = off+len;
+        winDelta = -off;
+        return true;
+    }
+
+    /**
+     * Sets the compressed data of the returned code-block. If the data of
+     * its layers is contiguous it is returned as a slice of the window
+     * holding it, reading a new window if necessary. Otherwise, or if the
+     * data of the tile is not read in windows, the data of the code-block is
+     * copied or read and appended to cbData, which is replaced by a new
+     * array when full.
+     *
+     * @param rcb The code-block
+     *
+     * @param fl The first layer to return
+     *
+     * @param nl The number of layers to return
+     *
+     * @param ccb The returned code-block, whose 'dl' is already set
+     * */
+    private void readCodeBlockData(CBlkInfo rcb,int fl,int nl,
+                                   DecLyrdCBlk ccb) throws IOException {
+        if(!tileDataInit) {
+            initTileData(getTileIdx());
+            tileDataInit = true;
+        }
+
+        // Find the range of the data, and whether it is contiguous
+        int lo = -1, end = -1;
+        boolean contiguous = true;
+        for(int l=fl-1; l<fl+nl-1; l++) {
+            if(rcb.len[l]==0) continue;
+            if(lo==-1) {
+                lo = rcb.off[l];
+            } else if(rcb.off[l]!=end) {
+                contiguous = false;
+            }
+            end = rcb.off[l]+rcb.len[l];
+        }
+        if(lo!=-1 && contiguous && tileDataHi!=null) {
+            if((lo>=winLo && end<=winHi) ||
+               (end-lo<=MAX_WINDOW && loadWindow(lo))) {
+                ccb.data = winData;
+                ccb.off = lo+winDelta;
+                return;
+            }
+        }
+
+        // Gather the data of the code-block
+        // NOTE: we should never get an EOFException here since all
+        // data is checked to be within the file.
+        if(cbData==null || cbDataLen+ccb.dl>cbData.length) {
+            cbData = new byte[Math.max(ccb.dl,1<<16)];
+            cbDataLen = 0;
+        }
+        ccb.data = cbData;
+        ccb.off = cbDataLen;
+        for(int l=fl-1; l<fl+nl-1; l++) {
+            if(rcb.len[l]==0) continue;
+            if(rcb.off[l]>=winLo && rcb.off[l]+rcb.len[l]<=winHi) {
+                System.arraycopy(winData,rcb.off[l]+winDelta,cbData,cbDataLen,
+                                 rcb.len[l]);
+            } else {
+                in.seek(rcb.off[l]);
+                in.readFully(cbData,cbDataLen,rcb.len[l]);
+            }
+            cbDataLen += rcb.len[l];
+        }
+    }
+
+    /**
+     * Sets the position and size of a code-block from the code-block
+     * partition of its subband, for a code-block of which no packet header
+     * has been read.
+     *
+     * @param sb The subband to which the code-block belongs.
+     *
+     * @param m The vertical index of the code-block, in the subband.
+     *
+     * @param n The horizontal index of the code-block, in the subband.
+     *
+     * @param ccb The code-block to set the position and size of.
+     * */
+    private void setCodeBlockArea(SubbandSyn sb,int m,int n,DecLyrdCBlk ccb) {
+        // Projects code-block partition origin to subband, as in
+        // initSubbandsFields()
+        int acb0x = (sb.sbandIdx==Subband.WT_ORIENT_HL ||
+                     sb.sbandIdx==Subband.WT_ORIENT_HH) ? 0 : getCbULX();
+        int acb0y = (sb.sbandIdx==Subband.WT_ORIENT_LH ||
+                     sb.sbandIdx==Subband.WT_ORIENT_HH) ? 0 : getCbULY();
+        int cw = sb.nomCBlkW;
+        int ch = sb.nomCBlkH;
+        // Code-blocks are located at (acb0x+l*cw,acb0y+k*ch)
+        int l = (sb.ulcx-acb0x)/cw+n;
+        int k = (sb.ulcy-acb0y)/ch+m;
+        int x0 = Math.max(acb0x+l*cw,sb.ulcx);
+        int x1 = Math.min(acb0x+(l+1)*cw,sb.ulcx+sb.w);
+        int y0 = Math.max(acb0y+k*ch,sb.ulcy);
+        int y1 = Math.min(acb0y+(k+1)*ch,sb.ulcy+sb.h);
+        ccb.ulx = sb.ulx+x0-sb.ulcx;
+        ccb.uly = sb.uly+y0-sb.ulcy;
+        ccb.w = x1-x0;
+        ccb.h = y1-y0;
+    }
+
     /**
      * Returns the specified coded code-block, for the specified component, in
      * the current tile. The first layer to return is indicated by 'fl'. The
@@ -2313,9 +3100,9 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
      * layers are returned, starting at 'fl'.
      *
      * @param ccb If not null this object is used to return the compressed
-     * code-block. If null a new object is created and returned. If the data
-     * array in ccb is not null then it can be reused to return the compressed
-     * data.
+     * code-block. If null a new object is created and returned. The
+     * compressed data is returned as a slice of the data of the tile, so no
+     * array is allocated for it.
      * @return The compressed code-block, with a certain number of layers
      * determined by the available data and 'nl'.
      * */
@@ -2330,8 +3117,8 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         int passtype;
 
         // Number of layers
-        int numLayers = ((Integer)decSpec.nls.getTileDef(t)).intValue();
-        int options = ((Integer)decSpec.ecopts.getTileCompVal(t,c)).intValue();
+        int numLayers = decSpec.nls.getTileIntDef(t);
+        int options = decSpec.ecopts.getTileCompIntVal(t,c);
         if(nl<0) {
             nl = numLayers-fl+1;
         }
@@ -2380,10 +3167,13 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         ccb.nTrunc = 0;
 
         if(rcb==null) {
-            // This code-block was skipped when reading. Returns no data
+            // This code-block was skipped when reading, as in truncation
+            // mode. Returns no data, but with the code-block's area so that
+            // it is decoded as zeros rather than leaving the tile's previous
+            // content there
             ccb.skipMSBP = 0;
             ccb.prog = false;
-            ccb.w = ccb.h = ccb.ulx = ccb.uly = 0;
+            setCodeBlockArea(sb,m,n,ccb);
             return ccb;
         }
 
@@ -2446,9 +3236,11 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             nts = 1;
         }
 
-        // ccb.data creation
-        if(ccb.data==null || ccb.data.length<ccb.dl) {
-            ccb.data = new byte[ccb.dl];
+        // Get the compressed data
+        try {
+            readCodeBlockData(rcb,fl,nl,ccb);
+        } catch (IOException e) {
+            JJ2KExceptionHandler.handleException(e);
         }
 
         // ccb.tsLengths creation
@@ -2459,8 +3251,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             ArrayUtil.intArraySet(ccb.tsLengths,0);
         }
 
-        // Fill ccb with compressed data
-        int dataIdx = -1;
+        // Fill ccb with the terminated segment lengths
         tpidx = ccb.ftpIdx;
         int ctp = ccb.ftpIdx; // Cumulative number of truncation
         // point for the current layer layer
@@ -2472,17 +3263,6 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             // No data in this layer
             if(rcb.len[l]==0) continue;
 
-            // Read data
-            // NOTE: we should never get an EOFException here since all
-            // data is checked to be within the file.
-            try {
-                in.seek(rcb.off[l]);
-                in.readFully(ccb.data,dataIdx+1,rcb.len[l]);
-                dataIdx += rcb.len[l];
-            } catch (IOException e) {
-                JJ2KExceptionHandler.handleException(e);
-            }
-
             // Get the terminated segment lengths, if any
             if(nts==1) continue;
             if((options & OPT_TERM_PASS) != 0) {
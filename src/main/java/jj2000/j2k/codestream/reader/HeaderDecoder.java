@@ -48,8 +48,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Executor;
 
 import jj2000.j2k.ModuleSpec;
 import jj2000.j2k.NotImplementedError;
@@ -61,7 +64,6 @@ import jj2000.j2k.decoder.DecoderSpecs;
 import jj2000.j2k.entropy.StdEntropyCoderOptions;
 import jj2000.j2k.entropy.decoder.CodedCBlkDataSrcDec;
 import jj2000.j2k.entropy.decoder.EntropyDecoder;
-import jj2000.j2k.entropy.decoder.StdEntropyDecoder;
 import jj2000.j2k.io.RandomAccessIO;
 import jj2000.j2k.quantization.dequantizer.CBlkQuantDataSrcDec;
 import jj2000.j2k.quantization.dequantizer.Dequantizer;
@@ -168,6 +170,12 @@ public class HeaderDecoder implements ProgressionType, Markers,
     /** Counts number of PPT markers found in the header */
     private int[][] nPPTMarkSeg = null;
 
+    /** Counts number of PLM markers found in the header */
+    private int nPLMMarkSeg = 0;
+
+    /** Counts number of PLT markers found in the tile-part header */
+    private int nPLTMarkSeg = 0;
+
     /** Flag bit for SIZ marker segment found */
     private static final int SIZ_FOUND = 1;
 
@@ -249,6 +257,14 @@ public class HeaderDecoder implements ProgressionType, Markers,
     /** Array containing the Ippm fields of the PPT marker segments */
     private byte[][][][] tilePartPkdPktHeaders;
 
+    /** Array containing the Nplm and Iplm fields of the PLM marker
+     * segments */
+    private byte[][] pLMMarkerData;
+
+    /** The packet lengths signalled in the PLT marker segments, for each
+     * tile, tile-part and Zplt index */
+    private int[][][][] pLTPktLengths;
+
     /** The packed packet headers if the PPM or PPT markers are used */
     private ByteArrayOutputStream[] pkdPktHeaders;
 
@@ -774,8 +790,8 @@ public class HeaderDecoder implements ProgressionType, Markers,
         if(qType == SQCX_NO_QUANTIZATION) {
             int maxrl =
                 ( mainh ?
-                  ((Integer)decSpec.dls.getDefault()).intValue() :
-                  ((Integer)decSpec.dls.getTileDef(tileIdx)).intValue());
+                  decSpec.dls.getIntDefault() :
+                  decSpec.dls.getTileIntDef(tileIdx));
             int i,j,rl;
             int minb,maxb,hpd;
             int tmp;
@@ -814,8 +830,8 @@ public class HeaderDecoder implements ProgressionType, Markers,
         } else {
             int maxrl = (qType == SQCX_SCALAR_DERIVED) ? 0 :
                 ( mainh ?
-                 ((Integer)decSpec.dls.getDefault()).intValue() :
-                 ((Integer)decSpec.dls.getTileDef(tileIdx)).intValue());
+                 decSpec.dls.getIntDefault() :
+                 decSpec.dls.getTileIntDef(tileIdx));
             int i,j,rl;
             int minb,maxb,hpd;
             int tmp;
@@ -968,9 +984,8 @@ public class HeaderDecoder implements ProgressionType, Markers,
 
         if (qType == SQCX_NO_QUANTIZATION) {
             int maxrl = ( mainh ?
-                          ((Integer)decSpec.dls.getCompDef(cComp)).intValue() :
-                          ((Integer)decSpec.dls.getTileCompVal(tileIdx,cComp)).
-                          intValue());
+                          decSpec.dls.getCompIntDef(cComp) :
+                          decSpec.dls.getTileCompIntVal(tileIdx,cComp));
             int i,j,rl;
             int minb,maxb,hpd;
 
@@ -1007,9 +1022,8 @@ public class HeaderDecoder implements ProgressionType, Markers,
         } else {
             int maxrl = (qType == SQCX_SCALAR_DERIVED) ? 0 :
                 ( mainh ?
-                 ((Integer)decSpec.dls.getCompDef(cComp)).intValue() :
-                 ((Integer)decSpec.dls.getTileCompVal(tileIdx,cComp)).
-                  intValue());
+                 decSpec.dls.getCompIntDef(cComp) :
+                 decSpec.dls.getTileCompIntVal(tileIdx,cComp));
             int i,j,rl;
             int minb,maxb,hpd;
 
@@ -1658,45 +1672,202 @@ public class HeaderDecoder implements ProgressionType, Markers,
     }
 
     /**
-     * Reads PLM marker segment and realigns the codestream where the next
-     * marker should be found. Informations stored in these fields are
-     * currently not taken into account.
+     * Reads the PLM marker segment of the main header. The Nplm and Iplm
+     * fields are only stored here, they are decoded in packet lengths when
+     * first requested.
      *
      * @param ehs The encoder header stream.
      *
      * @exception IOException If an I/O error occurs while reading from the
      * encoder header stream
+     *
+     * @see #getPLMPacketLengths
      * */
     private void readPLM(DataInputStream ehs) throws IOException{
-	int length;
+        int curMarkSegLen;
+        int indx;
 
-	length = ehs.readUnsignedShort();
-	//Ignore all informations contained
-	ehs.skipBytes(length-2);
+        if(pLMMarkerData==null) {
+            pLMMarkerData = new byte[256][];
+        }
 
-        FacilityManager.getMsgLogger().
-            printmsg(MsgLogger.INFO,"Skipping unsupported PLM marker");
+        // Lplm (marker length)
+        curMarkSegLen = ehs.readUnsignedShort();
+
+        // Zplm (index of PLM marker)
+        indx = ehs.readUnsignedByte();
+
+        // Nplm and Iplm data
+        pLMMarkerData[indx] = new byte[curMarkSegLen-3];
+        ehs.readFully(pLMMarkerData[indx]);
+
+        // Check marker length
+        checkMarkerLength(ehs,"PLM marker");
     }
 
     /**
-     * Reads the PLT fields and realigns the codestream where the next marker
-     * should be found. Informations stored in these fields are currently NOT
-     * taken into account.
+     * Reads the PLT marker segment of a tile-part header, and stores the
+     * packet lengths it signals under its Zplt index, so that those of all
+     * the marker segments of the tile-part are returned in Zplt order.
      *
      * @param ehs The encoder header stream.
      *
+     * @param tile The tile to which the current tile part belongs
+     *
+     * @param tpIdx Tile-part index
+     *
      * @exception IOException If an I/O error occurs while reading from the
      * encoder header stream
+     *
+     * @see #getPacketLengths
      * */
-    private void readPLTFields(DataInputStream ehs) throws IOException{
-	int length;
+    private void readPLTFields(DataInputStream ehs,int tile,int tpIdx)
+        throws IOException{
+        int curMarkSegLen;
+        byte[] iplt;
 
-	length = ehs.readUnsignedShort();
-	//Ignore all informations contained
-	ehs.skipBytes(length-2);
+        int indx;
 
-        FacilityManager.getMsgLogger().
-            printmsg(MsgLogger.INFO,"Skipping unsupported PLT marker");
+        if(pLTPktLengths==null) {
+            pLTPktLengths = new int[nTiles][][][];
+        }
+        if(pLTPktLengths[tile]==null) {
+            pLTPktLengths[tile] = new int[tpIdx+1][][];
+        } else if(pLTPktLengths[tile].length<=tpIdx) {
+            int[][][] tmp = new int[tpIdx+1][][];
+            System.arraycopy(pLTPktLengths[tile],0,tmp,0,
+                             pLTPktLengths[tile].length);
+            pLTPktLengths[tile] = tmp;
+        }
+        if(pLTPktLengths[tile][tpIdx]==null) {
+            pLTPktLengths[tile][tpIdx] = new int[256][];
+        }
+
+        // Lplt (marker length)
+        curMarkSegLen = ehs.readUnsignedShort();
+
+        // Zplt (index of PLT marker)
+        indx = ehs.readUnsignedByte();
+
+        // Iplt (packet lengths)
+        iplt = new byte[curMarkSegLen-3];
+        ehs.readFully(iplt);
+        pLTPktLengths[tile][tpIdx][indx] =
+            decodePacketLengths(iplt,0,iplt.length);
+
+        // Check marker length
+        checkMarkerLength(ehs,"PLT marker");
+    }
+
+    /**
+     * Decodes the packet lengths of an Iplt or Iplm field. Each length is
+     * coded on as many bytes as needed, 7 bits per byte with the most
+     * significant bits first, and the most significant bit of every byte but
+     * the last one set.
+     *
+     * @param buf The buffer containing the field
+     *
+     * @param off The offset of the field in buf
+     *
+     * @param len The length of the field, in bytes
+     *
+     * @return The decoded lengths
+     * */
+    private static int[] decodePacketLengths(byte[] buf,int off,int len) {
+        int n = 0;
+        for(int i=off; i<off+len; i++) {
+            if((buf[i]&0x80)==0) {
+                n++;
+            }
+        }
+        int[] lengths = new int[n];
+        int np = 0;
+        int v = 0;
+        for(int i=off; i<off+len; i++) {
+            v = (v<<7) | (buf[i]&0x7F);
+            if((buf[i]&0x80)==0) {
+                lengths[np++] = v;
+                v = 0;
+            }
+        }
+        return lengths;
+    }
+
+    /**
+     * Returns the lengths of the packets of a tile-part, as signalled by the
+     * PLT marker segments of its header. The lengths include the packet
+     * headers, unless they are packed in PPM or PPT marker segments.
+     *
+     * @param tile The index of the tile
+     *
+     * @param tpIdx The index of the tile-part within the tile
+     *
+     * @return The packet lengths, in the order of the packets in the
+     * tile-part, or null if they are not signalled.
+     *
+     * @see #getPLMPacketLengths
+     * */
+    public int[] getPacketLengths(int tile,int tpIdx) {
+        if(pLTPktLengths==null || pLTPktLengths[tile]==null ||
+           tpIdx>=pLTPktLengths[tile].length ||
+           pLTPktLengths[tile][tpIdx]==null) {
+            return null;
+        }
+        int[][] segs = pLTPktLengths[tile][tpIdx];
+        int n = 0;
+        for(int i=0; i<segs.length; i++) {
+            if(segs[i]!=null) {
+                n += segs[i].length;
+            }
+        }
+        int[] lengths = new int[n];
+        n = 0;
+        for(int i=0; i<segs.length; i++) {
+            if(segs[i]!=null) {
+                System.arraycopy(segs[i],0,lengths,n,segs[i].length);
+                n += segs[i].length;
+            }
+        }
+        return lengths;
+    }
+
+    /**
+     * Returns the packet lengths signalled in the PLM marker segments of the
+     * main header, in Zplm order. For each marker segment there is one array
+     * of packet lengths for each of its Nplm fields, which are in codestream
+     * order. The packet lengths of a tile-part may continue in the first
+     * Nplm field of the next marker segment, which cannot be told from the
+     * marker segments alone, so they are not merged by tile-part here.
+     *
+     * @return The packet lengths of each Nplm field of each marker segment,
+     * or null if there is no PLM marker segment.
+     * */
+    public List<List<int[]>> getPLMPacketLengths() {
+        if(pLMMarkerData==null) {
+            return null;
+        }
+        List<List<int[]>> segs = new ArrayList<List<int[]>>();
+        for(int i=0; i<pLMMarkerData.length; i++) {
+            byte[] buf = pLMMarkerData[i];
+            if(buf==null) continue;
+            List<int[]> seg = new ArrayList<int[]>();
+            int off = 0;
+            while(off<buf.length) {
+                // Nplm (number of bytes of Iplm for the tile-part)
+                int n = buf[off++]&0xFF;
+                if(off+n>buf.length) {
+                    FacilityManager.getMsgLogger().
+                        printmsg(MsgLogger.WARNING,"Truncated PLM marker "+
+                                 "segment "+i+", ignoring its last "+
+                                 "tile-part");
+                    break;
+                }
+                seg.add(decodePacketLengths(buf,off,n));
+                off += n;
+            }
+            segs.add(seg);
+        }
+        return segs;
     }
 
     /**
@@ -1973,16 +2144,8 @@ public class HeaderDecoder implements ProgressionType, Markers,
             nfMarkSeg |= TLM_FOUND;
             break;
         case PLM:
-            if((nfMarkSeg & PLM_FOUND) != 0) {
-                throw new CorruptedCodestreamException("More than one PLM "+
-                                                      "marker "+
-                                                      "found in main header");
-            }
-            FacilityManager.getMsgLogger().
-                printmsg(MsgLogger.WARNING,"PLM marker segment found but "+
-                         "not used by by JJ2000 decoder.");
             nfMarkSeg |= PLM_FOUND;
-            htKey = "PLM";
+            htKey = "PLM"+(nPLMMarkSeg++);
             break;
         case POC:
             if( (nfMarkSeg&POC_FOUND)!=0) {
@@ -2131,10 +2294,8 @@ public class HeaderDecoder implements ProgressionType, Markers,
                                                        "though PLM marker "+
                                                        "found in main header");
             }
-            FacilityManager.getMsgLogger().
-                printmsg(MsgLogger.WARNING,"PLT marker segment found but "+
-                         "not used by JJ2000 decoder.");
-            htKey = "UNKNOWN";
+            nfMarkSeg |= PLT_FOUND;
+            htKey = "PLT"+(nPLTMarkSeg++);
             break;
         default:
             htKey = "UNKNOWN";
@@ -2240,6 +2401,14 @@ public class HeaderDecoder implements ProgressionType, Markers,
             }
         }
 
+        // PLM marker segments
+        if((nfMarkSeg&PLM_FOUND) != 0) {
+            for(int i=0;i<nPLMMarkSeg; i++) {
+                bais = new ByteArrayInputStream( (byte[])(ht.get("PLM"+i)));
+                readPLM(new DataInputStream(bais));
+            }
+        }
+
         // Reset the hashtable
         ht = null;
     }
@@ -2318,6 +2487,14 @@ public class HeaderDecoder implements ProgressionType, Markers,
             }
         }
 
+        // PLT marker segments
+        if((nfMarkSeg&PLT_FOUND) != 0) {
+            for(int i=0;i<nPLTMarkSeg; i++) {
+                bais = new ByteArrayInputStream( (byte[])(ht.get("PLT"+i)) );
+                readPLTFields(new DataInputStream(bais),tileIdx,tpIdx);
+            }
+        }
+
         // Reset ht
         ht = null;
     }
@@ -2395,6 +2572,31 @@ public class HeaderDecoder implements ProgressionType, Markers,
      * */
     public EntropyDecoder createEntropyDecoder(CodedCBlkDataSrcDec src,
                                                J2KReadParam j2krparam) {
+        return createEntropyDecoder(src,j2krparam,null,0);
+    }
+
+    /**
+     * Creates and returns the entropy decoder, as above, which decodes the
+     * code-blocks in parallel on the specified Executor.
+     *
+     * @param src The bit stream reader agent where to get code-block data
+     * from.
+     *
+     * @param j2krparam The parameter list containing parameters applicable to the
+     * entropy decoder (other parameters can also be present).
+     *
+     * @param executor The Executor to decode the code-blocks on, or null to
+     * use the default of the entropy decoder.
+     *
+     * @param nthreads The maximum number of code-blocks decoded at a time on
+     * 'executor'.
+     *
+     * @return The entropy decoder
+     * */
+    public EntropyDecoder createEntropyDecoder(CodedCBlkDataSrcDec src,
+                                               J2KReadParam j2krparam,
+                                               Executor executor,
+                                               int nthreads) {
         // Get error detection option
         // boolean doer = j2krparam.getCer();;
         boolean doer = true;
@@ -2405,7 +2607,8 @@ public class HeaderDecoder implements ProgressionType, Markers,
         // Get maximum number of bit planes from m quit condition
 //        int mMax = j2krparam.getMQuit();
         int mMax = -1;
-        return new StdEntropyDecoder(src,decSpec,doer,verber,mMax);
+        return EntropyDecoder.createInstance(src,decSpec,doer,verber,mMax,
+                                             executor,nthreads);
     }
 
 
@@ -2519,6 +2722,7 @@ public class HeaderDecoder implements ProgressionType, Markers,
         nQCCMarkSeg = 0;
         nCOMMarkSeg = 0;
         nRGNMarkSeg = 0;
+        nPLTMarkSeg = 0;
     }
 
 
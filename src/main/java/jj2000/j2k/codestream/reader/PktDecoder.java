@@ -47,6 +47,9 @@ import java.awt.Point;
 import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Stack;
 import java.util.Vector;
 
 import jj2000.j2k.codestream.CBlkCoordInfo;
@@ -151,6 +154,12 @@ public class PktDecoder implements StdEntropyCoderOptions{
      * */
     private TagTreeDecoder[][][][] ttMaxBP;
 
+    /** The tag trees of the previous tiles which are no longer used, by
+     * their height and width, so that they are reused instead of allocated
+     * again for precincts of the same size. */
+    private Map<Long,Stack<TagTreeDecoder>> spareTagTrees =
+        new HashMap<Long,Stack<TagTreeDecoder>>();
+
     /** Number of layers in t he current tile */
     private int nl = 0;
 
@@ -259,10 +268,11 @@ public class PktDecoder implements StdEntropyCoderOptions{
         this.pph = pph;
         this.pphbais = pphbais;
 
-        sopUsed = ((Boolean)decSpec.sops.getTileDef(tIdx)).booleanValue();
+        sopUsed = decSpec.sops.getTileBooleanDef(tIdx);
         pktIdx = 0;
-        ephUsed = ((Boolean)decSpec.ephs.getTileDef(tIdx)).booleanValue();
+        ephUsed = decSpec.ephs.getTileBooleanDef(tIdx);
 
+        releaseTagTrees();
         cbI = new CBlkInfo[nc][][][][];
         lblock = new int[nc][][][][];
         ttIncl = new TagTreeDecoder[nc][][][];
@@ -356,6 +366,84 @@ public class PktDecoder implements StdEntropyCoderOptions{
         return cbI;
     }
 
+    /**
+     * Returns a tag tree of the specified size, reset to its initial state,
+     * reusing one of the spare tag trees if possible.
+     *
+     * @param h The number of elements along the vertical direction.
+     *
+     * @param w The number of elements along the horizontal direction.
+     * */
+    private TagTreeDecoder newTagTree(int h,int w) {
+        Stack<TagTreeDecoder> spare =
+            spareTagTrees.get(Long.valueOf(((long)h<<32)|w));
+        if(spare!=null && !spare.empty()) {
+            TagTreeDecoder tt = spare.pop();
+            tt.reset();
+            return tt;
+        }
+        return new TagTreeDecoder(h,w);
+    }
+
+    /**
+     * Moves the tag trees of the current tile to the spare tag trees, once
+     * its packets have all been read.
+     * */
+    private void releaseTagTrees() {
+        TagTreeDecoder[][][][][] trees = {ttIncl,ttMaxBP};
+        for(int i=0; i<trees.length; i++) {
+            if(trees[i]==null) continue;
+            for(int c=0; c<trees[i].length; c++) {
+                if(trees[i][c]==null) continue;
+                for(int r=0; r<trees[i][c].length; r++) {
+                    if(trees[i][c][r]==null) continue;
+                    for(int p=0; p<trees[i][c][r].length; p++) {
+                        for(int s=0; s<trees[i][c][r][p].length; s++) {
+                            TagTreeDecoder tt = trees[i][c][r][p][s];
+                            if(tt==null || tt.getWidth()==0 ||
+                               tt.getHeight()==0) {
+                                continue;
+                            }
+                            Long key = Long.valueOf(((long)tt.getHeight()<<32)|
+                                                    tt.getWidth());
+                            Stack<TagTreeDecoder> spare =
+                                spareTagTrees.get(key);
+                            if(spare==null) {
+                                spare = new Stack<TagTreeDecoder>();
+                                spareTagTrees.put(key,spare);
+                            }
+                            spare.push(tt);
+                        }
+                    }
+                }
+            }
+        }
+        ttIncl = ttMaxBP = null;
+    }
+
+    /**
+     * Takes the tag trees of another PktDecoder, which is no longer used, so
+     * that they are reused by this one instead of being allocated again.
+     * This is used to decode a series of images with the same geometry and
+     * coding parameters with little allocation.
+     *
+     * @param prev The PktDecoder to take the tag trees of. It must not be
+     * used after this call.
+     * */
+    public void reuseBuffers(PktDecoder prev) {
+        prev.releaseTagTrees();
+        for(Map.Entry<Long,Stack<TagTreeDecoder>> e :
+                prev.spareTagTrees.entrySet()) {
+            Stack<TagTreeDecoder> spare = spareTagTrees.get(e.getKey());
+            if(spare==null) {
+                spareTagTrees.put(e.getKey(),e.getValue());
+            } else {
+                spare.addAll(e.getValue());
+            }
+        }
+        prev.spareTagTrees = new HashMap<Long,Stack<TagTreeDecoder>>();
+    }
+
     /** 
      * Retrives precincts and code-blocks coordinates in the given resolution,
      * level and component. Finishes TagTreeEncoder initialization as well.
@@ -489,9 +577,9 @@ public class PktDecoder implements StdEntropyCoderOptions{
                         ttMaxBP[c][r][nPrec][0] = new TagTreeDecoder(0,0);
                     } else {
                         ttIncl[c][r][nPrec][0] =
-                            new TagTreeDecoder(kend-kstart+1,lend-lstart+1);
+                            newTagTree(kend-kstart+1,lend-lstart+1);
                         ttMaxBP[c][r][nPrec][0] =
-                            new TagTreeDecoder(kend-kstart+1,lend-lstart+1);
+                            newTagTree(kend-kstart+1,lend-lstart+1);
                         ppinfo[c][r][nPrec].cblk[0] =
                             new CBlkCoordInfo[kend-kstart+1][lend-lstart+1];
                         ppinfo[c][r][nPrec].
@@ -559,9 +647,9 @@ public class PktDecoder implements StdEntropyCoderOptions{
                         ttMaxBP[c][r][nPrec][1] = new TagTreeDecoder(0,0);
                     } else {
                         ttIncl[c][r][nPrec][1] =
-                            new TagTreeDecoder(kend-kstart+1,lend-lstart+1);
+                            newTagTree(kend-kstart+1,lend-lstart+1);
                         ttMaxBP[c][r][nPrec][1] =
-                            new TagTreeDecoder(kend-kstart+1,lend-lstart+1);
+                            newTagTree(kend-kstart+1,lend-lstart+1);
                         ppinfo[c][r][nPrec].cblk[1] =
                             new CBlkCoordInfo[kend-kstart+1][lend-lstart+1];
                         ppinfo[c][r][nPrec].
@@ -629,9 +717,9 @@ public class PktDecoder implements StdEntropyCoderOptions{
                         ttMaxBP[c][r][nPrec][2] = new TagTreeDecoder(0,0);
                     } else {
                         ttIncl[c][r][nPrec][2] =
-                            new TagTreeDecoder(kend-kstart+1,lend-lstart+1);
+                            newTagTree(kend-kstart+1,lend-lstart+1);
                         ttMaxBP[c][r][nPrec][2] =
-                            new TagTreeDecoder(kend-kstart+1,lend-lstart+1);
+                            newTagTree(kend-kstart+1,lend-lstart+1);
                         ppinfo[c][r][nPrec].cblk[2] =
                             new CBlkCoordInfo[kend-kstart+1][lend-lstart+1];
                         ppinfo[c][r][nPrec].
@@ -699,9 +787,9 @@ public class PktDecoder implements StdEntropyCoderOptions{
                         ttMaxBP[c][r][nPrec][3] = new TagTreeDecoder(0,0);
                     } else {
                         ttIncl[c][r][nPrec][3] =
-                            new TagTreeDecoder(kend-kstart+1,lend-lstart+1);
+                            newTagTree(kend-kstart+1,lend-lstart+1);
                         ttMaxBP[c][r][nPrec][3] =
-                            new TagTreeDecoder(kend-kstart+1,lend-lstart+1);
+                            newTagTree(kend-kstart+1,lend-lstart+1);
                         ppinfo[c][r][nPrec].cblk[3] =
                             new CBlkCoordInfo[kend-kstart+1][lend-lstart+1];
                         ppinfo[c][r][nPrec].
@@ -743,6 +831,15 @@ public class PktDecoder implements StdEntropyCoderOptions{
         } // Vertical precincts
    }
 
+    /**
+     * Accounts for a packet of the current tile which is skipped without
+     * being read, so that the sequence numbers of the following SOP marker
+     * segments are still checked correctly.
+     * */
+    public void skipPkt() {
+        pktIdx++;
+    }
+
    /** 
      * Gets the number of precincts in a given component and resolution level.
      *
@@ -984,8 +1081,7 @@ public class PktDecoder implements StdEntropyCoderOptions{
                         // MQ/bypass transition. Otherwise the only
                         // termination is at the end of the code-block.
                         int options =
-                            ((Integer)decSpec.ecopts.getTileCompVal(tIdx,c)).
-                            intValue();
+                            decSpec.ecopts.getTileCompIntVal(tIdx,c);
 
                         if( (options&OPT_TERM_PASS) != 0) {
                             // Regular termination in use, one segment per new
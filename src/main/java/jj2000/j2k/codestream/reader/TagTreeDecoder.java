@@ -168,6 +168,20 @@ public class TagTreeDecoder {
         return h;
     }
 
+    /**
+     * Resets the tree to the state it had when created: the values of all
+     * elements are set to Integer.MAX_VALUE and the states to 0. This allows
+     * the tree to be reused for another precinct of the same size.
+     *
+     *
+     * */
+    public void reset() {
+        for (int i=0; i<lvls; i++) {
+            ArrayUtil.intArraySet(treeV[i],Integer.MAX_VALUE);
+            ArrayUtil.intArraySet(treeS[i],0);
+        }
+    }
+
     /**
      * Decodes information for the specified element of the tree,
      * given the threshold, and updates its value. The information
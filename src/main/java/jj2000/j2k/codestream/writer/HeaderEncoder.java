@@ -69,6 +69,7 @@ import jj2000.j2k.wavelet.analysis.ForwardWT;
 import jj2000.j2k.wavelet.analysis.SubbandAn;
 
 import com.github.jpeg2000.J2KWriteParam;
+import com.github.jpeg2000.SimpleJ2KWriteParam;
 /**
  * This class writes almost of the markers and marker segments in main header
  * and in tile-part headers. It is created by the run() method of the Encoder
@@ -148,6 +149,18 @@ public class HeaderEncoder implements Markers, StdEntropyCoderOptions {
     /** The encoder specifications */
     protected J2KWriteParam wp;
 
+    /** The lengths of the tile-parts written in the TLM marker segments, or
+     * null if they are not known yet */
+    private int[] tilePartLengths;
+
+    /** The maximum number of tile-parts in a TLM marker segment, given the
+     * maximum marker segment length */
+    private static final int MAX_TLM_TILE_PARTS = (65535-4)/4;
+
+    /** The maximum number of bytes of packet lengths in a PLT marker
+     * segment, given the maximum marker segment length */
+    private static final int MAX_PLT_BYTES = 65535-3;
+
     /**
      * Initializes the header writer with the references to the coding chain.
      *
@@ -1511,12 +1524,100 @@ public class HeaderEncoder implements Markers, StdEntropyCoderOptions {
     }
 
 
+    /**
+     * Sets the lengths of the tile-parts, which are written in the TLM
+     * marker segments of the main header if these are used. Until they are
+     * set the TLM marker segments are written with null lengths, which is
+     * enough to compute the length of the main header.
+     *
+     * @param lengths The length of the tile-part of each tile, in bytes.
+     * */
+    public void setTilePartLengths(int[] lengths) {
+        tilePartLengths = lengths;
+    }
+
+    /**
+     * Writes the TLM marker segments. JJ2000 writes a single tile-part for
+     * each tile, in tile order, so the tile indexes are implied (ST=0) and
+     * the lengths are written on 32 bits (SP=1).
+     * */
+    private void writeTLM() throws IOException {
+        int nt = tiler.getNumTiles();
+        if(nt>256*MAX_TLM_TILE_PARTS) {
+            throw new IllegalArgumentException("Too many tiles for TLM "+
+                                               "marker segments");
+        }
+        int t = 0;
+        for(int z=0; t<nt; z++) {
+            int n = Math.min(nt-t,MAX_TLM_TILE_PARTS);
+
+            // TLM marker
+            hbuf.writeShort(TLM);
+
+            // Ltlm (Ltlm+Ztlm+Stlm+Ptlm)
+            hbuf.writeShort(4+4*n);
+
+            // Ztlm
+            hbuf.writeByte(z);
+
+            // Stlm
+            hbuf.writeByte(1<<6);
+
+            // Ptlm
+            for(int i=0; i<n; i++,t++) {
+                hbuf.writeInt(tilePartLengths==null ? 0 : tilePartLengths[t]);
+            }
+        }
+    }
+
+    /**
+     * Writes the PLT marker segments of a tile-part header. Each packet
+     * length is written on as many bytes as needed, 7 bits per byte, and is
+     * never split between two marker segments.
+     *
+     * @param pktLengths The length of each packet of the tile-part, in
+     * codestream order.
+     * */
+    private void writePLT(int[] pktLengths) throws IOException {
+        ByteArrayOutputStream iplt = new ByteArrayOutputStream();
+        int z = 0;
+        for(int i=0; i<=pktLengths.length; i++) {
+            int nb = 0;
+            if(i<pktLengths.length) {
+                nb = 1;
+                while(nb<5 && (pktLengths[i]>>>(7*nb))!=0) {
+                    nb++;
+                }
+            }
+            if(iplt.size()>0 && (i==pktLengths.length ||
+                                 iplt.size()+nb>MAX_PLT_BYTES)) {
+                if(z>255) {
+                    throw new IllegalArgumentException("Too many packets "+
+                                                       "for PLT marker "+
+                                                       "segments");
+                }
+                // PLT marker
+                hbuf.writeShort(PLT);
+                // Lplt (Lplt+Zplt+Iplt)
+                hbuf.writeShort(3+iplt.size());
+                // Zplt
+                hbuf.writeByte(z++);
+                // Iplt
+                iplt.writeTo(hbuf);
+                iplt.reset();
+            }
+            for(int j=nb-1; j>=0; j--) {
+                iplt.write(((pktLengths[i]>>>(7*j))&0x7F) | (j>0 ? 0x80 : 0));
+            }
+        }
+    }
+
     /**
      * Write main header. JJ2000 main header corresponds to the following
      * sequence of marker
      * segments:<ol><li>SOC</li><li>SIZ</li><li>COD</li><li>COC (if
      * needed)</li><li>QCD</li><li>QCC (if needed)</li><li>POC (if
-     * needed)</li></ol>
+     * needed)</li><li>TLM (if needed)</li></ol>
      * */
     public void encodeMainHeader() throws IOException {
         int i;
@@ -1585,6 +1686,13 @@ public class HeaderEncoder implements Markers, StdEntropyCoderOptions {
         if(prog.length>1)
             writePOC(true, 0);
 
+        // +--------------------------+
+        // |    TLM maker segment     |
+	// +--------------------------+
+        if(wp instanceof SimpleJ2KWriteParam &&
+           ((SimpleJ2KWriteParam)wp).getTLM())
+            writeTLM();
+
         // +--------------------------+
         // |      Comment (COM)       |
         // +--------------------------+
@@ -1699,6 +1807,24 @@ public class HeaderEncoder implements Markers, StdEntropyCoderOptions {
      * */
     public void encodeTilePartHeader(int tileLength,int tileIdx)
         throws IOException {
+        encodeTilePartHeader(tileLength,tileIdx,null);
+    }
+
+    /**
+     * Writes tile-part header, with PLT marker segments giving the length of
+     * its packets. The PLT marker segments are written just before SOD.
+     *
+     * @param length The length of the current tile-part.
+     *
+     * @param tileIdx Index of the tile to write
+     *
+     * @param pktLengths The length of each packet of the tile-part, in
+     * codestream order. If null no PLT marker segment is written.
+     *
+     * @see #encodeTilePartHeader(int,int)
+     * */
+    public void encodeTilePartHeader(int tileLength,int tileIdx,
+                                     int[] pktLengths) throws IOException {
 
         int tmp;
         Point numTiles = ralloc.getNumTiles(null);
@@ -1851,6 +1977,12 @@ public class HeaderEncoder implements Markers, StdEntropyCoderOptions {
                 writePOC(false,tileIdx);
         }
 
+	// +--------------------------+
+        // |    PLT maker segments    |
+	// +--------------------------+
+        if(pktLengths!=null)
+            writePLT(pktLengths);
+
 	// +--------------------------+
         // |         SOD maker        |
 	// +--------------------------+
@@ -1070,32 +1070,50 @@ public class PktEncoder {
      * @see #restore
      * */
     public void save() {
+        // Loop on tiles
+        for (int t=ttIncl.length-1; t>=0; t--) {
+            save(t);
+        }
+    }
+
+    /**
+     * Saves the current state of this object for one tile only. The last
+     * saved state of the tile can be restored with the restore(int)
+     * method. This is used when the tiles are rate allocated one at a time,
+     * to avoid saving the state of all the other tiles.
+     *
+     * @param t The index of the tile.
+     *
+     * @see #restore(int)
+     * */
+    public void save(int t) {
         int maxsbi,minsbi;
 
         // Have we done any save yet?
         if (bak_lblock==null) {
-            // Allocate backup buffers
             bak_lblock = new int[ttIncl.length][][][][];
             bak_prevtIdxs = new int[ttIncl.length][][][][];
-            for (int t=ttIncl.length-1; t>=0; t--) {
-                bak_lblock[t] = new int[ttIncl[t].length][][][];
-                bak_prevtIdxs[t] = new int[ttIncl[t].length][][][];
-                for (int c=ttIncl[t].length-1; c>=0; c--) {
-                    bak_lblock[t][c] = new int[lblock[t][c].length][][];
-                    bak_prevtIdxs[t][c] = new int[ttIncl[t][c].length][][];
-                    for (int r=lblock[t][c].length-1; r>=0; r--) {
-                        bak_lblock[t][c][r] =
-                            new int[lblock[t][c][r].length][];
-                        bak_prevtIdxs[t][c][r] =
-                            new int[prevtIdxs[t][c][r].length][];
-                        minsbi = (r==0) ? 0 : 1;
-                        maxsbi = (r==0) ? 1 : 4;
-                        for (int s=minsbi; s<maxsbi; s++) {
-                            bak_lblock[t][c][r][s] =
-                                new int[lblock[t][c][r][s].length];
-                            bak_prevtIdxs[t][c][r][s] =
-                                new int[prevtIdxs[t][c][r][s].length];
-                        }
+        }
+        // Have we done any save of this tile yet?
+        if (bak_lblock[t]==null) {
+            // Allocate backup buffers
+            bak_lblock[t] = new int[ttIncl[t].length][][][];
+            bak_prevtIdxs[t] = new int[ttIncl[t].length][][][];
+            for (int c=ttIncl[t].length-1; c>=0; c--) {
+                bak_lblock[t][c] = new int[lblock[t][c].length][][];
+                bak_prevtIdxs[t][c] = new int[ttIncl[t][c].length][][];
+                for (int r=lblock[t][c].length-1; r>=0; r--) {
+                    bak_lblock[t][c][r] =
+                        new int[lblock[t][c][r].length][];
+                    bak_prevtIdxs[t][c][r] =
+                        new int[prevtIdxs[t][c][r].length][];
+                    minsbi = (r==0) ? 0 : 1;
+                    maxsbi = (r==0) ? 1 : 4;
+                    for (int s=minsbi; s<maxsbi; s++) {
+                        bak_lblock[t][c][r][s] =
+                            new int[lblock[t][c][r][s].length];
+                        bak_prevtIdxs[t][c][r][s] =
+                            new int[prevtIdxs[t][c][r][s].length];
                     }
                 }
             }
@@ -1115,50 +1133,47 @@ public class PktEncoder {
             prevtIdxs_t_c_r[][],
             bak_prevtIdxs_t_c_r[][];
 
-        // Loop on tiles
-        for (int t=ttIncl.length-1; t>=0; t--) {
-            // Loop on components
-            for (int c=ttIncl[t].length-1; c>=0; c--) {
+        // Loop on components
+        for (int c=ttIncl[t].length-1; c>=0; c--) {
+            // Initialize reference caches
+            lblock_t_c = lblock[t][c];
+            bak_lblock_t_c = bak_lblock[t][c];
+            ttIncl_t_c = ttIncl[t][c];
+            ttMaxBP_t_c = ttMaxBP[t][c];
+            // Loop on resolution levels
+            for (int r=lblock_t_c.length-1; r>=0; r--) {
                 // Initialize reference caches
-                lblock_t_c = lblock[t][c];
-                bak_lblock_t_c = bak_lblock[t][c];
-                ttIncl_t_c = ttIncl[t][c];
-                ttMaxBP_t_c = ttMaxBP[t][c];
-                // Loop on resolution levels
-                for (int r=lblock_t_c.length-1; r>=0; r--) {
-                    // Initialize reference caches
-                    ttIncl_t_c_r = ttIncl_t_c[r];
-                    ttMaxBP_t_c_r = ttMaxBP_t_c[r];
-                    prevtIdxs_t_c_r = prevtIdxs[t][c][r];
-                    bak_prevtIdxs_t_c_r = bak_prevtIdxs[t][c][r];
-
-                    // Loop on subbands
-                    minsbi = (r==0) ? 0 : 1;
-                    maxsbi = (r==0) ? 1 : 4;
-                    for (int s=minsbi; s<maxsbi; s++) {
-                        // Save 'lblock'
-                        System.arraycopy(lblock_t_c[r][s],0,
-                                         bak_lblock_t_c[r][s],0,
-                                         lblock_t_c[r][s].length);
-                        // Save 'prevtIdxs'
-                        System.arraycopy(prevtIdxs_t_c_r[s],0,
-                                         bak_prevtIdxs_t_c_r[s],0,
-                                         prevtIdxs_t_c_r[s].length);
-                    } // End loop on subbands
-
-                    // Loop on precincts
-                    for(int p=ppinfo[t][c][r].length-1; p>=0; p--) {
-                        if(p<ttIncl_t_c_r.length) {
-                            // Loop on subbands
-                            for(int s=minsbi; s<maxsbi; s++) {
-                                ttIncl_t_c_r[p][s].save();
-                                ttMaxBP_t_c_r[p][s].save();
-                            } // End loop on subbands
-                        }
-                    } // End loop on precincts
-                } // End loop on resolutions
-            } // End loop on components
-        } // End loop on tiles
+                ttIncl_t_c_r = ttIncl_t_c[r];
+                ttMaxBP_t_c_r = ttMaxBP_t_c[r];
+                prevtIdxs_t_c_r = prevtIdxs[t][c][r];
+                bak_prevtIdxs_t_c_r = bak_prevtIdxs[t][c][r];
+
+                // Loop on subbands
+                minsbi = (r==0) ? 0 : 1;
+                maxsbi = (r==0) ? 1 : 4;
+                for (int s=minsbi; s<maxsbi; s++) {
+                    // Save 'lblock'
+                    System.arraycopy(lblock_t_c[r][s],0,
+                                     bak_lblock_t_c[r][s],0,
+                                     lblock_t_c[r][s].length);
+                    // Save 'prevtIdxs'
+                    System.arraycopy(prevtIdxs_t_c_r[s],0,
+                                     bak_prevtIdxs_t_c_r[s],0,
+                                     prevtIdxs_t_c_r[s].length);
+                } // End loop on subbands
+
+                // Loop on precincts
+                for(int p=ppinfo[t][c][r].length-1; p>=0; p--) {
+                    if(p<ttIncl_t_c_r.length) {
+                        // Loop on subbands
+                        for(int s=minsbi; s<maxsbi; s++) {
+                            ttIncl_t_c_r[p][s].save();
+                            ttMaxBP_t_c_r[p][s].save();
+                        } // End loop on subbands
+                    }
+                } // End loop on precincts
+            } // End loop on resolutions
+        } // End loop on components
 
         // Set the saved state
         saved = true;
@@ -1172,9 +1187,25 @@ public class PktEncoder {
      * @see #save
      * */
     public void restore() {
+        // Loop on tiles
+        for (int t=ttIncl.length-1; t>=0; t--) {
+            restore(t);
+        }
+    }
+
+    /**
+     * Restores the last saved state of this object for one tile only. An
+     * IllegalArgumentException is thrown if no state has been saved for the
+     * tile.
+     *
+     * @param t The index of the tile.
+     *
+     * @see #save(int)
+     * */
+    public void restore(int t) {
         int maxsbi,minsbi;
 
-        if (!saved) {
+        if (!saved || bak_lblock[t]==null) {
             throw new IllegalArgumentException();
         }
 
@@ -1189,50 +1220,47 @@ public class PktEncoder {
         int lblock_t_c[][][],bak_lblock_t_c[][][],prevtIdxs_t_c_r[][],
             bak_prevtIdxs_t_c_r[][];
 
-        // Loop on tiles
-        for (int t=ttIncl.length-1; t>=0; t--) {
-            // Loop on components
-            for (int c=ttIncl[t].length-1; c>=0; c--) {
+        // Loop on components
+        for (int c=ttIncl[t].length-1; c>=0; c--) {
+            // Initialize reference caches
+            lblock_t_c = lblock[t][c];
+            bak_lblock_t_c = bak_lblock[t][c];
+            ttIncl_t_c = ttIncl[t][c];
+            ttMaxBP_t_c = ttMaxBP[t][c];
+            // Loop on resolution levels
+            for (int r=lblock_t_c.length-1; r>=0; r--) {
                 // Initialize reference caches
-                lblock_t_c = lblock[t][c];
-                bak_lblock_t_c = bak_lblock[t][c];
-                ttIncl_t_c = ttIncl[t][c];
-                ttMaxBP_t_c = ttMaxBP[t][c];
-                // Loop on resolution levels
-                for (int r=lblock_t_c.length-1; r>=0; r--) {
-                    // Initialize reference caches
-                    ttIncl_t_c_r = ttIncl_t_c[r];
-                    ttMaxBP_t_c_r = ttMaxBP_t_c[r];
-                    prevtIdxs_t_c_r = prevtIdxs[t][c][r];
-                    bak_prevtIdxs_t_c_r = bak_prevtIdxs[t][c][r];
-
-                    // Loop on subbands
-                    minsbi = (r==0) ? 0 : 1;
-                    maxsbi = (r==0) ? 1 : 4;
-                    for (int s=minsbi; s<maxsbi; s++) {
-                        // Restore 'lblock'
-                        System.arraycopy(bak_lblock_t_c[r][s],0,
-                                         lblock_t_c[r][s],0,
-                                         lblock_t_c[r][s].length);
-                        // Restore 'prevtIdxs'
-                        System.arraycopy(bak_prevtIdxs_t_c_r[s],0,
-                                         prevtIdxs_t_c_r[s],0,
-                                         prevtIdxs_t_c_r[s].length);
-                    } // End loop on subbands
-
-                    // Loop on precincts
-                    for(int p=ppinfo[t][c][r].length-1; p>=0; p--) {
-                        if(p<ttIncl_t_c_r.length) {
-                            // Loop on subbands
-                            for(int s=minsbi; s<maxsbi; s++) {
-                                ttIncl_t_c_r[p][s].restore();
-                                ttMaxBP_t_c_r[p][s].restore();
-                            } // End loop on subbands
-                        }
-                    } // End loop on precincts
-                } // End loop on resolution levels
-            } // End loop on components
-        } // End loop on tiles
+                ttIncl_t_c_r = ttIncl_t_c[r];
+                ttMaxBP_t_c_r = ttMaxBP_t_c[r];
+                prevtIdxs_t_c_r = prevtIdxs[t][c][r];
+                bak_prevtIdxs_t_c_r = bak_prevtIdxs[t][c][r];
+
+                // Loop on subbands
+                minsbi = (r==0) ? 0 : 1;
+                maxsbi = (r==0) ? 1 : 4;
+                for (int s=minsbi; s<maxsbi; s++) {
+                    // Restore 'lblock'
+                    System.arraycopy(bak_lblock_t_c[r][s],0,
+                                     lblock_t_c[r][s],0,
+                                     lblock_t_c[r][s].length);
+                    // Restore 'prevtIdxs'
+                    System.arraycopy(bak_prevtIdxs_t_c_r[s],0,
+                                     prevtIdxs_t_c_r[s],0,
+                                     prevtIdxs_t_c_r[s].length);
+                } // End loop on subbands
+
+                // Loop on precincts
+                for(int p=ppinfo[t][c][r].length-1; p>=0; p--) {
+                    if(p<ttIncl_t_c_r.length) {
+                        // Loop on subbands
+                        for(int s=minsbi; s<maxsbi; s++) {
+                            ttIncl_t_c_r[p][s].restore();
+                            ttMaxBP_t_c_r[p][s].restore();
+                        } // End loop on subbands
+                    }
+                } // End loop on precincts
+            } // End loop on resolution levels
+        } // End loop on components
     }
 
     /**
@@ -1240,6 +1268,19 @@ public class PktEncoder {
      * was just created.
      * */
     public void reset() {
+        // Loop on tiles
+        for (int t=ttIncl.length-1; t>=0; t--) {
+            reset(t);
+        }
+    }
+
+    /**
+     * Resets the state of one tile to the initial state, as if the object
+     * was just created. This also invalidates any saved state.
+     *
+     * @param t The index of the tile.
+     * */
+    public void reset(int t) {
         int maxsbi,minsbi;
 
         // Invalidate save
@@ -1254,44 +1295,41 @@ public class PktEncoder {
             ttMaxBP_t_c_r[][];
         int lblock_t_c[][][],prevtIdxs_t_c_r[][];
 
-        // Loop on tiles
-        for (int t=ttIncl.length-1; t>=0; t--) {
-            // Loop on components
-            for (int c=ttIncl[t].length-1; c>=0; c--) {
+        // Loop on components
+        for (int c=ttIncl[t].length-1; c>=0; c--) {
+            // Initialize reference caches
+            lblock_t_c = lblock[t][c];
+            ttIncl_t_c = ttIncl[t][c];
+            ttMaxBP_t_c = ttMaxBP[t][c];
+            // Loop on resolution levels
+            for (int r=lblock_t_c.length-1; r>=0; r--) {
                 // Initialize reference caches
-                lblock_t_c = lblock[t][c];
-                ttIncl_t_c = ttIncl[t][c];
-                ttMaxBP_t_c = ttMaxBP[t][c];
-                // Loop on resolution levels
-                for (int r=lblock_t_c.length-1; r>=0; r--) {
-                    // Initialize reference caches
-                    ttIncl_t_c_r = ttIncl_t_c[r];
-                    ttMaxBP_t_c_r = ttMaxBP_t_c[r];
-                    prevtIdxs_t_c_r = prevtIdxs[t][c][r];
-
-                    // Loop on subbands
-                    minsbi = (r==0) ? 0 : 1;
-                    maxsbi = (r==0) ? 1 : 4;
-                    for (int s=minsbi; s<maxsbi; s++) {
-                        // Reset 'prevtIdxs'
-                        ArrayUtil.intArraySet(prevtIdxs_t_c_r[s],-1);
-                        // Reset 'lblock'
-                        ArrayUtil.intArraySet(lblock_t_c[r][s],INIT_LBLOCK);
-                    } // End loop on subbands
-
-                    // Loop on precincts
-                    for(int p=ppinfo[t][c][r].length-1; p>=0; p--) {
-                        if(p<ttIncl_t_c_r.length) {
-                            // Loop on subbands
-                            for(int s=minsbi; s<maxsbi; s++) {
-                                ttIncl_t_c_r[p][s].reset();
-                                ttMaxBP_t_c_r[p][s].reset();
-                            } // End loop on subbands
-                        }
-                    } // End loop on precincts
-                } // End loop on resolution levels
-            } // End loop on components
-        } // End loop on tiles
+                ttIncl_t_c_r = ttIncl_t_c[r];
+                ttMaxBP_t_c_r = ttMaxBP_t_c[r];
+                prevtIdxs_t_c_r = prevtIdxs[t][c][r];
+
+                // Loop on subbands
+                minsbi = (r==0) ? 0 : 1;
+                maxsbi = (r==0) ? 1 : 4;
+                for (int s=minsbi; s<maxsbi; s++) {
+                    // Reset 'prevtIdxs'
+                    ArrayUtil.intArraySet(prevtIdxs_t_c_r[s],-1);
+                    // Reset 'lblock'
+                    ArrayUtil.intArraySet(lblock_t_c[r][s],INIT_LBLOCK);
+                } // End loop on subbands
+
+                // Loop on precincts
+                for(int p=ppinfo[t][c][r].length-1; p>=0; p--) {
+                    if(p<ttIncl_t_c_r.length) {
+                        // Loop on subbands
+                        for(int s=minsbi; s<maxsbi; s++) {
+                            ttIncl_t_c_r[p][s].reset();
+                            ttMaxBP_t_c_r[p][s].reset();
+                        } // End loop on subbands
+                    }
+                } // End loop on precincts
+            } // End loop on resolution levels
+        } // End loop on components
     }
 
     /**
@@ -356,19 +356,19 @@ public class PrecinctSizeSpec extends ModuleSpec {
         // (Vector array) containing the precinct dimensions (width and
         // height) for the specified (or not) tile/component
         if ( tileSpecified && compSpecified ) {
-            mrl = ((Integer)dls.getTileCompVal(t, c)).intValue();
+            mrl = dls.getTileCompIntVal(t, c);
             v = (Vector[])getTileCompVal(t, c);
         }
         else if ( tileSpecified && !compSpecified ) {
-            mrl = ((Integer)dls.getTileDef(t)).intValue();
+            mrl = dls.getTileIntDef(t);
             v = (Vector[])getTileDef(t);
         }
         else if ( !tileSpecified && compSpecified ) {
-            mrl = ((Integer)dls.getCompDef(c)).intValue();
+            mrl = dls.getCompIntDef(c);
             v = (Vector[])getCompDef(c);
         }
         else {
-            mrl = ((Integer)dls.getDefault()).intValue();
+            mrl = dls.getIntDefault();
             v = (Vector[])getDefault();
         }
         idx = mrl - rl;
@@ -407,19 +407,19 @@ public class PrecinctSizeSpec extends ModuleSpec {
         // (Vector array) containing the precinct dimensions (width and
         // height) for the specified (or not) tile/component
         if ( tileSpecified && compSpecified ) {
-            mrl = ((Integer)dls.getTileCompVal(t, c)).intValue();
+            mrl = dls.getTileCompIntVal(t, c);
             v = (Vector[])getTileCompVal(t, c);
         }
         else if ( tileSpecified && !compSpecified ) {
-            mrl = ((Integer)dls.getTileDef(t)).intValue();
+            mrl = dls.getTileIntDef(t);
             v = (Vector[])getTileDef(t);
         }
         else if ( !tileSpecified && compSpecified ) {
-            mrl = ((Integer)dls.getCompDef(c)).intValue();
+            mrl = dls.getCompIntDef(c);
             v = (Vector[])getCompDef(c);
         }
         else {
-            mrl = ((Integer)dls.getDefault()).intValue();
+            mrl = dls.getIntDefault();
             v = (Vector[])getDefault();
         }
         idx = mrl - rl;
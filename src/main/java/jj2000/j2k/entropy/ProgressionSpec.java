@@ -354,9 +354,10 @@ public class ProgressionSpec extends ModuleSpec {
                     break;
                 case SPEC_TILE_COMP:
                     specValType[0][0] = SPEC_DEF;
-                    tileCompVal.put("t0c0",null);
+                    tileCompVal[0] = null;
                     break;
                 }
+                resolved = null;
             }
         }
    }
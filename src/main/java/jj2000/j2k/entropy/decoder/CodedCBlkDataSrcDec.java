@@ -109,9 +109,9 @@ public interface CodedCBlkDataSrcDec extends InvWTData {
      * layers are returned, starting at 'fl'.
      *
      * @param ccb If not null this object is used to return the compressed
-     * code-block. If null a new object is created and returned. If the data
-     * array in ccb is not null then it can be reused to return the compressed
-     * data.
+     * code-block. If null a new object is created and returned. The
+     * compressed data is returned starting at index 'off' of the data array,
+     * which may be shared with other code-blocks and must not be modified.
      *
      * @return The compressed code-block, with a certain number of layers
      * determined by the available data and 'nl'.
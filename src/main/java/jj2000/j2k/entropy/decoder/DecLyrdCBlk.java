@@ -86,6 +86,11 @@ public class DecLyrdCBlk extends CodedCBlk {
      */
     public int dl;
 
+    /** The index in the 'data' array of the first byte of the coded data.
+     * The array may also contain the data of other code-blocks, so it must
+     * not be modified. */
+    public int off;
+
     /** The progressive flag, false by default (see above). */
     public boolean prog;
 
@@ -43,6 +43,9 @@
  * */
 package jj2000.j2k.entropy.decoder;
 
+import java.util.concurrent.Executor;
+
+import jj2000.j2k.decoder.DecoderSpecs;
 import jj2000.j2k.quantization.dequantizer.CBlkQuantDataSrcDec;
 import jj2000.j2k.wavelet.synthesis.MultiResImgData;
 import jj2000.j2k.wavelet.synthesis.MultiResImgDataAdapter;
@@ -136,6 +139,53 @@ public abstract class EntropyDecoder extends MultiResImgDataAdapter
         return src.getCbULY();
     }
 
+    /**
+     * Indicates the range of code-blocks of a subband that will be requested
+     * next. This default implementation does nothing, as code-blocks are
+     * only decoded when requested.
+     *
+     * @see CBlkQuantDataSrcDec#setCodeBlockRange
+     * */
+    public void setCodeBlockRange(int c, SubbandSyn sb,
+                                  int m0, int n0, int m1, int n1) {
+    }
+
+    /**
+     * Creates an EntropyDecoder object for the codestream, which decodes the
+     * code-blocks in parallel on the specified Executor.
+     *
+     * @param src The source of compressed data
+     *
+     * @param decSpec The decoder specifications
+     *
+     * @param doer If true error detection will be performed, if any error
+     * detection features have been enabled.
+     *
+     * @param verber If true the entropy decoder is verbose about the errors
+     * that are detected and concealed.
+     *
+     * @param mQuit The maximum number of bit planes to decode for any
+     * code-block, or -1 for all of them.
+     *
+     * @param executor The Executor to decode the code-blocks on, or null to
+     * use the default of the entropy decoder.
+     *
+     * @param nthreads The maximum number of code-blocks decoded at a time on
+     * 'executor'.
+     *
+     * @return A new EntropyDecoder object
+     *
+     * @see StdEntropyDecoder
+     * */
+    public static EntropyDecoder createInstance(CodedCBlkDataSrcDec src,
+                                                DecoderSpecs decSpec,
+                                                boolean doer, boolean verber,
+                                                int mQuit, Executor executor,
+                                                int nthreads) {
+        return new StdEntropyDecoder(src,decSpec,doer,verber,mQuit,
+                                     executor,nthreads);
+    }
+
 
     /**
      * Returns the parameters that are used in this class and
@@ -42,6 +42,15 @@
  * Copyright (c) 1999/2000 JJ2000 Partners.
  * */
 package jj2000.j2k.entropy.decoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Stack;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
 import jj2000.j2k.decoder.DecoderSpecs;
 import jj2000.j2k.entropy.StdEntropyCoderOptions;
 import jj2000.j2k.image.DataBlk;
@@ -56,6 +65,23 @@ import jj2000.j2k.wavelet.synthesis.SubbandSyn;
  * This class implements the JPEG 2000 entropy decoder, which codes stripes in
  * code-blocks. This entropy decoding engine decodes one code-block at a time.
  *
+ * <P>This implementation can use multiple threads, one code-block being
+ * decoded by each thread at any one time. When multiple threads are used the
+ * first request for a code-block of a subband decodes all the code-blocks of
+ * that subband concurrently, and subsequent requests are served from the
+ * decoded results. The compressed data is always read from the source by the
+ * calling thread, and the decoded data is identical to that of the single
+ * threaded implementation. The code-blocks are decoded on an Executor given
+ * to the constructor, such as a pool shared with the rest of the
+ * application, in which case this class creates no threads at all. While
+ * waiting for the code-blocks, the calling thread decodes those which the
+ * Executor has not started yet, so the Executor may be bounded and shared
+ * between many decoders without any of them waiting forever. If no Executor
+ * is given, the number of threads is set with the Java system property of
+ * the name defined by THREADS_PROP_NAME, and the code-blocks are decoded on
+ * a pool of that many threads shared by all such decoders (by default no
+ * additional threads are used).
+ *
  * The code-block are rectangular, with dimensions which must be powers of
  * 2. Each dimension has to be no smaller than 4 and no larger than 256. The
  * product of the two dimensions (i.e. area of the code-block) may not exceed
@@ -85,27 +111,80 @@ public class StdEntropyDecoder extends EntropyDecoder
     private final static boolean DO_TIMING = false;
 
     /** The cumulative wall time for the entropy coding engine, for each
-     * component. */
+     * component. In the multi-threaded implementation it is the time spent
+     * by the calling thread only. */
     private long time[];
 
-    /** The bit based input for arithmetic coding bypass (i.e. raw) coding */
-    private ByteToBitInput bin;
+    /** The Java system property name for the number of threads to use:
+     jj2000.j2k.entropy.decoder.StdEntropyDecoder.nthreads */
+    public static final String THREADS_PROP_NAME =
+        "jj2000.j2k.entropy.decoder.StdEntropyDecoder.nthreads";
+
+    /** The default value for the property in THREADS_PROP_NAME: 0 */
+    public static final String DEF_THREADS_NUM = "0";
+
+    /** The increase in priority for the decompressor threads, currently
+     * 0. Used only in the multi-threaded implementation. */
+    public static final int THREADS_PRIORITY_INC = 0;
+
+    /** The pools of threads shared by all the multi-threaded decoders which
+     * are not given an Executor, by number of threads. Each is created when
+     * the first one with that number of threads is instantiated. */
+    private static final Map<Integer,ExecutorService> sharedPools =
+        new HashMap<Integer,ExecutorService>();
+
+    /** The Executor the decompressors run on, for the threaded
+     * implementation. It is null, if non threaded implementation is used */
+    private Executor executor;
+
+    /** All the decompressors. Used in multithreaded implementation only. */
+    private Decompressor decomps[];
+
+    /** The queue of idle decompressors. Used in multithreaded
+        implementation only */
+    private Stack<Decompressor> idleDecomps;
+
+    /** The queue of completed decompressors. Used in multithreaded
+        implementation only. */
+    private Stack<Decompressor> completedDecomps;
+
+    /** The number of busy decompressors. Used in multithreaded
+        implementation only. */
+    private int nBusyDecomps;
+
+    /** The decoded code-blocks of the last subband decoded by the
+     * decompressors, indexed by vertical and horizontal code-block index. An
+     * element is set to null once it has been returned. Used in
+     * multithreaded implementation only. */
+    private DataBlk cachedCBlks[][];
+
+    /** The subband to which 'cachedCBlks' belongs, or null if none. Used in
+        multithreaded implementation only. */
+    private SubbandSyn cachedSb;
 
-    /** The MQ decoder to use. It has in as the underlying source of coded
-     * data. */
-    private MQDecoder mq;
+    /** The component to which 'cachedCBlks' belongs. Used in multithreaded
+        implementation only. */
+    private int cachedC;
+
+    /** The subband for which a range of code-blocks has been given by
+        'setCodeBlockRange()', or null if none. */
+    private SubbandSyn rangeSb;
+
+    /** The component, and the vertical and horizontal indexes of the first
+        and last code-blocks, given by 'setCodeBlockRange()'. */
+    private int rangeC, rangeM0, rangeN0, rangeM1, rangeN1;
+
+    /** The bit based input for arithmetic coding bypass (i.e. raw) coding,
+     * for each thread */
+    private ByteToBitInput binT[];
+
+    /** The MQ decoder to use, for each thread. It has in as the underlying
+     * source of coded data. */
+    private MQDecoder mqT[];
 
     /** The decoder spec */
     private DecoderSpecs decSpec;
 
-    /** The options that are turned on, as flag bits. The options are
-     * 'OPT_TERM_PASS', 'OPT_RESET_MQ', 'OPT_VERT_STR_CAUSAL', 'OPT_BYPASS' and
-     * 'OPT_SEG_SYMBOLS' as defined in the StdEntropyCoderOptions interface
-     *
-     * @see StdEntropyCoderOptions
-     **/
-    private int options;
-
     /** Flag to indicate if we should try to detect errors or just ignore any
      * error resilient information */
     private final boolean doer;
@@ -175,15 +254,16 @@ public class StdEntropyDecoder extends EntropyDecoder
     private static final int SEG_SYMBOL = 10;
 
     /**
-     * The state array for entropy coding. Each element of the state array
-     * stores the state of two coefficients. The lower 16 bits store the state
-     * of a coefficient in row 'i' and column 'j', while the upper 16 bits
-     * store the state of a coefficient in row 'i+1' and column 'j'. The 'i'
-     * row is either the first or the third row of a stripe. This packing of
-     * the states into 32 bit words allows a faster scan of all coefficients
-     * on each coding pass and diminished the amount of data transferred. The
-     * size of the state array is increased by 1 on each side (top, bottom,
-     * left, right) to handle boundary conditions without any special logic.
+     * The state array for entropy coding, for each thread. Each element of
+     * the state array stores the state of two coefficients. The lower 16
+     * bits store the state of a coefficient in row 'i' and column 'j', while
+     * the upper 16 bits store the state of a coefficient in row 'i+1' and
+     * column 'j'. The 'i' row is either the first or the third row of a
+     * stripe. This packing of the states into 32 bit words allows a faster
+     * scan of all coefficients on each coding pass and diminished the amount
+     * of data transferred. The size of the state array is increased by 1 on
+     * each side (top, bottom, left, right) to handle boundary conditions
+     * without any special logic.
      *
      * <P>The state of a coefficient is stored in the following way in the
      * lower 16 bits, where bit 0 is the least significant bit. Bit 15 is the
@@ -206,8 +286,13 @@ public class StdEntropyDecoder extends EntropyDecoder
      *
      * <P>The lower 16 bits are referred to as "row 1" ("R1") while the upper
      * 16 bits are referred to as "row 2" ("R2").
+     *
+     * <P>The arrays are allocated on first use, with 'stateLen' elements.
      * */
-    private final int state[];
+    private final int stateT[][];
+
+    /** The length of the state arrays, for the largest code-block */
+    private final int stateLen;
 
     /** The separation between the upper and lower bits in the state array: 16
      * */
@@ -377,9 +462,9 @@ public class StdEntropyDecoder extends EntropyDecoder
      * information. It is to be applied after the 'MR_SHIFT' */
     private static final int MR_MASK = (1<<9)-1;
 
-    /** The source code-block to entropy code (avoids reallocation for each
-        code-block). */
-    private DecLyrdCBlk srcblk;
+    /** The source code-block to entropy code, for each thread (avoids
+        reallocation for each code-block). */
+    private DecLyrdCBlk srcblkT[];
 
     /** The maximum number of bit planes to decode for any code-block */
     private int mQuit;
@@ -593,6 +678,123 @@ public class StdEntropyDecoder extends EntropyDecoder
         }
     }
 
+    /**
+     * Class that takes care of running the 'decodeCodeBlock()' method with
+     * thread local arguments. Used only in multithreaded implementation.
+     * */
+    private class Decompressor implements Runnable {
+        /** The index of this decompressor. Used to access thread local
+         * variables */
+        private final int idx;
+
+        /** The object where to store the decoded code-block */
+        DataBlk cblk;
+
+        /** The component of the code-block to decode */
+        int c;
+
+        /** The vertical index of the code-block to decode */
+        int m;
+
+        /** The horizontal index of the code-block to decode */
+        int n;
+
+        /** The subband of the code-block to decode */
+        SubbandSyn sb;
+
+        /** The options bitmask to use in decoding */
+        int options;
+
+        /** The message logger of the thread that requested the decoding */
+        MsgLogger msglog;
+
+        /** The runtime exception thrown by the last run, if any */
+        RuntimeException re;
+
+        /** The error thrown by the last run, if any */
+        Error e;
+
+        /** Whether a thread has started decoding since the decompressor was
+         * last started. Guarded by the decompressor's lock. */
+        private boolean claimed = true;
+
+        /**
+         * Creates a new decompressor object with the given index.
+         *
+         * @param idx The index of this decompressor.
+         * */
+        Decompressor(int idx) {
+            this.idx = idx;
+        }
+
+        /**
+         * Sends this decompressor to execution on the Executor. If the
+         * Executor rejects it, or does not start it before its result is
+         * needed, it is run by the thread waiting for the result.
+         * */
+        void start() {
+            synchronized (this) {
+                claimed = false;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException ex) {
+                // Run when waiting for completed decompressors
+            }
+        }
+
+        /**
+         * Claims this decompressor for the calling thread, if no other
+         * thread has started it since it was last started.
+         *
+         * @return True if the calling thread must run the decoding.
+         * */
+        synchronized boolean claim() {
+            if (claimed) {
+                return false;
+            }
+            claimed = true;
+            return true;
+        }
+
+        /**
+         * Runs the decoding, unless another thread already has.
+         * */
+        public void run() {
+            if (claim()) {
+                decompress();
+            }
+        }
+
+        /**
+         * Calls the 'decodeCodeBlock()' method with thread local
+         * arguments. Once completed it adds itself to the 'completedDecomps'
+         * stack. This last step occurs even if exceptions are thrown by the
+         * 'decodeCodeBlock()' method, in which case they are saved so that
+         * they can be rethrown by the thread that requested the decoding.
+         * */
+        void decompress() {
+            try {
+                cblk = decodeCodeBlock(c,m,n,sb,srcblkT[idx],cblk,idx,options,
+                                       msglog);
+            }
+            catch (RuntimeException ex) {
+                re = ex;
+            }
+            catch (Error ex) {
+                e = ex;
+            }
+            finally {
+                // Join the queue of completed decompressions, even if
+                // exceptions occurred.
+                synchronized (completedDecomps) {
+                    completedDecomps.push(this);
+                    completedDecomps.notify();
+                }
+            }
+        }
+    }
+
     /**
      * Instantiates a new entropy decoder engine, with the specified source of
      * data, nominal block width and height.
@@ -611,6 +813,38 @@ public class StdEntropyDecoder extends EntropyDecoder
      * */
     public StdEntropyDecoder(CodedCBlkDataSrcDec src, DecoderSpecs decSpec,
 			     boolean doer, boolean verber, int mQuit) {
+        this(src,decSpec,doer,verber,mQuit,null,0);
+    }
+
+    /**
+     * Instantiates a new entropy decoder engine, as above, which decodes the
+     * code-blocks in parallel on the specified Executor. No threads are
+     * created by this object.
+     *
+     * @param src The source of data
+     *
+     * @param decSpec The decoder specifications
+     *
+     * @param doer If true error detection will be performed, if any error
+     * detection features have been enabled.
+     *
+     * @param verber This flag indicates if the entropy decoder should be
+     * verbose about bit stream errors that are detected and concealed.
+     *
+     * @param mQuit The maximum number of bit planes to decode for any
+     * code-block, or -1 for all of them.
+     *
+     * @param executor The Executor to decode the code-blocks on. If null the
+     * number of threads is taken from the THREADS_PROP_NAME property, and
+     * the shared pool is used if it is not 0.
+     *
+     * @param nthreads The maximum number of code-blocks decoded at a time on
+     * 'executor'. Ignored if 'executor' is null. If 0 or 1 the single
+     * threaded implementation is used.
+     * */
+    public StdEntropyDecoder(CodedCBlkDataSrcDec src, DecoderSpecs decSpec,
+			     boolean doer, boolean verber, int mQuit,
+                             Executor executor, int nthreads) {
         super(src);
 
         this.decSpec = decSpec;
@@ -625,9 +859,96 @@ public class StdEntropyDecoder extends EntropyDecoder
             System.runFinalizersOnExit(true);
         }
 
+        // Get the number of threads to use, or default to one
+        int nt;     // The number of threads
+        int tsl;    // Size for thread structures
+        if (executor != null) {
+            if (nthreads < 0) {
+                throw new IllegalArgumentException("Invalid number of "+
+                                                   "threads "+nthreads);
+            }
+            nt = nthreads > 1 ? nthreads : 0;
+        }
+        else {
+            try {
+                try {
+                    nt = Integer.parseInt(System.getProperty(THREADS_PROP_NAME,
+                                                             DEF_THREADS_NUM));
+                } catch(SecurityException se) {
+                    // Use the default value.
+                    nt = Integer.parseInt(DEF_THREADS_NUM);
+                }
+                if (nt < 0) throw new NumberFormatException();
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number of "+
+                                                   "threads for entropy "+
+                                                   "decoding in property "+
+                                                   THREADS_PROP_NAME);
+            }
+        }
+
+        // If using multithreaded implementation get necessary objects
+        if (nt > 0) {
+            tsl = nt;
+            if (executor == null) {
+                FacilityManager.getMsgLogger().
+                    printmsg(MsgLogger.INFO,
+                             "Using multithreaded entropy decoder "+
+                             "with "+nt+" decompressor threads.");
+                executor = getSharedPool(nt);
+            }
+            this.executor = executor;
+            idleDecomps = new Stack<Decompressor>();
+            completedDecomps = new Stack<Decompressor>();
+            decomps = new Decompressor[nt];
+            for (int i=0; i<nt; i++) {
+                decomps[i] = new Decompressor(i);
+                idleDecomps.push(decomps[i]);
+            }
+        }
+        else {
+            tsl = 1;
+            this.executor = null;
+            decomps = null;
+            idleDecomps = null;
+            completedDecomps = null;
+        }
+
         // Initialize internal variables
-        state = new int[(decSpec.cblks.getMaxCBlkWidth()+2) *
-                       ((decSpec.cblks.getMaxCBlkHeight()+1)/2+2)];
+        mqT = new MQDecoder[tsl];
+        binT = new ByteToBitInput[tsl];
+        srcblkT = new DecLyrdCBlk[tsl];
+        stateT = new int[tsl][];
+        stateLen = (decSpec.cblks.getMaxCBlkWidth()+2) *
+            ((decSpec.cblks.getMaxCBlkHeight()+1)/2+2);
+    }
+
+    /**
+     * Returns the pool with the specified number of threads shared by all
+     * multi-threaded decoders which are not given an Executor, creating it
+     * if necessary. The pool is shared so that decoding many images does not
+     * create new threads for each of them.
+     *
+     * @param nt The number of threads in the pool.
+     *
+     * @return The shared pool of threads.
+     * */
+    private static synchronized Executor getSharedPool(int nt) {
+        ExecutorService sharedPool = sharedPools.get(nt);
+        if (sharedPool == null) {
+            final int priority = Thread.currentThread().getPriority()+
+                THREADS_PRIORITY_INC;
+            sharedPool = Executors.newFixedThreadPool(nt, new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "StdEntropyDecoder");
+                        t.setDaemon(true);
+                        t.setPriority(priority);
+                        return t;
+                    }
+                });
+            sharedPools.put(nt, sharedPool);
+        }
+        return sharedPool;
     }
 
     /**
@@ -654,6 +975,7 @@ public class StdEntropyDecoder extends EntropyDecoder
         super.finalize();
     }
 
+
     /**
      * Returns the specified code-block in the current tile for the specified
      * component, as a copy (see below).
@@ -700,6 +1022,302 @@ public class StdEntropyDecoder extends EntropyDecoder
     public DataBlk getCodeBlock(int c, int m, int n, SubbandSyn sb,
                                 DataBlk cblk) {
         long stime = 0L;  // Start time for timed sections
+        int options;      // The options to use for the code-block
+
+        if (executor == null) { // Use single threaded implementation
+            // Get the code-block to decode
+            srcblkT[0] = src.getCodeBlock(c,m,n,sb,1,-1,srcblkT[0]);
+            if (DO_TIMING) stime = System.currentTimeMillis();
+
+            // Retrieve options from decSpec
+            options = decSpec.ecopts.getTileCompIntVal(tIdx,c);
+
+            cblk = decodeCodeBlock(c,m,n,sb,srcblkT[0],cblk,0,options,
+                                   FacilityManager.getMsgLogger());
+            if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
+            return cblk;
+        }
+        else { // Use multiple threaded implementation
+            DataBlk dec;     // The decoded code-block
+
+            if (DO_TIMING) stime = System.currentTimeMillis();
+            // Decode all the code-blocks of the subband if not yet done
+            if (sb != cachedSb || c != cachedC) {
+                decodeSubband(c,sb);
+            }
+            dec = cachedCBlks[m][n];
+            if (dec == null) {
+                // Code-block already returned, decode it again in this
+                // thread. All decompressors are idle, so thread local
+                // variables of index 0 can be used.
+                srcblkT[0] = src.getCodeBlock(c,m,n,sb,1,-1,srcblkT[0]);
+                options = decSpec.ecopts.getTileCompIntVal(tIdx,c);
+                dec = decodeCodeBlock(c,m,n,sb,srcblkT[0],cblk,0,options,
+                                      FacilityManager.getMsgLogger());
+            }
+            else {
+                cachedCBlks[m][n] = null;
+                if (cblk != null) {
+                    // Return the decoded data through the given object
+                    cblk.progressive = dec.progressive;
+                    cblk.ulx = dec.ulx;
+                    cblk.uly = dec.uly;
+                    cblk.w = dec.w;
+                    cblk.h = dec.h;
+                    cblk.offset = 0;
+                    cblk.scanw = cblk.w;
+                    cblk.setData(dec.getData());
+                    dec = cblk;
+                }
+            }
+            if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
+            return dec;
+        }
+    }
+
+    /**
+     * Decodes all the code-blocks of the specified subband, in the current
+     * tile, using the decompressors on the Executor. The compressed data
+     * of each code-block is read from the source in this thread, and the
+     * decoded code-blocks are stored in 'cachedCBlks'. This method returns
+     * once all code-blocks have been decoded. Used in multithreaded
+     * implementation only.
+     *
+     * @param c The component of the subband.
+     *
+     * @param sb The subband to decode.
+     * */
+    private void decodeSubband(int c, SubbandSyn sb) {
+        int m, n;                // Code-block indexes
+        int idx;                 // Decompressor index
+        Decompressor decomp;     // Decompressor
+        int options = decSpec.ecopts.getTileCompIntVal(tIdx,c);
+        MsgLogger msglog = FacilityManager.getMsgLogger();
+
+        int m0 = 0, n0 = 0, m1 = sb.numCb.y-1, n1 = sb.numCb.x-1;
+        if (sb == rangeSb && c == rangeC) {
+            // Only decode the code-blocks that will be requested
+            m0 = Math.max(m0,rangeM0);
+            n0 = Math.max(n0,rangeN0);
+            m1 = Math.min(m1,rangeM1);
+            n1 = Math.min(n1,rangeN1);
+        }
+
+        cachedSb = sb;
+        cachedC = c;
+        cachedCBlks = new DataBlk[sb.numCb.y][sb.numCb.x];
+        for (m=m0; m<=m1; m++) {
+            for (n=n0; n<=n1; n++) {
+                // Get an idle decompressor, waiting for one if necessary
+                if (idleDecomps.empty()) {
+                    collectDecompressor();
+                }
+                decomp = idleDecomps.pop();
+                idx = decomp.idx;
+                // Read the compressed data and start decoding
+                srcblkT[idx] = src.getCodeBlock(c,m,n,sb,1,-1,srcblkT[idx]);
+                decomp.cblk = null;
+                decomp.c = c;
+                decomp.m = m;
+                decomp.n = n;
+                decomp.sb = sb;
+                decomp.options = options;
+                decomp.msglog = msglog;
+                nBusyDecomps++;
+                decomp.start();
+            }
+        }
+        // Wait for all decompressors to complete
+        while (nBusyDecomps > 0) {
+            collectDecompressor();
+        }
+    }
+
+    /**
+     * Waits for a decompressor to complete, stores its decoded code-block in
+     * 'cachedCBlks' and puts it back in the idle queue. Until one has
+     * completed, the decompressors which no thread has started yet are run
+     * on the calling thread. If the decompressor
+     * terminated with an exception or error, the other decompressors are
+     * waited for and the exception or error is rethrown. Used in
+     * multithreaded implementation only.
+     * */
+    private void collectDecompressor() {
+        Decompressor decomp;
+        boolean interrupted = false;
+
+        while (true) {
+            synchronized (completedDecomps) {
+                if (!completedDecomps.empty()) {
+                    decomp = completedDecomps.pop();
+                    break;
+                }
+            }
+            decomp = null;
+            for (int i=0; i<decomps.length && decomp==null; i++) {
+                if (decomps[i].claim()) {
+                    decomp = decomps[i];
+                }
+            }
+            if (decomp != null) {
+                decomp.decompress();
+            }
+            else {
+                // All busy decompressors are running on other threads
+                synchronized (completedDecomps) {
+                    while (completedDecomps.empty()) {
+                        try {
+                            completedDecomps.wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        nBusyDecomps--;
+        idleDecomps.push(decomp);
+        cachedCBlks[decomp.m][decomp.n] = decomp.cblk;
+        decomp.cblk = null;
+        decomp.sb = null;
+        if (decomp.e != null || decomp.re != null) {
+            RuntimeException re = decomp.re;
+            Error e = decomp.e;
+            decomp.re = null;
+            decomp.e = null;
+            while (nBusyDecomps > 0) {
+                collectDecompressor();
+            }
+            cachedSb = null;
+            if (e != null) throw e;
+            throw re;
+        }
+    }
+
+    /**
+     * Indicates the range of code-blocks of a subband that will be requested
+     * next. In the multithreaded implementation only the code-blocks in the
+     * range are decoded in advance, the others are decoded if and when they
+     * are requested.
+     *
+     * @see jj2000.j2k.quantization.dequantizer.CBlkQuantDataSrcDec#setCodeBlockRange
+     * */
+    public void setCodeBlockRange(int c, SubbandSyn sb,
+                                  int m0, int n0, int m1, int n1) {
+        if (sb != rangeSb || c != rangeC || m0 != rangeM0 || n0 != rangeN0 ||
+            m1 != rangeM1 || n1 != rangeN1) {
+            rangeSb = sb;
+            rangeC = c;
+            rangeM0 = m0;
+            rangeN0 = n0;
+            rangeM1 = m1;
+            rangeN1 = n1;
+            if (sb == cachedSb && c == cachedC) {
+                // Decode the subband again, in the new range
+                cachedSb = null;
+                cachedCBlks = null;
+            }
+        }
+    }
+
+    /**
+     * Changes the current tile, given the new indexes. An
+     * IllegalArgumentException is thrown if the indexes do not
+     * correspond to a valid tile.
+     *
+     * @param x The horizontal index of the tile.
+     *
+     * @param y The vertical index of the new tile.
+     * */
+    public void setTile(int x, int y) {
+        super.setTile(x,y);
+        // Reset the tile specific variables
+        cachedSb = null;
+        cachedCBlks = null;
+        rangeSb = null;
+    }
+
+    /**
+     * Advances to the next tile, in standard scan-line order (by rows
+     * then columns). An NoNextElementException is thrown if the
+     * current tile is the last one (i.e. there is no next tile).
+     * */
+    public void nextTile() {
+        // Reset the tile specific variables
+        cachedSb = null;
+        cachedCBlks = null;
+        rangeSb = null;
+        super.nextTile();
+    }
+
+    /**
+     * Takes the thread local storage of another decoder, which is no longer
+     * used, so that it is reused by this one instead of being allocated
+     * again: the state arrays which are large enough for the code-blocks of
+     * this decoder, the MQ decoders with their bit based inputs and the
+     * source code-blocks. This is used to decode a series of images with the
+     * same coding parameters with little allocation.
+     *
+     * @param prev The decoder to take the storage of. It must not be used
+     * after this call.
+     * */
+    public void reuseBuffers(StdEntropyDecoder prev) {
+        int n = Math.min(stateT.length,prev.stateT.length);
+        for (int i=0; i<n; i++) {
+            if (stateT[i]==null && prev.stateT[i]!=null &&
+                prev.stateT[i].length>=stateLen) {
+                stateT[i] = prev.stateT[i];
+            }
+            if (mqT[i]==null) {
+                // The bit based input reads from the MQ decoder's buffer
+                mqT[i] = prev.mqT[i];
+                binT[i] = prev.binT[i];
+            }
+            if (srcblkT[i]==null) {
+                srcblkT[i] = prev.srcblkT[i];
+            }
+            prev.stateT[i] = null;
+            prev.mqT[i] = null;
+            prev.binT[i] = null;
+            prev.srcblkT[i] = null;
+        }
+    }
+
+    /**
+     * Decodes the code-block in 'srcblk' and puts the results in 'cblk',
+     * using the specified options and thread local storage.
+     *
+     * @param c The component of the code-block.
+     *
+     * @param m The vertical index of the code-block, in the specified
+     * subband.
+     *
+     * @param n The horizontal index of the code-block, in the specified
+     * subband.
+     *
+     * @param sb The subband in which the code-block is.
+     *
+     * @param srcblk The compressed code-block data to decode.
+     *
+     * @param cblk If non-null this object will be used to return the
+     * decoded code-block. If null a new one will be allocated and
+     * returned. If the "data" array of the object is non-null it will be
+     * reused, if possible, to return the data.
+     *
+     * @param idx The index of the thread local variables to use.
+     *
+     * @param options The entropy coding options to use, as flag bits.
+     *
+     * @param msglog The message logger where to report concealed errors.
+     *
+     * @return The decoded code-block.
+     * */
+    private DataBlk decodeCodeBlock(int c, int m, int n, SubbandSyn sb,
+                                    DecLyrdCBlk srcblk, DataBlk cblk,
+                                    int idx, int options, MsgLogger msglog) {
         int zc_lut[];     // The ZC lookup table to use
         int out_data[];   // The outupt data buffer
         int npasses;      // The number of coding passes to perform
@@ -710,17 +1328,17 @@ public class StdEntropyDecoder extends EntropyDecoder
         ByteInputBuffer in = null;
 
         boolean isterm;
-
-        // Get the code-block to decode
-        srcblk = src.getCodeBlock(c,m,n,sb,1,-1,srcblk);
-        if (DO_TIMING) stime = System.currentTimeMillis();
-
-        // Retrieve options from decSpec
-        options = ((Integer)decSpec.ecopts.
-                   getTileCompVal(tIdx,c)).intValue();
+        int state[] = stateT[idx];
+        MQDecoder mq = mqT[idx];
+        ByteToBitInput bin = binT[idx];
 
         // Reset state
-        ArrayUtil.intArraySet(state,0);
+        if (state==null) {
+            state = stateT[idx] = new int[stateLen];
+        }
+        else {
+            ArrayUtil.intArraySet(state,0);
+        }
 
         // Initialize output code-block
         if (cblk==null) {
@@ -754,12 +1372,13 @@ public class StdEntropyDecoder extends EntropyDecoder
         // Initialize for decoding
         npasses = srcblk.nTrunc;
         if (mq == null) {
-            in = new ByteInputBuffer(srcblk.data,0,tslen);
+            in = new ByteInputBuffer(srcblk.data,srcblk.off,tslen);
             mq = new MQDecoder(in ,NUM_CTXTS,MQ_INIT);
+            mqT[idx] = mq;
         }
         else {
             // We always start by an MQ segment
-            mq.nextSegment(srcblk.data,0,tslen);
+            mq.nextSegment(srcblk.data,srcblk.off,tslen);
             mq.resetCtxts();
         }
         error = false;
@@ -768,6 +1387,7 @@ public class StdEntropyDecoder extends EntropyDecoder
             if(bin==null){
                 if (in == null) in = mq.getByteInputBuffer();
                 bin = new ByteToBitInput(in);
+                binT[idx] = bin;
             }
         }
 
@@ -810,7 +1430,7 @@ public class StdEntropyDecoder extends EntropyDecoder
             isterm = (options & OPT_TERM_PASS) != 0 ||
                 ((options & OPT_BYPASS) != 0 &&
                  (31-NUM_NON_BYPASS_MS_BP-srcblk.skipMSBP)>=curbp);
-            error = cleanuppass(cblk,mq,curbp,state,zc_lut,isterm);
+            error = cleanuppass(cblk,mq,curbp,state,zc_lut,isterm,options);
             npasses--;
             if (!error || !doer) curbp--;
         }
@@ -827,7 +1447,7 @@ public class StdEntropyDecoder extends EntropyDecoder
                     // Here starts a new raw segment
                     bin.setByteArray(null,-1,srcblk.tsLengths[++tsidx]);
                     isterm = (options & OPT_TERM_PASS) != 0;
-                    error = rawSigProgPass(cblk,bin,curbp,state,isterm);
+                    error = rawSigProgPass(cblk,bin,curbp,state,isterm,options);
                     npasses--;
                     if (npasses <= 0 || (error && doer)) break;
 
@@ -838,7 +1458,7 @@ public class StdEntropyDecoder extends EntropyDecoder
                     isterm = (options & OPT_TERM_PASS) != 0 ||
                         ((options & OPT_BYPASS) != 0 &&
                          (31-NUM_NON_BYPASS_MS_BP-srcblk.skipMSBP>curbp));
-                    error = rawMagRefPass(cblk,bin,curbp,state,isterm);
+                    error = rawMagRefPass(cblk,bin,curbp,state,isterm,options);
                 }
                 else {// Do not use bypass decoding mode
                     if ((options & OPT_TERM_PASS) != 0) {
@@ -846,7 +1466,7 @@ public class StdEntropyDecoder extends EntropyDecoder
                         mq.nextSegment(null,-1,srcblk.tsLengths[++tsidx]);
                     }
                     isterm = (options & OPT_TERM_PASS) != 0;
-                    error = sigProgPass(cblk,mq,curbp,state,zc_lut,isterm);
+                    error = sigProgPass(cblk,mq,curbp,state,zc_lut,isterm,options);
                     npasses--;
                     if (npasses <= 0 || (error && doer)) break;
 
@@ -857,7 +1477,7 @@ public class StdEntropyDecoder extends EntropyDecoder
                     isterm = (options & OPT_TERM_PASS) != 0 ||
                         ((options & OPT_BYPASS) != 0 &&
                          (31-NUM_NON_BYPASS_MS_BP-srcblk.skipMSBP>curbp));
-                    error = magRefPass(cblk,mq,curbp,state,isterm);
+                    error = magRefPass(cblk,mq,curbp,state,isterm,options);
                 }
 
                 npasses--;
@@ -872,7 +1492,7 @@ public class StdEntropyDecoder extends EntropyDecoder
                 isterm = (options & OPT_TERM_PASS) != 0 ||
                     ((options & OPT_BYPASS) != 0 &&
                      (31-NUM_NON_BYPASS_MS_BP-srcblk.skipMSBP)>=curbp);
-                error = cleanuppass(cblk,mq,curbp,state,zc_lut,isterm);
+                error = cleanuppass(cblk,mq,curbp,state,zc_lut,isterm,options);
                 npasses--;
                 if (error) break;
                 // Goto next bit-plane
@@ -883,8 +1503,7 @@ public class StdEntropyDecoder extends EntropyDecoder
         // If an error ocurred conceal it
         if (error && doer) {
             if (verber) {
-                FacilityManager.getMsgLogger().
-                    printmsg(MsgLogger.WARNING,
+                msglog.printmsg(MsgLogger.WARNING,
                              "Error detected at bit-plane "+curbp+
                              " in code-block ("+m+","+n+"), sb_idx "+
                              sb.sbandIdx+", res. level "+sb.resLvl+
@@ -894,8 +1513,6 @@ public class StdEntropyDecoder extends EntropyDecoder
             conceal(cblk,curbp);
         }
 
-        if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
-
         // Return decoded block
         return cblk;
     }
@@ -975,10 +1592,13 @@ public class StdEntropyDecoder extends EntropyDecoder
      * @param isterm If this pass has been terminated. If the pass has been
      * terminated it can be used to check error resilience.
      *
+     * @param options The entropy coding options to use, as flag bits.
+     *
      * @return True if an error was detected in the bit stream, false otherwise.
      * */
     private boolean sigProgPass(DataBlk cblk, MQDecoder mq, int bp,
-                                int state[], int zc_lut[], boolean isterm) {
+                                int state[], int zc_lut[], boolean isterm,
+                                int options) {
         int j,sj;        // The state index for line and stripe
         int k,sk;        // The data index for line and stripe
         int dscanw;      // The data scan-width
@@ -1328,10 +1948,13 @@ public class StdEntropyDecoder extends EntropyDecoder
      * @param isterm If this pass has been terminated. If the pass has been
      * terminated it can be used to check error resilience.
      *
+     * @param options The entropy coding options to use, as flag bits.
+     *
      * @return True if an error was detected in the bit stream, false otherwise.
      * */
     private boolean rawSigProgPass(DataBlk cblk, ByteToBitInput bin, int bp,
-                                   int state[], boolean isterm) {
+                                   int state[], boolean isterm,
+                                   int options) {
         int j,sj;        // The state index for line and stripe
         int k,sk;        // The data index for line and stripe
         int dscanw;      // The data scan-width
@@ -1660,10 +2283,13 @@ public class StdEntropyDecoder extends EntropyDecoder
      * @param isterm If this pass has been terminated. If the pass has been
      * terminated it can be used to check error resilience.
      *
+     * @param options The entropy coding options to use, as flag bits.
+     *
      * @return True if an error was detected in the bit stream, false otherwise.
      * */
     private boolean magRefPass(DataBlk cblk, MQDecoder mq, int bp,
-                               int state[], boolean isterm) {
+                               int state[], boolean isterm,
+                               int options) {
         int j,sj;        // The state index for line and stripe
         int k,sk;        // The data index for line and stripe
         int dscanw;      // The data scan-width
@@ -1822,10 +2448,13 @@ public class StdEntropyDecoder extends EntropyDecoder
      * @param isterm If this pass has been terminated. If the pass has been
      * terminated it can be used to check error resilience.
      *
+     * @param options The entropy coding options to use, as flag bits.
+     *
      * @return True if an error was detected in the bit stream, false otherwise.
      * */
     private boolean rawMagRefPass(DataBlk cblk, ByteToBitInput bin, int bp,
-                                  int state[], boolean isterm) {
+                                  int state[], boolean isterm,
+                                  int options) {
         int j,sj;        // The state index for line and stripe
         int k,sk;        // The data index for line and stripe
         int dscanw;      // The data scan-width
@@ -1969,11 +2598,14 @@ public class StdEntropyDecoder extends EntropyDecoder
      * @param isterm If this pass has been terminated. If the pass has been
      * terminated it can be used to check error resilience.
      *
+     * @param options The entropy coding options to use, as flag bits.
+     *
      * @return True if an error was detected in the bit stream, false
      * otherwise.
      * */
     private boolean cleanuppass(DataBlk cblk, MQDecoder mq, int bp,
-                                int state[], int zc_lut[], boolean isterm) {
+                                int state[], int zc_lut[], boolean isterm,
+                                int options) {
         int j,sj;        // The state index for line and stripe
         int k,sk;        // The data index for line and stripe
         int dscanw;      // The data scan-width
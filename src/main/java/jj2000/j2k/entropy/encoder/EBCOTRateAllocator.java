@@ -53,6 +53,7 @@ import jj2000.j2k.codestream.writer.BitOutputBuffer;
 import jj2000.j2k.codestream.writer.CodestreamWriter;
 import jj2000.j2k.codestream.writer.PktEncoder;
 import jj2000.j2k.entropy.Progression;
+import jj2000.j2k.util.ArrayUtil;
 import jj2000.j2k.util.FacilityManager;
 import jj2000.j2k.util.MathUtil;
 import jj2000.j2k.util.MsgLogger;
@@ -60,6 +61,7 @@ import jj2000.j2k.util.ProgressWatch;
 import jj2000.j2k.wavelet.analysis.SubbandAn;
 
 import com.github.jpeg2000.J2KWriteParam;
+import com.github.jpeg2000.SimpleJ2KWriteParam;
 /**
  * This implements the EBCOT post compression rate allocation algorithm. This
  * algorithm finds the most suitable truncation points for the set of
@@ -68,6 +70,13 @@ import com.github.jpeg2000.J2KWriteParam;
  * components, and then running the rate-allocation on the whole image at
  * once, for each layer.
  *
+ * <P>If tile streaming is requested by the encoder parameters, the
+ * rate-allocation is instead run on each tile as soon as its code-blocks
+ * have been coded, and the tile is written and its code-blocks released
+ * before the next tile is coded. The layer target bitrates then apply to
+ * each tile on its own, rather than to the image as a whole, and TLM marker
+ * segments can not be written since the main header precedes all tiles.
+ *
  * <P>This implementation also provides some timing features. They can be
  * enabled by setting the 'DO_TIMING' constant of this class to true and
  * recompiling. The timing uses the 'System.currentTimeMillis()' Java API
@@ -100,6 +109,16 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
     /** The wall time for the writing of layers. */
     private long writeTime;
 
+    /** Whether the packets are only simulated by writePacket(), to get their
+     * lengths */
+    private boolean simPkts;
+
+    /** The lengths of the packets simulated by writePacket() */
+    private int[] pktLengths;
+
+    /** The number of packets simulated by writePacket() */
+    private int nPkts;
+
     /**
      * 5D Array containing all the coded code-blocks:
      *
@@ -196,6 +215,20 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
     /** The minimum slope accross all code-blocks and truncation points. */
     private float minSlope;
 
+    /** Whether each tile is rate allocated and written as soon as it has
+     * been coded, rather than all the tiles at once. Only a
+     * SimpleJ2KWriteParam can ask for this. */
+    private boolean streaming;
+
+    /** Whether a TLM marker segment is written in the main header, and
+     * PLT marker segments in the tile-part headers. Only a
+     * SimpleJ2KWriteParam can ask for them. */
+    private boolean tlm, plt;
+
+    /** The target length of each layer for the whole image, when the tiles
+     * are streamed. */
+    private int imgLayerBytes[];
+
     /**
      * Initializes the EBCOT rate allocator of entropy coded data. The layout
      * of layers, and their bitrate constraints, is specified by the 'lyrs'
@@ -235,6 +268,11 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
 
         // Save the layer specs
         lyrSpec = lyrs;
+        if (wp instanceof SimpleJ2KWriteParam) {
+            streaming = ((SimpleJ2KWriteParam)wp).getTileStreaming();
+            tlm = ((SimpleJ2KWriteParam)wp).getTLM();
+            plt = ((SimpleJ2KWriteParam)wp).getPLT();
+        }
 
         //Initialize the size of the RD slope rates array
         RDSlopesRates = new int[RD_SUMMARY_SIZE];
@@ -407,11 +445,16 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
 
     /**
      * Runs the rate allocation algorithm and writes the data to the bit
-     * stream writer object provided to the constructor.
+     * stream writer object provided to the constructor. The main header is
+     * written first if it has not been written yet.
      * */
     public void runAndWrite() throws IOException {
         //Now, run the rate allocation
-        buildAndWriteLayers();
+        if (streaming) {
+            streamTiles();
+        } else {
+            buildAndWriteLayers();
+        }
     }
 
     /**
@@ -419,6 +462,11 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
      * has been entirely written or simulated, so as to take its overhead into
      * account. This method will get all the code-blocks and then initialize
      * the target bitrates for each layer, according to the specifications.
+     *
+     * <P>When tiles are streamed no code-blocks are got here, so the total
+     * encoded length is not known. The layers are initialized for the whole
+     * image as usual, and their target lengths are shared between the tiles
+     * according to their area by runAndWrite().
      * */
     public void initialize() throws IOException{
         int n,i,l;
@@ -430,54 +478,35 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
         int loopnlyrs;
         int minlsz; // The minimum allowable number of bytes in a layer
         int totenclength;
-        int maxpkt;
         int numTiles  = src.getNumTiles();
-        int numComps  = src.getNumComps();
-        int numLvls;
-        int avgPktLen;
 
         long stime = 0L;
 
-        // Start by getting all the code-blocks, we need this in order to have
-        // an idea of the total encoded bitrate.
-        getAllCodeBlocks();
-
-        if (DO_TIMING) stime = System.currentTimeMillis();
-
-        // Now get the total encoded length
-        totenclength = RDSlopesRates[0]; // all the encoded data
-        // Make a rough estimation of the packet head overhead, as 2 bytes per
-        // packet in average (plus EPH / SOP) , and add that to the total
-        // encoded length
-	for( int t=0 ; t<numTiles ; t++ ){
-            avgPktLen = 2;
-            // Add SOP length if set
-            if (((String)wp.getSOP().getTileDef(t)).equalsIgnoreCase("true")) {
-                avgPktLen += Markers.SOP_LENGTH;
-            }
-            // Add EPH length if set
-            if (((String)wp.getEPH().getTileDef(t)).equalsIgnoreCase("true")) {
-                avgPktLen += Markers.EPH_LENGTH;
+        if (streaming) {
+            if (tlm) {
+                throw new IllegalArgumentException("TLM marker segments can"+
+                                                   " not be written when"+
+                                                   " streaming tiles");
             }
-
-	    for( int c=0 ; c<numComps ; c++ ){
-		numLvls   = src.getAnSubbandTree(t,c).resLvl+1;
-		if( !src.precinctPartitionUsed(c,t) ) {
-		    // Precinct partition is not used so there is only
-		    // one packet per resolution level/layer
-		    totenclength += numLayers*avgPktLen*numLvls;
-		}
-		else {
-		    // Precinct partition is used so for each
-		    // component/tile/resolution level, we get the maximum
-		    // number of packets
-                    for ( int rl=0 ; rl<numLvls ; rl++ ) {
-                        maxpkt = numPrec[t][c][rl].x * numPrec[t][c][rl].y;
-                        totenclength += numLayers*avgPktLen*maxpkt;
-                    }
-		}
-	    } // End loop on components
-        } // End loop on tiles
+            // The code-blocks are only got as each tile is written, so
+            // nothing limits the layer target lengths
+            totenclength = Integer.MAX_VALUE;
+        } else {
+            // Start by getting all the code-blocks, we need this in order to
+            // have an idea of the total encoded bitrate.
+            getAllCodeBlocks();
+
+            if (DO_TIMING) stime = System.currentTimeMillis();
+
+            // Now get the total encoded length
+            totenclength = RDSlopesRates[0]; // all the encoded data
+            // Make a rough estimation of the packet head overhead, as 2
+            // bytes per packet in average (plus EPH / SOP) , and add that to
+            // the total encoded length
+            for( int t=0 ; t<numTiles ; t++ ){
+                totenclength += getPacketHeadOverhead(t);
+            } // End loop on tiles
+        }
 
         // If any layer specifies more than 'totenclength' as its target
         // length then 'totenclength' is used. This is to prevent that
@@ -504,21 +533,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
 
         minlsz = 0; // To keep compiler happy
 	for( int t=0 ; t<numTiles ; t++ ){
-            for( int c=0 ; c<numComps ; c++ ){
-		numLvls   = src.getAnSubbandTree(t,c).resLvl+1;
-
-		if ( !src.precinctPartitionUsed(c,t) ) {
-		    // Precinct partition is not used
-		    minlsz += MIN_AVG_PACKET_SZ*numLvls;
-		}
-		else {
-		    // Precinct partition is used
-                    for ( int rl=0 ; rl<numLvls ; rl++ ) {
-                        maxpkt = numPrec[t][c][rl].x * numPrec[t][c][rl].y;
-                        minlsz += MIN_AVG_PACKET_SZ*maxpkt;
-                    }
-		}
-	    } // End loop on components
+            minlsz += getMinLayerLength(t);
         } // End loop on tiles
 
         // Initialize layers
@@ -581,6 +596,15 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
         layers[n].maxBytes = nextbytes;
         layers[n].optimize = true;
 
+        if (streaming) {
+            // Keep the target lengths for the whole image, to be shared
+            // between the tiles
+            imgLayerBytes = new int[numLayers];
+            for (n = 0; n<numLayers; n++) {
+                imgLayerBytes[n] = layers[n].maxBytes;
+            }
+        }
+
 	// Re-initialize progression order changes if needed Default values
 	Progression[] prog1,prog2;
 	prog1 = (Progression[])wp.getProgressionType().getDefault();
@@ -613,6 +637,101 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
         if (DO_TIMING) initTime += System.currentTimeMillis()-stime;
     }
 
+    /**
+     * Returns a rough estimation of the packet head overhead of a tile, for
+     * all its layers, as 2 bytes per packet in average (plus EPH / SOP).
+     *
+     * @param t The index of the tile.
+     *
+     * @return The estimated packet head overhead, in bytes.
+     * */
+    private int getPacketHeadOverhead(int t) {
+        int numComps = src.getNumComps();
+        int numLvls;
+        int maxpkt;
+        int overhead = 0;
+        int avgPktLen = 2;
+
+        // Add SOP length if set
+        if (((String)wp.getSOP().getTileDef(t)).equalsIgnoreCase("true")) {
+            avgPktLen += Markers.SOP_LENGTH;
+        }
+        // Add EPH length if set
+        if (((String)wp.getEPH().getTileDef(t)).equalsIgnoreCase("true")) {
+            avgPktLen += Markers.EPH_LENGTH;
+        }
+
+        for( int c=0 ; c<numComps ; c++ ){
+            numLvls   = src.getAnSubbandTree(t,c).resLvl+1;
+            if( !src.precinctPartitionUsed(c,t) ) {
+                // Precinct partition is not used so there is only
+                // one packet per resolution level/layer
+                overhead += numLayers*avgPktLen*numLvls;
+            }
+            else {
+                // Precinct partition is used so for each
+                // component/tile/resolution level, we get the maximum
+                // number of packets
+                for ( int rl=0 ; rl<numLvls ; rl++ ) {
+                    maxpkt = numPrec[t][c][rl].x * numPrec[t][c][rl].y;
+                    overhead += numLayers*avgPktLen*maxpkt;
+                }
+            }
+        } // End loop on components
+        return overhead;
+    }
+
+    /**
+     * Returns the minimum allowable number of bytes that a layer may add to
+     * a tile, as MIN_AVG_PACKET_SZ bytes per packet.
+     *
+     * @param t The index of the tile.
+     *
+     * @return The minimum length of a layer in the tile, in bytes.
+     * */
+    private int getMinLayerLength(int t) {
+        int numComps = src.getNumComps();
+        int numLvls;
+        int maxpkt;
+        int minlsz = 0;
+
+        for( int c=0 ; c<numComps ; c++ ){
+            numLvls   = src.getAnSubbandTree(t,c).resLvl+1;
+
+            if ( !src.precinctPartitionUsed(c,t) ) {
+                // Precinct partition is not used
+                minlsz += MIN_AVG_PACKET_SZ*numLvls;
+            }
+            else {
+                // Precinct partition is used
+                for ( int rl=0 ; rl<numLvls ; rl++ ) {
+                    maxpkt = numPrec[t][c][rl].x * numPrec[t][c][rl].y;
+                    minlsz += MIN_AVG_PACKET_SZ*maxpkt;
+                }
+            }
+        } // End loop on components
+        return minlsz;
+    }
+
+    /**
+     * Initializes the target lengths of the layers for a single tile, when
+     * the tiles are streamed. The target lengths of the layers for the whole
+     * image, excluding the header overhead, are shared between the tiles
+     * according to their area.
+     *
+     * @param t The index of the tile, which must be the current tile of the
+     * source.
+     * */
+    private void initTileLayers(int t) {
+        double share; // The share of the image area covered by the tile
+
+        share = (double)src.getTileWidth()*src.getTileHeight()/
+            ((double)src.getImgWidth()*src.getImgHeight());
+        for (int n = 0; n<numLayers; n++) {
+            layers[n].maxBytes = (int)(imgLayerBytes[n]*share);
+        }
+    }
+
     /**
      * This method gets all the coded code-blocks from the EBCOT entropy coder
      * for every component and every tile. Each coded code-block is stored in
@@ -624,9 +743,38 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
      * */
     private void getAllCodeBlocks() {
 
-        int numComps, numTiles, numBytes;
-        int c, r, t, s, sidx, k;
-        int slope;
+        int numTiles;
+
+        maxSlope = 0f;
+        minSlope = Float.MAX_VALUE;
+
+        //Get the number of tiles
+        numTiles = src.getNumTiles();
+
+        //Get all coded code-blocks Goto first tile
+        src.setTile(0,0);
+        for (int t=0; t<numTiles; t++) { //loop on tiles
+            getTileCodeBlocks(t);
+
+            //Goto next tile
+            if(t<numTiles-1) //not at last tile
+                src.nextTile();
+        }
+    }
+
+    /**
+     * This method gets all the coded code-blocks of the current tile from
+     * the EBCOT entropy coder, storing them in the 'cblks' array and adding
+     * their contribution to the summary R-D table and the minimum and
+     * maximum slopes.
+     *
+     * @param t The index of the tile, which must be the current tile of the
+     * source.
+     * */
+    private void getTileCodeBlocks(int t) {
+
+        int numComps;
+        int c, r, s, sidx, k;
         SubbandAn subb;
         CBlkRateDistStats ccb = null;
         Point ncblks = null;
@@ -635,95 +783,81 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
 
         long stime = 0L;
 
-        maxSlope = 0f;
-        minSlope = Float.MAX_VALUE;
-
-        //Get the number of components and tiles
+        //Get the number of components
         numComps = src.getNumComps();
-        numTiles = src.getNumTiles();
 
         SubbandAn root,sb;
         int cblkToEncode = 0;
         int nEncCblk = 0;
         ProgressWatch pw = FacilityManager.getProgressWatch();
 
-        //Get all coded code-blocks Goto first tile
-        src.setTile(0,0);
-        for (t=0; t<numTiles; t++) { //loop on tiles
-            nEncCblk = 0;
-            cblkToEncode = 0;
-            for(c=0; c<numComps; c++) {
-                root = src.getAnSubbandTree(t,c);
-                for(r=0; r<=root.resLvl; r++) {
-                    if(r==0) {
-                        sb = (SubbandAn)root.getSubbandByIdx(0,0);
-                        if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
-                    } else {
-                        sb = (SubbandAn)root.getSubbandByIdx(r,1);
-                        if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
-                        sb = (SubbandAn)root.getSubbandByIdx(r,2);
-                        if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
-                        sb = (SubbandAn)root.getSubbandByIdx(r,3);
-                        if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
-                    }
+        for(c=0; c<numComps; c++) {
+            root = src.getAnSubbandTree(t,c);
+            for(r=0; r<=root.resLvl; r++) {
+                if(r==0) {
+                    sb = (SubbandAn)root.getSubbandByIdx(0,0);
+                    if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
+                } else {
+                    sb = (SubbandAn)root.getSubbandByIdx(r,1);
+                    if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
+                    sb = (SubbandAn)root.getSubbandByIdx(r,2);
+                    if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
+                    sb = (SubbandAn)root.getSubbandByIdx(r,3);
+                    if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
                 }
             }
-            if(pw!=null) {
-                pw.initProgressWatch(0,cblkToEncode,"Encoding tile "+t+"...");
-            }
+        }
+        if(pw!=null) {
+            pw.initProgressWatch(0,cblkToEncode,"Encoding tile "+t+"...");
+        }
 
-            for (c=0; c<numComps; c++) { //loop on components
+        for (c=0; c<numComps; c++) { //loop on components
 
-                //Get next coded code-block coordinates
-                while ( (ccb = src.getNextCodeBlock(c,ccb)) != null) {
-                    if (DO_TIMING) stime = System.currentTimeMillis();
+            //Get next coded code-block coordinates
+            while ( (ccb = src.getNextCodeBlock(c,ccb)) != null) {
+                if (DO_TIMING) stime = System.currentTimeMillis();
 
-                    if(pw!=null) {
-                        nEncCblk++;
-                        pw.updateProgressWatch(nEncCblk,null);
-                    }
+                if(pw!=null) {
+                    nEncCblk++;
+                    pw.updateProgressWatch(nEncCblk,null);
+                }
 
-                    subb = ccb.sb;
+                subb = ccb.sb;
 
-                    //Get the coded code-block resolution level index
-                    r = subb.resLvl;
+                //Get the coded code-block resolution level index
+                r = subb.resLvl;
 
-                    //Get the coded code-block subband index
-                    s = subb.sbandIdx;
+                //Get the coded code-block subband index
+                s = subb.sbandIdx;
 
-                    //Get the number of blocks in the current subband
-                    ncblks = subb.numCb;
+                //Get the number of blocks in the current subband
+                ncblks = subb.numCb;
 
-                    // Add code-block contribution to summary R-D table
-                    // RDSlopesRates
-                    last_sidx = -1;
-                    for (k=ccb.nVldTrunc-1; k>=0; k--) {
-                        fslope = ccb.truncSlopes[k];
-                        if (fslope > maxSlope) maxSlope = fslope;
-                        if (fslope < minSlope) minSlope = fslope;
-                        sidx = getLimitedSIndexFromSlope(fslope);
-                        for (; sidx > last_sidx; sidx--) {
-                            RDSlopesRates[sidx] +=
-                                ccb.truncRates[ccb.truncIdxs[k]];
-                        }
-                        last_sidx = getLimitedSIndexFromSlope(fslope);
+                // Add code-block contribution to summary R-D table
+                // RDSlopesRates
+                last_sidx = -1;
+                for (k=ccb.nVldTrunc-1; k>=0; k--) {
+                    fslope = ccb.truncSlopes[k];
+                    if (fslope > maxSlope) maxSlope = fslope;
+                    if (fslope < minSlope) minSlope = fslope;
+                    sidx = getLimitedSIndexFromSlope(fslope);
+                    for (; sidx > last_sidx; sidx--) {
+                        RDSlopesRates[sidx] +=
+                            ccb.truncRates[ccb.truncIdxs[k]];
                     }
-
-                    //Fills code-blocks array
-                    cblks[t][c][r][s][(ccb.m*ncblks.x)+ccb.n] = ccb;
-                    ccb = null;
-
-                    if(DO_TIMING) initTime += System.currentTimeMillis()-stime;
+                    last_sidx = getLimitedSIndexFromSlope(fslope);
                 }
-            }
 
-            if(pw!=null) {
-                pw.terminateProgressWatch();
+                //Fills code-blocks array
+                cblks[t][c][r][s][(ccb.m*ncblks.x)+ccb.n] = ccb;
+                ccb = null;
+
+                if(DO_TIMING) initTime += System.currentTimeMillis()-stime;
             }
+        }
 
-            //Goto next tile
-            if(t<numTiles-1) //not at last tile
-                src.nextTile();
+        if(pw!=null) {
+            pw.terminateProgressWatch();
         }
     }
 
@@ -734,41 +868,138 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
      * writes the layer bit streams according to the Progression type.
      * */
     private void buildAndWriteLayers() throws IOException {
+        int[] tileLengths; // Length of each tile
+        int[][] tilePktLengths; // Length of each packet of each tile
+        int nt = src.getNumTiles();
+
+        long stime = 0L;
+
+        if (DO_TIMING) stime = System.currentTimeMillis();
+
+        tileLengths = new int[nt];
+
+        // +------------------------------+
+        // |  First we build the layers   |
+        // +------------------------------+
+        buildLayers(0,nt,tileLengths);
+
+        if (DO_TIMING) buildTime += System.currentTimeMillis()-stime;
+
+        // The bit-stream was not yet generated (only simulated).
+
+        if (DO_TIMING) stime = System.currentTimeMillis();
+
+        // +--------------------------------------------------+
+        // | Write tiles according to their Progression order |
+        // +--------------------------------------------------+
+        // Reset the packet encoder before writing all packets
+        pktEnc.reset();
+
+        tilePktLengths = simulateTilePackets(0,nt,tileLengths);
+
+        // Main header, if not written yet. It must be written now if TLM
+        // marker segments are used, as they need the tile-part lengths.
+        if(bsWriter.getLength()==0) {
+            headEnc.reset();
+            headEnc.setTilePartLengths(tileLengths);
+            headEnc.encodeMainHeader();
+            bsWriter.commitBitstreamHeader(headEnc);
+        } else if(tlm) {
+            throw new IllegalStateException("Main header written before the"+
+                                            " tile-part lengths are known");
+        }
+
+        for(int t=0; t<nt; t++) { //loop on tiles
+            writeTile(t,tileLengths[t],
+                      tilePktLengths==null ? null : tilePktLengths[t]);
+        } // End loop on tiles
+
+        if (DO_TIMING) writeTime += System.currentTimeMillis()-stime;
+    }
+
+    /**
+     * This method codes, rate allocates and writes each tile in turn, when
+     * the tiles are streamed. The code-blocks of a tile are released once it
+     * has been written, so only those of one tile are held at any time. The
+     * main header is written first if it has not been written yet.
+     * */
+    private void streamTiles() throws IOException {
+        int[] tileLengths; // Length of each tile
+        int[][] tilePktLengths; // Length of each packet of each tile
+        int nt = src.getNumTiles();
+        Point nTiles = src.getNumTiles(null);
+
+        // Main header, if not written yet
+        if(bsWriter.getLength()==0) {
+            headEnc.reset();
+            headEnc.encodeMainHeader();
+            bsWriter.commitBitstreamHeader(headEnc);
+        }
+
+        tileLengths = new int[nt];
+
+        for(int t=0; t<nt; t++) { //loop on tiles
+            src.setTile(t%nTiles.x,t/nTiles.x);
+
+            // The summary R-D table only covers the current tile
+            ArrayUtil.intArraySet(RDSlopesRates,0);
+            maxSlope = 0f;
+            minSlope = Float.MAX_VALUE;
+            getTileCodeBlocks(t);
+            initTileLayers(t);
+
+            buildLayers(t,t+1,tileLengths);
+
+            pktEnc.reset(t);
+            tilePktLengths = simulateTilePackets(t,t+1,tileLengths);
+            writeTile(t,tileLengths[t],
+                      tilePktLengths==null ? null : tilePktLengths[t]);
+
+            // Release the code-blocks of the tile
+            cblks[t] = null;
+            truncIdxs[t] = null;
+        } // End loop on tiles
+    }
+
+    /**
+     * This method builds the layers of a range of tiles, by computing the
+     * threshold according to the layer target bit-rate. The bit stream is
+     * only simulated, to get the length of each tile.
+     *
+     * @param t0 The index of the first tile.
+     *
+     * @param t1 The index after the last tile.
+     *
+     * @param tileLengths Where to add the length of each tile, including
+     * its tile-part header.
+     * */
+    private void buildLayers(int t0, int t1, int[] tileLengths)
+        throws IOException {
         int nPrec = 0;
         int maxBytes, actualBytes;
         float rdThreshold;
         SubbandAn sb;
-        float threshold;
         BitOutputBuffer hBuff = null;
         byte[] bBuff = null;
-        int[] tileLengths; // Length of each tile
         int tmp;
         boolean sopUsed; // Should SOP markers be used ?
         boolean ephUsed; // Should EPH markers be used ?
         int nc = src.getNumComps();
-        int nt = src.getNumTiles();
         int mrl;
 
-        long stime = 0L;
-
-        if (DO_TIMING) stime = System.currentTimeMillis();
-
         // Start with the maximum slope
         rdThreshold = maxSlope;
 
-        tileLengths = new int[nt];
         actualBytes = 0;
 
-        // +------------------------------+
-        // |  First we build the layers   |
-        // +------------------------------+
         // Bitstream is simulated to know tile length
         for(int l=0; l<numLayers; l++){ //loop on layers
 
             maxBytes = layers[l].maxBytes;
             if(layers[l].optimize) {
                 rdThreshold =
-                    optimizeBitstreamLayer(l,rdThreshold,maxBytes,actualBytes);
+                    optimizeBitstreamLayer(l,rdThreshold,maxBytes,actualBytes,
+                                           t0,t1);
             } else {
                 if( l<=0 || l>=numLayers-1 ) {
                     throw new IllegalArgumentException("The first and the"+
@@ -779,7 +1010,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
                 rdThreshold = estimateLayerThreshold(maxBytes,layers[l-1]);
             }
 
-            for(int t=0; t<nt; t++) { //loop on tiles
+            for(int t=t0; t<t1; t++) { //loop on tiles
                 if(l==0) {
                     // Tile header
                     headEnc.reset();
@@ -837,74 +1068,156 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
             layers[l].rdThreshold = rdThreshold;
             layers[l].actualBytes = actualBytes;
         } // end loop on layers
+    }
 
-        if (DO_TIMING) buildTime += System.currentTimeMillis()-stime;
+    /**
+     * If PLT marker segments are used, the packets of a range of tiles are
+     * first simulated in their progression order to get their lengths, which
+     * also changes the lengths of the tile-part headers. The packet encoder
+     * state of the tiles must have been reset, and is reset again once done.
+     *
+     * @param t0 The index of the first tile.
+     *
+     * @param t1 The index after the last tile.
+     *
+     * @param tileLengths The length of each tile, which is updated.
+     *
+     * @return The length of each packet of each tile in the range, or null
+     * if PLT marker segments are not used.
+     * */
+    private int[][] simulateTilePackets(int t0, int t1, int[] tileLengths)
+        throws IOException {
+        if(!plt) {
+            return null;
+        }
+        int[][] tilePktLengths = new int[src.getNumTiles()][];
+        simPkts = true;
+        for(int t=t0; t<t1; t++) {
+            nPkts = 0;
+            writeTilePackets(t);
+            tilePktLengths[t] = new int[nPkts];
+            System.arraycopy(pktLengths,0,tilePktLengths[t],0,nPkts);
+            headEnc.reset();
+            headEnc.encodeTilePartHeader(0,t,tilePktLengths[t]);
+            tileLengths[t] = headEnc.getLength();
+            for(int i=0; i<nPkts; i++) {
+                tileLengths[t] += tilePktLengths[t][i];
+            }
+        }
+        simPkts = false;
+        pktLengths = null;
+        for(int t=t0; t<t1; t++) {
+            pktEnc.reset(t);
+        }
+        return tilePktLengths;
+    }
 
-        // The bit-stream was not yet generated (only simulated).
+    /**
+     * Writes a tile, as a single tile-part, to the bit stream writer.
+     *
+     * @param t Tile index.
+     *
+     * @param tileLength The length of the tile-part, including its header.
+     *
+     * @param tilePktLengths The length of each packet of the tile, to be
+     * written in PLT marker segments, or null if they are not used.
+     * */
+    private void writeTile(int t, int tileLength, int[] tilePktLengths)
+        throws IOException {
+        // Tile header
+        headEnc.reset();
+        headEnc.encodeTilePartHeader(tileLength,t,tilePktLengths);
+        bsWriter.commitBitstreamHeader(headEnc);
 
-        if (DO_TIMING) stime = System.currentTimeMillis();
+        writeTilePackets(t);
+    }
 
-        // +--------------------------------------------------+
-        // | Write tiles according to their Progression order |
-        // +--------------------------------------------------+
-        // Reset the packet encoder before writing all packets
-        pktEnc.reset();
-        Progression[] prog; // Progression(s) in each tile
+    /**
+     * Writes the packets of a tile according to its progression order(s).
+     *
+     * @param t Tile index.
+     * */
+    private void writeTilePackets(int t) throws IOException {
+        int nc = src.getNumComps();
+        Progression[] prog; // Progression(s) in the tile
         int cs,ce,rs,re,lye;
 
         int[] mrlc = new int[nc];
-        for(int t=0; t<nt; t++) { //loop on tiles
-            int[][] lysA; // layer index start for each component and
-            // resolution level
-            int[][] lys = new int[nc][];
-            for(int c=0; c<nc; c++){
-                mrlc[c] = src.getAnSubbandTree(t,c).resLvl;
-                lys[c] = new int[mrlc[c]+1];
-            }
+        int[][] lys = new int[nc][]; // layer index start for each component
+        // and resolution level
+        for(int c=0; c<nc; c++){
+            mrlc[c] = src.getAnSubbandTree(t,c).resLvl;
+            lys[c] = new int[mrlc[c]+1];
+        }
 
-            // Tile header
-            headEnc.reset();
-            headEnc.encodeTilePartHeader(tileLengths[t],t);
-            bsWriter.commitBitstreamHeader(headEnc);
-            prog = (Progression[])wp.getProgressionType().getTileDef(t);
-
-            for(int prg=0; prg<prog.length;prg++){ // Loop on progression
-                lye = prog[prg].lye;
-                cs = prog[prg].cs;
-                ce = prog[prg].ce;
-                rs = prog[prg].rs;
-                re = prog[prg].re;
-
-                switch(prog[prg].type){
-                case ProgressionType.RES_LY_COMP_POS_PROG:
-                    writeResLyCompPos(t,rs,re,cs,ce,lys,lye);
-                    break;
-                case ProgressionType.LY_RES_COMP_POS_PROG:
-                    writeLyResCompPos(t,rs,re,cs,ce,lys,lye);
-                    break;
-                case ProgressionType.POS_COMP_RES_LY_PROG:
-                    writePosCompResLy(t,rs,re,cs,ce,lys,lye);
-                    break;
-                case ProgressionType.COMP_POS_RES_LY_PROG:
-                    writeCompPosResLy(t,rs,re,cs,ce,lys,lye);
-                    break;
-                case ProgressionType.RES_POS_COMP_LY_PROG:
-                    writeResPosCompLy(t,rs,re,cs,ce,lys,lye);
-                    break;
-                default:
-                    throw new Error("Unsupported bit stream progression type");
-                } // switch on progression
-
-                // Update next first layer index 
-                for(int c=cs; c<ce; c++)
-                    for(int r=rs; r<re; r++){
-                        if(r>mrlc[c]) continue;
-                        lys[c][r] = lye;
-                    }
-            } // End loop on progression
-        } // End loop on tiles
+        prog = (Progression[])wp.getProgressionType().getTileDef(t);
 
-        if (DO_TIMING) writeTime += System.currentTimeMillis()-stime;
+        for(int prg=0; prg<prog.length;prg++){ // Loop on progression
+            lye = prog[prg].lye;
+            cs = prog[prg].cs;
+            ce = prog[prg].ce;
+            rs = prog[prg].rs;
+            re = prog[prg].re;
+
+            switch(prog[prg].type){
+            case ProgressionType.RES_LY_COMP_POS_PROG:
+                writeResLyCompPos(t,rs,re,cs,ce,lys,lye);
+                break;
+            case ProgressionType.LY_RES_COMP_POS_PROG:
+                writeLyResCompPos(t,rs,re,cs,ce,lys,lye);
+                break;
+            case ProgressionType.POS_COMP_RES_LY_PROG:
+                writePosCompResLy(t,rs,re,cs,ce,lys,lye);
+                break;
+            case ProgressionType.COMP_POS_RES_LY_PROG:
+                writeCompPosResLy(t,rs,re,cs,ce,lys,lye);
+                break;
+            case ProgressionType.RES_POS_COMP_LY_PROG:
+                writeResPosCompLy(t,rs,re,cs,ce,lys,lye);
+                break;
+            default:
+                throw new Error("Unsupported bit stream progression type");
+            } // switch on progression
+
+            // Update next first layer index 
+            for(int c=cs; c<ce; c++)
+                for(int r=rs; r<re; r++){
+                    if(r>mrlc[c]) continue;
+                    lys[c][r] = lye;
+                }
+        } // End loop on progression
+    }
+
+    /**
+     * Writes the last packet encoded by the packet encoder to the bit stream
+     * writer. If the packets are only simulated, nothing is written but the
+     * length of the packet is recorded.
+     *
+     * @param hBuff The packet head.
+     *
+     * @param sopUsed Whether SOP markers should be written.
+     *
+     * @param ephUsed Whether EPH markers should be written.
+     * */
+    private void writePacket(BitOutputBuffer hBuff,boolean sopUsed,
+                             boolean ephUsed) throws IOException {
+        int len = bsWriter.writePacketHead(hBuff.getBuffer(),
+                                           hBuff.getLength(),
+                                           simPkts,sopUsed,ephUsed);
+        len += bsWriter.writePacketBody(pktEnc.getLastBodyBuf(),
+                                        pktEnc.getLastBodyLen(),
+                                        simPkts,pktEnc.isROIinPkt(),
+                                        pktEnc.getROILen());
+        if(simPkts) {
+            if(pktLengths==null || nPkts==pktLengths.length) {
+                int[] tmp = new int[nPkts==0 ? 64 : 2*nPkts];
+                if(pktLengths!=null) {
+                    System.arraycopy(pktLengths,0,tmp,0,nPkts);
+                }
+                pktLengths = tmp;
+            }
+            pktLengths[nPkts++] = len;
+        }
     }
 
     /** 
@@ -986,13 +1299,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
                                                     hBuff,bBuff,p);
 
                         if(pktEnc.isPacketWritable()) {
-                            bsWriter.writePacketHead(hBuff.getBuffer(),
-                                                     hBuff.getLength(),
-                                                     false,sopUsed,ephUsed);
-                            bsWriter.writePacketBody(pktEnc.getLastBodyBuf(),
-                                                     pktEnc.getLastBodyLen(),
-                                                     false,pktEnc.isROIinPkt(),
-                                                     pktEnc.getROILen());
+                            writePacket(hBuff,sopUsed,ephUsed);
                         }
 
                     } // End loop on precincts
@@ -1069,13 +1376,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
                                                     hBuff,bBuff,p);
 
                         if(pktEnc.isPacketWritable()) {
-                            bsWriter.writePacketHead(hBuff.getBuffer(),
-                                                     hBuff.getLength(),
-                                                     false,sopUsed,ephUsed);
-                            bsWriter.writePacketBody(pktEnc.getLastBodyBuf(),
-                                                     pktEnc.getLastBodyLen(),
-                                                     false,pktEnc.isROIinPkt(),
-                                                     pktEnc.getROILen());
+                            writePacket(hBuff,sopUsed,ephUsed);
                         }
                     } // end loop on precincts
                 } // end loop on components
@@ -1225,17 +1526,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
                                                         nextPrec[c][r]);
 
                             if(pktEnc.isPacketWritable()) {
-                                bsWriter.writePacketHead(hBuff.getBuffer(),
-                                                         hBuff.getLength(),
-                                                         false,sopUsed,
-                                                         ephUsed);
-                                bsWriter.writePacketBody(pktEnc.
-                                                         getLastBodyBuf(),
-                                                         pktEnc.
-                                                         getLastBodyLen(),
-                                                         false,
-                                                         pktEnc.isROIinPkt(),
-                                                         pktEnc.getROILen());
+                                writePacket(hBuff,sopUsed,ephUsed);
                             }
                         } // layers
                         nextPrec[c][r]++;
@@ -1412,17 +1703,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
                                                         nextPrec[c][r]);
 
                             if(pktEnc.isPacketWritable()) {
-                                bsWriter.writePacketHead(hBuff.getBuffer(),
-                                                         hBuff.getLength(),
-                                                         false,sopUsed,
-                                                         ephUsed);
-                                bsWriter.writePacketBody(pktEnc.
-                                                         getLastBodyBuf(),
-                                                         pktEnc.
-                                                         getLastBodyLen(),
-                                                         false,
-                                                         pktEnc.isROIinPkt(),
-                                                         pktEnc.getROILen());
+                                writePacket(hBuff,sopUsed,ephUsed);
                             }
 
                         } // Layers
@@ -1599,17 +1880,7 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
                                                         nextPrec[c][r]);
 
                             if(pktEnc.isPacketWritable()) {
-                                bsWriter.writePacketHead(hBuff.getBuffer(),
-                                                         hBuff.getLength(),
-                                                         false,sopUsed,
-                                                         ephUsed);
-                                bsWriter.writePacketBody(pktEnc.
-                                                         getLastBodyBuf(),
-                                                         pktEnc.
-                                                         getLastBodyLen(),
-                                                         false,
-                                                         pktEnc.isROIinPkt(),
-                                                         pktEnc.getROILen());
+                                writePacket(hBuff,sopUsed,ephUsed);
                             }
 
                         } // layers
@@ -1663,13 +1934,17 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
      *
      * @param prevBytes The number of bytes of all the previous layers.
      *
+     * @param t0 The index of the first tile the layer is formed for.
+     *
+     * @param t1 The index after the last tile the layer is formed for.
+     *
      * @return The value of the slope threshold.
      * */
     private float optimizeBitstreamLayer (int layerIdx, float fmaxt,
-                                          int maxBytes, int prevBytes)
+                                          int maxBytes, int prevBytes,
+                                          int t0, int t1)
         throws IOException {
 
-        int nt;         // The total number of tiles
         int nc;          // The total number of components
         int numLvls;          // The total number of resolution levels
         int actualBytes;      // Actual number of bytes for a layer
@@ -1685,9 +1960,10 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
         int nPrec; // Number of precincts in the current resolution level
 
         // Save the packet encoder state
-        pktEnc.save();
+        for (int t=t0; t<t1; t++) {
+            pktEnc.save(t);
+        }
 
-        nt = src.getNumTiles();
         nc = src.getNumComps();
         hBuff = null;
         bBuff = null;
@@ -1739,9 +2015,8 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
             // Get the number of bytes used by this layer, if 'ft' is the
             // threshold, by simulation.
             actualBytes = prevBytes;
-            src.setTile(0,0);
 
-            for (int t=0; t<nt; t++){
+            for (int t=t0; t<t1; t++){
                 for (int c=0; c<nc; c++) {
                     // set boolean sopUsed here (SOP markers)
                     sopUsed = ((String)wp.getSOP().getTileDef(t)).equalsIgnoreCase("true");
@@ -1803,7 +2078,9 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
             if (ft <= fmint) ft = fmaxt;
 
             // Restore previous packet encoder state
-            pktEnc.restore();
+            for (int t=t0; t<t1; t++) {
+                pktEnc.restore(t);
+            }
 
             // We continue to iterate, until the threshold reaches the upper
             // limit of the interval, within a FLOAT_REL_PRECISION relative
@@ -43,6 +43,8 @@
  * */
 package jj2000.j2k.entropy.encoder;
 
+import java.util.concurrent.Executor;
+
 import jj2000.j2k.StringSpec;
 import jj2000.j2k.entropy.CBlkSizeSpec;
 import jj2000.j2k.entropy.PrecinctSizeSpec;
@@ -319,4 +321,35 @@ public abstract class EntropyCoder extends ImgDataAdapter
         //pl.checkList(OPT_PREFIX,pl.toNameArray(pinfo));
         return new StdEntropyCoder(src,cblks,pss,bms,mqrs,rts,css,sss,lcs,tts);
     }
+
+    /**
+     * Creates a EntropyCoder object as {@link #createInstance(
+     * CBlkQuantDataSrcEnc,J2KWriteParam,CBlkSizeSpec,PrecinctSizeSpec,
+     * StringSpec,StringSpec,StringSpec,StringSpec,StringSpec,StringSpec,
+     * StringSpec)}, which codes the code-blocks in parallel on the specified
+     * Executor.
+     *
+     * @param executor The Executor to code the code-blocks on, or null to
+     * use the default of the entropy coder.
+     *
+     * @param nthreads The maximum number of code-blocks coded at a time on
+     * 'executor'.
+     *
+     * @return A new EntropyCoder object
+     *
+     * @see StdEntropyCoder
+     * */
+    public static EntropyCoder createInstance(CBlkQuantDataSrcEnc src,
+                                              J2KWriteParam wp,
+                                              CBlkSizeSpec cblks,
+                                              PrecinctSizeSpec pss,
+                                              StringSpec bms,StringSpec mqrs,
+                                              StringSpec rts,StringSpec css,
+                                              StringSpec sss,StringSpec lcs,
+                                              StringSpec tts,
+                                              Executor executor,
+                                              int nthreads) {
+        return new StdEntropyCoder(src,cblks,pss,bms,mqrs,rts,css,sss,lcs,tts,
+                                   executor,nthreads);
+    }
 }
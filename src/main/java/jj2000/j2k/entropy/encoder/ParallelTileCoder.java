@@ -0,0 +1,259 @@
+package jj2000.j2k.entropy.encoder;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import jj2000.j2k.image.ImgDataAdapter;
+import jj2000.j2k.wavelet.analysis.SubbandAn;
+
+/**
+ * A source of entropy coded data which codes several tiles at once, each on
+ * its own encoding pipeline. Each pipeline is a complete chain, from a view
+ * of the image source to an entropy coder, which only ever codes the tiles
+ * whose index modulo the number of pipelines is its own index.
+ *
+ * <P>When the code-blocks of a tile are requested, the coding of the
+ * following tiles is started on the Executor, one per pipeline, so that
+ * they are ready when the rate allocator asks for them. All the code-blocks
+ * of a tile are then returned in the order they were coded by its pipeline.
+ * The coded data of a tile does not depend on the other tiles being coded at
+ * the same time, and the rate allocator places each code-block by its
+ * position, so the output does not depend on the scheduling of the threads.
+ *
+ * <P>All the other properties are those of a separate pipeline, which is
+ * never used for coding and follows the current tile of this object.
+ *
+ * @author http://bfo.com
+ */
+public class ParallelTileCoder extends ImgDataAdapter
+    implements CodedCBlkDataSrcEnc {
+
+    /** The pipeline used for the properties of the coded data */
+    private final CodedCBlkDataSrcEnc props;
+
+    /** The pipelines used to code the tiles */
+    private final CodedCBlkDataSrcEnc[] coders;
+
+    /** The Executor the tiles are coded on, or null to code on the
+     * calling thread */
+    private final Executor executor;
+
+    /** The coding of each tile, which is null unless started and not yet
+     * returned */
+    private final TileTask[] tasks;
+
+    /** The code-blocks of the current tile, by component, or null if they
+     * have not been requested yet */
+    private CBlkRateDistStats[][] current;
+
+    /** The index of the next code-block of the current tile to return, by
+     * component */
+    private int[] next;
+
+    /** The number of tiles, horizontally and vertically */
+    private final Point numTiles;
+
+    /**
+     * Creates a new ParallelTileCoder.
+     *
+     * @param props The pipeline giving the properties of the coded data,
+     * which is never used for coding.
+     *
+     * @param coders The pipelines used for coding, which must give the same
+     * coded data for a tile as 'props' would.
+     *
+     * @param executor The Executor to code the tiles on, or null to code
+     * each tile on the calling thread when it is requested.
+     * */
+    public ParallelTileCoder(CodedCBlkDataSrcEnc props,
+                             CodedCBlkDataSrcEnc[] coders,
+                             Executor executor) {
+        super(props);
+        this.props = props;
+        this.coders = coders.clone();
+        this.executor = executor;
+        numTiles = props.getNumTiles(null);
+        tasks = new TileTask[props.getNumTiles()];
+        next = new int[props.getNumComps()];
+    }
+
+    /**
+     * The coding of all the code-blocks of a tile by one pipeline.
+     */
+    private static class TileTask extends FutureTask<CBlkRateDistStats[][]> {
+        TileTask(Callable<CBlkRateDistStats[][]> callable) {
+            super(callable);
+        }
+    }
+
+    /**
+     * Returns the coding of all the code-blocks of a tile, by the pipeline
+     * for that tile.
+     *
+     * @param t The index of the tile.
+     * */
+    private Callable<CBlkRateDistStats[][]> getTileCoding(final int t) {
+        return new Callable<CBlkRateDistStats[][]>() {
+            public CBlkRateDistStats[][] call() {
+                CodedCBlkDataSrcEnc coder = coders[t % coders.length];
+                // A pipeline codes its tiles one at a time
+                synchronized (coder) {
+                    int nc = coder.getNumComps();
+                    CBlkRateDistStats[][] cblks = new CBlkRateDistStats[nc][];
+                    List<CBlkRateDistStats> list = new ArrayList<CBlkRateDistStats>();
+                    CBlkRateDistStats ccb;
+                    coder.setTile(t % numTiles.x, t / numTiles.x);
+                    for (int c=0; c<nc; c++) {
+                        // As the rate allocator would do before coding, so
+                        // the quantizer sets the weights of the subbands
+                        coder.getAnSubbandTree(t, c);
+                    }
+                    for (int c=0; c<nc; c++) {
+                        while ((ccb = coder.getNextCodeBlock(c, null)) != null) {
+                            list.add(ccb);
+                        }
+                        cblks[c] = list.toArray(new CBlkRateDistStats[list.size()]);
+                        list.clear();
+                    }
+                    return cblks;
+                }
+            }
+        };
+    }
+
+    /**
+     * Starts coding a tile on the Executor, unless it has already been
+     * started.
+     *
+     * @param t The index of the tile.
+     * */
+    private void start(int t) {
+        if (tasks[t] == null) {
+            tasks[t] = new TileTask(getTileCoding(t));
+            if (executor != null) {
+                try {
+                    executor.execute(tasks[t]);
+                } catch (RejectedExecutionException e) {
+                    // Run on the calling thread when requested
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the next coded code-block in the current tile for the specified
+     * component. The first call for a tile waits for all its code-blocks to
+     * be coded, coding them on the calling thread if that has not started
+     * yet, and starts coding the following tiles.
+     *
+     * @param c The component for which to return the next code-block.
+     *
+     * @param ccb Not used, a new object is always returned.
+     *
+     * @return The next coded code-block in the current tile for component
+     * 'c', or null if all code-blocks for the current tile have been
+     * returned.
+     * */
+    public CBlkRateDistStats getNextCodeBlock(int c, CBlkRateDistStats ccb) {
+        if (current == null) {
+            int t = getTileIdx();
+            int nt = tasks.length;
+            for (int i=0; i<coders.length && t+i<nt; i++) {
+                start(t+i);
+            }
+            TileTask task = tasks[t];
+            tasks[t] = null;
+            // Does nothing if already run or running on another thread
+            task.run();
+            boolean interrupted = false;
+            try {
+                while (current == null) {
+                    try {
+                        current = task.get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                } else if (cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw new RuntimeException(cause);
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (next[c] < current[c].length) {
+            ccb = current[c][next[c]];
+            // Only returned once, so no need to keep it
+            current[c][next[c]++] = null;
+            return ccb;
+        }
+        return null;
+    }
+
+    /**
+     * Changes the current tile. The code-blocks of the previous current tile
+     * which have not been returned yet are discarded.
+     *
+     * @param x The horizontal index of the tile.
+     *
+     * @param y The vertical index of the new tile.
+     * */
+    public void setTile(int x, int y) {
+        super.setTile(x, y);
+        current = null;
+        next = new int[next.length];
+    }
+
+    /**
+     * Advances to the next tile, in standard scan-line order. The code-blocks
+     * of the previous current tile which have not been returned yet are
+     * discarded.
+     * */
+    public void nextTile() {
+        super.nextTile();
+        current = null;
+        next = new int[next.length];
+    }
+
+    public int getPPX(int t, int c, int r) {
+        return props.getPPX(t, c, r);
+    }
+
+    public int getPPY(int t, int c, int r) {
+        return props.getPPY(t, c, r);
+    }
+
+    public boolean precinctPartitionUsed(int c, int t) {
+        return props.precinctPartitionUsed(c, t);
+    }
+
+    public boolean isReversible(int t, int c) {
+        return props.isReversible(t, c);
+    }
+
+    public SubbandAn getAnSubbandTree(int t, int c) {
+        return props.getAnSubbandTree(t, c);
+    }
+
+    public int getCbULX() {
+        return props.getCbULX();
+    }
+
+    public int getCbULY() {
+        return props.getCbULY();
+    }
+
+}
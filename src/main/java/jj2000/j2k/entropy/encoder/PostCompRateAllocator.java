@@ -186,7 +186,10 @@ public abstract class PostCompRateAllocator extends ImgDataAdapter {
 
     /**
      * Runs the rate allocation algorithm and writes the data to the
-     * bit stream. This must be called after the initialize() method.
+     * bit stream. This must be called after the initialize() method. The main
+     * header is encoded and written first if it has not been written to the
+     * bit stream yet, which is required when TLM marker segments are used
+     * since they need the final tile-part lengths.
      *
      * @see #initialize
      * */
@@ -44,7 +44,14 @@
 package jj2000.j2k.entropy.encoder;
 import java.awt.Point;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 import jj2000.j2k.ModuleSpec;
 import jj2000.j2k.StringSpec;
@@ -55,7 +62,6 @@ import jj2000.j2k.quantization.quantizer.CBlkQuantDataSrcEnc;
 import jj2000.j2k.util.ArrayUtil;
 import jj2000.j2k.util.FacilityManager;
 import jj2000.j2k.util.MsgLogger;
-import jj2000.j2k.util.ThreadPool;
 import jj2000.j2k.wavelet.Subband;
 import jj2000.j2k.wavelet.analysis.CBlkWTData;
 
@@ -69,16 +75,20 @@ import jj2000.j2k.wavelet.analysis.CBlkWTData;
  * <p>The number of threads used by this entropy coder is specified by the
  * "jj2000.j2k.entropy.encoder.StdEntropyCoder.nthreads" Java system
  * property. If set to "0" the single threaded implementation is used. If set
- * to 'n' ('n' larger than 0) then 'n' extra threads are started by this class
- * which are used to encode the code-blocks in parallel (i.e. ideally 'n'
- * code-blocks will be encoded in parallel at a time). On multiprocessor
- * machines under a "native threads" Java Virtual Machine implementation each
- * one of these threads can run on a separate processor speeding up the
- * encoding time. By default the single-threaded implementation is used. The
- * multi-threaded implementation currently assumes that the vast majority of
- * consecutive calls to 'getNextCodeBlock()' will be done on the same
- * component. If this is not the case, the speed-up that can be expected on
- * multiprocessor machines might be significantly decreased.
+ * to 'n' ('n' larger than 0) then the code-blocks are encoded in parallel on
+ * a pool of 'n' threads, which is created once and shared by all the entropy
+ * coders (i.e. ideally 'n' code-blocks will be encoded in parallel at a
+ * time). Alternatively, an Executor can be given to the constructor, such as
+ * a pool shared with the rest of the application, in which case this class
+ * creates no threads at all. While waiting for a code-block, the thread
+ * calling 'getNextCodeBlock()' encodes those which the Executor has not
+ * started yet, so the Executor may be bounded and shared between many
+ * coders without any of them waiting forever. By default the single-threaded
+ * implementation is used. The multi-threaded implementation currently
+ * assumes that the vast majority of consecutive calls to 'getNextCodeBlock()'
+ * will be done on the same component. If this is not the case, the speed-up
+ * that can be expected on multiprocessor machines might be significantly
+ * decreased.
  *
  * <p>The code-blocks are rectangular, with dimensions which must be powers of
  * 2. Each dimension has to be no smaller than 4 and no larger than 256. The
@@ -134,23 +144,36 @@ public class StdEntropyCoder extends EntropyCoder
     /** The default value for the property in THREADS_PROP_NAME: 0 */
     public static final String DEF_THREADS_NUM = "0";
 
-    /** The increase in priority for the compressor threads, currently 3. The
+    /** The increase in priority for the compressor threads, currently 0. The
      * compressor threads will have a priority of THREADS_PRIORITY_INC more
-     * than the priority of the thread calling this class constructor. Used
-     * only in the multi-threaded implementation. */
+     * than the priority of the thread creating the shared pool. Used only in
+     * the multi-threaded implementation. */
     public static final int THREADS_PRIORITY_INC = 0;
 
-    /** The pool of threads, for the threaded implementation. It is null, if
-     * non threaded implementation is used */
-    private ThreadPool tPool;
+    /** The pools of threads shared by all the multi-threaded coders which
+     * are not given an Executor, by number of threads. Each is created when
+     * the first one with that number of threads is instantiated. */
+    private static final Map<Integer,ExecutorService> sharedPools =
+        new HashMap<Integer,ExecutorService>();
+
+    /** The Executor the compressors run on, for the threaded
+     * implementation. It is null, if non threaded implementation is used */
+    private Executor executor;
+
+    /** The first error or runtime exception thrown by a compressor, if
+     * any. Used in multithreaded implementation only. */
+    private volatile Throwable compressorError;
+
+    /** All the compressors. Used in multithreaded implementation only. */
+    private Compressor comps[];
 
     /** The queue of idle compressors. Used in multithreaded
         implementation only */
-    private Stack idleComps;
+    private Stack<Compressor> idleComps;
 
     /** The queue of completed compressors, for each component. Used
         in multithreaded implementation only. */
-    private Stack completedComps[];
+    private Stack<Compressor>[] completedComps;
 
     /** The number of busy compressors, for each component. Used in
         multithreaded implementation only. */
@@ -579,6 +602,10 @@ public class StdEntropyCoder extends EntropyCoder
          * component. */
         private long time[];
 
+        /** Whether a thread has started compressing since the compressor was
+         * last started. Guarded by the compressor's lock. */
+        private boolean claimed = true;
+
         /**
          * Creates a new compressor object with the given index.
          *
@@ -589,14 +616,54 @@ public class StdEntropyCoder extends EntropyCoder
             if (DO_TIMING) time = new long[src.getNumComps()];
         }
 
+        /**
+         * Sends this compressor to execution on the Executor. If the
+         * Executor rejects it, or does not start it before its result is
+         * needed, it is run by the thread waiting for the result.
+         * */
+        void start() {
+            synchronized (this) {
+                claimed = false;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Run when waiting for completed compressors
+            }
+        }
+
+        /**
+         * Claims this compressor for the calling thread, if no other thread
+         * has started it since it was last started.
+         *
+         * @return True if the calling thread must run the compression.
+         * */
+        synchronized boolean claim() {
+            if (claimed) {
+                return false;
+            }
+            claimed = true;
+            return true;
+        }
+
+        /**
+         * Runs the compression, unless another thread already has.
+         * */
+        public void run() {
+            if (claim()) {
+                compress();
+            }
+        }
+
         /**
          * Calls the 'compressCodeBlock()' method with thread local
          * arguments. Once completed it adds itself to the 'completedComps[c]'
          * stack, where 'c' is the component for which this compressor is
          * running. This last step occurs even if exceptions are thrown by the
-         * 'compressCodeBlock()' method.
+         * 'compressCodeBlock()' method, which are kept to be thrown by
+         * 'getNextCodeBlock()'.
          * */
-        public void run() {
+        void compress() {
 	    // Start the code-block compression
             try {
                 long stime = 0L;
@@ -608,10 +675,19 @@ public class StdEntropyCoder extends EntropyCoder
                                   rev,lcType,tType);
                 if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
             }
+            catch (RuntimeException e) {
+                if (compressorError == null) compressorError = e;
+            }
+            catch (Error e) {
+                if (compressorError == null) compressorError = e;
+            }
             finally {
                 // Join the queue of completed compression, even if exceptions
                 // occurred.
-                completedComps[c].push(this);
+                synchronized (completedComps[c]) {
+                    completedComps[c].push(this);
+                    completedComps[c].notify();
+                }
             }
         }
 
@@ -918,6 +994,49 @@ public class StdEntropyCoder extends EntropyCoder
                            PrecinctSizeSpec pss,StringSpec bms,StringSpec mqrs,
                            StringSpec rts,StringSpec css,StringSpec sss,
                            StringSpec lcs,StringSpec tts) {
+        this(src,cblks,pss,bms,mqrs,rts,css,sss,lcs,tts,null,0);
+    }
+
+    /**
+     * Instantiates a new entropy coder engine, as above, which codes the
+     * code-blocks in parallel on the specified Executor. No threads are
+     * created by this object.
+     *
+     * @param src The source of data
+     *
+     * @param cbks Code-block size specifications
+     *
+     * @param pss Precinct partition specifications
+     *
+     * @param bms By-pass mode specifications
+     *
+     * @param mqrs MQ-reset specifications
+     *
+     * @param rts Regular termination specifications
+     *
+     * @param css Causal stripes specifications
+     *
+     * @param sss Error resolution segment symbol use specifications
+     *
+     * @param lcs Length computation specifications
+     *
+     * @param tts Termination type specifications
+     *
+     * @param executor The Executor to code the code-blocks on. If null the
+     * number of threads is taken from the THREADS_PROP_NAME property, and
+     * the shared pool is used if it is not 0.
+     *
+     * @param nthreads The maximum number of code-blocks coded at a time on
+     * 'executor'. Ignored if 'executor' is null. If 0 or 1 the single
+     * threaded implementation is used.
+     *
+     * @see MQCoder
+     * */
+    public StdEntropyCoder(CBlkQuantDataSrcEnc src,CBlkSizeSpec cblks,
+                           PrecinctSizeSpec pss,StringSpec bms,StringSpec mqrs,
+                           StringSpec rts,StringSpec css,StringSpec sss,
+                           StringSpec lcs,StringSpec tts,Executor executor,
+                           int nthreads) {
         super(src);
         this.cblks = cblks;
         this.pss = pss;
@@ -938,20 +1057,29 @@ public class StdEntropyCoder extends EntropyCoder
         maxCBlkHeight = cblks.getMaxCBlkHeight();
 
         // Get the number of threads to use, or default to one
-        try {
+        if (executor != null) {
+            if (nthreads < 0) {
+                throw new IllegalArgumentException("Invalid number of "+
+                                                   "threads "+nthreads);
+            }
+            nt = nthreads > 1 ? nthreads : 0;
+        }
+        else {
             try {
-                nt = Integer.parseInt(System.getProperty(THREADS_PROP_NAME,
-                                                         DEF_THREADS_NUM));
-            } catch(SecurityException se) {
-                // Use the default value.
-                nt = Integer.parseInt(DEF_THREADS_NUM);
+                try {
+                    nt = Integer.parseInt(System.getProperty(THREADS_PROP_NAME,
+                                                             DEF_THREADS_NUM));
+                } catch(SecurityException se) {
+                    // Use the default value.
+                    nt = Integer.parseInt(DEF_THREADS_NUM);
+                }
+                if (nt < 0) throw new NumberFormatException();
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number of "+
+                                                   "threads for entropy "+
+                                                   "coding in property "+
+                                                   THREADS_PROP_NAME);
             }
-            if (nt < 0) throw new NumberFormatException();
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("Invalid number of threads "+
-                                               "for "+
-                                               "entropy coding in property "+
-                                               THREADS_PROP_NAME);
         }
 
         // If we do timing create necessary structures
@@ -963,27 +1091,31 @@ public class StdEntropyCoder extends EntropyCoder
 
         // If using multithreaded implementation get necessasry objects
         if (nt > 0) {
-            FacilityManager.getMsgLogger().
-                printmsg(MsgLogger.INFO,
-                         "Using multithreaded entropy coder "+
-                         "with "+nt+" compressor threads.");
             tsl = nt;
-            tPool = new ThreadPool(nt,Thread.currentThread().getPriority()+
-                                   THREADS_PRIORITY_INC,"StdEntropyCoder");
-	    idleComps = new Stack();
-            completedComps = new Stack[src.getNumComps()];
+            if (executor == null) {
+                FacilityManager.getMsgLogger().
+                    printmsg(MsgLogger.INFO,
+                             "Using multithreaded entropy coder "+
+                             "with "+nt+" compressor threads.");
+                executor = getSharedPool(nt);
+            }
+            this.executor = executor;
+	    idleComps = new Stack<Compressor>();
+            completedComps = newStacks(src.getNumComps());
             nBusyComps = new int[src.getNumComps()];
             finishedTileComponent = new boolean[src.getNumComps()];
             for (i=src.getNumComps()-1; i>=0; i--) {
-                completedComps[i] = new Stack();
+                completedComps[i] = new Stack<Compressor>();
             }
+            comps = new Compressor[nt];
 	    for (i=0; i<nt; i++) {
-		idleComps.push(new StdEntropyCoder.Compressor(i));
+                comps[i] = new StdEntropyCoder.Compressor(i);
+		idleComps.push(comps[i]);
 	    }
         }
         else {
             tsl = 1;
-            tPool = null;
+            this.executor = null;
 	    idleComps = null;
             completedComps = null;
             nBusyComps = null;
@@ -1022,6 +1154,107 @@ public class StdEntropyCoder extends EntropyCoder
         }
     }
 
+    /**
+     * Returns the pool with the specified number of threads shared by all
+     * multi-threaded coders which are not given an Executor, creating it if
+     * necessary. The pool is shared so that encoding many images does not
+     * create new threads for each of them.
+     *
+     * @param nt The number of threads in the pool.
+     *
+     * @return The shared pool of threads.
+     * */
+    private static synchronized Executor getSharedPool(int nt) {
+        ExecutorService sharedPool = sharedPools.get(nt);
+        if (sharedPool == null) {
+            final int priority = Thread.currentThread().getPriority()+
+                THREADS_PRIORITY_INC;
+            sharedPool = Executors.newFixedThreadPool(nt, new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "StdEntropyCoder");
+                        t.setDaemon(true);
+                        t.setPriority(priority);
+                        return t;
+                    }
+                });
+            sharedPools.put(nt, sharedPool);
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Creates an array of stacks of compressors, as generic arrays cannot
+     * be created directly.
+     *
+     * @param n The length of the array
+     * */
+    @SuppressWarnings({"unchecked","rawtypes"})
+    private static Stack<Compressor>[] newStacks(int n) {
+        return new Stack[n];
+    }
+
+    /**
+     * Returns a compressor which has completed coding a code-block of the
+     * specified component, removing it from the queue of completed
+     * compressors. Until one has completed, the compressors of the component
+     * which no thread has started yet are run on the calling thread. At
+     * least one compressor must be busy on the component.
+     *
+     * @param c The component index
+     *
+     * @return The completed compressor.
+     * */
+    private Compressor waitCompleted(int c) {
+        Stack<Compressor> completed = completedComps[c];
+        boolean interrupted = false;
+        Compressor compr;
+        try {
+            while (true) {
+                synchronized (completed) {
+                    if (!completed.empty()) {
+                        return completed.pop();
+                    }
+                }
+                compr = null;
+                for (int i=0; i<comps.length && compr==null; i++) {
+                    if (comps[i].c == c && comps[i].claim()) {
+                        compr = comps[i];
+                    }
+                }
+                if (compr != null) {
+                    compr.compress();
+                }
+                else {
+                    // All busy compressors are running on other threads
+                    synchronized (completed) {
+                        while (completed.empty()) {
+                            try {
+                                completed.wait();
+                            } catch (InterruptedException e) {
+                                interrupted = true;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Throws the first error or runtime exception thrown by a compressor,
+     * if any.
+     * */
+    private void checkCompressorErrors() {
+        Throwable e = compressorError;
+        if (e instanceof Error) throw (Error)e;
+        if (e instanceof RuntimeException) throw (RuntimeException)e;
+    }
+
     /**
      * Prints the timing information, if collected, and calls 'finalize' on
      * the super class.
@@ -1031,7 +1264,7 @@ public class StdEntropyCoder extends EntropyCoder
             int c;
             StringBuffer sb;
 
-            if (tPool == null) { // Single threaded implementation
+            if (executor == null) { // Single threaded implementation
                 sb = new StringBuffer("StdEntropyCoder compression wall "+
                                       "clock time:");
                 for (c=0; c<time.length; c++) {
@@ -1057,11 +1290,11 @@ public class StdEntropyCoder extends EntropyCoder
                     sb.append(time[c]);
                     sb.append(" ms");
                 }
-                Enumeration enumVar = idleComps.elements();
+                Enumeration<Compressor> enumVar = idleComps.elements();
                 sb.append("\nStdEntropyCoder compressor threads wall clock "+
                           "time:");
                 while (enumVar.hasMoreElements()) {
-                    compr = (Compressor)(enumVar.nextElement());
+                    compr = enumVar.nextElement();
                     for (c=0; c<time.length; c++) {
                         sb.append("\n  compressor ");
                         sb.append(compr.getIdx());
@@ -1137,7 +1370,7 @@ public class StdEntropyCoder extends EntropyCoder
      * */
     public CBlkRateDistStats getNextCodeBlock(int c, CBlkRateDistStats ccb) {
         long stime = 0L;     // Start time for timed sections
-        if (tPool == null) { // Use single threaded implementation
+        if (executor == null) { // Use single threaded implementation
             // Get code-block data from source
             srcblkT[0] = src.getNextInternCodeBlock(c,srcblkT[0]);
 
@@ -1171,7 +1404,7 @@ public class StdEntropyCoder extends EntropyCoder
             // Give data to all free compressors, using the current component
             while (!finishedTileComponent[c] && !idleComps.empty()) {
                 // Get an idle compressor
-                compr = (Compressor) idleComps.pop();
+                compr = idleComps.pop();
                 cIdx = compr.getIdx();
                 // Get data for the compressor and wake it up
                 if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
@@ -1192,8 +1425,8 @@ public class StdEntropyCoder extends EntropyCoder
                     compr.tType = tType[tIdx][c];
                     nBusyComps[c]++;
                     ccb = null;
-                    // Send compressor to execution in thread pool
-		    tPool.runTarget(compr,completedComps[c]);
+                    // Send compressor to execution on the executor
+                    compr.start();
                 }
                 else {
                     // We finished with all the code-blocks in the current
@@ -1205,36 +1438,22 @@ public class StdEntropyCoder extends EntropyCoder
             // If there are threads for this component which result has not
             // been returned yet, get it
             if (nBusyComps[c] > 0) {
-                synchronized (completedComps[c]) {
-                    // If no compressor is done, wait until one is
-                    if (completedComps[c].empty()) {
-                        try {
-                            if (DO_TIMING) {
-                                time[c] += System.currentTimeMillis()-stime;
-                            }
-                            completedComps[c].wait();
-                            if (DO_TIMING) {
-                                stime = System.currentTimeMillis();
-                            }
-                        } catch (InterruptedException e) {
-                        }
-                    }
-                    // Remove the thread from the completed queue and put it
-                    // on the idle queue
-                    compr = (Compressor) completedComps[c].pop();
-                    cIdx = compr.getIdx();
-                    nBusyComps[c]--;
-                    idleComps.push(compr);
-                    // Check targets error condition
-                    tPool.checkTargetErrors();
-                    // Get the result of compression and return that.
-                    if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
-                    return compr.ccb;
-                }
+                // If no compressor is done, wait until one is
+                if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
+                compr = waitCompleted(c);
+                if (DO_TIMING) stime = System.currentTimeMillis();
+                // Put the compressor on the idle queue
+                nBusyComps[c]--;
+                idleComps.push(compr);
+                // Check compressors error condition
+                checkCompressorErrors();
+                // Get the result of compression and return that.
+                if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
+                return compr.ccb;
             }
             else {
-                // Check targets error condition
-                tPool.checkTargetErrors();
+                // Check compressors error condition
+                checkCompressorErrors();
                 // Printing timing info if necessary
                 if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
                 // Nothing is running => no more code-blocks
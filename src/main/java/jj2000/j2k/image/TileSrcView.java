@@ -0,0 +1,186 @@
+package jj2000.j2k.image;
+
+import java.awt.Point;
+
+import jj2000.j2k.NoNextElementException;
+
+/**
+ * A view of a BlkImgDataSrc which has its own current tile. Several views
+ * of the same source can read different tiles from different threads: each
+ * access to the source is made while holding its lock, after moving it to
+ * the tile of the view, and the returned data is always a copy.
+ *
+ * <P>This is used to run several encoding pipelines, each working on a
+ * different tile, from a single source.
+ *
+ * @author http://bfo.com
+ */
+public class TileSrcView extends ImgDataAdapter implements BlkImgDataSrc {
+
+    /** The shared source, which is also the lock */
+    private final BlkImgDataSrc src;
+
+    /** The horizontal and vertical index of the current tile of the view */
+    private int tx, ty;
+
+    /** The number of tiles, horizontally and vertically */
+    private final Point numTiles;
+
+    /**
+     * Creates a new view of the specified source, with the first tile as
+     * its current tile.
+     *
+     * @param src The source, which may be shared with other views.
+     * */
+    public TileSrcView(BlkImgDataSrc src) {
+        super(src);
+        this.src = src;
+        numTiles = src.getNumTiles(null);
+    }
+
+    public void setTile(int x, int y) {
+        if (x<0 || y<0 || x>=numTiles.x || y>=numTiles.y) {
+            throw new IllegalArgumentException("Tile "+x+"x"+y+" out of bounds");
+        }
+        tx = x;
+        ty = y;
+        tIdx = getTileIdx();
+    }
+
+    public void nextTile() {
+        int x = tx, y = ty;
+        if (++x == numTiles.x) {
+            x = 0;
+            if (++y == numTiles.y) {
+                throw new NoNextElementException();
+            }
+        }
+        setTile(x, y);
+    }
+
+    public Point getTile(Point co) {
+        if (co == null) {
+            return new Point(tx, ty);
+        } else {
+            co.x = tx;
+            co.y = ty;
+            return co;
+        }
+    }
+
+    public int getTileIdx() {
+        return ty * numTiles.x + tx;
+    }
+
+    public int getTileWidth() {
+        synchronized (src) {
+            src.setTile(tx, ty);
+            return src.getTileWidth();
+        }
+    }
+
+    public int getTileHeight() {
+        synchronized (src) {
+            src.setTile(tx, ty);
+            return src.getTileHeight();
+        }
+    }
+
+    public int getTileCompWidth(int t, int c) {
+        synchronized (src) {
+            src.setTile(tx, ty);
+            return src.getTileCompWidth(t, c);
+        }
+    }
+
+    public int getTileCompHeight(int t, int c) {
+        synchronized (src) {
+            src.setTile(tx, ty);
+            return src.getTileCompHeight(t, c);
+        }
+    }
+
+    public int getCompULX(int c) {
+        synchronized (src) {
+            src.setTile(tx, ty);
+            return src.getCompULX(c);
+        }
+    }
+
+    public int getCompULY(int c) {
+        synchronized (src) {
+            src.setTile(tx, ty);
+            return src.getCompULY(c);
+        }
+    }
+
+    public int getFixedPoint(int c) {
+        synchronized (src) {
+            src.setTile(tx, ty);
+            return src.getFixedPoint(c);
+        }
+    }
+
+    /**
+     * Returns a block of image data of the current tile of the view. Since
+     * the source is shared, the data is always a copy, as returned by
+     * getCompData().
+     *
+     * @param blk Its coordinates and dimensions specify the area to return.
+     *
+     * @param c The index of the component from which to get the data.
+     *
+     * @return The requested DataBlk
+     * */
+    public DataBlk getInternCompData(DataBlk blk, int c) {
+        return getCompData(blk, c);
+    }
+
+    /**
+     * Returns a copy of a block of image data of the current tile of the
+     * view. The data is read from the source while holding its lock, and
+     * copied to an array of the block unless the source has written it there
+     * already.
+     *
+     * @param blk Its coordinates and dimensions specify the area to return.
+     *
+     * @param c The index of the component from which to get the data.
+     *
+     * @return The requested DataBlk
+     * */
+    public DataBlk getCompData(DataBlk blk, int c) {
+        Object data = blk.getData();
+        synchronized (src) {
+            src.setTile(tx, ty);
+            DataBlk res = src.getInternCompData(blk, c);
+            if (res == blk && data != null && res.getData() == data) {
+                // Written in our own array
+                return res;
+            }
+            // The data may be internal to the source, so copy it now
+            Object copy;
+            if (res.getDataType() == DataBlk.TYPE_INT) {
+                copy = new int[res.w * res.h];
+            } else {
+                copy = new float[res.w * res.h];
+            }
+            Object resdata = res.getData();
+            for (int y=0;y<res.h;y++) {
+                System.arraycopy(resdata, res.offset + y*res.scanw, copy, y*res.w, res.w);
+            }
+            if (res != blk && res.getDataType() != blk.getDataType()) {
+                blk = res.getDataType() == DataBlk.TYPE_INT ? (DataBlk)new DataBlkInt() : (DataBlk)new DataBlkFloat();
+            }
+            blk.ulx = res.ulx;
+            blk.uly = res.uly;
+            blk.w = res.w;
+            blk.h = res.h;
+            blk.offset = 0;
+            blk.scanw = res.w;
+            blk.progressive = res.progressive;
+            blk.setData(copy);
+            return blk;
+        }
+    }
+
+}
@@ -434,6 +434,14 @@ public class InvCompTransf extends ImgDataAdapter implements BlkImgDataSrc{
             block2 = (DataBlkInt)src.getInternCompData(block2, 2);
             data2 = (int[]) block2.getData();
 
+            // The array of blk may be one the source reuses for its own
+            // data, in which case it can't be written to
+            if(outdata[c] == data0 || outdata[c] == data1 ||
+               outdata[c] == data2) {
+                outdata[c] = new int[h * w];
+                blk.setData(outdata[c]);
+            }
+
             // Set the progressiveness of the output data
             blk.progressive = block0.progressive || block1.progressive ||
                 block2.progressive;
@@ -648,7 +656,7 @@ public class InvCompTransf extends ImgDataAdapter implements BlkImgDataSrc{
 	tIdx = getTileIdx(); // index of the current tile
 
         // initializations
-        if( ((Integer)cts.getTileDef(tIdx)).intValue()==NONE )
+        if( cts.getTileIntDef(tIdx)==NONE )
             transfType = NONE;
         else {
             int nc = src.getNumComps()> 3 ? 3 : src.getNumComps();
@@ -687,7 +695,7 @@ public class InvCompTransf extends ImgDataAdapter implements BlkImgDataSrc{
 	tIdx = getTileIdx(); // index of the current tile
 
         // initializations
-        if( ((Integer)cts.getTileDef(tIdx)).intValue()==NONE )
+        if( cts.getTileIntDef(tIdx)==NONE )
             transfType = NONE;
         else {
             int nc = src.getNumComps() > 3 ? 3 : src.getNumComps();
@@ -20,31 +20,28 @@ public abstract class AbstractDataSource implements BlkImgDataSrc {
     protected int scanline, offset;
 
     /**
-     * Create a new AbstractDataSource from the specified BufferedImage
+     * Create a new AbstractDataSource from the specified BufferedImage. The
+     * color components are read from the image when each tile is coded, directly
+     * from its DataBuffer for the common interleaved and packed layouts, so the image
+     * is not copied. Components of up to 16 bits are supported. Any alpha channel
+     * is ignored, and indexed images are converted to RGB first.
      * @param img the image source
      * @param tilesize the tile size (suggest 256)
      */
     public static AbstractDataSource newInstance(BufferedImage img, int tilesize) {
-        int w = img.getWidth();
-        int h = img.getHeight();
-        int numc = img.getColorModel().getNumColorComponents();
-        int bpc = img.getColorModel().getComponentSize()[0];
-        AbstractDataSource s = new AbstractDataSource() {
-            protected void loadTile(int x, int y, int w, int h) {
-                offset = y * scanline + x * this.numc;
-            }
-        };
-        s.initialize(w, h, numc, bpc, tilesize);
-        s.scanline = (w * numc * bpc + 7) >> 3;
-        s.buf = new byte[s.scanline * h];
-        Raster raster = img.getData();
-        for (int y=0;y<h;y++) {
-            for (int x=0;x<w;x++) {
-                for (int z=0;z<numc;z++) {
-                    s.buf[y*s.scanline + x*numc + z] = (byte)raster.getSample(x, y, z);
-                }
-            }
+        ColorModel cm = img.getColorModel();
+        Raster raster = img.getRaster();
+        if (cm instanceof IndexColorModel) {
+            cm = ColorModel.getRGBdefault();
+            raster = ((IndexColorModel)img.getColorModel()).convertToIntDiscrete(raster, false).getRaster();
+        }
+        int numc = cm.getNumColorComponents();
+        int[] bits = new int[numc];
+        for (int c=0;c<numc;c++) {
+            bits[c] = cm.getComponentSize(c);
         }
+        AbstractDataSource s = new RasterDataSource(raster, bits);
+        s.initialize(img.getWidth(), img.getHeight(), numc, bits[0], tilesize);
         return s;
     }
 
@@ -53,7 +50,7 @@ public abstract class AbstractDataSource implements BlkImgDataSrc {
      * @param w the image width
      * @param h the image height
      * @param numc the number of components in the image
-     * @param bpc the number of bits per component in the image
+     * @param bpc the number of bits per component in the image, with components of more than 8 bits stored as two bytes, most significant first
      * @param tilesize the tile size (suggest 256)
      * @param buf the byte buffer containing the image data in normal component-interleaved order
      * @param bufoffset the index into the buffer of component (0,0)
@@ -61,7 +58,7 @@ public abstract class AbstractDataSource implements BlkImgDataSrc {
     public static AbstractDataSource newInstance(int w, int h, int numc, int bpc, int tilesize, byte[] buf, final int bufoffset) {
         AbstractDataSource s = new AbstractDataSource() {
             protected void loadTile(int x, int y, int w, int h) {
-                offset = bufoffset + y * scanline + x * numc;
+                offset = bufoffset + y * scanline + x * numc * ((bpc + 7) >> 3);
             }
         };
         s.initialize(w, h, numc, bpc, tilesize);
@@ -94,28 +91,48 @@ public abstract class AbstractDataSource implements BlkImgDataSrc {
     protected abstract void loadTile(int x, int y, int w, int h);
 
     public DataBlk getInternCompData(DataBlk blk, int c) {
-        if (blk.getDataType() != DataBlk.TYPE_INT) {
-            blk = new DataBlkInt(blk.ulx, blk.uly, blk.w, blk.h);
-        }
-        DataBlkInt blki = (DataBlkInt)blk;
-        if (blki.data == null || blki.data.length != blk.w * blk.h) {
-            blki.data = new int[blk.w * blk.h];
-        }
+        DataBlkInt blki = toIntBlk(blk);
         int tx0 = tx * nomtw;
         int ty0 = ty * nomth;
+        final int mid = 1 << (bpc - 1);
+        final int[] data = blki.data;
 //        System.out.println("Here: tx="+tx+"x"+ty+" tw="+tw+"x"+th+" c="+c+" blkxy="+blk.ulx+"x"+blk.uly+" blkwh="+blk.w+"x"+blk.h+" sl="+scanline+" tt="+tx0+"x"+ty0);
 //        System.out.println("T: offset="+offset+" txy="+tx0+"x"+ty0+" bxy="+blk.ulx+"x"+blk.uly);
         for (int y=0;y<blk.h;y++) {
-            int i = offset + (blk.uly - ty0)*scanline + (blk.ulx - tx0)*numc + c;
-            int o = blki.offset + y*tw;
-            for (int x=0;x<blk.w;x++) {
-                blki.data[o] = (buf[i] & 0xFF) - 128;
-                i += numc;
-                o++;
+            int o = y*blk.w;
+            if (bpc > 8) {
+                int i = offset + (blk.uly - ty0 + y)*scanline + ((blk.ulx - tx0)*numc + c)*2;
+                for (int x=0;x<blk.w;x++) {
+                    data[o++] = (((buf[i] & 0xFF) << 8) | (buf[i + 1] & 0xFF)) - mid;
+                    i += numc * 2;
+                }
+            } else {
+                int i = offset + (blk.uly - ty0 + y)*scanline + (blk.ulx - tx0)*numc + c;
+                for (int x=0;x<blk.w;x++) {
+                    data[o++] = (buf[i] & 0xFF) - mid;
+                    i += numc;
+                }
             }
         }
-        blk.progressive = false;
-        return blk;
+        return blki;
+    }
+
+    /**
+     * Return the specified block as a DataBlkInt with a non-progressive array
+     * of exactly its size, for getInternCompData to fill
+     */
+    private static DataBlkInt toIntBlk(DataBlk blk) {
+        if (blk.getDataType() != DataBlk.TYPE_INT) {
+            blk = new DataBlkInt(blk.ulx, blk.uly, blk.w, blk.h);
+        }
+        DataBlkInt blki = (DataBlkInt)blk;
+        if (blki.data == null || blki.data.length != blk.w * blk.h) {
+            blki.data = new int[blk.w * blk.h];
+        }
+        blki.offset = 0;
+        blki.scanw = blk.w;
+        blki.progressive = false;
+        return blki;
     }
 
     public DataBlk getCompData(DataBlk blk, int c) {
@@ -265,4 +282,111 @@ public abstract class AbstractDataSource implements BlkImgDataSrc {
     public int getNomTileHeight() {
         return nomth;
     }
+
+    /**
+     * An AbstractDataSource reading each block of samples from a Raster when
+     * it is requested. Interleaved byte, ushort and int samples, and int pixels
+     * with packed samples, are read directly from the DataBuffer, and any other
+     * layout a row at a time from the Raster.
+     */
+    private static class RasterDataSource extends AbstractDataSource {
+
+        private final Raster raster;
+        private final int[] bits;
+        private final int dx, dy;       // the position of the image in the SampleModel
+        private final Object[] data;    // the bank of each component, or null to read from the raster
+        private final int[] index;      // the index of the first sample of each component
+        private final int pixelStride, scanlineStride;
+        private final int[] masks, shifts;  // for packed pixels, null otherwise
+        private int[] row;
+
+        RasterDataSource(Raster raster, int[] bits) {
+            this.raster = raster;
+            this.bits = bits;
+            dx = raster.getMinX() - raster.getSampleModelTranslateX();
+            dy = raster.getMinY() - raster.getSampleModelTranslateY();
+            SampleModel sm = raster.getSampleModel();
+            DataBuffer db = raster.getDataBuffer();
+            int numc = bits.length;
+            Object[] data = new Object[numc];
+            index = new int[numc];
+            if (sm instanceof ComponentSampleModel && (db instanceof DataBufferByte || db instanceof DataBufferUShort || db instanceof DataBufferInt)) {
+                ComponentSampleModel csm = (ComponentSampleModel)sm;
+                for (int c=0;c<numc;c++) {
+                    int bank = csm.getBankIndices()[c];
+                    data[c] = db instanceof DataBufferByte ? (Object)((DataBufferByte)db).getData(bank) : db instanceof DataBufferUShort ? (Object)((DataBufferUShort)db).getData(bank) : (Object)((DataBufferInt)db).getData(bank);
+                    index[c] = db.getOffsets()[bank] + csm.getBandOffsets()[c];
+                }
+                pixelStride = csm.getPixelStride();
+                scanlineStride = csm.getScanlineStride();
+                masks = shifts = null;
+            } else if (sm instanceof SinglePixelPackedSampleModel && db instanceof DataBufferInt) {
+                SinglePixelPackedSampleModel psm = (SinglePixelPackedSampleModel)sm;
+                for (int c=0;c<numc;c++) {
+                    data[c] = ((DataBufferInt)db).getData();
+                    index[c] = db.getOffset();
+                }
+                pixelStride = 1;
+                scanlineStride = psm.getScanlineStride();
+                masks = psm.getBitMasks();
+                shifts = psm.getBitOffsets();
+            } else {
+                data = null;
+                pixelStride = scanlineStride = 0;
+                masks = shifts = null;
+            }
+            this.data = data;
+        }
+
+        protected void loadTile(int x, int y, int w, int h) {
+            // Samples are read from the raster by getInternCompData
+        }
+
+        public int getNomRangeBits(int c) {
+            return bits[c];
+        }
+
+        public DataBlk getInternCompData(DataBlk blk, int c) {
+            DataBlkInt blki = toIntBlk(blk);
+            final int mid = 1 << (bits[c] - 1);
+            final int[] out = blki.data;
+            final Object in = data == null ? null : data[c];
+            for (int y=0;y<blk.h;y++) {
+                int o = y*blk.w;
+                int i = data == null ? 0 : index[c] + (dy + blk.uly + y)*scanlineStride + (dx + blk.ulx)*pixelStride;
+                if (in instanceof byte[]) {
+                    final byte[] b = (byte[])in;
+                    for (int x=0;x<blk.w;x++, i+=pixelStride) {
+                        out[o++] = (b[i] & 0xFF) - mid;
+                    }
+                } else if (in instanceof short[]) {
+                    final short[] b = (short[])in;
+                    for (int x=0;x<blk.w;x++, i+=pixelStride) {
+                        out[o++] = (b[i] & 0xFFFF) - mid;
+                    }
+                } else if (masks != null) {
+                    final int[] b = (int[])in;
+                    final int mask = masks[c];
+                    final int shift = shifts[c];
+                    for (int x=0;x<blk.w;x++, i+=pixelStride) {
+                        out[o++] = ((b[i] & mask) >>> shift) - mid;
+                    }
+                } else if (in != null) {
+                    final int[] b = (int[])in;
+                    for (int x=0;x<blk.w;x++, i+=pixelStride) {
+                        out[o++] = b[i] - mid;
+                    }
+                } else {
+                    if (row == null || row.length < blk.w) {
+                        row = new int[blk.w];
+                    }
+                    row = raster.getSamples(raster.getMinX() + blk.ulx, raster.getMinY() + blk.uly + y, blk.w, 1, c, row);
+                    for (int x=0;x<blk.w;x++) {
+                        out[o++] = row[x] - mid;
+                    }
+                }
+            }
+            return blki;
+        }
+    }
 }
@@ -0,0 +1,241 @@
+package jj2000.j2k.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only RandomAccessIO on data which is already in memory, held in a
+ * byte array or in a heap or direct ByteBuffer. The data is not copied:
+ * multi-byte values are read straight from the buffer.
+ *
+ * <P>Views on the same data with their own position may be created with
+ * {@link #slice} and {@link #duplicate}. These copy no data and may be
+ * used from different threads at the same time, as long as each view is
+ * only used from one thread.
+ *
+ * @author http://bfo.com
+ */
+public class ByteBufferRandomAccessIO extends AbstractRandomAccessIO {
+
+    private ByteBuffer buf;
+
+    /**
+     * Create a new ByteBufferRandomAccessIO on the specified array
+     * @param data the data to read
+     */
+    public ByteBufferRandomAccessIO(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * Create a new ByteBufferRandomAccessIO on part of the specified array.
+     * Position 0 of the stream is "off" in the array.
+     * @param data the data to read
+     * @param off the offset of the data in the array
+     * @param len the length of the data
+     */
+    public ByteBufferRandomAccessIO(byte[] data, int off, int len) {
+        this(ByteBuffer.wrap(data, off, len));
+    }
+
+    /**
+     * Create a new ByteBufferRandomAccessIO on the remaining content of the
+     * specified buffer, from its position to its limit. Position 0 of the
+     * stream is the current position of the buffer; the position, limit and
+     * byte order of the buffer itself are not changed.
+     * @param buf the data to read
+     */
+    public ByteBufferRandomAccessIO(ByteBuffer buf) {
+        this.buf = buf.slice();
+    }
+
+    /**
+     * Return a new ByteBufferRandomAccessIO which is a view of "length" bytes
+     * of this one, starting from the current position. The view has its own
+     * position, and closing it has no effect on this object.
+     * @param length the length of the view
+     */
+    public ByteBufferRandomAccessIO slice(int length) throws IOException {
+        ByteBuffer b = buffer();
+        if (length < 0 || length > b.remaining()) {
+            throw new IllegalArgumentException("Length "+length+" is greater than "+b.remaining());
+        }
+        ByteBuffer s = b.slice();
+        s.limit(length);
+        return new ByteBufferRandomAccessIO(s);
+    }
+
+    /**
+     * Return a new ByteBufferRandomAccessIO on the same data as this one,
+     * with its own position, initially the same as this one. Closing the
+     * duplicate has no effect on this object.
+     */
+    public ByteBufferRandomAccessIO duplicate() throws IOException {
+        ByteBuffer b = buffer();
+        ByteBuffer d = b.duplicate();
+        d.position(0);
+        ByteBufferRandomAccessIO io = new ByteBufferRandomAccessIO(d);
+        io.buf.position(b.position());
+        return io;
+    }
+
+    /**
+     * Return the array holding the data, if it is held in an accessible
+     * array, so that it may be used without being copied. The byte at
+     * position "pos" of the stream is at index {@link #arrayOffset} + pos of
+     * the array. The array must not be modified.
+     * @return the array, or null if the data is in a direct or read-only buffer
+     */
+    public byte[] array() throws IOException {
+        ByteBuffer b = buffer();
+        return b.hasArray() ? b.array() : null;
+    }
+
+    /**
+     * Return the index in {@link #array} of position 0 of the stream
+     */
+    public int arrayOffset() throws IOException {
+        ByteBuffer b = buffer();
+        return b.hasArray() ? b.arrayOffset() : 0;
+    }
+
+    private ByteBuffer buffer() throws IOException {
+        if (buf == null) {
+            throw new IOException("Closed");
+        }
+        return buf;
+    }
+
+    /**
+     * Closes the I/O stream. The buffer itself is released when it is no
+     * longer referenced by this object or any of its views.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public void close() throws IOException {
+        buf = null;
+    }
+
+    /**
+     * Returns the current position in the stream, which is the position from
+     * where the next byte of data would be read. The first byte in the stream
+     * is in position <tt>0</tt>.
+     *
+     * @return The offset of the current position, in bytes.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public int getPos() throws IOException {
+        return buffer().position();
+    }
+
+    /**
+     * Returns the length of the stream, in bytes.
+     *
+     * @return The length of the stream, in bytes.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public int length() throws IOException {
+        return buffer().limit();
+    }
+
+    /**
+     * Moves the current position for the next read operation to offset. The
+     * offset is measured from the beginning of the stream.
+     *
+     * @param off The offset where to move to.
+     *
+     * @exception EOFException If seeking beyond EOF.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public void seek(int off) throws IOException {
+        ByteBuffer b = buffer();
+        if (off < 0 || off > b.limit()) {
+            throw new EOFException();
+        }
+        b.position(off);
+    }
+
+    /**
+     * Reads a byte of data from the stream.
+     *
+     * @return The byte read, as an int.
+     *
+     * @exception EOFException If the end-of file was reached.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public int read() throws EOFException, IOException {
+        try {
+            return buffer().get() & 0xFF;
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    /**
+     * Reads len bytes of data from this file into an array of bytes.
+     *
+     * @param b The buffer into which the data is to be read. It must be long
+     * enough.
+     *
+     * @param off The index in 'b' where to place the first byte read.
+     *
+     * @param len The number of bytes to read.
+     *
+     * @exception EOFException If the end-of file was reached before
+     * getting all the necessary data.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public void readFully(byte b[], int off, int len) throws IOException {
+        try {
+            buffer().get(b, off, len);
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    public short readShort() throws IOException {
+        try {
+            return buffer().getShort();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xFFFF;
+    }
+
+    public int readInt() throws IOException {
+        try {
+            return buffer().getInt();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    public long readLong() throws IOException {
+        try {
+            return buffer().getLong();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    /**
+     * Always throws an IOException, as this object is read-only.
+     * */
+    public void write(int b) throws IOException {
+        throw new IOException("Read-only");
+    }
+
+    public void flush() throws IOException {
+    }
+
+}
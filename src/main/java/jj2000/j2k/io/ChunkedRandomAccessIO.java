@@ -0,0 +1,304 @@
+package jj2000.j2k.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * A read-only RandomAccessIO which caches data as it arrives. Unlike
+ * {@link jj2000.j2k.util.ISRandomAccessIO}, the cache is a list of
+ * fixed-size chunks rather than one growing array, so data that has been
+ * received is never copied again as more arrives.
+ *
+ * <P>The data is either read from an InputStream, only as far as needed and
+ * blocking only when necessary, or pushed by another thread with
+ * {@link #append} and {@link #finish}, in which case reading beyond the data
+ * appended so far waits for more to arrive. In both cases
+ * {@link #getAvailableLength} reports how much can be read without
+ * blocking, so decoding can start before all the data has arrived.
+ *
+ * @author http://bfo.com
+ */
+public class ChunkedRandomAccessIO extends AbstractRandomAccessIO implements IncrementalRandomAccessIO {
+
+    private InputStream is;
+    private final boolean push;
+    private final int shift, mask;
+    private volatile byte[][] chunks;
+    private volatile int len;
+    private volatile boolean complete;
+    private int pos;
+
+    /**
+     * Create a new ChunkedRandomAccessIO reading from an InputStream, with
+     * 64KB chunks
+     * @param is the InputStream to read from
+     */
+    public ChunkedRandomAccessIO(InputStream is) {
+        this(is, 1<<16);
+    }
+
+    /**
+     * Create a new ChunkedRandomAccessIO to which data will be pushed with
+     * {@link #append}, with 64KB chunks
+     */
+    public ChunkedRandomAccessIO() {
+        this(null, 1<<16);
+    }
+
+    /**
+     * Create a new ChunkedRandomAccessIO
+     * @param is the InputStream to read from, or null if data will be pushed
+     * with {@link #append}
+     * @param chunksize the size of each chunk, which will be rounded up to a
+     * power of two
+     */
+    public ChunkedRandomAccessIO(InputStream is, int chunksize) {
+        if (chunksize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        int s = 0;
+        while (s < 30 && (1<<s) < chunksize) {
+            s++;
+        }
+        this.is = is;
+        this.push = is == null;
+        this.shift = s;
+        this.mask = (1<<s) - 1;
+        this.chunks = new byte[16][];
+    }
+
+    /**
+     * Return the chunk containing the specified position, allocating it and
+     * growing the list of chunks if necessary.
+     */
+    private byte[] chunk(int p) throws IOException {
+        int c = p >> shift;
+        byte[][] chunks = this.chunks;
+        if (c >= chunks.length) {
+            byte[][] tmp = new byte[Math.max(c + 1, chunks.length * 2)][];
+            System.arraycopy(chunks, 0, tmp, 0, chunks.length);
+            this.chunks = chunks = tmp;
+        }
+        if (chunks[c] == null) {
+            try {
+                chunks[c] = new byte[mask + 1];
+            } catch (OutOfMemoryError e) {
+                throw new IOException("Out of memory to cache input data");
+            }
+        }
+        return chunks[c];
+    }
+
+    /**
+     * Append data to the end of the stream, waking up any thread waiting
+     * for it. This may only be called if this object was created without an
+     * InputStream.
+     * @param b the data to append
+     * @param off the offset of the data in b
+     * @param n the number of bytes to append
+     */
+    public synchronized void append(byte[] b, int off, int n) throws IOException {
+        if (!push || complete) {
+            throw new IllegalStateException(complete ? "Already finished" : "Reading from an InputStream");
+        }
+        if (chunks == null) {
+            throw new IOException("Closed");
+        }
+        int l = len;
+        while (n > 0) {
+            byte[] chunk = chunk(l);
+            int o = l & mask;
+            int c = Math.min(n, chunk.length - o);
+            System.arraycopy(b, off, chunk, o, c);
+            l += c;
+            off += c;
+            n -= c;
+        }
+        len = l;
+        notifyAll();
+    }
+
+    /**
+     * Mark the end of the data, waking up any thread waiting for more. This
+     * may only be called if this object was created without an InputStream.
+     */
+    public synchronized void finish() {
+        if (!push) {
+            throw new IllegalStateException("Reading from an InputStream");
+        }
+        complete = true;
+        notifyAll();
+    }
+
+    /**
+     * Read from the InputStream, or wait for data to be appended, until at
+     * least "n" bytes have been received or the end of the stream has been
+     * reached.
+     */
+    private synchronized void readInput(int n) throws IOException {
+        while (len < n && !complete) {
+            if (chunks == null) {
+                throw new IOException("Closed");
+            }
+            if (push) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            } else {
+                byte[] chunk = chunk(len);
+                int off = len & mask;
+                int k = is.read(chunk, off, chunk.length - off);
+                if (k < 0) {
+                    complete = true;
+                    is.close();
+                    is = null;
+                } else {
+                    len += k;
+                }
+            }
+        }
+        if (chunks == null) {
+            throw new IOException("Closed");
+        }
+    }
+
+    public int getAvailableLength() {
+        return len;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void waitForLength(int length) throws IOException {
+        readInput(length);
+    }
+
+    /**
+     * Closes the I/O stream, releasing the cached data and closing the
+     * InputStream if it has not been read to the end.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public synchronized void close() throws IOException {
+        chunks = null;
+        notifyAll();
+        if (is != null) {
+            is.close();
+            is = null;
+        }
+    }
+
+    /**
+     * Returns the current position in the stream, which is the position from
+     * where the next byte of data would be read. The first byte in the stream
+     * is in position <tt>0</tt>.
+     *
+     * @return The offset of the current position, in bytes.
+     * */
+    public int getPos() {
+        return pos;
+    }
+
+    /**
+     * Returns the length of the stream, in bytes. This blocks until all the
+     * data has arrived.
+     *
+     * @return The length of the stream, in bytes.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public int length() throws IOException {
+        readInput(Integer.MAX_VALUE);
+        return len;
+    }
+
+    /**
+     * Moves the current position for the next read operation to offset. The
+     * offset is measured from the beginning of the stream. Seeking beyond the
+     * data received so far does not block.
+     *
+     * @param off The offset where to move to.
+     *
+     * @exception EOFException If seeking beyond EOF.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public void seek(int off) throws IOException {
+        if (off < 0 || (complete && off > len)) {
+            throw new EOFException();
+        }
+        pos = off;
+    }
+
+    /**
+     * Reads a byte of data from the stream.
+     *
+     * @return The byte read, as an int.
+     *
+     * @exception EOFException If the end-of file was reached.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public int read() throws EOFException, IOException {
+        if (pos >= len) {
+            readInput(pos + 1);
+            if (pos >= len) {
+                throw new EOFException();
+            }
+        }
+        int v = chunks[pos >> shift][pos & mask] & 0xFF;
+        pos++;
+        return v;
+    }
+
+    /**
+     * Reads len bytes of data from this file into an array of bytes. This
+     * method blocks until all the bytes are read, the end of the stream is
+     * detected, or an exception is thrown.
+     *
+     * @param b The buffer into which the data is to be read. It must be long
+     * enough.
+     *
+     * @param off The index in 'b' where to place the first byte read.
+     *
+     * @param n The number of bytes to read.
+     *
+     * @exception EOFException If the end-of file was reached before
+     * getting all the necessary data.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public void readFully(byte b[], int off, int n) throws IOException {
+        if (pos + n > len) {
+            readInput(pos + n);
+            if (pos + n > len) {
+                throw new EOFException();
+            }
+        }
+        byte[][] chunks = this.chunks;
+        while (n > 0) {
+            int o = pos & mask;
+            int c = Math.min(n, mask + 1 - o);
+            System.arraycopy(chunks[pos >> shift], o, b, off, c);
+            pos += c;
+            off += c;
+            n -= c;
+        }
+    }
+
+    /**
+     * Always throws an IOException, as this object is read-only.
+     * */
+    public void write(int b) throws IOException {
+        throw new IOException("Read-only");
+    }
+
+    public void flush() throws IOException {
+    }
+
+}
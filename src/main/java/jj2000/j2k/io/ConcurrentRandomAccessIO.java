@@ -0,0 +1,200 @@
+package jj2000.j2k.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * A read-only view on an existing RandomAccessIO, which has its own
+ * position and buffer. Any number of views may be created on the same source
+ * and used from different threads at the same time: every access to the
+ * source is synchronized on it, and the source is always positioned
+ * explicitly before it is read from. Closing the view does not close the
+ * source.
+ *
+ * <P>If the source is an {@link IncrementalRandomAccessIO}, the view
+ * reports the same data as available, and only waits for more data to
+ * arrive when reading beyond it.
+ *
+ * @author http://bfo.com
+ */
+public class ConcurrentRandomAccessIO extends AbstractRandomAccessIO implements IncrementalRandomAccessIO {
+
+    private final RandomAccessIO src;
+    private final byte[] buf;
+    private int pos, bufStart, bufLen;
+
+    /**
+     * Create a new ConcurrentRandomAccessIO on the supplied src object,
+     * starting from the current position of the source.
+     * @param src the RandomAccessIO to read from
+     * @param bufsize the size of the buffer used to read from the source
+     */
+    public ConcurrentRandomAccessIO(RandomAccessIO src, int bufsize) throws IOException {
+        this.src = src;
+        this.buf = new byte[bufsize];
+        synchronized (src) {
+            this.pos = src.getPos();
+        }
+    }
+
+    public int getAvailableLength() throws IOException {
+        if (src instanceof IncrementalRandomAccessIO) {
+            synchronized (src) {
+                return ((IncrementalRandomAccessIO)src).getAvailableLength();
+            }
+        }
+        return length();
+    }
+
+    public boolean isComplete() throws IOException {
+        if (src instanceof IncrementalRandomAccessIO) {
+            synchronized (src) {
+                return ((IncrementalRandomAccessIO)src).isComplete();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Blocks until at least "length" bytes from the start of the source are
+     * available. The source is not locked while waiting.
+     */
+    public void waitForLength(int length) throws IOException {
+        if (src instanceof IncrementalRandomAccessIO) {
+            ((IncrementalRandomAccessIO)src).waitForLength(length);
+        }
+    }
+
+    /**
+     * Does nothing; the source is not closed by its views.
+     * */
+    public void close() throws IOException {
+    }
+
+    /**
+     * Returns the current position in the stream, which is the position from
+     * where the next byte of data would be read. The first byte in the stream
+     * is in position <tt>0</tt>.
+     *
+     * @return The offset of the current position, in bytes.
+     * */
+    public int getPos() {
+        return pos;
+    }
+
+    /**
+     * Returns the current length of the stream, in bytes.
+     *
+     * @return The length of the stream, in bytes.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public int length() throws IOException {
+        synchronized (src) {
+            return src.length();
+        }
+    }
+
+    /**
+     * Moves the current position for the next read operation to offset. The
+     * offset is measured from the beginning of the stream.
+     *
+     * @param off The offset where to move to.
+     *
+     * @exception EOFException If seeking beyond EOF.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public void seek(int off) throws IOException {
+        if (off < 0 || off > length()) {
+            throw new EOFException();
+        }
+        pos = off;
+    }
+
+    /**
+     * Reads a byte of data from the stream.
+     *
+     * @return The byte read, as an int.
+     *
+     * @exception EOFException If the end-of file was reached.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public int read() throws EOFException, IOException {
+        if (pos < bufStart || pos >= bufStart + bufLen) {
+            fill();
+        }
+        return buf[pos++ - bufStart] & 0xFF;
+    }
+
+    /**
+     * Reads len bytes of data from this file into an array of bytes. This
+     * method reads repeatedly from the stream until all the bytes are
+     * read. Reads larger than the buffer go straight to the source.
+     *
+     * @param b The buffer into which the data is to be read. It must be long
+     * enough.
+     *
+     * @param off The index in 'b' where to place the first byte read.
+     *
+     * @param len The number of bytes to read.
+     *
+     * @exception EOFException If the end-of file was reached before
+     * getting all the necessary data.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public void readFully(byte b[], int off, int len) throws IOException {
+        if (pos >= bufStart && pos + len <= bufStart + bufLen) {
+            System.arraycopy(buf, pos - bufStart, b, off, len);
+        } else if (len > buf.length) {
+            synchronized (src) {
+                src.seek(pos);
+                src.readFully(b, off, len);
+            }
+        } else {
+            fill();
+            if (len > bufLen) {
+                throw new EOFException();
+            }
+            System.arraycopy(buf, 0, b, off, len);
+        }
+        pos += len;
+    }
+
+    /**
+     * Refills the buffer from the current position.
+     */
+    private void fill() throws IOException {
+        synchronized (src) {
+            int end = src.length();
+            if (src instanceof IncrementalRandomAccessIO) {
+                // Don't wait for more data than needed to fill the buffer
+                IncrementalRandomAccessIO isrc = (IncrementalRandomAccessIO)src;
+                if (!isrc.isComplete() && isrc.getAvailableLength() > pos) {
+                    end = Math.min(end, isrc.getAvailableLength());
+                }
+            }
+            int len = Math.min(buf.length, end - pos);
+            if (len <= 0) {
+                throw new EOFException();
+            }
+            src.seek(pos);
+            src.readFully(buf, 0, len);
+            bufStart = pos;
+            bufLen = len;
+        }
+    }
+
+    /**
+     * Always throws an IOException, as this view is read-only.
+     * */
+    public void write(int b) throws IOException {
+        throw new IOException("Read-only");
+    }
+
+    public void flush() throws IOException {
+    }
+
+}
@@ -0,0 +1,49 @@
+package jj2000.j2k.io;
+
+import java.io.IOException;
+
+/**
+ * A RandomAccessIO whose data may still be arriving, for example from the
+ * network. The data that has arrived is always the beginning of the stream,
+ * so the bytes from position 0 up to {@link #getAvailableLength} can be read
+ * without blocking. Reading further blocks until the data arrives, and
+ * {@link #length} blocks until all the data has arrived.
+ *
+ * @author http://bfo.com
+ */
+public interface IncrementalRandomAccessIO extends RandomAccessIO {
+
+    /**
+     * Returns the number of bytes, from the start of the stream, that can
+     * be read without blocking.
+     *
+     * @return The number of bytes available, which is the length of the
+     * stream once it is complete.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public int getAvailableLength() throws IOException;
+
+    /**
+     * Returns whether all the data of the stream has arrived.
+     *
+     * @return true if the stream is complete
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public boolean isComplete() throws IOException;
+
+    /**
+     * Blocks until at least "length" bytes from the start of the stream are
+     * available, or the stream is complete.
+     *
+     * @param length The number of bytes to wait for.
+     *
+     * @exception java.io.InterruptedIOException If interrupted while
+     * waiting.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public void waitForLength(int length) throws IOException;
+
+}
@@ -0,0 +1,78 @@
+package jj2000.j2k.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only RandomAccessIO on a file mapped into memory. Data is read
+ * directly from the mapped buffer, so there is no heap buffer to fill and
+ * the operating system's page cache is shared by every reader of the same
+ * file.
+ *
+ * <P>Views on the same mapping with their own position may be created with
+ * {@link #slice} and {@link #duplicate}, as for any
+ * {@link ByteBufferRandomAccessIO}.
+ *
+ * <P>As with all RandomAccessIO implementations, the file must be no longer
+ * than 2 GB.
+ *
+ * @author http://bfo.com
+ */
+public class MappedRandomAccessIO extends ByteBufferRandomAccessIO {
+
+    private final FileChannel channel;
+
+    /**
+     * Create a new MappedRandomAccessIO on the specified file.
+     * @param file the file to map
+     */
+    public MappedRandomAccessIO(File file) throws IOException {
+        this(new FileInputStream(file).getChannel(), true);
+    }
+
+    /**
+     * Create a new MappedRandomAccessIO on the whole content of the specified
+     * channel. Closing this object does not close the channel.
+     * @param channel the channel to map
+     */
+    public MappedRandomAccessIO(FileChannel channel) throws IOException {
+        this(channel, false);
+    }
+
+    private MappedRandomAccessIO(FileChannel channel, boolean close) throws IOException {
+        super(map(channel, close));
+        this.channel = close ? channel : null;
+    }
+
+    private static ByteBuffer map(FileChannel channel, boolean close) throws IOException {
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File length "+size+" is greater than "+Integer.MAX_VALUE);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            if (close) {
+                channel.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the I/O stream. The mapping itself is released when it is no
+     * longer referenced by this object or any of its views.
+     *
+     * @exception IOException If an I/O error ocurred.
+     * */
+    public void close() throws IOException {
+        super.close();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+}
@@ -7,9 +7,14 @@ import java.io.IOException;
  * A view on an existing RandomAccessIO which can be used to
  * limit the length of data that can be read.
  *
+ * <P>If the source is an {@link IncrementalRandomAccessIO} the view reports
+ * how much of its own data has arrived. A view which runs to the end of such
+ * a source has the length of the data received so far until the source is
+ * complete, so it can be used while data is still arriving without blocking.
+ *
  * @author http://bfo.com
  */
-public class SubRandomAccessIO extends AbstractRandomAccessIO {
+public class SubRandomAccessIO extends AbstractRandomAccessIO implements IncrementalRandomAccessIO {
 
     private final RandomAccessIO src;
     private final int start, length;
@@ -22,8 +27,40 @@ public class SubRandomAccessIO extends AbstractRandomAccessIO {
         this.src = src;
         this.start = src.getPos();
         this.length = length;
-        if (length > src.length() - src.getPos()) {
-            throw new IllegalArgumentException("Length "+length+" is greater than "+(src.length() - src.getPos()));
+        if (length < 0 || (isSourceComplete() && length > src.length() - start)) {
+            throw new IllegalArgumentException("Length "+length+" is greater than "+(src.length() - start));
+        }
+    }
+
+    /**
+     * Create a new RandomAccessIO which is a view on the supplied src object
+     * from the current point to its end
+     */
+    public SubRandomAccessIO(RandomAccessIO src) throws IOException {
+        this.src = src;
+        this.start = src.getPos();
+        this.length = -1;
+    }
+
+    private boolean isSourceComplete() throws IOException {
+        return !(src instanceof IncrementalRandomAccessIO) || ((IncrementalRandomAccessIO)src).isComplete();
+    }
+
+    public int getAvailableLength() throws IOException {
+        if (isSourceComplete()) {
+            return length();
+        }
+        int avail = Math.max(0, ((IncrementalRandomAccessIO)src).getAvailableLength() - start);
+        return length < 0 ? avail : Math.min(avail, length);
+    }
+
+    public boolean isComplete() throws IOException {
+        return isSourceComplete() || (length >= 0 && getAvailableLength() == length);
+    }
+
+    public void waitForLength(int length) throws IOException {
+        if (src instanceof IncrementalRandomAccessIO) {
+            ((IncrementalRandomAccessIO)src).waitForLength(start + length);
         }
     }
 
@@ -52,14 +89,20 @@ public class SubRandomAccessIO extends AbstractRandomAccessIO {
 
     /**
      * Returns the current length of the stream, in bytes, taking into account
-     * any buffering.
+     * any buffering. For a view to the end of an incomplete source, this is
+     * the length received so far.
      *
      * @return The length of the stream, in bytes.
      *
      * @exception IOException If an I/O error ocurred.
      * */
     public int length() throws IOException {
-        return length;
+        if (length >= 0) {
+            return length;
+        } else if (isSourceComplete()) {
+            return src.length() - start;
+        }
+        return getAvailableLength();
     }
 
     /**
@@ -77,7 +120,7 @@ public class SubRandomAccessIO extends AbstractRandomAccessIO {
      * @exception IOException If an I/O error ocurred.
      * */
     public void seek(int off) throws IOException {
-        if (off < 0 || off > length) {
+        if (off < 0 || (length >= 0 && off > length)) {
             throw new EOFException();
         }
         src.seek(start + off);
@@ -94,7 +137,7 @@ public class SubRandomAccessIO extends AbstractRandomAccessIO {
      * @exception IOException If an I/O error ocurred.
      * */
     public int read() throws EOFException, IOException {
-        if (getPos() >= length) {
+        if (length >= 0 && getPos() >= length) {
             throw new EOFException();
         }
         return src.read();
@@ -119,7 +162,7 @@ public class SubRandomAccessIO extends AbstractRandomAccessIO {
      * @exception IOException If an I/O error ocurred.
      * */
     public void readFully(byte b[], int off, int len) throws IOException {
-        if (getPos() + len > length) {
+        if (length >= 0 && getPos() + len > length) {
             throw new EOFException();
         }
         src.readFully(b, off, len);
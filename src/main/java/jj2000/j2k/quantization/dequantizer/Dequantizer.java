@@ -188,6 +188,17 @@ public abstract class Dequantizer extends MultiResImgDataAdapter
         return src.getCbULY();
     }
 
+    /**
+     * Indicates the range of code-blocks of a subband that will be requested
+     * next. This is just forwarded to the source.
+     *
+     * @see CBlkWTDataSrcDec#setCodeBlockRange
+     * */
+    public void setCodeBlockRange(int c, SubbandSyn sb,
+                                  int m0, int n0, int m1, int n1) {
+        src.setCodeBlockRange(c,sb,m0,n0,m1,n1);
+    }
+
     /**
      * Returns the parameters that are used in this class and
      * implementing classes. It returns a 2D String array. Each of the
@@ -224,7 +235,7 @@ public abstract class Dequantizer extends MultiResImgDataAdapter
 
         // initializations
         int cttype = 0;
-        if( ((Integer)cts.getTileDef(tIdx)).intValue()==InvCompTransf.NONE )
+        if( cts.getTileIntDef(tIdx)==InvCompTransf.NONE )
             cttype = InvCompTransf.NONE;
         else {
             int nc = src.getNumComps() > 3 ? 3 : src.getNumComps(); 
@@ -282,7 +293,7 @@ public abstract class Dequantizer extends MultiResImgDataAdapter
 	tIdx = getTileIdx(); // index of the current tile
 
         // initializations
-        int cttype = ((Integer)cts.getTileDef(tIdx)).intValue();
+        int cttype = cts.getTileIntDef(tIdx);
         switch(cttype){
         case InvCompTransf.NONE:
             rb = utrb;
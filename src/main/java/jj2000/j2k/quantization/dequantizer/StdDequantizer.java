@@ -258,7 +258,7 @@ public class StdDequantizer extends Dequantizer {
 	boolean derived = qts.isDerived(tIdx,c);
 	StdDequantizerParams
 	    params = (StdDequantizerParams)qsss.getTileCompVal(tIdx,c);
-        int G = ((Integer)gbs.getTileCompVal(tIdx,c)).intValue();
+        int G = gbs.getTileCompIntVal(tIdx,c);
 
         outdtype = cblk.getDataType();
 
@@ -167,7 +167,7 @@ public class StdQuantizer extends Quantizer {
      * @return The number of guard bits
      * */
     public int getNumGuardBits(int t,int c){
-        return ((Integer)gbs.getTileCompVal(t,c)).intValue();
+        return gbs.getTileCompIntVal(t,c);
     }
 
     /**
@@ -286,7 +286,7 @@ public class StdQuantizer extends Quantizer {
         SubbandAn sb;
         float stepUDR;    // The quantization step size (for a dynamic
                           // range of 1, or unit)
-        int g = ((Integer)gbs.getTileCompVal(tIdx,c)).intValue();
+        int g = gbs.getTileCompIntVal(tIdx,c);
 
         // Are we quantizing ints or floats?
         intq = (src.getDataType(tIdx,c) == DataBlk.TYPE_INT);
@@ -542,7 +542,7 @@ public class StdQuantizer extends Quantizer {
      * */
     private int getMaxMagBitsRev(Subband sb, int c){
         int tmp,max=0;
-        int g = ((Integer)gbs.getTileCompVal(tIdx,c)).intValue();
+        int g = gbs.getTileCompIntVal(tIdx,c);
 
         if(!sb.isNode)
             return g-1+src.getNomRangeBits(c)+sb.anGainExp;
@@ -575,7 +575,7 @@ public class StdQuantizer extends Quantizer {
      * */
     private int getMaxMagBitsDerived(Subband sb,int t,int c){
         int tmp,max=0;
-        int g = ((Integer)gbs.getTileCompVal(t,c)).intValue();
+        int g = gbs.getTileCompIntVal(t,c);
 
         if(!sb.isNode){
 	    float baseStep = ((Float)qsss.getTileCompVal(t,c)).floatValue();
@@ -611,7 +611,7 @@ public class StdQuantizer extends Quantizer {
      * */
     private int getMaxMagBitsExpounded(Subband sb,int t,int c){
         int tmp,max=0;
-        int g = ((Integer)gbs.getTileCompVal(t,c)).intValue();
+        int g = gbs.getTileCompIntVal(t,c);
 
         if(!sb.isNode){
 	    float baseStep = ((Float)qsss.getTileCompVal(t,c)).floatValue();
@@ -137,6 +137,17 @@ public class ROIDeScaler extends MultiResImgDataAdapter
         return src.getCbULY();
     }
 
+    /**
+     * Indicates the range of code-blocks of a subband that will be requested
+     * next. This is just forwarded to the source.
+     *
+     * @see CBlkQuantDataSrcDec#setCodeBlockRange
+     * */
+    public void setCodeBlockRange(int c, SubbandSyn sb,
+                                  int m0, int n0, int m1, int n1) {
+        src.setCodeBlockRange(c,sb,m0,n0,m1,n1);
+    }
+
     /**
      * Returns the parameters that are used in this class and implementing
      * classes. It returns a 2D String array. Each of the 1D arrays is for a
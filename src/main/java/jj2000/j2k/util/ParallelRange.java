@@ -0,0 +1,137 @@
+package jj2000.j2k.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a loop over a range of indexes by splitting it into contiguous bands
+ * which are run in parallel on an Executor, returning once all of them have
+ * completed. It is used to split a pass of the wavelet transform into bands
+ * of rows or columns, the return from {@link #run} acting as the barrier
+ * between one pass and the next.
+ *
+ * <P>The calling thread runs any band which the Executor has not started
+ * yet, so a task already running on the Executor may use a ParallelRange on
+ * the same Executor without risk of deadlock, even when all its threads are
+ * busy.
+ *
+ * @author http://bfo.com
+ */
+public class ParallelRange {
+
+    /**
+     * The body of a loop run by a ParallelRange
+     */
+    public interface Body {
+        /**
+         * Run the loop for the specified indexes.
+         * @param band the index of the band, from 0 to
+         * {@link ParallelRange#getParallelism}-1. Bands with the same index
+         * never run at the same time, so it can be used to select a work
+         * buffer.
+         * @param from the first index to process
+         * @param to the index after the last one to process
+         */
+        public void run(int band, int from, int to);
+    }
+
+    private final Executor executor;
+    private final int parallelism;
+
+    /**
+     * Create a new ParallelRange
+     * @param executor the Executor to run the bands on, or null to run
+     * everything on the calling thread
+     * @param parallelism the maximum number of bands to split a range into,
+     * which should usually be the number of threads of the Executor
+     */
+    public ParallelRange(Executor executor, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Bad parallelism " + parallelism);
+        }
+        this.executor = parallelism > 1 ? executor : null;
+        this.parallelism = executor == null ? 1 : parallelism;
+    }
+
+    /**
+     * Return the maximum number of bands a range is split into, which is 1
+     * if there is no Executor.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Run the body for the indexes from 0 to n-1, split into bands of at
+     * least "grain" indexes, and wait for all of them to complete. If any
+     * band throws an exception, it is rethrown once all have completed.
+     * @param n the number of indexes
+     * @param grain the minimum number of indexes in a band
+     * @param body the body of the loop
+     */
+    public void run(int n, int grain, final Body body) {
+        int k = Math.min(parallelism, n / Math.max(grain, 1));
+        if (k <= 1) {
+            if (n > 0) {
+                body.run(0, 0, n);
+            }
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(k);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Runnable[] bands = new Runnable[k];
+        for (int i=0;i<k;i++) {
+            final int band = i;
+            final int from = (int)((long)n * i / k);
+            final int to = (int)((long)n * (i + 1) / k);
+            bands[i] = new Runnable() {
+                final AtomicBoolean claimed = new AtomicBoolean();
+                public void run() {
+                    if (claimed.compareAndSet(false, true)) {
+                        try {
+                            body.run(band, from, to);
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                }
+            };
+        }
+        for (int i=1;i<k;i++) {
+            try {
+                executor.execute(bands[i]);
+            } catch (RejectedExecutionException e) {
+                // Run on this thread below
+            }
+        }
+        for (int i=0;i<k;i++) {
+            bands[i].run();
+        }
+        // Bands not run above are running on other threads, so will complete
+        boolean interrupted = false;
+        while (latch.getCount() > 0) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Throwable e = failure.get();
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException)e;
+        } else if (e instanceof Error) {
+            throw (Error)e;
+        } else if (e != null) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -529,9 +529,11 @@ public class ThreadPool {
      * to the list before it is removed. For efficiency reasons there is no
      * check to see if the thread is already in the list of idle threads.
      *
-     * <P> If the idle list was empty 'notify()' will be called on the 'idle'
-     * array, to wake up a thread that might be waiting (within the
-     * 'getIdle()' method) on an idle thread to become available.
+     * <P> 'notifyAll()' will be called on the 'idle' array, to wake up any
+     * thread that might be waiting (within the 'getIdle()' method) on an idle
+     * thread to become available. Several threads may be waiting at the same
+     * time, and a waiting thread that is interrupted does not take the idle
+     * thread, so all of them must be woken up.
      *
      * @param t The thread to put in the idle list.
      * */
@@ -542,8 +544,8 @@ public class ThreadPool {
         synchronized (idle) {
             idle[nidle] = t;
             nidle++;
-            // If idle array was empty wakeup any waiting threads.
-            if (nidle == 1) idle.notify();
+            // Wakeup any waiting threads.
+            idle.notifyAll();
         }
     }
 
@@ -256,6 +256,109 @@ public abstract class AnWTFilterFloat extends AnWTFilter {
             (float[])highSig, highOff, highStep);
     }
 
+    /**
+     * Filters "n" adjacent signals with the analyze_lpf() method. Signal
+     * "j" starts at index "j" past each offset, so when the steps are the
+     * scanline width of an image the signals are "n" adjacent columns, and
+     * all of them can be filtered while going along the rows.
+     *
+     * <P>This implementation calls analyze_lpf() for each signal in
+     * turn. Lifting based filters override it to work across the signals in
+     * their innermost loop. In all cases the result is identical to that of
+     * analyze_lpf().
+     *
+     * @param inSig This is the array that contains the input
+     * signals.
+     *
+     * @param inOff This is the index in inSig of the first sample of the
+     * first signal to filter.
+     *
+     * @param inLen This is the number of samples in each input signal.
+     *
+     * @param inStep This is the step, or interleave factor, of the
+     * input signal samples in the inSig array.
+     *
+     * @param lowSig This is the array where the low-pass output
+     * signals are placed.
+     *
+     * @param lowOff This is the index in lowSig of the element where
+     * to put the first low-pass output sample of the first signal.
+     *
+     * @param lowStep This is the step, or interleave factor, of the
+     * low-pass output samples in the lowSig array.
+     *
+     * @param highSig This is the array where the high-pass output
+     * signals are placed.
+     *
+     * @param highOff This is the index in highSig of the element where
+     * to put the first high-pass output sample of the first signal.
+     *
+     * @param highStep This is the step, or interleave factor, of the
+     * high-pass output samples in the highSig array.
+     *
+     * @param n The number of adjacent signals to filter.
+     *
+     * @see #analyze_lpf(float[],int,int,int,float[],int,int,float[],int,int)
+     * */
+    public void analyze_lpf_cols(float inSig[], int inOff, int inLen, int inStep,
+                               float lowSig[], int lowOff, int lowStep,
+                               float highSig[], int highOff, int highStep,
+                               int n) {
+        for(int j=0; j<n; j++) {
+            analyze_lpf(inSig, inOff+j, inLen, inStep,
+                        lowSig, lowOff+j, lowStep,
+                        highSig, highOff+j, highStep);
+        }
+    }
+
+    /**
+     * Filters "n" adjacent signals with the analyze_hpf() method. See
+     * analyze_lpf_cols() for how the signals are laid out.
+     *
+     * @param inSig This is the array that contains the input
+     * signals.
+     *
+     * @param inOff This is the index in inSig of the first sample of the
+     * first signal to filter.
+     *
+     * @param inLen This is the number of samples in each input signal.
+     *
+     * @param inStep This is the step, or interleave factor, of the
+     * input signal samples in the inSig array.
+     *
+     * @param lowSig This is the array where the low-pass output
+     * signals are placed.
+     *
+     * @param lowOff This is the index in lowSig of the element where
+     * to put the first low-pass output sample of the first signal.
+     *
+     * @param lowStep This is the step, or interleave factor, of the
+     * low-pass output samples in the lowSig array.
+     *
+     * @param highSig This is the array where the high-pass output
+     * signals are placed.
+     *
+     * @param highOff This is the index in highSig of the element where
+     * to put the first high-pass output sample of the first signal.
+     *
+     * @param highStep This is the step, or interleave factor, of the
+     * high-pass output samples in the highSig array.
+     *
+     * @param n The number of adjacent signals to filter.
+     *
+     * @see #analyze_hpf(float[],int,int,int,float[],int,int,float[],int,int)
+     * */
+    public void analyze_hpf_cols(float inSig[], int inOff, int inLen, int inStep,
+                               float lowSig[], int lowOff, int lowStep,
+                               float highSig[], int highOff, int highStep,
+                               int n) {
+        for(int j=0; j<n; j++) {
+            analyze_hpf(inSig, inOff+j, inLen, inStep,
+                        lowSig, lowOff+j, lowStep,
+                        highSig, highOff+j, highStep);
+        }
+    }
+
     /**
      * Returns the type of data on which this filter works, as defined
      * in the DataBlk interface, which is always TYPE_FLOAT for this
@@ -290,6 +290,180 @@ public class AnWTFilterIntLift5x3 extends AnWTFilterInt {
             lowSig[lk] = inSig[ik]+((2*highSig[hk]+2)>>2);
         }
     }
+
+    /**
+     * An implementation of the analyze_lpf_cols() method that works on int
+     * data, for the forward 5x3 wavelet transform using the lifting
+     * scheme. It performs the same lifting steps as analyze_lpf(), each one
+     * across all the signals before moving on to the next sample.
+     *
+     * @see AnWTFilterInt#analyze_lpf_cols
+     * */
+    public
+        void analyze_lpf_cols(int inSig[], int inOff, int inLen, int inStep,
+                              int lowSig[], int lowOff, int lowStep,
+                              int highSig[], int highOff, int highStep,
+                              int n) {
+        int i, j;
+        int iStep = 2 * inStep; //Subsampling in inSig
+        int ik; //Indexing inSig
+        int lk; //Indexing lowSig
+        int hk; //Indexing highSig
+
+        /*
+         *Generate high frequency subband
+         */
+
+        //Initialize counters
+        ik = inOff + inStep;
+        hk = highOff;
+
+        //Apply first lifting step to each "inner" sample.
+        for(i = 1; i < inLen-1; i += 2) {
+            for(j = 0; j < n; j++) {
+                highSig[hk+j] = inSig[ik+j] -
+                    ((inSig[ik-inStep+j] + inSig[ik+inStep+j])>>1);
+            }
+            ik += iStep;
+            hk += highStep;
+        }
+
+        //Handle head boundary effect if input signal has even length.
+        if( inLen % 2 == 0 ) {
+            for(j = 0; j < n; j++) {
+                highSig[hk+j] = inSig[ik+j] - ((2*inSig[ik-inStep+j])>>1);
+            }
+        }
+
+        /*
+         *Generate low frequency subband
+         */
+
+        //Initialize counters
+        ik = inOff;
+        lk = lowOff;
+        hk = highOff;
+
+        if(inLen>1) {
+            for(j = 0; j < n; j++) {
+                lowSig[lk+j] = inSig[ik+j] + ((highSig[hk+j] + 1)>>1);
+            }
+        }
+        else {
+            System.arraycopy(inSig, ik, lowSig, lk, n);
+        }
+
+        ik += iStep;
+        lk += lowStep;
+        hk += highStep;
+
+        //Apply lifting step to each "inner" sample.
+        for(i = 2; i < inLen-1; i += 2) {
+            for(j = 0; j < n; j++) {
+                lowSig[lk+j] = inSig[ik+j] +
+                    ((highSig[hk-highStep+j] + highSig[hk+j] + 2)>> 2);
+            }
+            ik += iStep;
+            lk += lowStep;
+            hk += highStep;
+        }
+
+        //Handle head boundary effect if input signal has odd length.
+        if(inLen % 2 == 1 && inLen>2) {
+            for(j = 0; j < n; j++) {
+                lowSig[lk+j] = inSig[ik+j] +
+                    ((2*highSig[hk-highStep+j]+2)>>2);
+            }
+        }
+    }
+
+    /**
+     * An implementation of the analyze_hpf_cols() method that works on int
+     * data, for the forward 5x3 wavelet transform using the lifting
+     * scheme. It performs the same lifting steps as analyze_hpf(), each one
+     * across all the signals before moving on to the next sample.
+     *
+     * @see AnWTFilterInt#analyze_hpf_cols
+     * */
+    public
+        void analyze_hpf_cols(int inSig[], int inOff, int inLen, int inStep,
+                              int lowSig[], int lowOff, int lowStep,
+                              int highSig[], int highOff, int highStep,
+                              int n) {
+        int i, j;
+        int iStep = 2 * inStep; //Subsampling in inSig
+        int ik; //Indexing inSig
+        int lk; //Indexing lowSig
+        int hk; //Indexing highSig
+
+        /*
+         *Generate high frequency subband
+         */
+
+        //Initialize counters
+        ik = inOff;
+        hk = highOff;
+
+        if ( inLen>1 ) {
+            // apply a symmetric extension.
+            for(j = 0; j < n; j++) {
+                highSig[hk+j] = inSig[ik+j] - inSig[ik+inStep+j];
+            }
+        }
+        else {
+	    // Normalize for Nyquist gain
+            for(j = 0; j < n; j++) {
+                highSig[hk+j] = inSig[ik+j]<<1;
+            }
+        }
+
+        ik += iStep;
+        hk += highStep;
+
+        //Apply first lifting step to each "inner" sample.
+        for(i = 2; i < inLen-1; i += 2) {
+            for(j = 0; j < n; j++) {
+                highSig[hk+j] = inSig[ik+j] -
+                    ((inSig[ik-inStep+j] + inSig[ik+inStep+j])>>1);
+            }
+            ik += iStep;
+            hk += highStep;
+        }
+
+        //If input signal has odd length then we perform the lifting step
+        // i.e. apply a symmetric extension.
+        if( inLen%2==1 && inLen>1 ) {
+            for(j = 0; j < n; j++) {
+                highSig[hk+j] = inSig[ik+j] - inSig[ik-inStep+j];
+            }
+        }
+
+        /*
+         *Generate low frequency subband
+         */
+
+        //Initialize counters
+        ik = inOff + inStep;
+        lk = lowOff;
+        hk = highOff;
+
+        for (i=1 ; i<inLen-1 ; i+=2) {
+            for(j = 0; j < n; j++) {
+                lowSig[lk+j] = inSig[ik+j] +
+                    ((highSig[hk+j] + highSig[hk+highStep+j] + 2)>> 2);
+            }
+            ik += iStep;
+            lk += lowStep;
+            hk += highStep;
+        }
+
+        if ( inLen>1 && inLen%2==0) {
+            // apply a symmetric extension.
+            for(j = 0; j < n; j++) {
+                lowSig[lk+j] = inSig[ik+j]+((2*highSig[hk+j]+2)>>2);
+            }
+        }
+    }
     /**
      * Returns the negative support of the low-pass analysis
      * filter. That is the number of taps of the filter in the
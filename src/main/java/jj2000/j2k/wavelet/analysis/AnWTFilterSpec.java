@@ -162,6 +162,7 @@ public class AnWTFilterSpec extends ModuleSpec {
 		}
 	    }
 
+            resolved = null;
             return;
 	}
 
@@ -283,9 +284,10 @@ public class AnWTFilterSpec extends ModuleSpec {
                     break;
                 case SPEC_TILE_COMP:
                     specValType[0][0] = SPEC_DEF;
-                    tileCompVal.put("t0c0",null);
+                    tileCompVal[0] = null;
                     break;
                 }
+                resolved = null;
             }
         }
 
@@ -57,6 +57,7 @@ import jj2000.j2k.image.DataBlk;
 import jj2000.j2k.image.DataBlkFloat;
 import jj2000.j2k.image.DataBlkInt;
 import jj2000.j2k.util.MathUtil;
+import jj2000.j2k.util.ParallelRange;
 import jj2000.j2k.wavelet.Subband;
 import jj2000.j2k.wavelet.WaveletTransform;
 
@@ -129,6 +130,22 @@ public class ForwWTFull extends ForwardWT {
      * makes the class inheritently thread unsafe. */
     Point ncblks;
 
+    /** The number of adjacent columns filtered together by the vertical
+     * pass of wavelet2DDecomposition() */
+    private static final int STRIP_WIDTH = 32;
+
+    /** The minimum number of samples in a band of a pass of
+     * wavelet2DDecomposition() run in parallel */
+    private static final int MIN_BAND_SAMPLES = 1<<15;
+
+    /** How the passes of wavelet2DDecomposition() are run in parallel */
+    private ParallelRange parallel = new ParallelRange(null, 1);
+
+    /** The work buffer of each band of the passes of
+     * wavelet2DDecomposition(), kept between subbands to avoid reallocating
+     * them */
+    private Object[] workBufs = new Object[1];
+
     /**
      * Initializes this object with the given source of image data and with
      * all the decompositon parameters
@@ -167,6 +184,21 @@ public class ForwWTFull extends ForwardWT {
         lastm = new int[ncomp];
     }
 
+    /**
+     * Sets how the passes of the transform are run in parallel. Each pass of
+     * each decomposition level is split into bands of lines or columns which
+     * are run on the Executor of 'parallel', and completes before the next
+     * one starts. The result does not depend on the parallelism. By default
+     * the transform runs on the calling thread.
+     *
+     * @param parallel How to run the passes in parallel, or null to run
+     * them on the calling thread.
+     * */
+    public void setParallel(ParallelRange parallel) {
+        this.parallel = parallel != null ? parallel : new ParallelRange(null, 1);
+        workBufs = new Object[this.parallel.getParallelism()];
+    }
+
     /**
      * Returns the implementation type of this wavelet transform, WT_IMPL_FULL
      * (full-page based transform). All components return the same.
@@ -192,7 +224,7 @@ public class ForwWTFull extends ForwardWT {
      * wavelet transform).
      * */
     public int getDecompLevels(int t,int c) {
-        return ((Integer)dls.getTileCompVal(t,c)).intValue();
+        return dls.getTileCompIntVal(t,c);
     }
 
     /**
@@ -747,8 +779,11 @@ public class ForwWTFull extends ForwardWT {
     /**
      * Performs the 2D forward wavelet transform on a subband of the initial
      * band. This method will successively perform 1D filtering steps on all
-     * lines and then all columns of the subband. In this class only filters
-     * with floating point implementations can be used.
+     * columns and then all lines of the subband. The columns are filtered
+     * in strips of STRIP_WIDTH adjacent columns, which are copied to a work
+     * buffer and filtered together going along the rows, rather than one
+     * column at a time. Each pass is split into bands of strips or lines
+     * which are run in parallel, as set by setParallel().
      *
      * @param band The band containing the float data to decompose
      *
@@ -758,129 +793,177 @@ public class ForwWTFull extends ForwardWT {
      * @param c The index of the current component to decompose
      * */
     private void wavelet2DDecomposition(DataBlk band,
-        SubbandAn subband, int c) {
-
-        int ulx, uly, w, h;
-        int band_w, band_h;
+        final SubbandAn subband, int c) {
 
         // If subband is empty (i.e. zero size) nothing to do
         if (subband.w == 0 || subband.h == 0) {
             return;
         }
 
-        ulx = subband.ulx;
-        uly = subband.uly;
-        w = subband.w;
-        h = subband.h;
-        band_w = getTileCompWidth(tIdx, c);
-        band_h = getTileCompHeight(tIdx, c);
+        final int w = subband.w;
+        final int h = subband.h;
+        final int band_w = getTileCompWidth(tIdx, c);
+        final int bufLen =
+            java.lang.Math.max(w, h*java.lang.Math.min(w, STRIP_WIDTH));
+        final Object data = band.getData();
+
+        //Perform the vertical decomposition, on bands of column strips
+        parallel.run((w+STRIP_WIDTH-1)/STRIP_WIDTH,
+                     MIN_BAND_SAMPLES/(h*STRIP_WIDTH),
+                     new ParallelRange.Body() {
+            public void run(int b, int from, int to) {
+                verticalDecomposition(data, subband, band_w,
+                                      from*STRIP_WIDTH,
+                                      java.lang.Math.min(to*STRIP_WIDTH, w),
+                                      getWorkBuffer(b, bufLen));
+            }
+        });
+
+        //Perform the horizontal decomposition, on bands of lines
+        parallel.run(h, MIN_BAND_SAMPLES/w, new ParallelRange.Body() {
+            public void run(int b, int from, int to) {
+                horizontalDecomposition(data, subband, band_w, from, to,
+                                        getWorkBuffer(b, bufLen));
+            }
+        });
+    }
+
+    /**
+     * Returns the work buffer for a band of the passes of
+     * wavelet2DDecomposition(), of the current data type and of at least the
+     * specified length.
+     *
+     * @param b The index of the band
+     *
+     * @param len The minimum length of the buffer
+     * */
+    private Object getWorkBuffer(int b, int len) {
+        Object buf = workBufs[b];
+        if (intData) {
+            if (!(buf instanceof int[]) || ((int[])buf).length < len) {
+                workBufs[b] = buf = new int[len];
+            }
+        }
+        else {
+            if (!(buf instanceof float[]) || ((float[])buf).length < len) {
+                workBufs[b] = buf = new float[len];
+            }
+        }
+        return buf;
+    }
+
+    /**
+     * Performs the vertical pass of the 2D forward wavelet transform on the
+     * columns j0 to j1-1 of a subband.
+     *
+     * @param bandData The data of the band to decompose, int[] or float[]
+     *
+     * @param subband The subband to decompose
+     *
+     * @param band_w The scanline width of the band
+     *
+     * @param j0 The first column, relative to the subband
+     *
+     * @param j1 The column after the last one
+     *
+     * @param tmp The work buffer, of the same type as the data and with
+     * room for a strip of STRIP_WIDTH columns
+     * */
+    private void verticalDecomposition(Object bandData, SubbandAn subband,
+                                       int band_w, int j0, int j1,
+                                       Object tmp) {
+        int i, j, k, n;
+        int offset;
+        int h = subband.h;
 
         if ( intData ) {
-            //Perform the decompositions if the filter is implemented with an
-            //integer arithmetic.
-            int i, j;
-            int offset;
-            int[] tmpVector = new int[java.lang.Math.max(w,h)];
-
-            int[] data = ((DataBlkInt)band).getDataInt();
-
-            //Perform the vertical decomposition
-            if (subband.ulcy%2==0) { // Even start index => use LPF
-                for(j=0; j<w; j++) {
-                    offset = uly*band_w + ulx+j;
-                    for(i=0; i<h; i++)
-                        tmpVector[i] = data[offset+(i*band_w)];
-                    subband.vFilter.analyze_lpf(tmpVector, 0, h, 1,
+            int[] data = (int[])bandData;
+            int[] tmpVector = (int[])tmp;
+            AnWTFilterInt vFilter = (AnWTFilterInt)subband.vFilter;
+            for(j=j0; j<j1; j+=n) {
+                n = java.lang.Math.min(STRIP_WIDTH, j1-j);
+                offset = subband.uly*band_w + subband.ulx+j;
+                for(i=0, k=offset; i<h; i++, k+=band_w)
+                    System.arraycopy(data, k, tmpVector, i*n, n);
+                if (subband.ulcy%2==0) { // Even start index => use LPF
+                    vFilter.analyze_lpf_cols(tmpVector, 0, h, n,
                                              data, offset, band_w,
                                              data, offset+((h+1)/2)*band_w,
-                                             band_w);
+                                             band_w, n);
                 }
-            }
-            else { // Odd start index => use HPF
-                for(j=0; j<w; j++) {
-                    offset = uly*band_w + ulx+j;
-                    for(i=0; i<h; i++)
-                        tmpVector[i] = data[offset+(i*band_w)];
-                    subband.vFilter.analyze_hpf(tmpVector, 0, h, 1,
+                else { // Odd start index => use HPF
+                    vFilter.analyze_hpf_cols(tmpVector, 0, h, n,
                                              data, offset, band_w,
                                              data, offset+(h/2)*band_w,
-                                             band_w);
-                }
-            }
-
-            //Perform the horizontal decomposition.
-            if (subband.ulcx%2==0) { // Even start index => use LPF
-                for(i=0; i<h; i++) {
-                    offset = (uly+i)*band_w + ulx;
-                    for(j=0; j<w; j++)
-                        tmpVector[j] = data[offset+j];
-                    subband.hFilter.analyze_lpf(tmpVector, 0, w, 1,
-                                             data, offset, 1,
-                                             data, offset+(w+1)/2, 1);
-                }
-            }
-            else { // Odd start index => use HPF
-                for(i=0; i<h; i++) {
-                    offset = (uly+i)*band_w + ulx;
-                    for(j=0; j<w; j++)
-                        tmpVector[j] = data[offset+j];
-                    subband.hFilter.analyze_hpf(tmpVector, 0, w, 1,
-                                             data, offset, 1,
-                                             data, offset+w/2, 1);
+                                             band_w, n);
                 }
             }
         }
         else {
-            //Perform the decompositions if the filter is implemented with a
-            //float arithmetic.
-            int i, j;
-            int offset;
-            float[] tmpVector = new float[java.lang.Math.max(w,h)];
-            float[]data = ((DataBlkFloat)band).getDataFloat();
-
-            //Perform the vertical decomposition.
-            if (subband.ulcy%2==0) { // Even start index => use LPF
-                for(j=0; j<w; j++) {
-                    offset = uly*band_w + ulx+j;
-                    for(i=0; i<h; i++)
-                        tmpVector[i] = data[offset+(i*band_w)];
-                    subband.vFilter.analyze_lpf(tmpVector, 0, h, 1,
+            float[] data = (float[])bandData;
+            float[] tmpVector = (float[])tmp;
+            AnWTFilterFloat vFilter = (AnWTFilterFloat)subband.vFilter;
+            for(j=j0; j<j1; j+=n) {
+                n = java.lang.Math.min(STRIP_WIDTH, j1-j);
+                offset = subband.uly*band_w + subband.ulx+j;
+                for(i=0, k=offset; i<h; i++, k+=band_w)
+                    System.arraycopy(data, k, tmpVector, i*n, n);
+                if (subband.ulcy%2==0) { // Even start index => use LPF
+                    vFilter.analyze_lpf_cols(tmpVector, 0, h, n,
                                              data, offset, band_w,
                                              data, offset+((h+1)/2)*band_w,
-                                             band_w);
+                                             band_w, n);
                 }
-            }
-            else { // Odd start index => use HPF
-                for(j=0; j<w; j++) {
-                    offset = uly*band_w + ulx+j;
-                    for(i=0; i<h; i++)
-                        tmpVector[i] = data[offset+(i*band_w)];
-                    subband.vFilter.analyze_hpf(tmpVector, 0, h, 1,
+                else { // Odd start index => use HPF
+                    vFilter.analyze_hpf_cols(tmpVector, 0, h, n,
                                              data, offset, band_w,
                                              data, offset+(h/2)*band_w,
-                                             band_w);
+                                             band_w, n);
                 }
             }
-            //Perform the horizontal decomposition.
-            if (subband.ulcx%2==0) { // Even start index => use LPF
-                for(i=0; i<h; i++) {
-                    offset = (uly+i)*band_w + ulx;
-                    for(j=0; j<w; j++)
-                        tmpVector[j] = data[offset+j];
-                    subband.hFilter.analyze_lpf(tmpVector, 0, w, 1,
-                                             data, offset, 1,
-                                             data, offset+(w+1)/2, 1);
-                }
+        }
+    }
+
+    /**
+     * Performs the horizontal pass of the 2D forward wavelet transform on
+     * the lines i0 to i1-1 of a subband.
+     *
+     * @param bandData The data of the band to decompose, int[] or float[]
+     *
+     * @param subband The subband to decompose
+     *
+     * @param band_w The scanline width of the band
+     *
+     * @param i0 The first line, relative to the subband
+     *
+     * @param i1 The line after the last one
+     *
+     * @param tmp The work buffer, of the same type as the data and with
+     * room for a line of the subband
+     * */
+    private void horizontalDecomposition(Object bandData, SubbandAn subband,
+                                         int band_w, int i0, int i1,
+                                         Object tmp) {
+        int i;
+        int offset;
+        int w = subband.w;
+
+        if (subband.ulcx%2==0) { // Even start index => use LPF
+            for(i=i0; i<i1; i++) {
+                offset = (subband.uly+i)*band_w + subband.ulx;
+                System.arraycopy(bandData, offset, tmp, 0, w);
+                subband.hFilter.analyze_lpf(tmp, 0, w, 1,
+                                            bandData, offset, 1,
+                                            bandData, offset+(w+1)/2, 1);
             }
-            else { // Odd start index => use HPF
-                for(i=0; i<h; i++) {
-                    offset = (uly+i)*band_w + ulx;
-                    for(j=0; j<w; j++)
-                        tmpVector[j] = data[offset+j];
-                    subband.hFilter.analyze_hpf(tmpVector, 0, w, 1,
-                                             data, offset, 1,
-                                             data, offset+w/2, 1);
-                }
+        }
+        else { // Odd start index => use HPF
+            for(i=i0; i<i1; i++) {
+                offset = (subband.uly+i)*band_w + subband.ulx;
+                System.arraycopy(bandData, offset, tmp, 0, w);
+                subband.hFilter.analyze_hpf(tmp, 0, w, 1,
+                                            bandData, offset, 1,
+                                            bandData, offset+w/2, 1);
             }
         }
     }
@@ -50,6 +50,7 @@ import java.util.StringTokenizer;
 import jj2000.j2k.image.BlkImgDataSrc;
 import jj2000.j2k.image.ImgData;
 import jj2000.j2k.image.ImgDataAdapter;
+import jj2000.j2k.util.ParallelRange;
 
 import com.github.jpeg2000.J2KWriteParam;
 /**
@@ -154,4 +155,30 @@ public abstract class ForwardWT extends ImgDataAdapter
         return new ForwWTFull(src, wp, prefx,prefy);
     }
 
+    /**
+     * Creates a ForwardWT object as {@link #createInstance(BlkImgDataSrc,
+     * J2KWriteParam)}, which runs the passes of each decomposition level in
+     * parallel.
+     *
+     * @param src The source of data to be transformed
+     *
+     * @param wp The encoder parameters
+     *
+     * @param parallel How to split the passes of the transform into bands
+     * run in parallel, or null to run them on the calling thread.
+     *
+     * @return A new ForwardWT object
+     *
+     * @see ForwWTFull#setParallel
+     * */
+    public static ForwardWT createInstance(BlkImgDataSrc src,
+                                           J2KWriteParam wp,
+                                           ParallelRange parallel) {
+        ForwardWT wt = createInstance(src, wp);
+        if (wt instanceof ForwWTFull) {
+            ((ForwWTFull)wt).setParallel(parallel);
+        }
+        return wt;
+    }
+
 }
@@ -192,4 +192,28 @@ public interface CBlkWTDataSrcDec extends InvWTData {
      * */
     public DataBlk getInternCodeBlock(int c, int m, int n, SubbandSyn sb,
                                         DataBlk cblk);
+
+    /**
+     * Indicates that, until another subband is requested, only the
+     * code-blocks of subband 'sb' in the current tile for the specified
+     * component with indexes between 'm0' and 'm1' (vertically) and 'n0' and
+     * 'n1' (horizontally), inclusive, will be requested. Implementations
+     * that decode several code-blocks in advance can use this to avoid
+     * decoding the other code-blocks. Requesting a code-block outside the
+     * range is still allowed.
+     *
+     * @param c The component of the subband.
+     *
+     * @param sb The subband.
+     *
+     * @param m0 The vertical index of the first code-block.
+     *
+     * @param n0 The horizontal index of the first code-block.
+     *
+     * @param m1 The vertical index of the last code-block.
+     *
+     * @param n1 The horizontal index of the last code-block.
+     * */
+    public void setCodeBlockRange(int c, SubbandSyn sb,
+                                  int m0, int n0, int m1, int n1);
 }
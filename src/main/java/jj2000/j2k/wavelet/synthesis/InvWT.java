@@ -48,6 +48,8 @@
 
  package jj2000.j2k.wavelet.synthesis;
 
+import java.awt.Rectangle;
+
  import jj2000.j2k.wavelet.WaveletTransform;
 
 /**
@@ -84,4 +86,18 @@ public interface InvWT extends WaveletTransform {
      *
      * */
     public void setImgResLevel(int rl);
+
+    /**
+     * Restricts the reconstruction to the specified area of the image.
+     * Implementations may then only reconstruct, in each tile-component, the
+     * data needed for this area, and only request from their source the
+     * code-blocks needed for it. Data outside the area may be requested but
+     * is likely to be less efficient to obtain, and may be incorrect near
+     * the edges of the area unless it is reconstructed again.
+     *
+     * @param area The area, in the canvas system on the reference grid at
+     * full resolution, regardless of the current resolution level. If null
+     * the whole image is reconstructed, which is the default.
+     * */
+    public void setDecodingArea(Rectangle area);
 }
@@ -47,6 +47,7 @@
 package jj2000.j2k.wavelet.synthesis;
 
 import java.awt.Point;
+import java.awt.Rectangle;
 
 import jj2000.j2k.decoder.DecoderSpecs;
 
@@ -85,6 +86,10 @@ public abstract class InvWTAdapter implements InvWT {
     /** The maximum available image resolution level */
     protected int maxImgRes;
 
+    /** The area to reconstruct, on the reference grid at full resolution,
+     * or null to reconstruct the whole image. */
+    protected Rectangle area;
+
     /**
      * Instantiates the 'InvWTAdapter' object using the specified
      * 'MultiResImgData' source. The reconstruction resolution level is set to
@@ -128,6 +133,19 @@ public abstract class InvWTAdapter implements InvWT {
         reslvl = rl;
     }
 
+    /**
+     * Restricts the reconstruction to the specified area of the image.
+     *
+     * <p>This default implementation just stores the area in the 'area'
+     * variable, for use by the implementing classes.</p>
+     *
+     * @param area The area, in the canvas system on the reference grid at
+     * full resolution. If null the whole image is reconstructed.
+     * */
+    public void setDecodingArea(Rectangle area) {
+        this.area = area == null ? null : new Rectangle(area);
+    }
+
     /**
      * Returns the overall width of the current tile in pixels. This is the
      * tile's width without accounting for any component subsampling. This is
@@ -52,8 +52,10 @@ import jj2000.j2k.image.DataBlk;
 import jj2000.j2k.image.DataBlkFloat;
 import jj2000.j2k.image.DataBlkInt;
 import jj2000.j2k.util.FacilityManager;
+import jj2000.j2k.util.ParallelRange;
 import jj2000.j2k.util.ProgressWatch;
 import jj2000.j2k.wavelet.Subband;
+import jj2000.j2k.wavelet.WaveletFilter;
 import jj2000.j2k.wavelet.WaveletTransform;
 
 /**
@@ -103,6 +105,11 @@ public class InvWTFull extends InverseWT {
      */
     private DataBlk reconstructedComps[];
 
+    /** The data array of the block of each component of the previous tile,
+     * or of the previous image, which is reused for the next tile if it is
+     * large enough */
+    private Object spareData[];
+
     /** Number of decomposition levels in each component */
     private int[] ndl;
 
@@ -114,6 +121,22 @@ public class InvWTFull extends InverseWT {
      * */
     private boolean reversible[][];
 
+    /** The number of adjacent columns filtered together by the vertical
+     * pass of the reconstruction */
+    private static final int STRIP_WIDTH = 32;
+
+    /** The minimum number of samples in a band of a pass of the
+     * reconstruction run in parallel */
+    private static final int MIN_BAND_SAMPLES = 1<<15;
+
+    /** How the passes of the reconstruction are run in parallel */
+    private ParallelRange parallel = new ParallelRange(null, 1);
+
+    /** The work buffer of each band of the passes of
+     * wavelet2DReconstruction(), kept between subbands to avoid
+     * reallocating them */
+    private Object[] workBufs = new Object[1];
+
     /**
      * Initializes this object with the given source of wavelet
      * coefficients. It initializes the resolution level for full resolutioin
@@ -130,6 +153,7 @@ public class InvWTFull extends InverseWT {
 
         int nc = src.getNumComps();
         reconstructedComps = new DataBlk[nc];
+        spareData = new Object[nc];
         ndl = new int[nc];
         pw = FacilityManager.getProgressWatch();
     }
@@ -269,20 +293,63 @@ public class InvWTFull extends InverseWT {
         }
 
         //If the source image has not been decomposed 
+        if(reconstructedComps[c]==null && area!=null) {
+            // Only reconstruct the part of the tile-component in the area
+            int d = maxImgRes-reslvl;
+            int rl = reslvl-maxImgRes+ndl[c];
+            int sx = getCompSubsX(c)<<d;
+            int sy = getCompSubsY(c)<<d;
+            int ulx = mressrc.getResULX(c,rl);
+            int uly = mressrc.getResULY(c,rl);
+            int tcw = getTileCompWidth(tIdx,c);
+            int tch = getTileCompHeight(tIdx,c);
+            int x0 = (Math.max(area.x,0)+sx-1)/sx-ulx;
+            int y0 = (Math.max(area.y,0)+sy-1)/sy-uly;
+            int x1 = (Math.max(area.x+area.width,0)+sx-1)/sx-ulx;
+            int y1 = (Math.max(area.y+area.height,0)+sy-1)/sy-uly;
+            reconstructedComps[c] =
+                areaReconstruction(src.getSynSubbandTree(tIdx,c),
+                                   Math.max(x0,0),Math.max(y0,0),
+                                   Math.min(x1,tcw),Math.min(y1,tch),c);
+        }
+        if(reconstructedComps[c]!=null && area!=null) {
+            DataBlk rc = reconstructedComps[c];
+            if(blk.ulx<rc.ulx || blk.uly<rc.uly ||
+               blk.ulx+blk.w>rc.ulx+rc.w || blk.uly+blk.h>rc.uly+rc.h) {
+                // Outside of the area, reconstruct the requested data
+                reconstructedComps[c] =
+                    areaReconstruction(src.getSynSubbandTree(tIdx,c),
+                                       blk.ulx,blk.uly,
+                                       blk.ulx+blk.w,blk.uly+blk.h,c);
+            }
+        }
         if(reconstructedComps[c]==null) {
-            //Allocate component data buffer
+            //Allocate component data buffer, reusing the previous one if
+            //possible since the reconstruction writes all of it
+            int w = getTileCompWidth(tIdx,c);
+            int h = getTileCompHeight(tIdx,c);
+            Object data = spareData[c];
+            spareData[c] = null;
             switch (dtype) {
             case DataBlk.TYPE_FLOAT:
-                reconstructedComps[c] =
-                    new DataBlkFloat(0,0,getTileCompWidth(tIdx,c),
-                                     getTileCompHeight(tIdx,c));
+                if (data instanceof float[] && ((float[])data).length>=w*h) {
+                    reconstructedComps[c] = new DataBlkFloat();
+                    reconstructedComps[c].setData(data);
+                } else {
+                    reconstructedComps[c] = new DataBlkFloat(0,0,w,h);
+                }
                 break;
             case DataBlk.TYPE_INT:
-                reconstructedComps[c] =
-                    new DataBlkInt(0,0,getTileCompWidth(tIdx,c),
-                                   getTileCompHeight(tIdx,c));
+                if (data instanceof int[] && ((int[])data).length>=w*h) {
+                    reconstructedComps[c] = new DataBlkInt();
+                    reconstructedComps[c].setData(data);
+                } else {
+                    reconstructedComps[c] = new DataBlkInt(0,0,w,h);
+                }
                 break;
             }
+            reconstructedComps[c].w = reconstructedComps[c].scanw = w;
+            reconstructedComps[c].h = h;
             //Reconstruct source image
             waveletTreeReconstruction(reconstructedComps[c],
                                       src.getSynSubbandTree(tIdx,c),c);
@@ -299,9 +366,10 @@ public class InvWTFull extends InverseWT {
             }
         }
         // Set the reference to the internal buffer
-        blk.setData(reconstructedComps[c].getData());
-        blk.offset = reconstructedComps[c].w*blk.uly+blk.ulx;
-        blk.scanw = reconstructedComps[c].w;
+        DataBlk rc = reconstructedComps[c];
+        blk.setData(rc.getData());
+        blk.offset = rc.offset+rc.scanw*(blk.uly-rc.uly)+blk.ulx-rc.ulx;
+        blk.scanw = rc.scanw;
         blk.progressive = false;
         return blk;
     }
@@ -380,7 +448,11 @@ public class InvWTFull extends InverseWT {
     /**
      * Performs the 2D inverse wavelet transform on a subband of the image, on
      * the specified component. This method will successively perform 1D
-     * filtering steps on all columns and then all lines of the subband.
+     * filtering steps on all lines and then all columns of the subband. The
+     * columns are filtered in strips of STRIP_WIDTH adjacent columns, which
+     * are copied to a work buffer and filtered together going along the
+     * rows. Each pass is split into bands of lines or strips which are run
+     * in parallel, as set by setParallel().
      *
      * @param db the buffer for the image/wavelet data.
      *
@@ -388,72 +460,141 @@ public class InvWTFull extends InverseWT {
      *
      * @param c The index of the component to reconstruct 
      * */
-    private void wavelet2DReconstruction(DataBlk db,SubbandSyn sb,int c) {
-        Object data;
-        Object buf;
-        int ulx, uly, w, h;
-        int i,j,k;
-        int offset;
-
+    private void wavelet2DReconstruction(final DataBlk db,final SubbandSyn sb,
+                                         int c) {
         // If subband is empty (i.e. zero size) nothing to do
         if (sb.w==0 || sb.h==0) {
             return;
         }
 
-        data = db.getData();
+        final int w = sb.w;
+        final int h = sb.h;
+        final int bufLen = Math.max(w, h*Math.min(w, STRIP_WIDTH));
 
-        ulx = sb.ulx;
-        uly = sb.uly;
-        w = sb.w;
-        h = sb.h;
+        //Perform the horizontal reconstruction, on bands of lines
+        parallel.run(h, MIN_BAND_SAMPLES/w, new ParallelRange.Body() {
+            public void run(int b, int from, int to) {
+                horizontalReconstruction(db, sb, from, to,
+                    getWorkBuffer(b, bufLen, sb.getHorWFilter().getDataType()));
+            }
+        });
 
-        buf = null;  // To keep compiler happy
+        //Perform the vertical reconstruction, on bands of column strips
+        parallel.run((w+STRIP_WIDTH-1)/STRIP_WIDTH,
+                     MIN_BAND_SAMPLES/(h*STRIP_WIDTH),
+                     new ParallelRange.Body() {
+            public void run(int b, int from, int to) {
+                verticalReconstruction(db, sb, from*STRIP_WIDTH,
+                    Math.min(to*STRIP_WIDTH, w),
+                    getWorkBuffer(b, bufLen, sb.getVerWFilter().getDataType()));
+            }
+        });
+    }
 
-        switch (sb.getHorWFilter().getDataType()) {
+    /**
+     * Returns the work buffer for a band of the passes of
+     * wavelet2DReconstruction(), of at least the specified length.
+     *
+     * @param b The index of the band
+     *
+     * @param len The minimum length of the buffer
+     *
+     * @param type The type of the buffer, DataBlk.TYPE_INT or
+     * DataBlk.TYPE_FLOAT
+     * */
+    private Object getWorkBuffer(int b, int len, int type) {
+        Object buf = workBufs[b];
+        switch (type) {
         case DataBlk.TYPE_INT:
-            buf = new int[(w>=h) ? w : h];
+            if (!(buf instanceof int[]) || ((int[])buf).length < len) {
+                workBufs[b] = buf = new int[len];
+            }
             break;
         case DataBlk.TYPE_FLOAT:
-            buf = new float[(w>=h) ? w : h];
+            if (!(buf instanceof float[]) || ((float[])buf).length < len) {
+                workBufs[b] = buf = new float[len];
+            }
             break;
         }
+        return buf;
+    }
+
+    /**
+     * Performs the horizontal pass of the 2D inverse wavelet transform on
+     * the lines i0 to i1-1 of a subband.
+     *
+     * @param db the buffer for the image/wavelet data.
+     *
+     * @param sb The subband to reconstruct.
+     *
+     * @param i0 The first line, relative to the subband
+     *
+     * @param i1 The line after the last one
+     *
+     * @param buf The work buffer, with room for a line of the subband
+     * */
+    private void horizontalReconstruction(DataBlk db,SubbandSyn sb,
+                                          int i0,int i1,Object buf) {
+        Object data = db.getData();
+        int w = sb.w;
+        int i;
+        int offset = (sb.uly-db.uly+i0)*db.w + sb.ulx-db.ulx;
 
-        //Perform the horizontal reconstruction
-        offset = (uly-db.uly)*db.w + ulx-db.ulx;
         if (sb.ulcx%2==0) { // start index is even => use LPF
-            for(i=0; i<h; i++, offset += db.w) {
+            for(i=i0; i<i1; i++, offset += db.w) {
                 System.arraycopy(data,offset,buf,0,w);
                 sb.hFilter.synthetize_lpf(buf,0,(w+1)/2,1,buf,(w+1)/2,w/2,1,
                                           data,offset,1);
             }
         } else { // start index is odd => use HPF
-            for(i=0; i<h; i++, offset += db.w) {
+            for(i=i0; i<i1; i++, offset += db.w) {
                 System.arraycopy(data,offset,buf,0,w);
                 sb.hFilter.synthetize_hpf(buf,0,w/2,1,buf,w/2,(w+1)/2,1,
                                           data,offset,1);
             }
         }
+    }
+
+    /**
+     * Performs the vertical pass of the 2D inverse wavelet transform on the
+     * columns j0 to j1-1 of a subband.
+     *
+     * @param db the buffer for the image/wavelet data.
+     *
+     * @param sb The subband to reconstruct.
+     *
+     * @param j0 The first column, relative to the subband
+     *
+     * @param j1 The column after the last one
+     *
+     * @param buf The work buffer, with room for a strip of STRIP_WIDTH
+     * columns of the subband
+     * */
+    private void verticalReconstruction(DataBlk db,SubbandSyn sb,
+                                        int j0,int j1,Object buf) {
+        Object data = db.getData();
+        int h = sb.h;
+        int i,j,k,n;
+        int offset = (sb.uly-db.uly)*db.w+sb.ulx-db.ulx+j0;
 
-        //Perform the vertical reconstruction 
-        offset = (uly-db.uly)*db.w+ulx-db.ulx;
         switch (sb.getVerWFilter().getDataType()) {
         case DataBlk.TYPE_INT:
             int data_int[], buf_int[];
             data_int = (int[]) data;
             buf_int = (int[]) buf;
-            if (sb.ulcy%2==0) { // start index is even => use LPF
-                for(j=0; j<w; j++, offset++) {
-                    for(i=h-1, k=offset+i*db.w; i>=0; i--, k-=db.w)
-                        buf_int[i] = data_int[k];
-                    sb.vFilter.synthetize_lpf(buf,0,(h+1)/2,1,buf,(h+1)/2,
-                                              h/2,1,data,offset,db.w);
-                }
-            } else { // start index is odd => use HPF
-                for(j=0; j<w; j++, offset++) {
-                    for(i=h-1, k=offset+i*db.w; i>=0; i--, k-= db.w)
-                        buf_int[i] = data_int[k];
-                    sb.vFilter.synthetize_hpf(buf,0,h/2,1,buf,h/2,(h+1)/2,1,
-                                              data,offset,db.w);
+            SynWTFilterInt vf_int = (SynWTFilterInt)sb.vFilter;
+            for(j=j0; j<j1; j+=n, offset+=n) {
+                n = Math.min(STRIP_WIDTH, j1-j);
+                for(i=0, k=offset; i<h; i++, k+=db.w)
+                    System.arraycopy(data_int,k,buf_int,i*n,n);
+                if (sb.ulcy%2==0) { // start index is even => use LPF
+                    vf_int.synthetize_lpf_cols(buf_int,0,(h+1)/2,n,
+                                               buf_int,((h+1)/2)*n,h/2,n,
+                                               data_int,offset,db.w,n);
+                } else { // start index is odd => use HPF
+                    vf_int.synthetize_hpf_cols(buf_int,0,h/2,n,
+                                               buf_int,(h/2)*n,(h+1)/2,n,
+                                               data_int,offset,db.w,n);
                 }
             }
             break;
@@ -461,19 +602,19 @@ public class InvWTFull extends InverseWT {
             float data_float[], buf_float[];
             data_float = (float[]) data;
             buf_float = (float[]) buf;
-            if (sb.ulcy%2==0) { // start index is even => use LPF
-                for(j=0; j<w; j++, offset++) {
-                    for(i=h-1, k=offset+i*db.w; i>=0; i--, k-= db.w)
-                        buf_float[i] = data_float[k];
-                    sb.vFilter.synthetize_lpf(buf,0,(h+1)/2,1,buf,(h+1)/2,
-                                              h/2,1,data,offset,db.w);
-                }
-            } else { // start index is odd => use HPF
-                for(j=0; j<w; j++, offset++) {
-                    for(i=h-1, k=offset+i*db.w; i>=0; i--, k-= db.w)
-                        buf_float[i] = data_float[k];
-                    sb.vFilter.synthetize_hpf(buf,0,h/2,1,buf,h/2,(h+1)/2,1,
-                                              data,offset,db.w);
+            SynWTFilterFloat vf_float = (SynWTFilterFloat)sb.vFilter;
+            for(j=j0; j<j1; j+=n, offset+=n) {
+                n = Math.min(STRIP_WIDTH, j1-j);
+                for(i=0, k=offset; i<h; i++, k+=db.w)
+                    System.arraycopy(data_float,k,buf_float,i*n,n);
+                if (sb.ulcy%2==0) { // start index is even => use LPF
+                    vf_float.synthetize_lpf_cols(buf_float,0,(h+1)/2,n,
+                                                 buf_float,((h+1)/2)*n,h/2,n,
+                                                 data_float,offset,db.w,n);
+                } else { // start index is odd => use HPF
+                    vf_float.synthetize_hpf_cols(buf_float,0,h/2,n,
+                                                 buf_float,(h/2)*n,(h+1)/2,n,
+                                                 data_float,offset,db.w,n);
                 }
             }
             break;
@@ -552,6 +693,242 @@ public class InvWTFull extends InverseWT {
         }
     }
 
+    /**
+     * Reconstructs an area of a subband. Only the code-blocks needed to
+     * reconstruct the area are requested from the source, and the inverse
+     * wavelet transform is only performed on the area, extended on each side
+     * by the support of the synthesis filters so that the returned data is
+     * the same as if the whole subband was reconstructed. This method is
+     * recursive, the first call to it the 'sb' must be the root of the
+     * subband tree.
+     *
+     * @param sb The subband to reconstruct.
+     *
+     * @param x0 The horizontal coordinate of the upper-left corner of the
+     * area, relative to the subband's upper-left corner.
+     *
+     * @param y0 The vertical coordinate of the upper-left corner of the area,
+     * relative to the subband's upper-left corner.
+     *
+     * @param x1 The horizontal coordinate of the lower-right corner of the
+     * area, exclusive.
+     *
+     * @param y1 The vertical coordinate of the lower-right corner of the
+     * area, exclusive.
+     *
+     * @param c The index of the component to reconstruct
+     *
+     * @return A block containing at least the area, with coordinates
+     * relative to the subband's upper-left corner.
+     * */
+    private DataBlk areaReconstruction(final SubbandSyn sb,int x0,int y0,
+                                       int x1,int y1,int c) {
+        DataBlk blk;
+
+        if(sb.isNode && sb.resLvl>reslvl-maxImgRes+ndl[c]) {
+            // Resolution level not reconstructed, the LL subband is the
+            // reconstructed image
+            return areaReconstruction((SubbandSyn)sb.getLL(),x0,y0,x1,y1,c);
+        }
+        if(x1<=x0 || y1<=y0) {
+            // Empty area
+            x1 = x0;
+            y1 = y0;
+        }
+        if(!sb.isNode) {
+            // Get the code-blocks intersecting the area from the source
+            blk = (dtype==DataBlk.TYPE_INT) ?
+                (DataBlk)new DataBlkInt(x0,y0,x1-x0,y1-y0) :
+                (DataBlk)new DataBlkFloat(x0,y0,x1-x0,y1-y0);
+            if(blk.w==0 || blk.h==0) {
+                return blk;
+            }
+            // Project code-block partition origin to subband, see
+            // ForwWTFull
+            int acb0x = src.getCbULX();
+            int acb0y = src.getCbULY();
+            switch (sb.sbandIdx) {
+            case Subband.WT_ORIENT_HL:
+                acb0x = 0;
+                break;
+            case Subband.WT_ORIENT_LH:
+                acb0y = 0;
+                break;
+            case Subband.WT_ORIENT_HH:
+                acb0x = 0;
+                acb0y = 0;
+                break;
+            }
+            int ox = sb.ulcx-acb0x;
+            int oy = sb.ulcy-acb0y;
+            int n0 = (ox+x0)/sb.nomCBlkW-ox/sb.nomCBlkW;
+            int n1 = (ox+x1-1)/sb.nomCBlkW-ox/sb.nomCBlkW;
+            int m0 = (oy+y0)/sb.nomCBlkH-oy/sb.nomCBlkH;
+            int m1 = (oy+y1-1)/sb.nomCBlkH-oy/sb.nomCBlkH;
+            src.setCodeBlockRange(c,sb,m0,n0,m1,n1);
+
+            DataBlk subbData = (dtype==DataBlk.TYPE_INT) ?
+                (DataBlk)new DataBlkInt() : (DataBlk)new DataBlkFloat();
+            Object dst_data = blk.getData();
+            for(int m=m0; m<=m1; m++) {
+                for(int n=n0; n<=n1; n++) {
+                    subbData = src.getInternCodeBlock(c,m,n,sb,subbData);
+                    if(pw!=null) {
+                        nDecCblk++;
+                        pw.updateProgressWatch(nDecCblk,null);
+                    }
+                    // Copy the part in the area, line by line
+                    int cx0 = Math.max(subbData.ulx-sb.ulx,x0);
+                    int cy0 = Math.max(subbData.uly-sb.uly,y0);
+                    int cx1 = Math.min(subbData.ulx-sb.ulx+subbData.w,x1);
+                    int cy1 = Math.min(subbData.uly-sb.uly+subbData.h,y1);
+                    for(int i=cy0; i<cy1; i++) {
+                        System.arraycopy(subbData.getData(),
+                                         subbData.offset+
+                                         (i-subbData.uly+sb.uly)*
+                                         subbData.scanw+
+                                         cx0-subbData.ulx+sb.ulx,
+                                         dst_data,(i-y0)*blk.w+cx0-x0,
+                                         cx1-cx0);
+                    }
+                }
+            }
+            return blk;
+        }
+
+        // Extend the area by the support of the filters, keeping the parity
+        // of the first sample, so that the data in the area is not affected
+        // by the boundary extension at the edges of the extended area.
+        WaveletFilter hf = sb.getHorWFilter();
+        WaveletFilter vf = sb.getVerWFilter();
+        int mx = 2*Math.max(Math.max(hf.getSynLowNegSupport(),
+                                     hf.getSynLowPosSupport()),
+                            Math.max(hf.getSynHighNegSupport(),
+                                     hf.getSynHighPosSupport()));
+        int my = 2*Math.max(Math.max(vf.getSynLowNegSupport(),
+                                     vf.getSynLowPosSupport()),
+                            Math.max(vf.getSynHighNegSupport(),
+                                     vf.getSynHighPosSupport()));
+        x0 = Math.max(x0-mx,0) & ~1;
+        y0 = Math.max(y0-my,0) & ~1;
+        x1 = Math.min(x1+mx,sb.w);
+        y1 = Math.min(y1+my,sb.h);
+        final int w = Math.max(x1-x0,0);
+        final int h = Math.max(y1-y0,0);
+        blk = (dtype==DataBlk.TYPE_INT) ?
+            (DataBlk)new DataBlkInt(x0,y0,w,h) :
+            (DataBlk)new DataBlkFloat(x0,y0,w,h);
+        if(w==0 || h==0) {
+            return blk;
+        }
+
+        // Number of low-pass and high-pass samples in the area, and first
+        // sample in the subbands
+        final int lw = (sb.ulcx%2==0) ? (w+1)/2 : w/2;
+        final int lh = (sb.ulcy%2==0) ? (h+1)/2 : h/2;
+        final int kx = x0/2;
+        final int ky = y0/2;
+
+        // Reconstruct the lower resolution level and get the other subbands
+        final DataBlk ll = areaReconstruction((SubbandSyn)sb.getLL(),
+                                        kx,ky,kx+lw,ky+lh,c);
+        final DataBlk hl = areaReconstruction((SubbandSyn)sb.getHL(),
+                                        kx,ky,kx+w-lw,ky+lh,c);
+        final DataBlk lh_ = areaReconstruction((SubbandSyn)sb.getLH(),
+                                         kx,ky,kx+lw,ky+h-lh,c);
+        final DataBlk hh = areaReconstruction((SubbandSyn)sb.getHH(),
+                                        kx,ky,kx+w-lw,ky+h-lh,c);
+
+        // Perform the horizontal reconstruction, of the low-pass and
+        // high-pass rows separately, on bands of rows
+        final Object lrows,hrows;
+        if(dtype==DataBlk.TYPE_INT) {
+            lrows = new int[lh*w];
+            hrows = new int[(h-lh)*w];
+        } else {
+            lrows = new float[lh*w];
+            hrows = new float[(h-lh)*w];
+        }
+        parallel.run(h, MIN_BAND_SAMPLES/w, new ParallelRange.Body() {
+            public void run(int b, int from, int to) {
+                for(int i=from; i<to; i++) {
+                    DataBlk lo = (i<lh) ? ll : lh_;
+                    DataBlk hi = (i<lh) ? hl : hh;
+                    int row = (i<lh) ? i : i-lh;
+                    int loff = lo.offset+(ky+row-lo.uly)*lo.scanw+kx-lo.ulx;
+                    int hoff = hi.offset+(ky+row-hi.uly)*hi.scanw+kx-hi.ulx;
+                    if(sb.ulcx%2==0) { // start index is even => use LPF
+                        sb.hFilter.synthetize_lpf(lo.getData(),loff,lw,1,
+                                                  hi.getData(),hoff,w-lw,1,
+                                                  (i<lh) ? lrows : hrows,
+                                                  row*w,1);
+                    } else { // start index is odd => use HPF
+                        sb.hFilter.synthetize_hpf(lo.getData(),loff,lw,1,
+                                                  hi.getData(),hoff,w-lw,1,
+                                                  (i<lh) ? lrows : hrows,
+                                                  row*w,1);
+                    }
+                }
+            }
+        });
+
+        // Perform the vertical reconstruction, on bands of strips of
+        // adjacent columns which are filtered together going along the rows
+        final Object data = blk.getData();
+        parallel.run((w+STRIP_WIDTH-1)/STRIP_WIDTH,
+                     MIN_BAND_SAMPLES/(h*STRIP_WIDTH),
+                     new ParallelRange.Body() {
+            public void run(int b, int from, int to) {
+                int j1 = Math.min(to*STRIP_WIDTH, w);
+                for(int j=from*STRIP_WIDTH, n; j<j1; j+=n) {
+                    n = Math.min(STRIP_WIDTH, j1-j);
+                    if(dtype==DataBlk.TYPE_INT) {
+                        SynWTFilterInt vf_int = (SynWTFilterInt)sb.vFilter;
+                        if(sb.ulcy%2==0) { // start index is even => use LPF
+                            vf_int.synthetize_lpf_cols((int[])lrows,j,lh,w,
+                                                       (int[])hrows,j,h-lh,w,
+                                                       (int[])data,j,w,n);
+                        } else { // start index is odd => use HPF
+                            vf_int.synthetize_hpf_cols((int[])lrows,j,lh,w,
+                                                       (int[])hrows,j,h-lh,w,
+                                                       (int[])data,j,w,n);
+                        }
+                    } else {
+                        SynWTFilterFloat vf_float =
+                            (SynWTFilterFloat)sb.vFilter;
+                        if(sb.ulcy%2==0) { // start index is even => use LPF
+                            vf_float.synthetize_lpf_cols((float[])lrows,j,lh,
+                                                         w,(float[])hrows,j,
+                                                         h-lh,w,(float[])data,
+                                                         j,w,n);
+                        } else { // start index is odd => use HPF
+                            vf_float.synthetize_hpf_cols((float[])lrows,j,lh,
+                                                         w,(float[])hrows,j,
+                                                         h-lh,w,(float[])data,
+                                                         j,w,n);
+                        }
+                    }
+                }
+            }
+        });
+        return blk;
+    }
+
+    /**
+     * Sets how the passes of the reconstruction are run in parallel. Each
+     * pass of each decomposition level is split into bands of lines or
+     * columns which are run on the Executor of 'parallel', and completes
+     * before the next one starts. The result does not depend on the
+     * parallelism. By default the reconstruction runs on the calling thread.
+     *
+     * @param parallel How to run the passes in parallel, or null to run
+     * them on the calling thread.
+     * */
+    public void setParallel(ParallelRange parallel) {
+        this.parallel = parallel != null ? parallel : new ParallelRange(null, 1);
+        workBufs = new Object[this.parallel.getParallelism()];
+    }
+
     /**
      * Returns the implementation type of this wavelet transform, WT_IMPL_FULL
      * (full-page based transform). All components return the same.
@@ -566,6 +943,46 @@ public class InvWTFull extends InverseWT {
         return WaveletTransform.WT_IMPL_FULL;
     }
 
+    /**
+     * Releases the block of each component of the current tile, keeping its
+     * data array to be reused by the next tile.
+     * */
+    private void releaseBuffers() {
+        for (int i=reconstructedComps.length-1; i>=0; i--) {
+            if (reconstructedComps[i] != null) {
+                spareData[i] = reconstructedComps[i].getData();
+                reconstructedComps[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Takes the data arrays of the tiles and the work buffers of another
+     * InvWTFull, which is no longer used, so that they are reused by this
+     * one instead of being allocated again. This is used to decode a series
+     * of images of similar size with little allocation.
+     *
+     * @param prev The InvWTFull to take the buffers of. It must not be used
+     * after this call.
+     * */
+    public void reuseBuffers(InvWTFull prev) {
+        prev.releaseBuffers();
+        for (int c=Math.min(spareData.length,prev.spareData.length)-1;
+             c>=0; c--) {
+            if (reconstructedComps[c] == null && spareData[c] == null) {
+                spareData[c] = prev.spareData[c];
+            }
+            prev.spareData[c] = null;
+        }
+        for (int b=Math.min(workBufs.length,prev.workBufs.length)-1;
+             b>=0; b--) {
+            if (workBufs[b] == null) {
+                workBufs[b] = prev.workBufs[b];
+            }
+        }
+        prev.workBufs = new Object[1];
+    }
+
     /**
      * Changes the current tile, given the new indexes. An
      * IllegalArgumentException is thrown if the indexes do not correspond to
@@ -576,8 +993,6 @@ public class InvWTFull extends InverseWT {
      * @param y The vertical index of the new tile.
      * */
     public void setTile(int x,int y) {
-        int i;
-
         // Change tile
         super.setTile(x,y);
 
@@ -588,11 +1003,7 @@ public class InvWTFull extends InverseWT {
         }
 
         // Reset the decomposed component buffers.
-        if (reconstructedComps != null) {
-            for (i=reconstructedComps.length-1; i>=0; i--) {
-                reconstructedComps[i] = null;
-            }
-        }
+        releaseBuffers();
 
         cblkToDecode = 0;
         SubbandSyn root,sb;
@@ -625,8 +1036,6 @@ public class InvWTFull extends InverseWT {
      * the last one (i.e. there is no next tile).
      * */
     public void nextTile() {
-        int i;
-
         // Change tile
         super.nextTile();
 
@@ -637,11 +1046,7 @@ public class InvWTFull extends InverseWT {
         }
 
         // Reset the decomposed component buffers.
-        if (reconstructedComps != null) {
-            for (i=reconstructedComps.length-1; i>=0; i--) {
-                reconstructedComps[i] = null;
-            }
-        }
+        releaseBuffers();
     }
 
 }
@@ -0,0 +1,683 @@
+package jj2000.j2k.wavelet.synthesis;
+
+import jj2000.j2k.decoder.DecoderSpecs;
+import jj2000.j2k.image.DataBlk;
+import jj2000.j2k.image.DataBlkFloat;
+import jj2000.j2k.image.DataBlkInt;
+import jj2000.j2k.wavelet.Subband;
+import jj2000.j2k.wavelet.WaveletFilter;
+import jj2000.j2k.wavelet.WaveletTransform;
+
+/**
+ * This class implements the InverseWT with a stripe based (sliding window)
+ * approach for int and float data.
+ *
+ * <P>Unlike InvWTFull, which reconstructs each tile-component in a single
+ * buffer, this implementation keeps, for each subband of the tile-component,
+ * only a window of rows. The rows are reconstructed from top to bottom as
+ * they are requested: each level synthesizes a stripe of rows from the rows
+ * of its four subbands, which are themselves obtained on demand, down to the
+ * leaves which are filled one row of code-blocks at a time. Rows that are
+ * above the last request are discarded. The memory used is thus proportional
+ * to the width of the tile-component, and not to its area, which allows very
+ * large single tile images to be decoded.
+ *
+ * <P>Each stripe is synthesized from an area extended by the support of the
+ * synthesis filters, so the returned data is identical to that returned by
+ * InvWTFull. Data should be requested in increasing row order; a request
+ * for rows above the current window is served, but the tile-component is
+ * then reconstructed again from that row.
+ *
+ * <P>If a decoding area has been set only the columns of the
+ * tile-components that are needed to reconstruct it are computed.
+ *
+ * <P>This implementation does not support progressive data, the
+ * 'progressive' attribute of the returned 'DataBlk' is always false.
+ *
+ * @see InvWTFull
+ * @author http://bfo.com
+ * */
+public class InvWTStripe extends InverseWT {
+
+    /** The default minimum number of rows reconstructed at once at each
+     * level */
+    public final static int DEF_STRIPE_HEIGHT = 32;
+
+    /** The code-block source, i.e. the dequantizer */
+    private CBlkWTDataSrcDec src;
+
+    /** The minimum number of rows reconstructed at once at each level */
+    private int stripeh;
+
+    /** Number of decomposition levels in each component */
+    private int[] ndl;
+
+    /** The window of the reconstructed subband, for each component of the
+     * current tile */
+    private Window[] windows;
+
+    /** The first and last (exclusive) valid columns of the window of each
+     * component */
+    private int[] wx0, wx1;
+
+    /**
+     * Initializes this object with the given source of wavelet
+     * coefficients, reconstructing stripes of DEF_STRIPE_HEIGHT rows.
+     *
+     * @param src from where the wavelet coefficients should be obtained.
+     *
+     * @param decSpec The decoder specifications
+     * */
+    public InvWTStripe(CBlkWTDataSrcDec src, DecoderSpecs decSpec) {
+        this(src,decSpec,DEF_STRIPE_HEIGHT);
+    }
+
+    /**
+     * Initializes this object with the given source of wavelet coefficients
+     * and minimum stripe height.
+     *
+     * @param src from where the wavelet coefficients should be obtained.
+     *
+     * @param decSpec The decoder specifications
+     *
+     * @param stripeh The minimum number of rows to reconstruct at once at
+     * each level. Higher values reduce the overhead of the filter support at
+     * the stripe boundaries, lower values the memory used.
+     * */
+    public InvWTStripe(CBlkWTDataSrcDec src, DecoderSpecs decSpec,
+                       int stripeh) {
+        super(src,decSpec);
+        if(stripeh<1) {
+            throw new IllegalArgumentException("Stripe height must be "+
+                                               "positive");
+        }
+        this.src = src;
+        this.stripeh = stripeh;
+
+        int nc = src.getNumComps();
+        ndl = new int[nc];
+        windows = new Window[nc];
+        wx0 = new int[nc];
+        wx1 = new int[nc];
+    }
+
+    /**
+     * Returns the reversibility of the current subband. It computes
+     * iteratively the reversibility of the child subbands.
+     *
+     * @param subband The current subband.
+     *
+     * @return true if all the filters used to reconstruct the current
+     * subband are reversible
+     * */
+    private boolean isSubbandReversible(Subband subband) {
+        if(subband.isNode) {
+            return
+                isSubbandReversible(subband.getLL()) &&
+                isSubbandReversible(subband.getHL()) &&
+                isSubbandReversible(subband.getLH()) &&
+                isSubbandReversible(subband.getHH()) &&
+                ((SubbandSyn)subband).hFilter.isReversible() &&
+                ((SubbandSyn)subband).vFilter.isReversible();
+        } else {
+            // Leaf subband. Reversibility of data depends on source, so say
+            // it's true
+            return true;
+        }
+    }
+
+    /**
+     * Returns the reversibility of the wavelet transform for the specified
+     * component, in the specified tile.
+     *
+     * @param t The index of the tile.
+     *
+     * @param c The index of the component.
+     *
+     * @return true is the wavelet transform is reversible, false if not.
+     * */
+    public boolean isReversible(int t,int c) {
+        return isSubbandReversible(src.getSynSubbandTree(t,c));
+    }
+
+    /**
+     * Returns the number of bits, referred to as the "range bits",
+     * corresponding to the nominal range of the data in the specified
+     * component.
+     *
+     * @param c The index of the component.
+     *
+     * @return The number of bits corresponding to the nominal range of the
+     * data.
+     * */
+    public int getNomRangeBits(int c) {
+        return src.getNomRangeBits(c);
+    }
+
+    /**
+     * Returns the position of the fixed point in the specified
+     * component. This implementation assumes that the wavelet transform does
+     * not modify the fixed point.
+     *
+     * @param c The index of the component.
+     *
+     * @return The position of the fixed-point, which is the same as the
+     * number of fractional bits.
+     * */
+    public int getFixedPoint(int c) {
+        return src.getFixedPoint(c);
+    }
+
+    /**
+     * Returns a block of image data containing the specifed rectangular area,
+     * in the specified component, as a reference to the internal buffer. The
+     * rectangular area is specified by the 'ulx', 'uly', 'w' and 'h' members
+     * of the 'blk' argument, which are not modified.
+     *
+     * <p>The returned data is a reference to the window of reconstructed
+     * rows of the component, and can not be modified by the caller. It is
+     * only valid until the next request for this component. The 'offset' and
+     * 'scanw' of the returned data can be arbitrary. See the 'DataBlk'
+     * class.</p>
+     *
+     * @param blk Its coordinates and dimensions specify the area to return.
+     *
+     * @param c The index of the component from which to get the data.
+     *
+     * @return The requested DataBlk
+     *
+     * @see #getCompData
+     * */
+    public final DataBlk getInternCompData(DataBlk blk, int c) {
+        int tIdx = getTileIdx();
+        SubbandSyn root = src.getSynSubbandTree(tIdx,c);
+        int dtype = (root.getHorWFilter()==null) ? DataBlk.TYPE_INT :
+            root.getHorWFilter().getDataType();
+
+        if(windows[c]==null) {
+            // Columns to reconstruct in the tile-component
+            int x0 = 0;
+            int x1 = getTileCompWidth(tIdx,c);
+            if(area!=null) {
+                int d = maxImgRes-reslvl;
+                int rl = reslvl-maxImgRes+ndl[c];
+                int sx = getCompSubsX(c)<<d;
+                int ulx = mressrc.getResULX(c,rl);
+                x0 = Math.max((Math.max(area.x,0)+sx-1)/sx-ulx,0);
+                x1 = Math.min((Math.max(area.x+area.width,0)+sx-1)/sx-ulx,
+                              x1);
+            }
+            x0 = Math.min(x0,blk.ulx);
+            x1 = Math.max(x1,blk.ulx+blk.w);
+            windows[c] = createWindow(root,x0,x1,c,dtype);
+        } else if(blk.ulx<wx0[c] || blk.ulx+blk.w>wx1[c]) {
+            // Columns outside of the window, start again with a window
+            // including them
+            windows[c] = createWindow(root,Math.min(wx0[c],blk.ulx),
+                                      Math.max(wx1[c],blk.ulx+blk.w),c,
+                                      dtype);
+        }
+        Window win = windows[c];
+        win.fill(blk.uly,blk.uly+blk.h);
+
+        if(blk.getDataType()!=dtype) {
+            if(dtype==DataBlk.TYPE_INT) {
+                blk = new DataBlkInt(blk.ulx,blk.uly,blk.w,blk.h);
+            } else {
+                blk = new DataBlkFloat(blk.ulx,blk.uly,blk.w,blk.h);
+            }
+        }
+        // Set the reference to the window
+        blk.setData(win.data);
+        blk.offset = (blk.uly-win.y0)*win.w+blk.ulx-win.x0;
+        blk.scanw = win.w;
+        blk.progressive = false;
+        return blk;
+    }
+
+    /**
+     * Returns a block of image data containing the specifed rectangular area,
+     * in the specified component, as a copy. The rectangular area is
+     * specified by the 'ulx', 'uly', 'w' and 'h' members of the 'blk'
+     * argument.
+     *
+     * <P>If the data array in 'blk' is <tt>null</tt>, then a new one is
+     * created. If the data array is not <tt>null</tt> then it must be big
+     * enough to contain the requested area. The 'offset' of the returned
+     * data is 0, and the 'scanw' is the same as the block's width.
+     *
+     * @param blk Its coordinates and dimensions specify the area to
+     * return.
+     *
+     * @param c The index of the component from which to get the data.
+     *
+     * @return The requested DataBlk
+     *
+     * @see #getInternCompData
+     * */
+    public DataBlk getCompData(DataBlk blk, int c) {
+        Object dst_data = blk.getData();
+
+        // Ensure output buffer
+        switch (blk.getDataType()) {
+        case DataBlk.TYPE_INT:
+            if (dst_data == null || ((int[])dst_data).length < blk.w*blk.h) {
+                dst_data = new int[blk.w*blk.h];
+            }
+            break;
+        case DataBlk.TYPE_FLOAT:
+            if (dst_data == null ||
+                ((float[])dst_data).length < blk.w*blk.h) {
+                dst_data = new float[blk.w*blk.h];
+            }
+            break;
+        }
+
+        blk = getInternCompData(blk,c);
+
+        // Copy the data line by line
+        Object src_data = blk.getData();
+        for (int i=0; i<blk.h; i++) {
+            System.arraycopy(src_data,blk.offset+i*blk.scanw,
+                             dst_data,i*blk.w,blk.w);
+        }
+        blk.setData(dst_data);
+        blk.offset = 0;
+        blk.scanw = blk.w;
+        return blk;
+    }
+
+    /**
+     * Creates the window of the subband that is the reconstructed
+     * tile-component, and the windows of all the subbands it is
+     * reconstructed from.
+     *
+     * @param root The root of the subband tree.
+     *
+     * @param x0 The first column to reconstruct.
+     *
+     * @param x1 The last column to reconstruct, exclusive.
+     *
+     * @param c The index of the component.
+     *
+     * @param dtype The data type of the component.
+     *
+     * @return The window of the reconstructed subband.
+     * */
+    private Window createWindow(SubbandSyn root,int x0,int x1,int c,
+                                int dtype) {
+        SubbandSyn sb = root;
+        while(sb.isNode && sb.resLvl>reslvl-maxImgRes+ndl[c]) {
+            // Resolution level not reconstructed, the LL subband is the
+            // reconstructed image
+            sb = (SubbandSyn)sb.getLL();
+        }
+        wx0[c] = x0;
+        wx1[c] = x1;
+        return new Window(sb,x0,x1,c,dtype);
+    }
+
+    /**
+     * Returns the implementation type of this wavelet transform, WT_IMPL_LINE
+     * (line or stripe based transform). All components return the same.
+     *
+     * @param c The index of the component.
+     *
+     * @return WT_IMPL_LINE
+     *
+     * @see WaveletTransform#WT_IMPL_LINE
+     * */
+    public int getImplementationType(int c) {
+        return WaveletTransform.WT_IMPL_LINE;
+    }
+
+    /**
+     * Changes the current tile, given the new indexes. An
+     * IllegalArgumentException is thrown if the indexes do not correspond to
+     * a valid tile.
+     *
+     * @param x The horizontal index of the tile.
+     *
+     * @param y The vertical index of the new tile.
+     * */
+    public void setTile(int x,int y) {
+        super.setTile(x,y);
+        resetWindows();
+    }
+
+    /**
+     * Advances to the next tile, in standard scan-line order (by rows then
+     * columns). An 'NoNextElementException' is thrown if the current tile is
+     * the last one (i.e. there is no next tile).
+     * */
+    public void nextTile() {
+        super.nextTile();
+        resetWindows();
+    }
+
+    /**
+     * Discards the windows of the previous tile and reads the number of
+     * decomposition levels of the components of the new one.
+     * */
+    private void resetWindows() {
+        int tIdx = src.getTileIdx();
+        for(int c=windows.length-1; c>=0; c--) {
+            ndl[c] = src.getSynSubbandTree(tIdx,c).resLvl;
+            windows[c] = null;
+        }
+    }
+
+    /**
+     * A window of rows of a subband. All the rows of the window have the same
+     * columns, and are stored contiguously in the 'data' array with a scan
+     * width of 'w'. For a leaf subband the rows are read from the code-block
+     * source, for a node they are reconstructed from the windows of its four
+     * subbands.
+     * */
+    private class Window {
+
+        /** The subband */
+        final SubbandSyn sb;
+
+        /** The index of the component */
+        final int c;
+
+        /** The data type, DataBlk.TYPE_INT or DataBlk.TYPE_FLOAT */
+        final int dtype;
+
+        /** The first column of the window, relative to the subband */
+        final int x0;
+
+        /** The number of columns of the window */
+        final int w;
+
+        /** The first row of the window, relative to the subband */
+        int y0;
+
+        /** The last row of the window, exclusive */
+        int y1;
+
+        /** The rows of the window, as int[] or float[] */
+        Object data;
+
+        /** The windows of the subbands this node is reconstructed from,
+         * null for a leaf */
+        final Window ll, hl, lh, hh;
+
+        /** The extension of a stripe, on each side, so that the boundary
+         * extension does not affect it. Only used for nodes. */
+        final int my;
+
+        /** Work buffers for the low-pass and high-pass rows, and the
+         * vertical synthesis. Only used for nodes. */
+        Object lrows, hrows, out;
+
+        /** The code-block partition origin, relative to the subband. Only
+         * used for leaves. */
+        int ox, oy;
+
+        /** The first and last code-block columns intersecting the
+         * window. Only used for leaves. */
+        int n0, n1;
+
+        /** The block to read code-blocks into. Only used for leaves. */
+        DataBlk cblk;
+
+        /**
+         * Creates a window on the specified columns of a subband, and the
+         * windows of the subbands needed to reconstruct it.
+         *
+         * @param sb The subband.
+         *
+         * @param x0 The first column needed, relative to the subband.
+         *
+         * @param x1 The last column needed, exclusive.
+         *
+         * @param c The index of the component.
+         *
+         * @param dtype The data type of the component.
+         * */
+        Window(SubbandSyn sb,int x0,int x1,int c,int dtype) {
+            this.sb = sb;
+            this.c = c;
+            this.dtype = dtype;
+            x0 = Math.max(x0,0);
+            x1 = Math.min(x1,sb.w);
+            if(x1<x0) {
+                x1 = x0;
+            }
+
+            if(!sb.isNode) {
+                this.x0 = x0;
+                this.w = x1-x0;
+                my = 0;
+                ll = hl = lh = hh = null;
+                // Project code-block partition origin to subband, see
+                // ForwWTFull
+                int acb0x = src.getCbULX();
+                int acb0y = src.getCbULY();
+                switch (sb.sbandIdx) {
+                case Subband.WT_ORIENT_HL:
+                    acb0x = 0;
+                    break;
+                case Subband.WT_ORIENT_LH:
+                    acb0y = 0;
+                    break;
+                case Subband.WT_ORIENT_HH:
+                    acb0x = 0;
+                    acb0y = 0;
+                    break;
+                }
+                ox = sb.ulcx-acb0x;
+                oy = sb.ulcy-acb0y;
+                if(w>0) {
+                    n0 = (ox+x0)/sb.nomCBlkW-ox/sb.nomCBlkW;
+                    n1 = (ox+x1-1)/sb.nomCBlkW-ox/sb.nomCBlkW;
+                }
+                cblk = (dtype==DataBlk.TYPE_INT) ?
+                    (DataBlk)new DataBlkInt() : (DataBlk)new DataBlkFloat();
+                return;
+            }
+
+            // Extend the columns by the support of the filters, keeping the
+            // parity of the first sample, so that the needed columns are not
+            // affected by the boundary extension.
+            WaveletFilter hf = sb.getHorWFilter();
+            WaveletFilter vf = sb.getVerWFilter();
+            int mx = 2*Math.max(Math.max(hf.getSynLowNegSupport(),
+                                         hf.getSynLowPosSupport()),
+                                Math.max(hf.getSynHighNegSupport(),
+                                         hf.getSynHighPosSupport()));
+            my = 2*Math.max(Math.max(vf.getSynLowNegSupport(),
+                                     vf.getSynLowPosSupport()),
+                            Math.max(vf.getSynHighNegSupport(),
+                                     vf.getSynHighPosSupport()));
+            if(x1>x0) {
+                x0 = Math.max(x0-mx,0) & ~1;
+                x1 = Math.min(x1+mx,sb.w);
+            }
+            this.x0 = x0;
+            this.w = x1-x0;
+            int lw = (sb.ulcx%2==0) ? (w+1)/2 : w/2;
+            int kx = x0/2;
+            ll = new Window((SubbandSyn)sb.getLL(),kx,kx+lw,c,dtype);
+            hl = new Window((SubbandSyn)sb.getHL(),kx,kx+w-lw,c,dtype);
+            lh = new Window((SubbandSyn)sb.getLH(),kx,kx+lw,c,dtype);
+            hh = new Window((SubbandSyn)sb.getHH(),kx,kx+w-lw,c,dtype);
+        }
+
+        /**
+         * Makes sure that the specified rows are in the window. Rows above
+         * 'a' are discarded, and rows that are not yet in the window are
+         * read or reconstructed, at least 'stripeh' at a time.
+         *
+         * @param a The first row needed, relative to the subband.
+         *
+         * @param b The last row needed, exclusive.
+         * */
+        void fill(int a,int b) {
+            b = Math.min(b,sb.h);
+            a = Math.min(a,b);
+            if(a>=y0 && b<=y1) {
+                return;
+            }
+            // First row to compute, keeping the rows of the window from 'a'
+            int s = (a>=y0 && a<y1) ? y1 : a;
+            int e;
+            if(sb.isNode) {
+                e = Math.min(Math.max(b,s+stripeh),sb.h);
+            } else {
+                // Read whole rows of code-blocks
+                e = (oy+b-1)/sb.nomCBlkH*sb.nomCBlkH+sb.nomCBlkH-oy;
+                e = Math.min(e,sb.h);
+            }
+
+            // Discard the rows above 'a' and make room for the new ones
+            int keep = s-a;
+            int len = (e-a)*w;
+            if(data==null || length(data)<len) {
+                Object buf = alloc(len);
+                if(keep>0) {
+                    System.arraycopy(data,(a-y0)*w,buf,0,keep*w);
+                }
+                data = buf;
+            } else if(keep>0 && a>y0) {
+                System.arraycopy(data,(a-y0)*w,data,0,keep*w);
+            }
+            y0 = a;
+            y1 = s;
+            if(w>0) {
+                if(sb.isNode) {
+                    reconstruct(s,e);
+                } else {
+                    read(s,e);
+                }
+            }
+            y1 = e;
+        }
+
+        /**
+         * Reads rows of a leaf subband from the code-blocks of the source.
+         *
+         * @param s The first row to read, relative to the subband.
+         *
+         * @param e The last row to read, exclusive.
+         * */
+        private void read(int s,int e) {
+            int m0 = (oy+s)/sb.nomCBlkH-oy/sb.nomCBlkH;
+            int m1 = (oy+e-1)/sb.nomCBlkH-oy/sb.nomCBlkH;
+            int x1 = x0+w;
+            for(int m=m0; m<=m1; m++) {
+                src.setCodeBlockRange(c,sb,m,n0,m,n1);
+                for(int n=n0; n<=n1; n++) {
+                    cblk = src.getInternCodeBlock(c,m,n,sb,cblk);
+                    // Copy the part in the window, line by line
+                    int cx0 = Math.max(cblk.ulx-sb.ulx,x0);
+                    int cy0 = Math.max(cblk.uly-sb.uly,s);
+                    int cx1 = Math.min(cblk.ulx-sb.ulx+cblk.w,x1);
+                    int cy1 = Math.min(cblk.uly-sb.uly+cblk.h,e);
+                    for(int i=cy0; i<cy1; i++) {
+                        System.arraycopy(cblk.getData(),
+                                         cblk.offset+
+                                         (i-cblk.uly+sb.uly)*cblk.scanw+
+                                         cx0-cblk.ulx+sb.ulx,
+                                         data,(i-y0)*w+cx0-x0,cx1-cx0);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reconstructs rows of a node subband from its four subbands. The
+         * rows are synthesized from an area extended by the support of the
+         * filters, keeping the parity of the first row, and only the
+         * requested rows are kept.
+         *
+         * @param s The first row to reconstruct, relative to the subband.
+         *
+         * @param e The last row to reconstruct, exclusive.
+         * */
+        private void reconstruct(int s,int e) {
+            int ey0 = Math.max(s-my,0) & ~1;
+            int ey1 = Math.min(e+my,sb.h);
+            int h = ey1-ey0;
+            // Number of low-pass rows and first row in the subbands
+            int lh_ = (sb.ulcy%2==0) ? (h+1)/2 : h/2;
+            int ky = ey0/2;
+            // Number of low-pass columns and first column in the subbands
+            int lw = (sb.ulcx%2==0) ? (w+1)/2 : w/2;
+            int kx = x0/2;
+
+            ll.fill(ky,ky+lh_);
+            hl.fill(ky,ky+lh_);
+            lh.fill(ky,ky+h-lh_);
+            hh.fill(ky,ky+h-lh_);
+
+            if(lrows==null || length(lrows)<lh_*w ||
+               length(hrows)<(h-lh_)*w || length(out)<h*w) {
+                lrows = alloc(lh_*w);
+                hrows = alloc((h-lh_)*w);
+                out = alloc(h*w);
+            }
+
+            // Perform the horizontal reconstruction, of the low-pass and
+            // high-pass rows separately
+            for(int i=0; i<h; i++) {
+                Window lo = (i<lh_) ? ll : lh;
+                Window hi = (i<lh_) ? hl : hh;
+                int row = (i<lh_) ? i : i-lh_;
+                int loff = (ky+row-lo.y0)*lo.w+kx-lo.x0;
+                int hoff = (ky+row-hi.y0)*hi.w+kx-hi.x0;
+                if(sb.ulcx%2==0) { // start index is even => use LPF
+                    sb.hFilter.synthetize_lpf(lo.data,loff,lw,1,
+                                              hi.data,hoff,w-lw,1,
+                                              (i<lh_) ? lrows : hrows,
+                                              row*w,1);
+                } else { // start index is odd => use HPF
+                    sb.hFilter.synthetize_hpf(lo.data,loff,lw,1,
+                                              hi.data,hoff,w-lw,1,
+                                              (i<lh_) ? lrows : hrows,
+                                              row*w,1);
+                }
+            }
+
+            // Perform the vertical reconstruction
+            for(int j=0; j<w; j++) {
+                if(sb.ulcy%2==0) { // start index is even => use LPF
+                    sb.vFilter.synthetize_lpf(lrows,j,lh_,w,hrows,j,h-lh_,w,
+                                              out,j,w);
+                } else { // start index is odd => use HPF
+                    sb.vFilter.synthetize_hpf(lrows,j,lh_,w,hrows,j,h-lh_,w,
+                                              out,j,w);
+                }
+            }
+
+            // Keep the requested rows
+            System.arraycopy(out,(s-ey0)*w,data,(s-y0)*w,(e-s)*w);
+        }
+
+        /**
+         * Allocates an array of the data type of the window.
+         *
+         * @param len The length of the array.
+         *
+         * @return A new int[] or float[] array.
+         * */
+        private Object alloc(int len) {
+            return (dtype==DataBlk.TYPE_INT) ?
+                (Object)new int[len] : (Object)new float[len];
+        }
+
+        /**
+         * Returns the length of an array of the data type of the window.
+         *
+         * @param o An int[] or float[] array.
+         *
+         * @return The length of the array.
+         * */
+        private int length(Object o) {
+            return (dtype==DataBlk.TYPE_INT) ?
+                ((int[])o).length : ((float[])o).length;
+        }
+    }
+}
@@ -49,6 +49,8 @@ package jj2000.j2k.wavelet.synthesis;
 
 import jj2000.j2k.decoder.DecoderSpecs;
 import jj2000.j2k.image.BlkImgDataSrc;
+import jj2000.j2k.util.ParallelRange;
+import jj2000.j2k.wavelet.WaveletTransform;
 
 /**
  * This abstract class extends the WaveletTransform one with the specifics of
@@ -107,4 +109,68 @@ public abstract class InverseWT extends InvWTAdapter
         // full page wavelet transform
         return new InvWTFull(src,decSpec);
     }
+
+    /**
+     * Creates an InverseWT object of the specified implementation type, that
+     * works on the data type of the source.
+     *
+     * <P>The full-page implementation (WT_IMPL_FULL) reconstructs each
+     * tile-component in a single buffer, while the line based one
+     * (WT_IMPL_LINE) reconstructs it in stripes of rows, using memory
+     * proportional to the width of the tile-component only. The latter
+     * should be used to decode large tiles, requesting the data from top to
+     * bottom.
+     *
+     * @param src The source of data for the inverse wavelet
+     * transform.
+     *
+     * @param decSpec The decoder specifications
+     *
+     * @param impl The implementation type, WT_IMPL_FULL or WT_IMPL_LINE.
+     *
+     * @see WaveletTransform#WT_IMPL_FULL
+     *
+     * @see WaveletTransform#WT_IMPL_LINE
+     * */
+    public static InverseWT createInstance(CBlkWTDataSrcDec src,
+                                           DecoderSpecs decSpec,int impl) {
+        switch (impl) {
+        case WaveletTransform.WT_IMPL_FULL:
+            return new InvWTFull(src,decSpec);
+        case WaveletTransform.WT_IMPL_LINE:
+            return new InvWTStripe(src,decSpec);
+        default:
+            throw new IllegalArgumentException("Unsupported inverse wavelet "+
+                                               "transform implementation: "+
+                                               impl);
+        }
+    }
+
+    /**
+     * Creates an InverseWT object of the specified implementation type, as
+     * {@link #createInstance(CBlkWTDataSrcDec,DecoderSpecs,int)}. The passes
+     * of each decomposition level of the full-page implementation are run in
+     * parallel, while the line based one does not use 'parallel'.
+     *
+     * @param src The source of data for the inverse wavelet
+     * transform.
+     *
+     * @param decSpec The decoder specifications
+     *
+     * @param impl The implementation type, WT_IMPL_FULL or WT_IMPL_LINE.
+     *
+     * @param parallel How to split the passes of the transform into bands
+     * run in parallel, or null to run them on the calling thread.
+     *
+     * @see InvWTFull#setParallel
+     * */
+    public static InverseWT createInstance(CBlkWTDataSrcDec src,
+                                           DecoderSpecs decSpec,int impl,
+                                           ParallelRange parallel) {
+        InverseWT wt = createInstance(src,decSpec,impl);
+        if (wt instanceof InvWTFull) {
+            ((InvWTFull)wt).setParallel(parallel);
+        }
+        return wt;
+    }
 }
@@ -409,6 +409,299 @@ public class SynWTFilterFloatLift9x7 extends SynWTFilterFloat {
             outSig[ik] -= 2*ALPHA*outSig[ik-outStep];
         }
     }
+
+    /**
+     * An implementation of the synthetize_lpf_cols() method that works on
+     * float data, for the inverse 9x7 wavelet transform using the lifting
+     * scheme. It performs the same lifting steps as synthetize_lpf(), each
+     * one across all the signals before moving on to the next sample.
+     *
+     * @see SynWTFilterFloat#synthetize_lpf_cols
+     * */
+    public
+        void synthetize_lpf_cols(float[] lowSig, int lowOff, int lowLen,
+                                 int lowStep, float[] highSig, int highOff,
+                                 int highLen, int highStep,
+                                 float[] outSig, int outOff, int outStep,
+                                 int n) {
+
+        int i, j;
+        int outLen = lowLen + highLen; //Length of the output signal
+        int iStep = 2*outStep; //Upsampling in outSig
+        int ik; //Indexing outSig
+        int lk; //Indexing lowSig
+        int hk; //Indexing highSig
+
+        // Generate intermediate low frequency subband
+
+        //Initialize counters
+        lk = lowOff;
+        hk = highOff;
+        ik = outOff;
+
+        //Handle tail boundary effect. Use symmetric extension
+        if(outLen>1) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = lowSig[lk+j]/KL - 2*DELTA*highSig[hk+j]/KH;
+            }
+        }
+        else {
+            System.arraycopy(lowSig, lk, outSig, ik, n);
+        }
+
+        lk += lowStep;
+        hk += highStep;
+        ik += iStep;
+
+        //Apply lifting step to each "inner" sample
+        for(i=2; i<outLen-1; i+=2, ik+=iStep, lk+=lowStep, hk+=highStep) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = lowSig[lk+j]/KL -
+                    DELTA*(highSig[hk-highStep+j] + highSig[hk+j])/KH;
+            }
+        }
+
+        //Handle head boundary effect if input signal has odd length
+        if(outLen%2 == 1 && outLen>2) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = lowSig[lk+j]/KL -
+                    2*DELTA*highSig[hk-highStep+j]/KH;
+            }
+        }
+
+        // Generate intermediate high frequency subband
+
+        //Initialize counters
+        hk = highOff;
+        ik = outOff + outStep;
+
+        //Apply lifting step to each "inner" sample
+        for(i = 1; i<outLen-1; i+=2, ik+=iStep, hk+=highStep) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = highSig[hk+j]/KH -
+                    GAMMA*(outSig[ik-outStep+j] + outSig[ik+outStep+j]);
+            }
+        }
+
+        //Handle head boundary effect if output signal has even length
+        if(outLen % 2 == 0) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = highSig[hk+j]/KH - 2*GAMMA*outSig[ik-outStep+j];
+            }
+        }
+
+        // Generate even samples (inverse low-pass filter)
+
+        //Initialize counters
+        ik = outOff;
+
+        //Handle tail boundary effect
+        //If access the overlap then perform the lifting step.
+        if(outLen>1) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] -= 2*BETA*outSig[ik+outStep+j];
+            }
+        }
+        ik += iStep;
+
+        //Apply lifting step to each "inner" sample
+        for(i=2; i<outLen-1; i+=2, ik+=iStep) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] -=
+                    BETA*(outSig[ik-outStep+j] + outSig[ik+outStep+j]);
+            }
+        }
+
+        //Handle head boundary effect if input signal has odd length
+        if(outLen%2 == 1 && outLen>2) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] -= 2*BETA*outSig[ik-outStep+j];
+            }
+        }
+
+        // Generate odd samples (inverse high pass-filter)
+
+        //Initialize counters
+        ik = outOff + outStep;
+
+        //Apply first lifting step to each "inner" sample
+        for(i=1; i<outLen-1; i+=2, ik+=iStep) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] -=
+                    ALPHA*(outSig[ik-outStep+j] + outSig[ik+outStep+j]);
+            }
+        }
+
+        //Handle head boundary effect if input signal has even length
+        if(outLen%2 == 0) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] -= 2*ALPHA*outSig[ik-outStep+j];
+            }
+        }
+    }
+
+    /**
+     * An implementation of the synthetize_hpf_cols() method that works on
+     * float data, for the inverse 9x7 wavelet transform using the lifting
+     * scheme. It performs the same lifting steps as synthetize_hpf(), each
+     * one across all the signals before moving on to the next sample. As
+     * with synthetize_hpf(), the input signals are modified.
+     *
+     * @see SynWTFilterFloat#synthetize_hpf_cols
+     * */
+    public
+        void synthetize_hpf_cols(float[] lowSig, int lowOff, int lowLen,
+                                 int lowStep, float[] highSig, int highOff,
+                                 int highLen, int highStep,
+                                 float[] outSig, int outOff, int outStep,
+                                 int n) {
+
+        int i, j;
+        int outLen = lowLen + highLen; //Length of the output signal
+        int iStep = 2*outStep; //Upsampling in outSig
+        int ik; //Indexing outSig
+        int lk; //Indexing lowSig
+        int hk; //Indexing highSig
+
+        // Initialize counters
+        lk = lowOff;
+        hk = highOff;
+
+        if(outLen!=1) {
+            int outLen2 = outLen>>1;
+            // "Inverse normalize" each sample
+            for(i=0; i<outLen2; i++) {
+                for(j = 0; j < n; j++) {
+                    lowSig[lk+j] /= KL;
+                    highSig[hk+j] /= KH;
+                }
+                lk += lowStep;
+                hk += highStep;
+            }
+            // "Inverse normalise" last high pass coefficient
+            if(outLen%2==1) {
+                for(j = 0; j < n; j++) {
+                    highSig[hk+j] /= KH;
+                }
+            }
+        } else {
+            // Normalize for Nyquist gain
+            for(j = 0; j < n; j++) {
+                highSig[highOff+j] /= 2;
+            }
+        }
+
+        // Generate intermediate low frequency subband
+
+        //Initialize counters
+        lk = lowOff;
+        hk = highOff;
+        ik = outOff + outStep;
+
+        //Apply lifting step to each "inner" sample
+        for(i=1; i<outLen-1; i+=2 ) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = lowSig[lk+j] -
+                    DELTA*(highSig[hk+j] + highSig[hk+highStep+j]);
+            }
+            ik += iStep;
+            lk += lowStep;
+            hk += highStep;
+        }
+
+        if(outLen%2==0 && outLen>1) {
+            //Use symmetric extension
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = lowSig[lk+j] - 2*DELTA*highSig[hk+j];
+            }
+        }
+
+        // Generate intermediate high frequency subband
+
+        //Initialize counters
+        hk = highOff;
+        ik = outOff;
+
+        if(outLen>1) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = highSig[hk+j] - 2*GAMMA*outSig[ik+outStep+j];
+            }
+        } else {
+            System.arraycopy(highSig, hk, outSig, ik, n);
+        }
+
+        ik += iStep;
+        hk += highStep;
+
+        //Apply lifting step to each "inner" sample
+        for(i=2; i<outLen-1; i+=2 ) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = highSig[hk+j] -
+                    GAMMA*(outSig[ik-outStep+j] + outSig[ik+outStep+j]);
+            }
+            ik += iStep;
+            hk += highStep;
+        }
+
+        //Handle head boundary effect if output signal has even length
+        if(outLen%2==1 && outLen>1) {
+            //Use symmetric extension
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = highSig[hk+j] - 2*GAMMA*outSig[ik-outStep+j];
+            }
+        }
+
+        // Generate even samples (inverse low-pass filter)
+
+        //Initialize counters
+        ik = outOff + outStep;
+
+        //Apply lifting step to each "inner" sample
+        for(i=1; i<outLen-1; i+=2 ) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] -=
+                    BETA*(outSig[ik-outStep+j] + outSig[ik+outStep+j]);
+            }
+            ik += iStep;
+        }
+
+        if(outLen%2==0 && outLen>1) {
+            // symmetric extension.
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] -= 2*BETA*outSig[ik-outStep+j];
+            }
+        }
+
+        // Generate odd samples (inverse high pass-filter)
+
+        //Initialize counters
+        ik = outOff;
+
+        if(outLen>1) {
+            // symmetric extension.
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] -= 2*ALPHA*outSig[ik+outStep+j];
+            }
+        }
+        ik += iStep;
+
+        //Apply first lifting step to each "inner" sample
+        for(i=2; i<outLen-1 ; i+=2) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] -=
+                    ALPHA*(outSig[ik-outStep+j] + outSig[ik+outStep+j]);
+            }
+            ik += iStep;
+        }
+
+        //Handle head boundary effect if input signal has even length
+        if((outLen%2==1) && (outLen>1)) {
+            //Use symmetric extension
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] -= 2*ALPHA*outSig[ik-outStep+j];
+            }
+        }
+    }
     
     /**
      * Returns the negative support of the low-pass analysis filter. That is
@@ -277,6 +277,119 @@ public abstract class SynWTFilterInt extends SynWTFilter {
                    (int[])outSig, outOff, outStep);
         }
 
+    /**
+     * Reconstructs "n" adjacent signals with the synthetize_lpf()
+     * method. Signal "j" starts at index "j" past each offset, so when the
+     * steps are the scanline width of an image the signals are "n" adjacent
+     * columns, and all of them can be filtered while going along the rows.
+     *
+     * <P>This implementation calls synthetize_lpf() for each signal in
+     * turn. Lifting based filters override it to work across the signals in
+     * their innermost loop. In all cases the result is identical to that of
+     * synthetize_lpf().
+     *
+     * @param lowSig This is the array that contains the low-pass
+     * input signals.
+     *
+     * @param lowOff This is the index in lowSig of the first sample of the
+     * first signal to filter.
+     *
+     * @param lowLen This is the number of samples in each low-pass
+     * input signal.
+     *
+     * @param lowStep This is the step, or interleave factor, of the
+     * low-pass input signal samples in the lowSig array.
+     *
+     * @param highSig This is the array that contains the high-pass
+     * input signals.
+     *
+     * @param highOff This is the index in highSig of the first sample of
+     * the first signal to filter.
+     *
+     * @param highLen This is the number of samples in each high-pass
+     * input signal.
+     *
+     * @param highStep This is the step, or interleave factor, of the
+     * high-pass input signal samples in the highSig array.
+     *
+     * @param outSig This is the array where the output signals are
+     * placed.
+     *
+     * @param outOff This is the index in outSig of the element where
+     * to put the first output sample of the first signal.
+     *
+     * @param outStep This is the step, or interleave factor, of the
+     * output samples in the outSig array.
+     *
+     * @param n The number of adjacent signals to filter.
+     *
+     * @see #synthetize_lpf(int[],int,int,int,int[],int,int,int,int[],int,int)
+     * */
+    public void synthetize_lpf_cols(int[] lowSig, int lowOff, int lowLen,
+                                    int lowStep, int[] highSig, int highOff,
+                                    int highLen, int highStep,
+                                    int[] outSig, int outOff, int outStep,
+                                    int n) {
+        for(int j=0; j<n; j++) {
+            synthetize_lpf(lowSig, lowOff+j, lowLen, lowStep,
+                           highSig, highOff+j, highLen, highStep,
+                           outSig, outOff+j, outStep);
+        }
+    }
+
+    /**
+     * Reconstructs "n" adjacent signals with the synthetize_hpf()
+     * method. See synthetize_lpf_cols() for how the signals are laid out.
+     *
+     * @param lowSig This is the array that contains the low-pass
+     * input signals.
+     *
+     * @param lowOff This is the index in lowSig of the first sample of the
+     * first signal to filter.
+     *
+     * @param lowLen This is the number of samples in each low-pass
+     * input signal.
+     *
+     * @param lowStep This is the step, or interleave factor, of the
+     * low-pass input signal samples in the lowSig array.
+     *
+     * @param highSig This is the array that contains the high-pass
+     * input signals.
+     *
+     * @param highOff This is the index in highSig of the first sample of
+     * the first signal to filter.
+     *
+     * @param highLen This is the number of samples in each high-pass
+     * input signal.
+     *
+     * @param highStep This is the step, or interleave factor, of the
+     * high-pass input signal samples in the highSig array.
+     *
+     * @param outSig This is the array where the output signals are
+     * placed.
+     *
+     * @param outOff This is the index in outSig of the element where
+     * to put the first output sample of the first signal.
+     *
+     * @param outStep This is the step, or interleave factor, of the
+     * output samples in the outSig array.
+     *
+     * @param n The number of adjacent signals to filter.
+     *
+     * @see #synthetize_hpf(int[],int,int,int,int[],int,int,int,int[],int,int)
+     * */
+    public void synthetize_hpf_cols(int[] lowSig, int lowOff, int lowLen,
+                                    int lowStep, int[] highSig, int highOff,
+                                    int highLen, int highStep,
+                                    int[] outSig, int outOff, int outStep,
+                                    int n) {
+        for(int j=0; j<n; j++) {
+            synthetize_hpf(lowSig, lowOff+j, lowLen, lowStep,
+                           highSig, highOff+j, highLen, highStep,
+                           outSig, outOff+j, outStep);
+        }
+    }
+
     /**
      * Returns the type of data on which this filter works, as defined
      * in the DataBlk interface, which is always TYPE_INT for this
@@ -292,6 +292,185 @@ public class SynWTFilterIntLift5x3 extends SynWTFilterInt {
         }
     }
 
+    /**
+     * An implementation of the synthetize_lpf_cols() method that works on
+     * int data, for the inverse 5x3 wavelet transform using the lifting
+     * scheme. It performs the same lifting steps as synthetize_lpf(), each
+     * one across all the signals before moving on to the next sample.
+     *
+     * @see SynWTFilterInt#synthetize_lpf_cols
+     * */
+    public
+        void synthetize_lpf_cols(int[] lowSig, int lowOff, int lowLen,
+                                 int lowStep, int[] highSig, int highOff,
+                                 int highLen, int highStep,
+                                 int[] outSig, int outOff, int outStep,
+                                 int n) {
+
+        int i, j;
+        int outLen = lowLen + highLen; //Length of the output signal
+        int iStep = 2*outStep; //Upsampling in outSig
+        int ik; //Indexing outSig
+        int lk; //Indexing lowSig
+        int hk; //Indexing highSig
+
+        /*
+         *Generate even samples (inverse low-pass filter)
+         */
+
+        //Initialize counters
+        lk = lowOff;
+        hk = highOff;
+        ik = outOff;
+
+        //Handle tail boundary effect. Use symmetric extension.
+        if(outLen>1) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = lowSig[lk+j] - ((highSig[hk+j]+1)>>1);
+            }
+        }
+        else {
+            System.arraycopy(lowSig, lk, outSig, ik, n);
+        }
+
+        lk += lowStep;
+        hk += highStep;
+        ik += iStep;
+
+        //Apply lifting step to each "inner" sample.
+        for(i = 2; i < outLen-1; i += 2) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = lowSig[lk+j] -
+                    ((highSig[hk-highStep+j] + highSig[hk+j] + 2)>>2);
+            }
+            lk += lowStep;
+            hk += highStep;
+            ik += iStep;
+        }
+
+        //Handle head boundary effect if input signal has odd length.
+        if((outLen % 2 == 1)&&(outLen>2)) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = lowSig[lk+j] -
+                    ((2*highSig[hk-highStep+j]+2)>>2);
+            }
+        }
+
+        /*
+         *Generate odd samples (inverse high pass-filter)
+         */
+
+        //Initialize counters
+        hk = highOff;
+        ik = outOff + outStep;
+
+        //Apply first lifting step to each "inner" sample.
+        for(i = 1; i < outLen-1; i += 2) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = highSig[hk+j] +
+                    ((outSig[ik-outStep+j] + outSig[ik+outStep+j]) >> 1);
+            }
+            hk += highStep;
+            ik += iStep;
+        }
+
+        //Handle head boundary effect if input signal has even length.
+        if( outLen%2==0 && outLen>1) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = highSig[hk+j] + outSig[ik-outStep+j];
+            }
+        }
+    }
+
+    /**
+     * An implementation of the synthetize_hpf_cols() method that works on
+     * int data, for the inverse 5x3 wavelet transform using the lifting
+     * scheme. It performs the same lifting steps as synthetize_hpf(), each
+     * one across all the signals before moving on to the next sample.
+     *
+     * @see SynWTFilterInt#synthetize_hpf_cols
+     * */
+    public
+        void synthetize_hpf_cols(int[] lowSig, int lowOff, int lowLen,
+                                 int lowStep, int[] highSig, int highOff,
+                                 int highLen, int highStep,
+                                 int[] outSig, int outOff, int outStep,
+                                 int n) {
+
+        int i, j;
+        int outLen = lowLen + highLen; //Length of the output signal
+        int iStep = 2*outStep; //Upsampling in outSig
+        int ik; //Indexing outSig
+        int lk; //Indexing lowSig
+        int hk; //Indexing highSig
+
+        /*
+         *Generate even samples (inverse low-pass filter)
+         */
+
+        //Initialize counters
+        lk = lowOff;
+        hk = highOff;
+        ik = outOff + outStep;
+
+        //Apply lifting step to each "inner" sample.
+        for(i = 1; i<outLen-1; i += 2) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = lowSig[lk+j] -
+                    ((highSig[hk+j] + highSig[hk+highStep+j] + 2)>>2);
+            }
+            lk += lowStep;
+            hk += highStep;
+            ik += iStep;
+        }
+
+        if ( (outLen>1) && (outLen%2==0) ) {
+            // symmetric extension.
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = lowSig[lk+j] - ((2*highSig[hk+j]+2)>>2);
+            }
+        }
+        /*
+         *Generate odd samples (inverse high pass-filter)
+         */
+
+        //Initialize counters
+        hk = highOff;
+        ik = outOff;
+
+        if ( outLen>1 ) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = highSig[hk+j] + outSig[ik+outStep+j];
+            }
+        }
+        else {
+	    // Normalize for Nyquist gain
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = highSig[hk+j]>>1;
+            }
+        }
+
+        hk += highStep;
+        ik += iStep;
+
+        //Apply first lifting step to each "inner" sample.
+        for(i = 2; i < outLen-1; i += 2) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = highSig[hk+j] +
+                    ((outSig[ik-outStep+j] + outSig[ik+outStep+j]) >> 1);
+            }
+            hk += highStep;
+            ik += iStep;
+        }
+
+        //Handle head boundary effect if input signal has odd length.
+        if(outLen%2==1 && outLen>1) {
+            for(j = 0; j < n; j++) {
+                outSig[ik+j] = highSig[hk+j] + outSig[ik-outStep+j];
+            }
+        }
+    }
+
     /**
      * Returns the negative support of the low-pass analysis filter. That is
      * the number of taps of the filter in the negative direction.
@@ -6,16 +6,21 @@ import java.awt.color.ColorSpace;
 public class TestReader {
     public static void main(String[] args) throws Exception {
         if (args.length == 0) {
-            System.err.println("Usage: java -jar test.jar file.jpx [file.jpx...]");
+            System.err.println("Usage: java -jar test.jar [-mapped] file.jpx [file.jpx...]");
             System.exit(0);
         }
+        boolean mapped = false;
         for (String s : args) {
+            if (s.equals("-mapped")) {
+                mapped = true;
+                continue;
+            }
             File infile = new File(s);
             if (s.toLowerCase().endsWith(".jp2") || s.toLowerCase().endsWith(".jpx")) {
                 s = s.substring(0, s.length() - 4);
             }
             File outfile = new File(s + ".pnm");
-            RandomAccessIO in = new BEBufferedRandomAccessFile(infile, "r", 8192);
+            RandomAccessIO in = mapped ? new MappedRandomAccessIO(infile) : new BEBufferedRandomAccessFile(infile, "r", 8192);
             final int[] enumcs = new int[1];
             J2KFile file = new J2KFile().read(in);
             file.write(javax.xml.stream.XMLOutputFactory.newInstance().createXMLStreamWriter(System.out)).flush();
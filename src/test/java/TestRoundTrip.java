@@ -0,0 +1,145 @@
+import jj2000.j2k.io.*;
+import com.github.jpeg2000.*;
+import java.io.*;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Encodes generated images and decodes them again in different ways,
+ * checking that the output does not depend on how it was produced: the
+ * codestream must be the same whatever the number of encoding threads, and
+ * the decoded pixels the same whatever the number of decoding threads, with
+ * or without stripes, and a source region must give the same pixels as
+ * the same area cropped from the whole image. Lossless images must also
+ * decode to the same pixels with or without TLM and PLT marker segments.
+ * Exits with status 1 if any check fails.
+ */
+public class TestRoundTrip {
+
+    private static int tests, fails;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int[][] images = {
+            // width, height, type, tile size, compression ratio, reversible
+            { 700, 530, BufferedImage.TYPE_3BYTE_BGR, 128, 1, 1 },
+            { 700, 530, BufferedImage.TYPE_3BYTE_BGR, 1024, 8, 0 },
+            { 600, 400, BufferedImage.TYPE_BYTE_GRAY, 1024, 1, 1 },
+            { 600, 400, BufferedImage.TYPE_BYTE_GRAY, 256, 8, 1 },
+            { 321, 123, BufferedImage.TYPE_3BYTE_BGR, 64, 10, 0 },
+        };
+        Rectangle region = new Rectangle(37, 21, 251, 97);
+        for (int[] im : images) {
+            String name = im[0]+"x"+im[1]+" type="+im[2]+" tile="+im[3]+" ratio="+im[4]+" rev="+im[5];
+            BufferedImage img = createImage(im[0], im[1], im[2]);
+            byte[][] streams = new byte[4][];
+            for (int markers=0;markers<4;markers++) {
+                boolean tlm = (markers & 1) != 0, plt = (markers & 2) != 0;
+                byte[] single = encode(img, im[3], im[4], im[5] == 1, 1, tlm, plt);
+                byte[] multi = encode(img, im[3], im[4], im[5] == 1, threads, tlm, plt);
+                check(name+" tlm="+tlm+" plt="+plt+" encode threads=1/"+threads, single, multi);
+                streams[markers] = single;
+            }
+            int scanline = im[0] * (im[2] == BufferedImage.TYPE_BYTE_GRAY ? 1 : 3);
+            byte[] lossless = null;
+            for (int markers=0;markers<4;markers++) {
+                byte[] ref = decode(streams[markers], 1, 0, null);
+                byte[] crop = crop(ref, scanline, region, scanline / im[0]);
+                if (im[4] == 1) {
+                    // With a target rate the markers take some of the bytes of the packets
+                    if (lossless == null) {
+                        lossless = ref;
+                    }
+                    check(name+" tlm="+((markers & 1) != 0)+" plt="+((markers & 2) != 0)+" lossless", lossless, ref);
+                }
+                for (int t : new int[] { 1, threads }) {
+                    for (int stripe : new int[] { 0, 16 }) {
+                        String desc = name+" tlm="+((markers & 1) != 0)+" plt="+((markers & 2) != 0)+" threads="+t+" stripe="+stripe;
+                        check(desc+" whole", ref, decode(streams[markers], t, stripe, null));
+                        check(desc+" region", crop, decode(streams[markers], t, stripe, region));
+                    }
+                }
+            }
+        }
+        System.out.println("tests="+tests+" fails="+fails);
+        if (fails > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Create an image with smooth gradients and some noise, so that every
+     * coding pass has something to code
+     */
+    static BufferedImage createImage(int w, int h, int type) {
+        BufferedImage img = new BufferedImage(w, h, type);
+        WritableRaster raster = img.getRaster();
+        Random random = new Random(42);
+        for (int y=0;y<h;y++) {
+            for (int x=0;x<w;x++) {
+                for (int b=0;b<raster.getNumBands();b++) {
+                    int v = (int)(128 + 100 * Math.sin(x * 0.02 * (b + 1)) * Math.cos(y * 0.015)) + random.nextInt(20);
+                    raster.setSample(x, y, b, Math.max(0, Math.min(255, v)));
+                }
+            }
+        }
+        return img;
+    }
+
+    static byte[] encode(BufferedImage img, int tilesize, float ratio, boolean reversible, int threads, boolean tlm, boolean plt) throws IOException {
+        int numtiles = ((img.getWidth() + tilesize - 1) / tilesize) * ((img.getHeight() + tilesize - 1) / tilesize);
+        SimpleJ2KWriteParam param = new SimpleJ2KWriteParam(img.getRaster().getNumBands(), numtiles);
+        param.setProgressionName("res");
+        param.setTLM(tlm);
+        param.setPLT(plt);
+        J2KWriter writer = new J2KWriter();
+        writer.setParams(param);
+        writer.setCompressionRatio(ratio, reversible);
+        writer.setThreads(threads);
+        writer.setSource(img, tilesize);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(out);
+        return out.toByteArray();
+    }
+
+    static byte[] decode(byte[] data, int threads, int stripe, Rectangle region) throws IOException {
+        J2KFile file = new J2KFile().read(new ByteBufferRandomAccessIO(ByteBuffer.wrap(data)));
+        J2KReader reader = new J2KReader(file);
+        reader.setThreads(threads);
+        if (stripe > 0) {
+            reader.setStripeHeight(stripe);
+        }
+        if (region != null) {
+            reader.setSourceRegion(region);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int l;
+        while ((l=reader.read(buf)) > 0) {
+            out.write(buf, 0, l);
+        }
+        reader.close();
+        return out.toByteArray();
+    }
+
+    static byte[] crop(byte[] data, int scanline, Rectangle r, int numc) {
+        byte[] out = new byte[r.width * r.height * numc];
+        for (int y=0;y<r.height;y++) {
+            System.arraycopy(data, (r.y + y) * scanline + r.x * numc, out, y * r.width * numc, r.width * numc);
+        }
+        return out;
+    }
+
+    static void check(String desc, byte[] expected, byte[] got) {
+        tests++;
+        if (!Arrays.equals(expected, got)) {
+            fails++;
+            System.out.println("FAIL "+desc+": "+got.length+" bytes, expected "+expected.length);
+        }
+    }
+
+}